@@ -0,0 +1,567 @@
+package de.sloc.dataformat.processor;
+
+import java.util.List;
+
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+
+import de.sloc.dataformat.PDUElement;
+
+/**
+ * Writes the source of a GeneratedPDUCodec for a {@link PDUClassModel}. The
+ * generated code follows the same decode and encode rules as CompiledCodec,
+ * with element order, lengths and length references written out as straight
+ * line code.
+ */
+class CodecSourceWriter
+{
+    protected static final String PACKAGE = "de.sloc.dataformat.";
+
+    protected final PDUClassModel model;
+    protected final List<ElementModel> elementModels;
+    protected final String pduClassName;
+
+    protected final StringBuilder source = new StringBuilder();
+    protected int indent;
+
+    protected CodecSourceWriter(PDUClassModel model)
+    {
+        this.model = model;
+        this.elementModels = model.elementModels;
+        this.pduClassName = model.pduClass.getQualifiedName().toString();
+    }
+
+    protected String write()
+    {
+        String packageName = model.getPackageName();
+        if (!packageName.isEmpty())
+        {
+            line("package " + packageName + ";");
+            line("");
+        }
+
+        line("/**");
+        line(" * Generated from " + pduClassName + " by " + PDUCodecProcessor.class.getName() + ", do not edit");
+        line(" */");
+        line("@SuppressWarnings({ \"unchecked\", \"rawtypes\" })");
+        open("public final class " + model.getCodecSimpleName() + " implements " + PACKAGE + "GeneratedPDUCodec<" + pduClassName + ">");
+
+        for (int i = 0; i < elementModels.size(); i++)
+        {
+            String[] args = elementModels.get(i).args;
+            if (args.length > 0)
+            {
+                line("private static final String[] ARGS_" + i + " = new String[] { " + literals(args) + " };");
+            }
+        }
+        line("");
+
+        line("@Override");
+        open("public Class<" + pduClassName + "> getPDUClass()");
+        line("return " + pduClassName + ".class;");
+        close();
+        line("");
+
+        writeDecode();
+        line("");
+        writeEncode();
+
+        close();
+        return source.toString();
+    }
+
+    protected void writeDecode()
+    {
+        line("@Override");
+        open("public " + pduClassName + " decode(byte[] data, int offset, int end, int[] consumed) throws " + PACKAGE + "PDUException");
+        open("try");
+
+        if (model.subtypeIndex != -1)
+        {
+            line("Class<? extends " + pduClassName + "> instantiableClass = " + PACKAGE + "GeneratedCodecSupport.resolveInstantiableClass(" + pduClassName
+                    + ".class, data, offset);");
+            open("if (instantiableClass != " + pduClassName + ".class)");
+            line("return " + PACKAGE + "GeneratedCodecSupport.decode(data, instantiableClass, offset, end, consumed);");
+            close();
+        }
+
+        if (model.isAbstract())
+        {
+            line("throw new IllegalStateException(\"no subtype found for abstract class \" + " + pduClassName + ".class);");
+        }
+        else
+        {
+            int lastRestElement = lastRestElement();
+
+            line(pduClassName + " pdu = new " + pduClassName + "();");
+            line("int start = offset;");
+            if (lastRestElement != -1)
+            {
+                line("int restLength = 0;");
+            }
+            line("int length;");
+
+            for (int i = 0; i < elementModels.size(); i++)
+            {
+                writeDecodeElement(i, elementModels.get(i), i < lastRestElement);
+            }
+
+            line("");
+            open("if (consumed != null)");
+            line("consumed[0] = offset - start;");
+            close();
+            line("return pdu;");
+        }
+
+        close();
+        open("catch (Exception e)");
+        line("throw " + PACKAGE + "GeneratedCodecSupport.decodeFailed(" + pduClassName + ".class, e);");
+        close();
+        close();
+    }
+
+    /**
+     * @return index of the last element whose length is the rest length, -1
+     *         if there is none
+     */
+    protected int lastRestElement()
+    {
+        int last = -1;
+        for (int i = 0; i < elementModels.size(); i++)
+        {
+            if (elementModels.get(i).length == -1 && model.lengthOwners[i] == PDUClassModel.NO_OWNER)
+            {
+                last = i;
+            }
+        }
+        return last;
+    }
+
+    /**
+     * @param tracksRestLength
+     *            whether a later element reads restLength
+     */
+    protected void writeDecodeElement(int i, ElementModel elementModel, boolean tracksRestLength)
+    {
+        line("");
+        line("// " + elementModel.name);
+
+        if (elementModel.type == PDUElement.Type.LENGTH)
+        {
+            line("int lengthValue_" + i + " = (int) " + PACKAGE + "UnsignedInteger.readLong(data, offset, " + elementModel.length + ")" + plus(elementModel.delta())
+                    + ";");
+            if (tracksRestLength && model.pduAllReferences[i] > 0)
+            {
+                line("restLength += " + (model.pduAllReferences[i] == 1 ? "" : model.pduAllReferences[i] + " * ") + "lengthValue_" + i + ";");
+            }
+        }
+
+        if (elementModel.length != -1)
+        {
+            line("length = " + elementModel.length + ";");
+        }
+        else if (model.lengthOwners[i] != PDUClassModel.NO_OWNER)
+        {
+            line("length = lengthValue_" + model.lengthOwners[i] + ";");
+        }
+        else
+        {
+            line("length = restLength > -1 ? restLength : end - offset;");
+        }
+        line(PACKAGE + "GeneratedCodecSupport.checkLength(" + literal(elementModel.name) + ", offset, length, end);");
+
+        String field = fieldAccess(elementModel);
+        String fieldType = erasure(elementModel.fieldType);
+        String copy = "java.util.Arrays.copyOfRange(data, offset, offset + length)";
+        String read = PACKAGE + "UnsignedInteger.readLong(data, offset, length)" + plus(elementModel.delta());
+
+        switch (elementModel.kind)
+        {
+            case INT:
+                line(field + " = (int) " + read + ";");
+                break;
+            case LONG:
+                line(field + " = " + read + ";");
+                break;
+            case SHORT:
+                line(field + " = (short) (" + read + ");");
+                break;
+            case AS_NUMBER:
+                ExecutableElement factory = elementModel.factory;
+                TypeMirror parameterType = factory.getParameters().get(0).asType();
+                String factoryCall = castTo(elementModel.fieldType, factory.getReturnType()) + erasure(factory.getEnclosingElement().asType()) + "."
+                        + factory.getSimpleName();
+
+                if (isPrimitiveFactory(parameterType.getKind(), elementModel.length))
+                {
+                    line(field + " = " + factoryCall + "((" + parameterType + ") (" + read + "));");
+                }
+                else
+                {
+                    line(field + " = " + factoryCall + "(new " + PACKAGE + "UnsignedInteger(data, offset, length, " + args(i) + ").to("
+                            + erasure(parameterType) + ".class));");
+                }
+
+                if (elementModel.rawValueField != null)
+                {
+                    String rawType = erasure(elementModel.rawValueField.asType());
+                    line(rawValueAccess(elementModel) + " = (" + rawType + ") " + PACKAGE + "GeneratedCodecSupport.rawValue(" + fieldType + ".class, " + field
+                            + ", " + read + ", " + rawType + ".class);");
+                }
+                break;
+            case BYTES:
+                line(field + " = " + copy + ";");
+                break;
+            case BYTE:
+                line(field + " = data[offset];");
+                break;
+            case PADDING:
+                // padding converts to null, like Padding.to()
+                line(field + " = null;");
+                break;
+            case STRING:
+                line(field + " = new String(data, offset, length).trim();");
+                break;
+            case STRUCTURE:
+                line(fieldType + " value_" + i + " = " + PACKAGE + "PDU.decode(data, " + fieldType + ".class, offset, offset + length);");
+                line(field + " = value_" + i + ";");
+                line("length = " + PACKAGE + "GeneratedCodecSupport.lengthOf(value_" + i + ");");
+                break;
+            case IP_ADDRESS:
+                line(field + " = " + PACKAGE + "IPAddress.read(" + fieldType + ".class, data, offset, length);");
+                break;
+            case GENERIC:
+                String dataClass = elementModel.type.getDataClass().getCanonicalName();
+                line("Object value_" + i + " = new " + dataClass + "(data, offset, length, " + args(i) + ").to(" + fieldType + ".class);");
+                line(field + " = " + castTo(elementModel.fieldType, model.elements.getTypeElement(Object.class.getName()).asType()) + "value_" + i + ";");
+                open("if (value_" + i + " instanceof " + PACKAGE + "PDUSerializable)");
+                line("length = " + PACKAGE + "GeneratedCodecSupport.lengthOf((" + PACKAGE + "PDUSerializable) value_" + i + ");");
+                close();
+                break;
+        }
+
+        if (elementModel.pad > -1)
+        {
+            line("length += " + PACKAGE + "PDU.resolvePaddingLength(" + elementModel.pad + ", length);");
+        }
+
+        if (tracksRestLength)
+        {
+            line("restLength -= length;");
+        }
+        line("offset += length;");
+    }
+
+    protected void writeEncode()
+    {
+        line("@Override");
+        open("public byte[] encode(" + pduClassName + " pdu) throws " + PACKAGE + "PDUException");
+        open("if (pdu.getClass() != " + pduClassName + ".class)");
+        line("return " + PACKAGE + "PDU.encode(pdu);");
+        close();
+        line("");
+
+        open("try");
+        line(PACKAGE + "EncodeBuffer out = new " + PACKAGE + "EncodeBuffer(" + initialCapacity() + ");");
+
+        for (int i = 0; i < elementModels.size(); i++)
+        {
+            if (model.patchLength[i])
+            {
+                line("int lengthOffset_" + i + " = 0;");
+                line("int lengthValue_" + i + " = 0;");
+            }
+        }
+
+        for (int i = 0; i < elementModels.size(); i++)
+        {
+            writeEncodeElement(i, elementModels.get(i));
+        }
+
+        if (model.pduAllOwner != PDUClassModel.NO_OWNER)
+        {
+            line("");
+            line("lengthValue_" + model.pduAllOwner + " = out.size();");
+        }
+
+        line("");
+        for (int i = 0; i < elementModels.size(); i++)
+        {
+            if (model.patchLength[i])
+            {
+                ElementModel elementModel = elementModels.get(i);
+                line("out.patchUnsigned(lengthOffset_" + i + ", lengthValue_" + i + plus(-elementModel.delta()) + ", " + elementModel.length + ");");
+            }
+        }
+
+        line("return out.toByteArray();");
+        close();
+        open("catch (Exception e)");
+        line("throw " + PACKAGE + "GeneratedCodecSupport.encodeFailed(" + pduClassName + ".class, e);");
+        close();
+        close();
+    }
+
+    protected void writeEncodeElement(int i, ElementModel elementModel)
+    {
+        line("");
+        line("// " + elementModel.name);
+
+        String field = fieldAccess(elementModel);
+        String notNull = PACKAGE + "GeneratedCodecSupport.notNull(" + field + ", " + literal(elementModel.name) + ")";
+        String args = args(i);
+        int length = elementModel.length;
+
+        // the written length is only needed for length elements and padding
+        boolean needsWritten = model.lengthOwners[i] != PDUClassModel.NO_OWNER || elementModel.pad > -1;
+        String written = String.valueOf(length);
+
+        if (elementModel.type == PDUElement.Type.LENGTH)
+        {
+            // placeholder, patched below
+            if (model.patchLength[i])
+            {
+                line("lengthOffset_" + i + " = out.size();");
+            }
+            line("out.writeUnsigned(" + (-elementModel.delta()) + ", " + length + ");");
+        }
+        else
+        {
+            switch (elementModel.kind)
+            {
+                case INT:
+                case SHORT:
+                    line("out.writeUnsigned(" + field + plus(-elementModel.delta()) + ", " + length + ");");
+                    break;
+                case LONG:
+                    line("long value_" + i + " = " + field + plus(-elementModel.delta()) + ";");
+                    if (length < Long.BYTES)
+                    {
+                        // 8 byte values carry the highest bit
+                        open("if (value_" + i + " < 0)");
+                        line("throw new IllegalArgumentException(\"value or length < 0\");");
+                        close();
+                    }
+                    line("out.writeUnsigned(value_" + i + ", " + length + ");");
+                    break;
+                case AS_NUMBER:
+                    if (elementModel.rawValueField != null)
+                    {
+                        written = write(i, needsWritten, "out.write(new " + PACKAGE + "UnsignedInteger(" + PACKAGE + "GeneratedCodecSupport.encodedNumber("
+                                + erasure(elementModel.fieldType) + ".class, " + notNull + ", " + rawValueAccess(elementModel) + "), " + length + ", " + args
+                                + ").getValue())");
+                    }
+                    else
+                    {
+                        written = write(i, needsWritten, "out.write(new " + PACKAGE + "UnsignedInteger((" + PACKAGE + "AsNumber) " + notNull + ", " + length
+                                + ", " + args + ").getValue())");
+                    }
+                    break;
+                case BYTES:
+                    written = write(i, needsWritten, "out.write(" + notNull + ")");
+                    break;
+                case BYTE:
+                    written = write(i, needsWritten, "out.write(new " + PACKAGE + "Raw((Byte) " + notNull + ", " + length + ", " + args + ").getValue())");
+                    break;
+                case PADDING:
+                    if (length == -1)
+                    {
+                        line("int written_" + i + " = " + PACKAGE + "PDU.resolvePaddingLength(" + elementModel.pad + ", out.size());");
+                        written = "written_" + i;
+                    }
+                    line("out.writeZeros(" + written + ");");
+                    break;
+                case STRING:
+                    written = write(i, needsWritten, "out.write(new " + PACKAGE + "FixedLengthString(" + notNull + ", " + length + ", " + args + ").getValue())");
+                    break;
+                case STRUCTURE:
+                    written = write(i, needsWritten, "out.write(" + PACKAGE + "PDU.encode(" + notNull + "))");
+                    break;
+                case IP_ADDRESS:
+                    if (length == -1)
+                    {
+                        written = write(i, needsWritten, "out.write(" + notNull + ")");
+                    }
+                    else
+                    {
+                        written = write(i, needsWritten, "out.write(" + PACKAGE + "GeneratedCodecSupport.checkAddress(" + notNull + ", " + length + ", "
+                                + literal(elementModel.name) + "))");
+                    }
+                    break;
+                case GENERIC:
+                    written = write(i, needsWritten, "out.write(" + PACKAGE + "GeneratedCodecSupport.encodeElement(" + PACKAGE + "PDUElement.Type."
+                            + elementModel.type + ", " + notNull + ", " + length + ", " + args + "))");
+                    break;
+            }
+        }
+
+        if (model.lengthOwners[i] != PDUClassModel.NO_OWNER)
+        {
+            line("lengthValue_" + model.lengthOwners[i] + " = " + written + ";");
+        }
+
+        if (elementModel.pad > -1 && elementModel.kind != ElementModel.Kind.PADDING)
+        {
+            line("out.writeZeros(" + PACKAGE + "PDU.resolvePaddingLength(" + elementModel.pad + ", " + written + "));");
+        }
+    }
+
+    /**
+     * Emit a write statement returning the written length
+     *
+     * @return local holding the written length if needed, null otherwise
+     */
+    protected String write(int i, boolean needsWritten, String statement)
+    {
+        if (!needsWritten)
+        {
+            line(statement + ";");
+            return null;
+        }
+
+        line("int written_" + i + " = " + statement + ";");
+        return "written_" + i;
+    }
+
+    /**
+     * @return constant holding the args of element i
+     */
+    protected String args(int i)
+    {
+        return elementModels.get(i).args.length == 0 ? PACKAGE + "GeneratedCodecSupport.NO_ARGS" : "ARGS_" + i;
+    }
+
+    protected int initialCapacity()
+    {
+        int capacity = 0;
+        for (ElementModel elementModel : elementModels)
+        {
+            capacity += Math.max(elementModel.length, 0);
+        }
+        return Math.max(capacity, 64);
+    }
+
+    protected boolean isPrimitiveFactory(TypeKind parameterKind, int length)
+    {
+        // same limits as UnsignedInteger.fitsPrimitive, the factory gets no negative values
+        return (parameterKind == TypeKind.INT && length > -1 && length < Integer.BYTES)
+                || (parameterKind == TypeKind.LONG && length > -1 && length < Long.BYTES)
+                || (parameterKind == TypeKind.SHORT && length > -1 && length < Short.BYTES);
+    }
+
+    protected String fieldAccess(ElementModel elementModel)
+    {
+        return fieldAccess(elementModel.declaringClass, elementModel.name);
+    }
+
+    protected String rawValueAccess(ElementModel elementModel)
+    {
+        VariableElement rawValueField = elementModel.rawValueField;
+        return fieldAccess((TypeElement) rawValueField.getEnclosingElement(), rawValueField.getSimpleName().toString());
+    }
+
+    protected String fieldAccess(TypeElement declaringClass, String name)
+    {
+        if (declaringClass.equals(model.pduClass))
+        {
+            return "pdu." + name;
+        }
+        return "((" + declaringClass.getQualifiedName() + ") pdu)." + name;
+    }
+
+    protected String erasure(TypeMirror type)
+    {
+        return model.types.erasure(type).toString();
+    }
+
+    /**
+     * @return cast of an expression of type from to the erasure of type, empty
+     *         if from is assignable without one
+     */
+    protected String castTo(TypeMirror type, TypeMirror from)
+    {
+        TypeMirror erasure = model.types.erasure(type);
+        return model.types.isAssignable(model.types.erasure(from), erasure) ? "" : "(" + erasure + ") ";
+    }
+
+    protected static String plus(int value)
+    {
+        if (value == 0)
+        {
+            return "";
+        }
+        return value > 0 ? " + " + value : " - " + (-value);
+    }
+
+    protected static String literals(String[] values)
+    {
+        StringBuilder builder = new StringBuilder();
+        for (String value : values)
+        {
+            if (builder.length() > 0)
+            {
+                builder.append(", ");
+            }
+            builder.append(literal(value));
+        }
+        return builder.toString();
+    }
+
+    protected static String literal(String value)
+    {
+        StringBuilder builder = new StringBuilder("\"");
+        for (char c : value.toCharArray())
+        {
+            switch (c)
+            {
+                case '"':
+                    builder.append("\\\"");
+                    break;
+                case '\\':
+                    builder.append("\\\\");
+                    break;
+                case '\n':
+                    builder.append("\\n");
+                    break;
+                case '\r':
+                    builder.append("\\r");
+                    break;
+                case '\t':
+                    builder.append("\\t");
+                    break;
+                default:
+                    builder.append(c);
+            }
+        }
+        return builder.append('"').toString();
+    }
+
+    protected void open(String statement)
+    {
+        line(statement);
+        line("{");
+        indent++;
+    }
+
+    protected void close()
+    {
+        indent--;
+        line("}");
+    }
+
+    protected void line(String text)
+    {
+        if (!text.isEmpty())
+        {
+            for (int i = 0; i < indent; i++)
+            {
+                source.append("    ");
+            }
+        }
+        source.append(text).append('\n');
+    }
+
+}
@@ -0,0 +1,93 @@
+package de.sloc.dataformat.processor;
+
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeMirror;
+
+import de.sloc.dataformat.PDUElement;
+import de.sloc.dataformat.PDUSubtype;
+
+/**
+ * One annotated field as seen by the processor
+ */
+class ElementModel
+{
+    /**
+     * How the generated code converts the element
+     */
+    enum Kind
+    {
+        INT, LONG, SHORT, AS_NUMBER, BYTES, BYTE, PADDING, STRING, STRUCTURE, IP_ADDRESS, GENERIC
+    }
+
+    protected final VariableElement field;
+    protected final TypeElement declaringClass;
+    protected final String name;
+    protected final TypeMirror fieldType;
+
+    // values of the PDUElement annotation, the last one of a duplicate order wins
+    protected PDUElement.Type type;
+    protected int length;
+    protected int pad;
+    protected String[] args;
+    protected String references;
+    protected String referencesMethod;
+    protected String rawValue;
+
+    protected final boolean subtype;
+    protected final String[] subtypeArgs;
+
+    protected Kind kind;
+
+    /**
+     * getByValue of AS_NUMBER elements
+     */
+    protected ExecutableElement factory;
+
+    /**
+     * Field named by rawValue of AS_NUMBER elements, null if not set
+     */
+    protected VariableElement rawValueField;
+
+    protected ElementModel(VariableElement field, PDUElement pduElement)
+    {
+        this.field = field;
+        this.declaringClass = (TypeElement) field.getEnclosingElement();
+        this.name = field.getSimpleName().toString();
+        this.fieldType = field.asType();
+
+        PDUSubtype pduSubtype = field.getAnnotation(PDUSubtype.class);
+        this.subtype = pduSubtype != null;
+        this.subtypeArgs = pduSubtype != null ? pduSubtype.args() : new String[0];
+
+        apply(pduElement);
+    }
+
+    protected void apply(PDUElement pduElement)
+    {
+        this.type = pduElement.type();
+        this.length = pduElement.length();
+        this.pad = pduElement.pad();
+        this.args = pduElement.args();
+        this.references = pduElement.references();
+        this.referencesMethod = pduElement.referencesMethod();
+        this.rawValue = pduElement.rawValue();
+    }
+
+    protected int delta()
+    {
+        if ((type == PDUElement.Type.UNSIGNED_INTEGER || type == PDUElement.Type.LENGTH) && args.length > 0)
+        {
+            return Integer.parseInt(args[0]);
+        }
+        return 0;
+    }
+
+    @Override
+    public String toString()
+    {
+        return declaringClass.getSimpleName() + "." + name;
+    }
+
+}
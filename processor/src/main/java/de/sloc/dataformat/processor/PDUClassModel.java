@@ -0,0 +1,600 @@
+package de.sloc.dataformat.processor;
+
+import static de.sloc.dataformat.PDUElement.Type.LENGTH;
+import static de.sloc.dataformat.PDUElement.Type.LENGTH_REFERENCE_PDU_ALL;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.Messager;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic.Kind;
+
+import de.sloc.dataformat.AsNumber;
+import de.sloc.dataformat.Converter;
+import de.sloc.dataformat.IPAddress;
+import de.sloc.dataformat.ImplementorMapped;
+import de.sloc.dataformat.PDUElement;
+import de.sloc.dataformat.PDUInfo;
+import de.sloc.dataformat.PDUSerializable;
+
+/**
+ * Element layout of one PDUSerializable class, resolved the same way as
+ * PDU.resolveAnnotatedElements: elements of super classes first, then by
+ * order. Validation errors are reported to the Messager.
+ */
+class PDUClassModel
+{
+    protected static final int NO_OWNER = -1;
+
+    protected final TypeElement pduClass;
+    protected final Types types;
+    protected final Elements elements;
+    protected final Messager messager;
+
+    protected final List<ElementModel> elementModels = new ArrayList<>();
+
+    protected int[] lengthOwners;
+    protected int[] pduAllReferences;
+    protected int pduAllOwner = NO_OWNER;
+    protected boolean[] patchLength;
+
+    /**
+     * Last subtype element declared in pduClass, -1 if none
+     */
+    protected int subtypeIndex = -1;
+
+    protected boolean valid = true;
+
+    /**
+     * Why no codec can be generated, null if one can
+     */
+    protected String unsupportedReason;
+
+    protected PDUClassModel(TypeElement pduClass, Types types, Elements elements, Messager messager)
+    {
+        this.pduClass = pduClass;
+        this.types = types;
+        this.elements = elements;
+        this.messager = messager;
+    }
+
+    protected boolean isAbstract()
+    {
+        return pduClass.getModifiers().contains(Modifier.ABSTRACT);
+    }
+
+    protected boolean canGenerate()
+    {
+        return valid && unsupportedReason == null;
+    }
+
+    protected String getPackageName()
+    {
+        return elements.getPackageOf(pduClass).getQualifiedName().toString();
+    }
+
+    protected String getCodecSimpleName()
+    {
+        String binaryName = elements.getBinaryName(pduClass).toString();
+        String packageName = getPackageName();
+        String simpleName = packageName.isEmpty() ? binaryName : binaryName.substring(packageName.length() + 1);
+        return simpleName.replace('$', '_') + "Codec";
+    }
+
+    protected String getCodecQualifiedName()
+    {
+        String packageName = getPackageName();
+        return packageName.isEmpty() ? getCodecSimpleName() : packageName + "." + getCodecSimpleName();
+    }
+
+    protected PDUClassModel resolve()
+    {
+        checkClass();
+        collectElements();
+        resolveLengthReferences();
+        for (int i = 0; i < elementModels.size(); i++)
+        {
+            validate(i, elementModels.get(i));
+        }
+        return this;
+    }
+
+    protected void checkClass()
+    {
+        if (!pduClass.getTypeParameters().isEmpty())
+        {
+            unsupported("generic PDU classes are not supported");
+        }
+
+        if (pduClass.getNestingKind() != NestingKind.TOP_LEVEL
+                && (pduClass.getNestingKind() != NestingKind.MEMBER || !pduClass.getModifiers().contains(Modifier.STATIC)))
+        {
+            unsupported("only top level and static nested classes are supported");
+        }
+
+        for (Element enclosing = pduClass; enclosing instanceof TypeElement; enclosing = enclosing.getEnclosingElement())
+        {
+            if (enclosing.getModifiers().contains(Modifier.PRIVATE))
+            {
+                unsupported(enclosing + " is private");
+            }
+        }
+
+        if (!isAbstract() && !hasAccessibleNoArgConstructor())
+        {
+            unsupported("no non-private no-arg constructor");
+        }
+
+        for (ExecutableElement method : ElementFilter.methodsIn(pduClass.getEnclosedElements()))
+        {
+            if (method.getAnnotation(PDUInfo.class) != null && (!method.getParameters().isEmpty() || method.getReturnType().getKind() == TypeKind.VOID))
+            {
+                error(method, "@PDUInfo method " + method.getSimpleName() + " must take no parameters and return a value");
+            }
+
+            if (method.getAnnotation(PDUElement.class) != null)
+            {
+                unsupported("annotated method " + method.getSimpleName());
+            }
+        }
+    }
+
+    protected boolean hasAccessibleNoArgConstructor()
+    {
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(pduClass.getEnclosedElements()))
+        {
+            if (constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    protected void collectElements()
+    {
+        LinkedList<TypeElement> hierarchy = new LinkedList<>();
+        TypeMirror pduSerializable = typeOf(PDUSerializable.class);
+
+        for (TypeElement klass = pduClass; klass != null; klass = superClassOf(klass))
+        {
+            if (!types.isAssignable(klass.asType(), pduSerializable))
+            {
+                break;
+            }
+            hierarchy.addFirst(klass);
+        }
+
+        for (TypeElement klass : hierarchy)
+        {
+            // the first field of an order is kept, the annotation of the last one is used
+            Map<Integer, ElementModel> byOrder = new LinkedHashMap<>();
+
+            for (VariableElement field : ElementFilter.fieldsIn(klass.getEnclosedElements()))
+            {
+                PDUElement pduElement = field.getAnnotation(PDUElement.class);
+                if (pduElement == null)
+                {
+                    continue;
+                }
+
+                ElementModel existing = byOrder.get(pduElement.order());
+                if (existing != null)
+                {
+                    warning(field, "order " + pduElement.order() + " is used by " + existing.name + " already, " + field.getSimpleName()
+                            + " will not be encoded");
+                    existing.apply(pduElement);
+                    continue;
+                }
+
+                ElementModel elementModel = new ElementModel(field, pduElement);
+                byOrder.put(pduElement.order(), elementModel);
+                checkAccess(elementModel);
+            }
+
+            List<Integer> orders = new ArrayList<>(byOrder.keySet());
+            orders.sort(null);
+            for (Integer order : orders)
+            {
+                elementModels.add(byOrder.get(order));
+            }
+        }
+
+        for (int i = 0; i < elementModels.size(); i++)
+        {
+            ElementModel elementModel = elementModels.get(i);
+            elementModel.kind = classify(elementModel);
+
+            if (elementModel.subtype && elementModel.declaringClass.equals(pduClass))
+            {
+                subtypeIndex = i;
+            }
+        }
+
+        if (isAbstract() && subtypeIndex == -1)
+        {
+            error(pduClass, "abstract PDU class " + pduClass.getSimpleName() + " declares no @PDUSubtype element");
+        }
+    }
+
+    protected void checkAccess(ElementModel elementModel)
+    {
+        Set<Modifier> modifiers = elementModel.field.getModifiers();
+
+        if (modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.FINAL) || modifiers.contains(Modifier.STATIC))
+        {
+            unsupported("field " + elementModel + " is private, final or static");
+        }
+        else if (!modifiers.contains(Modifier.PUBLIC) && !packageOf(elementModel.declaringClass).equals(packageOf(pduClass)))
+        {
+            unsupported("field " + elementModel + " is not accessible from package " + packageOf(pduClass).getQualifiedName());
+        }
+    }
+
+    protected void resolveLengthReferences()
+    {
+        int size = elementModels.size();
+        lengthOwners = new int[size];
+        pduAllReferences = new int[size];
+        patchLength = new boolean[size];
+
+        // reference name -> LENGTH element, later LENGTH elements win
+        Map<String, Integer> owners = new HashMap<>();
+        Set<String> names = new HashSet<>();
+
+        for (int i = 0; i < size; i++)
+        {
+            ElementModel elementModel = elementModels.get(i);
+            names.add(elementModel.name);
+
+            if (elementModel.type == LENGTH)
+            {
+                for (String reference : elementModel.references.split(","))
+                {
+                    owners.put(reference, i);
+
+                    if (reference.equals(LENGTH_REFERENCE_PDU_ALL))
+                    {
+                        pduAllReferences[i]++;
+                    }
+                }
+            }
+
+            Integer owner = owners.get(elementModel.name);
+            lengthOwners[i] = owner == null ? NO_OWNER : owner;
+
+            if (!elementModel.referencesMethod.equals(""))
+            {
+                unsupported("referencesMethod of " + elementModel);
+            }
+        }
+
+        Integer owner = owners.get(LENGTH_REFERENCE_PDU_ALL);
+        pduAllOwner = owner == null ? NO_OWNER : owner;
+
+        Set<Integer> patched = new HashSet<>(owners.values());
+        for (int i = 0; i < size; i++)
+        {
+            patchLength[i] = patched.contains(i);
+        }
+
+        if (!isAbstract())
+        {
+            for (String reference : owners.keySet())
+            {
+                if (!reference.equals(LENGTH_REFERENCE_PDU_ALL) && !names.contains(reference))
+                {
+                    warning(pduClass, "LENGTH reference " + reference + " does not name an element of " + pduClass.getSimpleName());
+                }
+            }
+        }
+    }
+
+    protected void validate(int index, ElementModel elementModel)
+    {
+        String element = elementModel.toString();
+
+        switch (elementModel.type)
+        {
+            case LENGTH:
+                if (elementModel.length == -1)
+                {
+                    error(elementModel, "LENGTH element " + element + " needs a length");
+                }
+                break;
+            case PADDING:
+                if (elementModel.length == -1 && elementModel.pad == -1)
+                {
+                    error(elementModel, "PADDING element " + element + " needs a length or pad");
+                }
+                if (elementModel.fieldType.getKind().isPrimitive())
+                {
+                    error(elementModel, "PADDING element " + element + " must not be primitive");
+                }
+                break;
+            case IP_ADDRESS:
+                if (elementModel.length != -1 && elementModel.length != 4 && elementModel.length != 16)
+                {
+                    error(elementModel, "IP_ADDRESS element " + element + " must have length 4 or 16, or a LENGTH element");
+                }
+                break;
+            case STRUCTURE:
+            case STRUCTURE_COLLECTION:
+            case UNSIGNED_INTEGER_COLLECTION:
+                if (elementModel.length != -1)
+                {
+                    error(elementModel, "length of " + elementModel.type + " element " + element + " is determined dynamically, remove length");
+                }
+                break;
+            default:
+                break;
+        }
+
+        switch (elementModel.type)
+        {
+            case STRUCTURE_COLLECTION:
+            case BITMAP:
+            case VALUE_TO_FLAG_BITMAP:
+                if (elementModel.args.length < 1)
+                {
+                    error(elementModel, elementModel.type + " element " + element + " needs the element type as args[0]");
+                }
+                break;
+            case UNSIGNED_INTEGER_COLLECTION:
+                if (elementModel.args.length < 2)
+                {
+                    error(elementModel, elementModel.type + " element " + element + " needs the element type as args[0] and its length as args[1]");
+                }
+                break;
+            default:
+                break;
+        }
+
+        boolean last = index == elementModels.size() - 1;
+        if (elementModel.length == -1 && elementModel.type != LENGTH && elementModel.type != PDUElement.Type.STRUCTURE
+                && elementModel.type != PDUElement.Type.PADDING && lengthOwners[index] == NO_OWNER && !last)
+        {
+            error(elementModel, "length of " + element + " cannot be determined: set length, reference it from a LENGTH element or make it the last element");
+        }
+
+        if (elementModel.subtype && !types.isAssignable(elementModel.fieldType, typeOf(ImplementorMapped.class)))
+        {
+            error(elementModel, "@PDUSubtype element " + element + " does not implement " + ImplementorMapped.class.getCanonicalName());
+        }
+
+        if (elementModel.kind == ElementModel.Kind.AS_NUMBER && elementModel.factory == null)
+        {
+            error(elementModel, elementModel.fieldType + " of " + element + " does not implement " + AsNumber.FACTORY_METHOD_NAME);
+        }
+
+        if (!elementModel.rawValue.isEmpty())
+        {
+            resolveRawValue(elementModel);
+        }
+    }
+
+    /**
+     * Same checks as RawValues.resolve
+     */
+    protected void resolveRawValue(ElementModel elementModel)
+    {
+        String element = elementModel.toString();
+        Element fieldTypeElement = types.asElement(elementModel.fieldType);
+
+        if (elementModel.type != PDUElement.Type.UNSIGNED_INTEGER || elementModel.kind != ElementModel.Kind.AS_NUMBER || fieldTypeElement == null
+                || fieldTypeElement.getKind() != ElementKind.ENUM || elementModel.length < 1 || elementModel.length > Long.BYTES)
+        {
+            error(elementModel, "rawValue of " + element + " needs an UNSIGNED_INTEGER element of an AsNumber enum, 1 to 8 bytes long");
+            return;
+        }
+
+        for (TypeElement klass = elementModel.declaringClass; klass != null; klass = superClassOf(klass))
+        {
+            for (VariableElement field : ElementFilter.fieldsIn(klass.getEnclosedElements()))
+            {
+                if (!field.getSimpleName().contentEquals(elementModel.rawValue))
+                {
+                    continue;
+                }
+
+                if (!isType(field.asType(), Long.class) && (!isType(field.asType(), Integer.class) || elementModel.length > Integer.BYTES))
+                {
+                    error(elementModel, "rawValue " + field.getSimpleName() + " of " + element + " must be a Long, or an Integer for up to 4 bytes");
+                    return;
+                }
+
+                Set<Modifier> modifiers = field.getModifiers();
+                if (modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.FINAL) || modifiers.contains(Modifier.STATIC)
+                        || (!modifiers.contains(Modifier.PUBLIC) && !packageOf(klass).equals(packageOf(pduClass))))
+                {
+                    unsupported("rawValue " + field.getSimpleName() + " of " + element + " is not accessible");
+                }
+
+                elementModel.rawValueField = field;
+                return;
+            }
+        }
+
+        error(elementModel, "rawValue " + elementModel.rawValue + " of " + element + " not found");
+    }
+
+    protected ElementModel.Kind classify(ElementModel elementModel)
+    {
+        TypeMirror fieldType = elementModel.fieldType;
+        TypeKind fieldKind = fieldType.getKind();
+        int length = elementModel.length;
+
+        switch (elementModel.type)
+        {
+            case UNSIGNED_INTEGER:
+            case LENGTH:
+                if (fieldKind == TypeKind.INT && length > -1 && length <= Integer.BYTES)
+                {
+                    return ElementModel.Kind.INT;
+                }
+                else if (fieldKind == TypeKind.LONG && length > -1 && length <= Long.BYTES)
+                {
+                    return ElementModel.Kind.LONG;
+                }
+                else if (fieldKind == TypeKind.SHORT && length > -1 && length <= Short.BYTES)
+                {
+                    return ElementModel.Kind.SHORT;
+                }
+                else if (fieldKind == TypeKind.DECLARED && types.isAssignable(fieldType, typeOf(AsNumber.class)))
+                {
+                    elementModel.factory = findFactory((TypeElement) types.asElement(fieldType));
+                    return ElementModel.Kind.AS_NUMBER;
+                }
+                break;
+            case RAW:
+                if (fieldKind == TypeKind.ARRAY && types.isSameType(fieldType, types.getArrayType(types.getPrimitiveType(TypeKind.BYTE))))
+                {
+                    return ElementModel.Kind.BYTES;
+                }
+                else if (fieldKind == TypeKind.BYTE || isType(fieldType, Byte.class))
+                {
+                    return ElementModel.Kind.BYTE;
+                }
+                else if (fieldKind == TypeKind.DECLARED && types.isAssignable(fieldType, typeOf(Converter.class)))
+                {
+                    // rawImport is resolved at runtime
+                    return ElementModel.Kind.GENERIC;
+                }
+                break;
+            case PADDING:
+                return ElementModel.Kind.PADDING;
+            case FIXED_LENGTH_STRING:
+                if (isType(fieldType, String.class))
+                {
+                    return ElementModel.Kind.STRING;
+                }
+                break;
+            case STRUCTURE:
+                if (types.isAssignable(fieldType, typeOf(PDUSerializable.class)) && elementModel.args.length == 0 && length == -1)
+                {
+                    return ElementModel.Kind.STRUCTURE;
+                }
+                break;
+            case IP_ADDRESS:
+                if (fieldKind == TypeKind.DECLARED && types.isAssignable(fieldType, typeOf(IPAddress.class)))
+                {
+                    return ElementModel.Kind.IP_ADDRESS;
+                }
+                break;
+            default:
+                break;
+        }
+
+        return ElementModel.Kind.GENERIC;
+    }
+
+    /**
+     * Same lookup as UnsignedInteger.resolveAsNumberFactoryMethod: public
+     * static getByValue with one parameter
+     */
+    protected ExecutableElement findFactory(TypeElement klass)
+    {
+        for (TypeElement current = klass; current != null; current = superClassOf(current))
+        {
+            for (ExecutableElement method : ElementFilter.methodsIn(current.getEnclosedElements()))
+            {
+                if (method.getSimpleName().contentEquals(AsNumber.FACTORY_METHOD_NAME) && method.getParameters().size() == 1
+                        && method.getModifiers().contains(Modifier.STATIC) && method.getModifiers().contains(Modifier.PUBLIC))
+                {
+                    return method;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Offset of the subtype element relative to the PDU start, -1 if it
+     * depends on data
+     */
+    protected int getSubtypeOffset()
+    {
+        int offset = 0;
+        for (int i = 0; i < subtypeIndex; i++)
+        {
+            int length = elementModels.get(i).length;
+            if (length < 0 || elementModels.get(i).pad > -1)
+            {
+                return -1;
+            }
+            offset += length;
+        }
+        return offset;
+    }
+
+    protected TypeElement superClassOf(TypeElement klass)
+    {
+        TypeMirror superClass = klass.getSuperclass();
+        if (superClass.getKind() != TypeKind.DECLARED)
+        {
+            return null;
+        }
+        return (TypeElement) ((DeclaredType) superClass).asElement();
+    }
+
+    protected PackageElement packageOf(Element element)
+    {
+        return elements.getPackageOf(element);
+    }
+
+    protected TypeMirror typeOf(Class<?> klass)
+    {
+        return types.erasure(elements.getTypeElement(klass.getCanonicalName()).asType());
+    }
+
+    protected boolean isType(TypeMirror type, Class<?> klass)
+    {
+        return type.getKind() == TypeKind.DECLARED && types.isSameType(types.erasure(type), typeOf(klass));
+    }
+
+    protected void unsupported(String reason)
+    {
+        if (unsupportedReason == null)
+        {
+            unsupportedReason = reason;
+        }
+    }
+
+    protected void error(ElementModel elementModel, String message)
+    {
+        // report inherited elements on the class being processed
+        error(elementModel.declaringClass.equals(pduClass) ? elementModel.field : pduClass, message);
+    }
+
+    protected void error(Element element, String message)
+    {
+        valid = false;
+        messager.printMessage(Kind.ERROR, message, element);
+    }
+
+    protected void warning(Element element, String message)
+    {
+        messager.printMessage(Kind.WARNING, message, element);
+    }
+
+}
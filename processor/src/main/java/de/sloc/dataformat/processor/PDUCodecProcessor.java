@@ -0,0 +1,109 @@
+package de.sloc.dataformat.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic.Kind;
+import javax.tools.JavaFileObject;
+
+import de.sloc.dataformat.PDUSerializable;
+
+/**
+ * Generates a GeneratedPDUCodec for every PDUSerializable class compiled with
+ * this processor on the processor path, and reports annotation errors
+ * (missing lengths, unresolvable length references, subtypes without
+ * ImplementorMapped, ...) at build time. Classes the generator cannot handle,
+ * e.g. with private fields, are left to the runtime engines.
+ */
+@SupportedAnnotationTypes("*")
+public class PDUCodecProcessor extends AbstractProcessor
+{
+    protected final Set<String> processed = new HashSet<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion()
+    {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv)
+    {
+        TypeElement pduSerializable = processingEnv.getElementUtils().getTypeElement(PDUSerializable.class.getCanonicalName());
+        if (pduSerializable == null)
+        {
+            return false;
+        }
+
+        for (Element element : roundEnv.getRootElements())
+        {
+            processTypes(element, processingEnv.getTypeUtils().erasure(pduSerializable.asType()));
+        }
+
+        // other processors may process the same annotations
+        return false;
+    }
+
+    protected void processTypes(Element element, TypeMirror pduSerializable)
+    {
+        if (element.getKind() == ElementKind.CLASS)
+        {
+            TypeElement typeElement = (TypeElement) element;
+            if (processingEnv.getTypeUtils().isAssignable(typeElement.asType(), pduSerializable)
+                    && processed.add(typeElement.getQualifiedName().toString()))
+            {
+                process(typeElement);
+            }
+        }
+
+        for (Element enclosed : element.getEnclosedElements())
+        {
+            if (enclosed.getKind().isClass() || enclosed.getKind().isInterface())
+            {
+                processTypes(enclosed, pduSerializable);
+            }
+        }
+    }
+
+    protected void process(TypeElement pduClass)
+    {
+        PDUClassModel model = new PDUClassModel(pduClass, processingEnv.getTypeUtils(), processingEnv.getElementUtils(), processingEnv.getMessager())
+                .resolve();
+
+        if (!model.valid)
+        {
+            return;
+        }
+
+        if (model.unsupportedReason != null)
+        {
+            processingEnv.getMessager().printMessage(Kind.NOTE,
+                    "No codec generated for " + pduClass.getQualifiedName() + ": " + model.unsupportedReason + ", falling back to runtime engines", pduClass);
+            return;
+        }
+
+        try
+        {
+            JavaFileObject sourceFile = processingEnv.getFiler().createSourceFile(model.getCodecQualifiedName(), pduClass);
+            try (Writer writer = sourceFile.openWriter())
+            {
+                writer.write(new CodecSourceWriter(model).write());
+            }
+        }
+        catch (IOException e)
+        {
+            processingEnv.getMessager().printMessage(Kind.ERROR, "Could not write codec for " + pduClass.getQualifiedName() + ": " + e.getMessage(), pduClass);
+        }
+    }
+
+}
@@ -0,0 +1,270 @@
+package de.sloc.dataformat.processor;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import javax.xml.bind.DatatypeConverter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.sloc.dataformat.GeneratedPDUCodec;
+import de.sloc.dataformat.PDU;
+import de.sloc.dataformat.PDUCodec;
+import de.sloc.dataformat.PDUCodecRegistry;
+import de.sloc.dataformat.PDUException;
+import de.sloc.dataformat.PDUSerializable;
+
+public class TestPDUCodecProcessor
+{
+    protected static final String MESSAGE_TYPE = "package sample;\n"
+            + "import de.sloc.dataformat.*;\n"
+            + "public enum MessageType implements AsNumber, ImplementorMapped {\n"
+            + "    HELLO(1, Hello.class);\n"
+            + "    protected int value;\n"
+            + "    protected Class<? extends PDUSerializable> implementor;\n"
+            + "    MessageType(int value, Class<? extends PDUSerializable> implementor) { this.value = value; this.implementor = implementor; }\n"
+            + "    public Number getNumberValue() { return value; }\n"
+            + "    public Class<? extends PDUSerializable> getImplementor(String... args) { return implementor; }\n"
+            + "    public static MessageType getByValue(int value) { return HELLO; }\n"
+            + "}\n";
+
+    protected static final String MESSAGE = "package sample;\n"
+            + "import static de.sloc.dataformat.PDUElement.Type.*;\n"
+            + "import de.sloc.dataformat.*;\n"
+            + "public abstract class Message implements PDUSerializable {\n"
+            + "    @PDUElement(order = 1, type = LENGTH, length = 2) public int totalLength;\n"
+            + "    @PDUSubtype @PDUElement(order = 2, type = UNSIGNED_INTEGER, length = 1) public MessageType type;\n"
+            + "}\n";
+
+    protected static final String HELLO = "package sample;\n"
+            + "import static de.sloc.dataformat.PDUElement.Type.*;\n"
+            + "import de.sloc.dataformat.*;\n"
+            + "public class Hello extends Message {\n"
+            + "    public static class Trailer implements PDUSerializable {\n"
+            + "        @PDUElement(order = 1, type = UNSIGNED_INTEGER, length = 2) int value;\n"
+            + "    }\n"
+            + "    @PDUElement(order = 1, type = LENGTH, length = 1, references = \"name\") int nameLength;\n"
+            + "    @PDUElement(order = 2, type = RAW, pad = 4) byte[] name;\n"
+            + "    @PDUElement(order = 3, type = PADDING, length = 1) Object reserved;\n"
+            + "    @PDUElement(order = 4, type = UNSIGNED_INTEGER, length = 4) long id;\n"
+            + "    @PDUElement(order = 5, type = STRUCTURE) Trailer trailer;\n"
+            + "}\n";
+
+    protected static final byte[] HELLO_BYTES = DatatypeConverter.parseHexBinary("000F0103010203000000000007ABCD");
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    protected File output;
+    protected DiagnosticCollector<JavaFileObject> diagnostics;
+
+    protected boolean compile(String... sources) throws Exception
+    {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        diagnostics = new DiagnosticCollector<>();
+        output = temporaryFolder.newFolder();
+
+        List<JavaFileObject> units = new ArrayList<>();
+        for (String source : sources)
+        {
+            String className = source.replaceAll("(?s).*package (\\w+);.*?public (abstract )?(class|enum) (\\w+).*", "$1/$4");
+            units.add(new SimpleJavaFileObject(URI.create("string:///" + className + ".java"), JavaFileObject.Kind.SOURCE)
+            {
+                @Override
+                public CharSequence getCharContent(boolean ignoreEncodingErrors)
+                {
+                    return source;
+                }
+            });
+        }
+
+        String classpath = new File(PDU.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+        List<String> options = Arrays.asList("-classpath", classpath, "-d", output.getPath(), "-s", output.getPath());
+
+        try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, null, null))
+        {
+            JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics, options, null, units);
+            task.setProcessors(Arrays.asList(new PDUCodecProcessor()));
+            return task.call();
+        }
+    }
+
+    protected boolean hasError(String message)
+    {
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics())
+        {
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR && diagnostic.getMessage(null).contains(message))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testGeneratedCodec() throws Exception
+    {
+        boolean compiled = compile(MESSAGE_TYPE, MESSAGE, HELLO);
+        assertTrue(diagnostics(), compiled);
+        assertTrue(new File(output, "sample/HelloCodec.java").exists());
+        assertTrue(new File(output, "sample/Hello_TrailerCodec.java").exists());
+
+        try (URLClassLoader classLoader = new URLClassLoader(new URL[] { output.toURI().toURL() }, getClass().getClassLoader()))
+        {
+            Class<PDUSerializable> messageClass = (Class<PDUSerializable>) classLoader.loadClass("sample.Message");
+            Class<PDUSerializable> helloClass = (Class<PDUSerializable>) classLoader.loadClass("sample.Hello");
+            Class<PDUSerializable> trailerClass = (Class<PDUSerializable>) classLoader.loadClass("sample.Hello$Trailer");
+
+            PDUCodec<PDUSerializable> codec = PDUCodecRegistry.lookup(helloClass);
+            assertTrue(codec instanceof GeneratedPDUCodec);
+            assertTrue(PDUCodecRegistry.lookup(trailerClass) instanceof GeneratedPDUCodec);
+
+            PDUSerializable hello = PDU.decode(HELLO_BYTES, messageClass, 0);
+            assertEquals(helloClass, hello.getClass());
+            assertEquals(7L, get(hello, "id"));
+            assertArrayEquals(new byte[] { 1, 2, 3 }, (byte[]) get(hello, "name"));
+            assertEquals(0xABCD, get(get(hello, "trailer"), "value"));
+
+            assertArrayEquals(HELLO_BYTES, codec.encode(hello));
+            assertArrayEquals(HELLO_BYTES, PDU.encode(hello));
+
+            // decoded in place between offset and end, trailing bytes left
+            byte[] framed = new byte[HELLO_BYTES.length + 5];
+            System.arraycopy(HELLO_BYTES, 0, framed, 2, HELLO_BYTES.length);
+            ByteBuffer buffer = ByteBuffer.wrap(framed, 2, HELLO_BYTES.length + 3);
+            assertEquals(0xABCD, get(get(PDU.decode(buffer, messageClass), "trailer"), "value"));
+            assertEquals(2 + HELLO_BYTES.length, buffer.position());
+
+            try
+            {
+                PDU.decode(framed, messageClass, 2, 2 + HELLO_BYTES.length - 1);
+                fail("decoded beyond end");
+            }
+            catch (PDUException e)
+            {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testRawValue() throws Exception
+    {
+        String kind = "package sample;\n"
+                + "import de.sloc.dataformat.*;\n"
+                + "public enum Kind implements AsNumber {\n"
+                + "    ONE(1), UNKNOWN(0xFF);\n"
+                + "    protected final int value;\n"
+                + "    Kind(int value) { this.value = value; }\n"
+                + "    public Number getNumberValue() { return value; }\n"
+                + "    public static Kind getByValue(int value) { return value == 1 ? ONE : UNKNOWN; }\n"
+                + "}\n";
+        String tagged = "package sample;\n"
+                + "import static de.sloc.dataformat.PDUElement.Type.*;\n"
+                + "import de.sloc.dataformat.*;\n"
+                + "public class Tagged implements PDUSerializable {\n"
+                + "    @PDUElement(order = 1, type = UNSIGNED_INTEGER, length = 1, rawValue = \"kindValue\") Kind kind;\n"
+                + "    Integer kindValue;\n"
+                + "}\n";
+
+        boolean compiled = compile(kind, tagged);
+        assertTrue(diagnostics(), compiled);
+
+        // getByValue returns Kind already
+        String codecSource = new String(Files.readAllBytes(new File(output, "sample/TaggedCodec.java").toPath()), StandardCharsets.UTF_8);
+        assertTrue(codecSource.contains("= sample.Kind.getByValue("));
+
+        try (URLClassLoader classLoader = new URLClassLoader(new URL[] { output.toURI().toURL() }, getClass().getClassLoader()))
+        {
+            @SuppressWarnings("unchecked")
+            Class<PDUSerializable> taggedClass = (Class<PDUSerializable>) classLoader.loadClass("sample.Tagged");
+            PDUCodec<PDUSerializable> codec = PDUCodecRegistry.lookup(taggedClass);
+            assertTrue(codec instanceof GeneratedPDUCodec);
+
+            PDUSerializable unknown = codec.decode(new byte[] { 0x42 }, 0);
+            assertEquals("UNKNOWN", get(unknown, "kind").toString());
+            assertEquals(0x42, get(unknown, "kindValue"));
+            assertArrayEquals(new byte[] { 0x42 }, codec.encode(unknown));
+
+            PDUSerializable one = codec.decode(new byte[] { 1 }, 0);
+            assertNull(get(one, "kindValue"));
+            assertArrayEquals(new byte[] { 1 }, codec.encode(one));
+        }
+    }
+
+    @Test
+    public void testInvalidAnnotations() throws Exception
+    {
+        String invalid = "package sample;\n"
+                + "import static de.sloc.dataformat.PDUElement.Type.*;\n"
+                + "import de.sloc.dataformat.*;\n"
+                + "public class Invalid implements PDUSerializable {\n"
+                + "    @PDUElement(order = 1, type = LENGTH, references = \"payload\") int payloadLength;\n"
+                + "    @PDUElement(order = 2, type = BITMAP, length = 1) java.util.Set<Object> flags;\n"
+                + "    @PDUElement(order = 3, type = RAW) byte[] options;\n"
+                + "    @PDUElement(order = 4, type = RAW) byte[] payload;\n"
+                + "    @PDUSubtype @PDUElement(order = 5, type = UNSIGNED_INTEGER, length = 1) int kind;\n"
+                + "}\n";
+
+        assertFalse(compile(invalid));
+        assertTrue(diagnostics(), hasError("LENGTH element Invalid.payloadLength needs a length"));
+        assertTrue(diagnostics(), hasError("needs the element type as args[0]"));
+        assertTrue(diagnostics(), hasError("length of Invalid.options cannot be determined"));
+        assertTrue(diagnostics(), hasError("does not implement de.sloc.dataformat.ImplementorMapped"));
+        assertFalse(new File(output, "sample/InvalidCodec.java").exists());
+    }
+
+    @Test
+    public void testUnsupportedClassFallsBack() throws Exception
+    {
+        String privateFields = "package sample;\n"
+                + "import static de.sloc.dataformat.PDUElement.Type.*;\n"
+                + "import de.sloc.dataformat.*;\n"
+                + "public class PrivateFields implements PDUSerializable {\n"
+                + "    @PDUElement(order = 1, type = UNSIGNED_INTEGER, length = 2) private int value;\n"
+                + "}\n";
+
+        boolean compiled = compile(privateFields);
+        assertTrue(diagnostics(), compiled);
+        assertFalse(new File(output, "sample/PrivateFieldsCodec.java").exists());
+    }
+
+    protected static Object get(Object pdu, String fieldName) throws ReflectiveOperationException
+    {
+        Field field = pdu.getClass().getDeclaredField(fieldName);
+        field.setAccessible(true);
+        return field.get(pdu);
+    }
+
+    protected String diagnostics()
+    {
+        return diagnostics == null ? "" : diagnostics.getDiagnostics().toString();
+    }
+
+}
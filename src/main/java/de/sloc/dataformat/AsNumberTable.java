@@ -0,0 +1,197 @@
+package de.sloc.dataformat;
+
+import java.lang.reflect.Method;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reverse lookup from number value to constant of an {@link AsNumber} type,
+ * without boxing or reflection: a dense array for values close together, else
+ * an open addressing table over primitive keys. Tables are immutable and safe
+ * to share between threads.
+ * <p>
+ * Enums build theirs once from their constants and use it in getByValue:
+ *
+ * <pre>
+ * protected static final AsNumberTable&lt;Ethertype&gt; TABLE = AsNumberTable.of(values());
+ *
+ * public static Ethertype getByValue(int value)
+ * {
+ *     return TABLE.get(value, UNKNOWN);
+ * }
+ * </pre>
+ *
+ * Values without a constant map to a fallback constant, which must not be
+ * updated with them, as constants are shared by all threads decoding
+ * concurrently. To encode such values unchanged, PDUs keep them next to the
+ * constant in the field named by {@link PDUElement#rawValue()}.
+ */
+public final class AsNumberTable<E extends AsNumber>
+{
+    private static final ClassValue<AsNumberTable<?>> RESOLVED = new ClassValue<AsNumberTable<?>>()
+    {
+        @Override
+        protected AsNumberTable<?> computeValue(Class<?> type)
+        {
+            return resolve(type);
+        }
+    };
+
+    /**
+     * @return table of constants by value, of equal values the first one wins
+     */
+    public static <E extends AsNumber> AsNumberTable<E> of(E[] constants)
+    {
+        List<Long> keys = new ArrayList<>(constants.length);
+        List<E> values = new ArrayList<>(constants.length);
+
+        for (E constant : constants)
+        {
+            Number number = constant.getNumberValue();
+            if (number == null || (number instanceof BigInteger && ((BigInteger) number).bitLength() >= Long.SIZE))
+            {
+                continue;
+            }
+
+            long key = number.longValue();
+            if (!keys.contains(key))
+            {
+                keys.add(key);
+                values.add(constant);
+            }
+        }
+
+        return new AsNumberTable<>(new LongTable<>(keys, values));
+    }
+
+    /**
+     * Table of the constants the getByValue factory of an AsNumber enum maps
+     * their own values to. The constant the factory returns for values without
+     * a constant is left out, as enums may update its value on every call;
+     * lookups missing the table go through the factory. Empty for types that
+     * are no enums or whose factory fails.
+     */
+    static AsNumberTable<?> resolved(Class<?> type)
+    {
+        return RESOLVED.get(type);
+    }
+
+    @SuppressWarnings("unchecked")
+    protected static AsNumberTable<?> resolve(Class<?> type)
+    {
+        List<Long> keys = new ArrayList<>();
+        List<AsNumber> values = new ArrayList<>();
+
+        if (!type.isEnum() || !AsNumber.class.isAssignableFrom(type))
+        {
+            return new AsNumberTable<AsNumber>(new LongTable<>(keys, values));
+        }
+
+        try
+        {
+            Method factory = UnsignedInteger.resolveAsNumberFactoryMethod((Class<? extends AsNumber>) type);
+            Class<?> parameterType = factory.getParameterTypes()[0];
+
+            for (Object constant : type.getEnumConstants())
+            {
+                Number number = ((AsNumber) constant).getNumberValue();
+                if (number != null && !keys.contains(number.longValue()))
+                {
+                    keys.add(number.longValue());
+                }
+            }
+
+            Object fallback = factory.invoke(null, convert(unusedKey(keys, parameterType), parameterType));
+
+            for (int i = 0; i < keys.size(); i++)
+            {
+                // the factory decides which constant a value maps to
+                Object resolved = factory.invoke(null, convert(keys.get(i), parameterType));
+                if (resolved == null || resolved == fallback)
+                {
+                    keys.remove(i--);
+                }
+                else
+                {
+                    values.add((AsNumber) resolved);
+                }
+            }
+        }
+        catch (ReflectiveOperationException | RuntimeException e)
+        {
+            // resolve every value with the factory
+            keys.clear();
+            values.clear();
+        }
+
+        return new AsNumberTable<AsNumber>(new LongTable<>(keys, values));
+    }
+
+    /**
+     * @return a key next to the given ones that parameterType can hold
+     */
+    protected static long unusedKey(List<Long> keys, Class<?> parameterType)
+    {
+        long limit = parameterType == short.class || parameterType == Short.class ? Short.MAX_VALUE
+                : parameterType == int.class || parameterType == Integer.class ? Integer.MAX_VALUE : Long.MAX_VALUE;
+
+        long key = 0;
+        while (keys.contains(key) && key < limit)
+        {
+            key++;
+        }
+        return key;
+    }
+
+    protected static Object convert(long key, Class<?> parameterType)
+    {
+        if (parameterType == int.class || parameterType == Integer.class)
+        {
+            return (int) key;
+        }
+        else if (parameterType == short.class || parameterType == Short.class)
+        {
+            return (short) key;
+        }
+        return key;
+    }
+
+    protected final LongTable<E> table;
+
+    protected AsNumberTable(LongTable<E> table)
+    {
+        this.table = table;
+    }
+
+    /**
+     * @return constant of value, null if there is none
+     */
+    public E get(long value)
+    {
+        return table.get(value);
+    }
+
+    /**
+     * @return constant of value, unknown if there is none
+     */
+    public E get(long value, E unknown)
+    {
+        E constant = table.get(value);
+        return constant != null ? constant : unknown;
+    }
+
+    /**
+     * @return number of values with a constant
+     */
+    public int size()
+    {
+        return table.size();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "AsNumberTable [" + size() + " values]";
+    }
+}
@@ -0,0 +1,74 @@
+package de.sloc.dataformat;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounds of the batches {@link PDUInputStream} frames before handing them to
+ * the consumer. A batch ends when it holds maxPDUs PDUs or at least maxBytes
+ * bytes. Without either bound reached, it takes further PDUs only as long as
+ * more bytes can be read without blocking and its first PDU was framed less
+ * than maxWait ago, so no PDU is held back longer than that waiting for
+ * others.
+ */
+public final class BatchPolicy
+{
+    /**
+     * Every PDU read completely at once, without waiting for more
+     */
+    public static final BatchPolicy UNBOUNDED = new BatchPolicy(Integer.MAX_VALUE, Integer.MAX_VALUE, 0, TimeUnit.NANOSECONDS);
+
+    /**
+     * Each PDU on its own, as soon as it is framed
+     */
+    public static final BatchPolicy LOW_LATENCY = new BatchPolicy(1, Integer.MAX_VALUE, 0, TimeUnit.NANOSECONDS);
+
+    protected final int maxPDUs;
+    protected final int maxBytes;
+    protected final long maxWaitNanos;
+
+    /**
+     * @param maxWait
+     *            how long to keep reading bytes that are available without
+     *            blocking into a batch, 0 for not at all
+     */
+    public BatchPolicy(int maxPDUs, int maxBytes, long maxWait, TimeUnit unit)
+    {
+        if (maxPDUs < 1 || maxBytes < 1 || maxWait < 0)
+        {
+            throw new IllegalArgumentException("maxPDUs < 1, maxBytes < 1 or maxWait < 0");
+        }
+
+        this.maxPDUs = maxPDUs;
+        this.maxBytes = maxBytes;
+        this.maxWaitNanos = unit.toNanos(maxWait);
+    }
+
+    public int getMaxPDUs()
+    {
+        return maxPDUs;
+    }
+
+    public int getMaxBytes()
+    {
+        return maxBytes;
+    }
+
+    public long getMaxWait(TimeUnit unit)
+    {
+        return unit.convert(maxWaitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return whether a batch of pdus PDUs and bytes bytes takes no more
+     */
+    boolean isFull(int pdus, long bytes)
+    {
+        return pdus >= maxPDUs || bytes >= maxBytes;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "BatchPolicy [maxPDUs=" + maxPDUs + ", maxBytes=" + maxBytes + ", maxWaitNanos=" + maxWaitNanos + "]";
+    }
+}
@@ -0,0 +1,107 @@
+package de.sloc.dataformat;
+
+/**
+ * Sizes and latencies of the batches of one {@link PDUInputStream}, to tune
+ * its {@link BatchPolicy} with. Framing latency runs from framing the first
+ * PDU of a batch to handing the batch over, drain latency from handing it over
+ * to the consumer taking its last PDU.
+ */
+public final class BatchStats
+{
+    protected long batches;
+    protected long pdus;
+    protected long bytes;
+    protected int maxBatchPDUs;
+    protected long maxBatchBytes;
+
+    protected long framingNanos;
+    protected long maxFramingNanos;
+
+    protected long drains;
+    protected long drainNanos;
+    protected long maxDrainNanos;
+
+    synchronized void recordBatch(int batchPDUs, long batchBytes, long batchFramingNanos)
+    {
+        batches++;
+        pdus += batchPDUs;
+        bytes += batchBytes;
+        maxBatchPDUs = Math.max(maxBatchPDUs, batchPDUs);
+        maxBatchBytes = Math.max(maxBatchBytes, batchBytes);
+        framingNanos += batchFramingNanos;
+        maxFramingNanos = Math.max(maxFramingNanos, batchFramingNanos);
+    }
+
+    synchronized void recordDrain(long batchDrainNanos)
+    {
+        drains++;
+        drainNanos += batchDrainNanos;
+        maxDrainNanos = Math.max(maxDrainNanos, batchDrainNanos);
+    }
+
+    public synchronized long getBatches()
+    {
+        return batches;
+    }
+
+    public synchronized long getPDUs()
+    {
+        return pdus;
+    }
+
+    public synchronized long getBytes()
+    {
+        return bytes;
+    }
+
+    public synchronized int getMaxBatchPDUs()
+    {
+        return maxBatchPDUs;
+    }
+
+    public synchronized long getMaxBatchBytes()
+    {
+        return maxBatchBytes;
+    }
+
+    public synchronized double getAverageBatchPDUs()
+    {
+        return batches == 0 ? 0 : pdus / (double) batches;
+    }
+
+    public synchronized long getAverageFramingNanos()
+    {
+        return batches == 0 ? 0 : framingNanos / batches;
+    }
+
+    public synchronized long getMaxFramingNanos()
+    {
+        return maxFramingNanos;
+    }
+
+    public synchronized long getAverageDrainNanos()
+    {
+        return drains == 0 ? 0 : drainNanos / drains;
+    }
+
+    public synchronized long getMaxDrainNanos()
+    {
+        return maxDrainNanos;
+    }
+
+    public synchronized void reset()
+    {
+        batches = pdus = bytes = maxBatchBytes = 0;
+        maxBatchPDUs = 0;
+        framingNanos = maxFramingNanos = 0;
+        drains = drainNanos = maxDrainNanos = 0;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return "BatchStats [batches=" + batches + ", pdus=" + pdus + ", bytes=" + bytes + ", maxBatchPDUs=" + maxBatchPDUs + ", maxBatchBytes="
+                + maxBatchBytes + ", averageFramingNanos=" + getAverageFramingNanos() + ", maxFramingNanos=" + maxFramingNanos
+                + ", averageDrainNanos=" + getAverageDrainNanos() + ", maxDrainNanos=" + maxDrainNanos + "]";
+    }
+}
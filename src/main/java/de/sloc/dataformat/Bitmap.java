@@ -4,13 +4,15 @@ import static de.sloc.dataformat.Bitmappable.FACTORY_METHOD_NAME;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashSet;
 import java.util.Set;
 
 public class Bitmap implements BinaryType
 {
 	protected byte[] bitmap;
+	protected int offset;
+	protected int length;
 
 	protected Class<? extends PDUSerializable> elementType;
 
@@ -36,39 +38,60 @@ public class Bitmap implements BinaryType
 			bitmapValue |= bitmappable.getValue();
 		}
 
-		this.bitmap = new UnsignedInteger(bitmapValue, length, null).getValue();
+		if (length < 0 || length > Long.BYTES || (length < Long.BYTES && bitmapValue >>> (length * 8) != 0))
+		{
+			throw new IllegalArgumentException("flags " + Long.toHexString(bitmapValue) + " exceed a bitmap of length " + length);
+		}
+
+		this.bitmap = new byte[length];
+		this.length = length;
+		UnsignedInteger.writeLong(bitmapValue, bitmap, 0, length);
 	}
 
-	@SuppressWarnings("unchecked")
 	public Bitmap(byte[] bitmap, int length, String[] args) throws PDUException
+	{
+		this(bitmap, 0, bitmap.length, args);
+	}
+
+	/**
+	 * View of length bytes of data at offset, data is not copied
+	 */
+	@SuppressWarnings("unchecked")
+	public Bitmap(byte[] data, int offset, int length, String[] args) throws PDUException
 	{
 		if (args.length < 1)
 		{
 			throw new IllegalArgumentException("elementType is not specified in args[0]");
 		}
 
-		this.bitmap = bitmap;
+		this.bitmap = data;
+		this.offset = offset;
+		this.length = length;
 		this.elementType = (Class<? extends PDUSerializable>) PDU.resolveElementType(args[0]);
 	}
 
 	@Override
 	public byte[] getValue()
 	{
-		return bitmap;
+		return offset == 0 && length == bitmap.length ? bitmap : Arrays.copyOfRange(bitmap, offset, offset + length);
 	}
 
 	@Override
 	public int getLength()
 	{
-		return bitmap.length;
+		return length;
 	}
 
 	@SuppressWarnings("unchecked")
 	@Override
 	public <T> T to(Class<T> klass) throws PDUException
 	{
-		Set<T> result = new HashSet<>();
-		long bitmapValue = new UnsignedInteger(bitmap, bitmap.length).toLong();
+		if (length > Long.BYTES)
+		{
+			throw new PDUException("Cannot convert BITMAP of " + length + " bytes to " + klass.getCanonicalName());
+		}
+
+		long bitmapValue = UnsignedInteger.readLong(bitmap, offset, length);
 
 		if (Long.class.isAssignableFrom(klass) || long.class.isAssignableFrom(klass))
 		{
@@ -79,35 +102,27 @@ public class Bitmap implements BinaryType
 			throw new IllegalArgumentException(klass.getCanonicalName() + " is not assignable to Set");
 		}
 
-		Method factoryMethod = resolveValueToFlagBitmapFactoryMethod((Class<? extends Bitmappable>) elementType);
+		FlagTable flagTable = FlagTable.ofBitmap(elementType);
+		Set<Object> result = flagTable.newSet();
 
 		try
 		{
 			if (bitmapValue == 0)
 			{
-				T noFlag = (T) factoryMethod.invoke(null, 0L);
+				Object noFlag = flagTable.resolve(0L);
 				if (noFlag != null)
 				{
 					result.add(noFlag);
 				}
 			}
-			else
-			{
-				long counter = 0x01L;
-				long maxBit = 0x01L << (bitmap.length * 8);
 
-				while (counter <= maxBit)
-				{
-					if ((bitmapValue & counter) > 0)
-					{
-						result.add((T) factoryMethod.invoke(null, counter));
-					}
-
-					counter <<= 1;
-				}
+			// set bits only, lowest first
+			for (long bits = bitmapValue; bits != 0; bits &= bits - 1)
+			{
+				FlagTable.add(result, flagTable.get(Long.numberOfTrailingZeros(bits)));
 			}
 		}
-		catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e)
+		catch (IllegalArgumentException | InvocationTargetException e)
 		{
 			throw new PDUException("Could not convert to " + klass.getCanonicalName(), e);
 		}
@@ -117,15 +132,7 @@ public class Bitmap implements BinaryType
 
 	protected static Method resolveValueToFlagBitmapFactoryMethod(Class<? extends Bitmappable> klass)
 	{
-		for (Method m : klass.getMethods())
-		{
-			Class<?>[] parameterTypes = m.getParameterTypes();
-			if (m.getName().equals(FACTORY_METHOD_NAME) && parameterTypes.length == 1)
-			{
-				return m;
-			}
-		}
-		throw new IllegalStateException(klass.getCanonicalName() + " does not implement " + FACTORY_METHOD_NAME);
+		return FlagTable.resolveFactoryMethod(klass, FACTORY_METHOD_NAME);
 	}
 
 }
@@ -0,0 +1,453 @@
+package de.sloc.dataformat;
+
+import static de.sloc.dataformat.PDUElement.Type.LENGTH;
+import static de.sloc.dataformat.PDUElement.Type.LENGTH_REFERENCE_PDU_ALL;
+
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+/**
+ * Immutable plan of the annotated elements of one {@link PDUSerializable}
+ * class: element order, declared offsets, resolved length references, padding
+ * and the constructors needed to decode. Built once per class, so
+ * {@link PDU#encode(PDUSerializable)}, {@link PDU#decode(byte[], Class, int)},
+ * {@link PDU#resolveLength(PDUSerializable)} and friends only walk arrays.
+ */
+public final class ClassLayout<T extends PDUSerializable>
+{
+    public static final int NO_OWNER = -1;
+
+    private static final ClassValue<ClassLayout<?>> LAYOUTS = new ClassValue<ClassLayout<?>>()
+    {
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        @Override
+        protected ClassLayout<?> computeValue(Class<?> type)
+        {
+            return new ClassLayout(type.asSubclass(PDUSerializable.class));
+        }
+    };
+
+    @SuppressWarnings("unchecked")
+    public static <T extends PDUSerializable> ClassLayout<T> of(Class<T> pduClass)
+    {
+        return (ClassLayout<T>) LAYOUTS.get(pduClass);
+    }
+
+    protected final Class<T> pduClass;
+    protected final boolean isAbstract;
+    protected final Element[] elements;
+
+    /**
+     * Index of the LENGTH element defining the length of element i on decode,
+     * or NO_OWNER
+     */
+    protected final int[] lengthOwners;
+
+    /**
+     * How often LENGTH element i references LENGTH_REFERENCE_PDU_ALL on decode
+     */
+    protected final int[] pduAllReferences;
+
+    /**
+     * Like lengthOwners, for encode, where references are also honored for
+     * LENGTH elements with a referencesMethod
+     */
+    protected final int[] encodeLengthOwners;
+
+    /**
+     * LENGTH element receiving the total size on encode, or NO_OWNER
+     */
+    protected final int encodePduAllOwner;
+
+    /**
+     * LENGTH elements back-patched on encode
+     */
+    protected final int[] patchedLengths;
+
+    /**
+     * Last element of pduClass itself annotated with {@link PDUSubtype}, or -1
+     */
+    protected final int subtypeIndex;
+
+    /**
+     * First LENGTH element referencing exactly LENGTH_REFERENCE_PDU_ALL, or -1
+     */
+    protected final int pduAllLengthIndex;
+
+    /**
+     * Sum of all declared lengths, -1 if any element has a dynamic length
+     */
+    protected final int fixedSize;
+
+    /**
+     * Result of {@link PDU#getLengthMetadata(Class)}, null if it fails
+     */
+    protected final int[] lengthMetadata;
+
+    /**
+     * Declared no-arg constructor, null if there is none
+     */
+    protected final Constructor<T> constructor;
+
+    /**
+     * Element name to index, later elements win
+     */
+    protected final Map<String, Integer> elementIndexes;
+
+    /**
+     * Whether element i can be left undecoded: no LENGTH, and no
+     * PDUSerializable whose consumed length determines the offset of a
+     * following element
+     */
+    protected final boolean[] skippable;
+
+    /**
+     * Skippable elements a {@link LazyPDU} converts on first access, all but
+     * primitives
+     */
+    protected final boolean[] deferrable;
+
+    protected ClassLayout(Class<T> pduClass)
+    {
+        this.pduClass = pduClass;
+        this.isAbstract = Modifier.isAbstract(pduClass.getModifiers());
+
+        Map<AnnotatedElement, PDUElement> annotatedElements = PDU.resolveAnnotatedElements(pduClass);
+        int size = annotatedElements.size();
+
+        this.elements = new Element[size];
+        this.lengthOwners = new int[size];
+        this.pduAllReferences = new int[size];
+        this.encodeLengthOwners = new int[size];
+        this.elementIndexes = new HashMap<>();
+        this.skippable = new boolean[size];
+        this.deferrable = new boolean[size];
+
+        // reference name -> LENGTH element, later LENGTH elements win
+        Map<String, Integer> owners = new HashMap<>();
+        Map<String, Integer> encodeOwners = new HashMap<>();
+
+        int index = 0;
+        int offset = 0;
+        int subtypeIndex = -1;
+        int pduAllLengthIndex = -1;
+        boolean canBeFixedSize = true;
+
+        for (Entry<AnnotatedElement, PDUElement> entry : annotatedElements.entrySet())
+        {
+            Element element = new Element(entry.getKey(), entry.getValue(), offset);
+            elements[index] = element;
+
+            if (element.type == LENGTH)
+            {
+                for (String reference : element.pduElement.references().split(","))
+                {
+                    encodeOwners.put(reference, index);
+
+                    // decode resolves lengths of a referencesMethod at runtime
+                    if (element.referencesMethod == null)
+                    {
+                        owners.put(reference, index);
+
+                        if (reference.equals(LENGTH_REFERENCE_PDU_ALL))
+                        {
+                            pduAllReferences[index]++;
+                        }
+                    }
+                }
+
+                if (pduAllLengthIndex == -1 && element.pduElement.references().equals(LENGTH_REFERENCE_PDU_ALL))
+                {
+                    pduAllLengthIndex = index;
+                }
+            }
+
+            Integer owner = owners.get(element.name);
+            lengthOwners[index] = owner == null ? NO_OWNER : owner;
+
+            Integer encodeOwner = encodeOwners.get(element.name);
+            encodeLengthOwners[index] = encodeOwner == null ? NO_OWNER : encodeOwner;
+
+            if (element.field != null && element.field.getDeclaringClass() == pduClass && element.subtype)
+            {
+                subtypeIndex = index;
+            }
+
+            elementIndexes.put(element.name, index);
+            skippable[index] = element.field != null && element.type != LENGTH
+                    && (index == size - 1 || !PDUSerializable.class.isAssignableFrom(element.field.getType()));
+            deferrable[index] = skippable[index] && element.primitiveType == null;
+
+            canBeFixedSize &= element.length > -1;
+            offset += element.length;
+            index++;
+        }
+
+        Integer pduAllOwner = encodeOwners.get(LENGTH_REFERENCE_PDU_ALL);
+        this.encodePduAllOwner = pduAllOwner == null ? NO_OWNER : pduAllOwner;
+
+        Set<Integer> patched = new LinkedHashSet<>(encodeOwners.values());
+        this.patchedLengths = new int[patched.size()];
+        index = 0;
+        for (Integer patchedLength : patched)
+        {
+            patchedLengths[index++] = patchedLength;
+        }
+
+        this.subtypeIndex = subtypeIndex;
+        this.pduAllLengthIndex = pduAllLengthIndex;
+        this.fixedSize = canBeFixedSize ? offset : -1;
+        this.lengthMetadata = resolveLengthMetadata();
+        this.constructor = resolveConstructor(pduClass);
+    }
+
+    protected int[] resolveLengthMetadata()
+    {
+        for (Element element : elements)
+        {
+            if (element.type == LENGTH)
+            {
+                return new int[] { element.offset, element.length, element.delta };
+            }
+        }
+
+        return fixedSize > -1 ? new int[] { fixedSize } : null;
+    }
+
+    protected static <T> Constructor<T> resolveConstructor(Class<T> pduClass)
+    {
+        try
+        {
+            Constructor<T> constructor = pduClass.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return constructor;
+        }
+        catch (NoSuchMethodException e)
+        {
+            return null;
+        }
+    }
+
+    public Class<T> getPDUClass()
+    {
+        return pduClass;
+    }
+
+    public int getElementCount()
+    {
+        return elements.length;
+    }
+
+    /**
+     * @return index of the element named name, -1 if there is none
+     */
+    public int indexOf(String name)
+    {
+        Integer index = elementIndexes.get(name);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * @return encoded size of every instance, -1 if it depends on the data
+     */
+    public int getFixedSize()
+    {
+        return fixedSize;
+    }
+
+    /**
+     * @return offset and length of the first LENGTH field and its delta, or
+     *         the fixed size
+     */
+    public int[] getLengthMetadata()
+    {
+        if (lengthMetadata == null)
+        {
+            throw new IllegalStateException("Could not find length field and at least on length-attribute is not set");
+        }
+        return lengthMetadata.clone();
+    }
+
+    protected T newInstance() throws InstantiationException, IllegalAccessException, InvocationTargetException, NoSuchMethodException
+    {
+        if (constructor == null)
+        {
+            throw new NoSuchMethodException(pduClass.getName() + ".<init>()");
+        }
+        return constructor.newInstance();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ClassLayout [" + pduClass.getCanonicalName() + ", elements=" + Arrays.toString(elements) + "]";
+    }
+
+    /**
+     * One annotated element with everything resolved that does not depend on
+     * the PDU's data
+     */
+    static final class Element
+    {
+        protected final AnnotatedElement annotatedElement;
+
+        /**
+         * Accessible field, null for annotated methods
+         */
+        protected final Field field;
+
+        protected final PDUElement pduElement;
+        protected final PDUElement.Type type;
+        protected final String name;
+        protected final int length;
+        protected final int pad;
+        protected final String[] args;
+        protected final int delta;
+
+        /**
+         * Sum of the declared lengths of all preceding elements, only the real
+         * offset if they have a fixed length
+         */
+        protected final int offset;
+
+        protected final boolean subtype;
+        protected final String[] subtypeArgs;
+
+        /**
+         * Name of the method returning the lengths of referenced fields, null
+         * if the LENGTH element references fields directly
+         */
+        protected final String referencesMethod;
+
+        /**
+         * int, long or short if the field is read with
+         * {@link UnsignedInteger#readLong} and set without boxing, else null
+         */
+        protected final Class<?> primitiveType;
+
+        /**
+         * (byte[], int, String[]) constructor of the element's BinaryType,
+         * null if missing
+         */
+        protected final Constructor<? extends BinaryType> decodeConstructor;
+
+        /**
+         * (byte[], int offset, int length, String[]) constructor of the
+         * element's BinaryType reading in place, null if missing
+         */
+        protected final Constructor<? extends BinaryType> viewConstructor;
+
+        /**
+         * Accessible {@link PDUElement#rawValue()} field, null if not set
+         */
+        protected final Field rawValueField;
+
+        Element(AnnotatedElement annotatedElement, PDUElement pduElement, int offset)
+        {
+            this.annotatedElement = annotatedElement;
+            this.field = annotatedElement instanceof Field ? (Field) annotatedElement : null;
+            this.pduElement = pduElement;
+            this.type = pduElement.type();
+            this.name = field != null ? field.getName() : ((Method) annotatedElement).getName();
+            this.length = pduElement.length();
+            this.pad = pduElement.pad();
+            this.args = pduElement.args();
+            this.delta = args != null && args.length > 0 && (type == LENGTH || type == PDUElement.Type.UNSIGNED_INTEGER) ? Integer.parseInt(args[0]) : 0;
+            this.offset = offset;
+
+            PDUSubtype pduSubtype = annotatedElement.getAnnotation(PDUSubtype.class);
+            this.subtype = pduSubtype != null;
+            this.subtypeArgs = pduSubtype != null ? pduSubtype.args() : null;
+
+            if (field != null)
+            {
+                field.setAccessible(true);
+            }
+
+            this.primitiveType = field != null && (type == LENGTH || type == PDUElement.Type.UNSIGNED_INTEGER) && field.getType().isPrimitive()
+                    && UnsignedInteger.fitsPrimitiveBits(field.getType(), length) ? field.getType() : null;
+            this.referencesMethod = type == LENGTH && !pduElement.referencesMethod().equals("") ? pduElement.referencesMethod() : null;
+            this.decodeConstructor = resolveConstructor(type.getDataClass(), byte[].class, int.class, String[].class);
+            this.viewConstructor = resolveConstructor(type.getDataClass(), byte[].class, int.class, int.class, String[].class);
+            this.rawValueField = field != null ? RawValues.resolve(field, pduElement) : null;
+        }
+
+        /**
+         * Keep the number an AsNumber value was decoded from in the
+         * rawValue field, if the element has one
+         */
+        protected void setRawValue(PDUSerializable pdu, Object value, byte[] data, int offset, int length) throws IllegalAccessException
+        {
+            if (rawValueField != null)
+            {
+                long number = UnsignedInteger.readLong(data, offset, length) + delta;
+                rawValueField.set(pdu, RawValues.decoded(field.getType(), value, number, rawValueField.getType()));
+            }
+        }
+
+        /**
+         * @return value to encode for the field's value: the rawValue if
+         *         the element has one that maps to value, else value
+         */
+        protected Object encodedValue(PDUSerializable pdu, Object value) throws IllegalAccessException, InvocationTargetException
+        {
+            if (rawValueField == null || !(value instanceof AsNumber))
+            {
+                return value;
+            }
+            return RawValues.encoded(field.getType(), (AsNumber) value, rawValueField.get(pdu));
+        }
+
+        protected static Constructor<? extends BinaryType> resolveConstructor(Class<? extends BinaryType> dataClass, Class<?>... parameterTypes)
+        {
+            try
+            {
+                return dataClass.getConstructor(parameterTypes);
+            }
+            catch (NoSuchMethodException e)
+            {
+                return null;
+            }
+        }
+
+        /**
+         * @return the element's BinaryType over length bytes of data at
+         *         offset, copied only if the BinaryType cannot read in place
+         */
+        protected BinaryType newBinaryValue(byte[] data, int offset, int length) throws InstantiationException, IllegalAccessException,
+                InvocationTargetException, NoSuchMethodException
+        {
+            if (viewConstructor != null)
+            {
+                return viewConstructor.newInstance(data, offset, length, args);
+            }
+            return getDecodeConstructor().newInstance(Arrays.copyOfRange(data, offset, offset + length), length, args);
+        }
+
+        protected Constructor<? extends BinaryType> getDecodeConstructor() throws NoSuchMethodException
+        {
+            if (decodeConstructor == null)
+            {
+                throw new NoSuchMethodException(type.getDataClass().getName() + ".<init>(byte[], int, String[])");
+            }
+            return decodeConstructor;
+        }
+
+        @Override
+        public String toString()
+        {
+            return name + "@" + offset + "[" + type + ", " + length + "]";
+        }
+    }
+
+}
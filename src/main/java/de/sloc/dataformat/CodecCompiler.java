@@ -0,0 +1,122 @@
+package de.sloc.dataformat;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Compiles a {@link PDUSerializable} class into a {@link PDUCodec} on first
+ * use. The annotated elements are resolved once into specialized
+ * {@link ElementCodec}s, so steady-state encode and decode run without
+ * java.lang.reflect. Codecs generated at compile time (see
+ * {@link PDUCodecRegistry}) take precedence. Classes using features the
+ * compiled codecs do not support (annotated methods, referencesMethod) get a
+ * {@link ReflectivePDUCodec}.
+ */
+public class CodecCompiler
+{
+    private static final ClassValue<PDUCodec<?>> CODECS = new ClassValue<PDUCodec<?>>()
+    {
+        @Override
+        protected PDUCodec<?> computeValue(Class<?> type)
+        {
+            return build(type.asSubclass(PDUSerializable.class));
+        }
+    };
+
+    @SuppressWarnings("unchecked")
+    public static <T extends PDUSerializable> PDUCodec<T> compile(Class<T> pduClass)
+    {
+        return (PDUCodec<T>) CODECS.get(pduClass);
+    }
+
+    /**
+     * Decode the PDU at offset with the codec of pduClass, without reading at
+     * or beyond end
+     *
+     * @param consumed
+     *            null, or receives the consumed bytes, padding included, at
+     *            index 0
+     */
+    static <T extends PDUSerializable> T decode(Class<T> pduClass, byte[] data, int offset, int end, int[] consumed) throws PDUException
+    {
+        PDUCodec<T> codec = compile(pduClass);
+
+        if (codec instanceof CompiledCodec)
+        {
+            return ((CompiledCodec<T>) codec).decode(data, offset, end, consumed);
+        }
+        else if (codec instanceof DispatchingCodec)
+        {
+            return ((DispatchingCodec<T>) codec).decode(data, offset, end, consumed);
+        }
+
+        // generated and reflective codecs
+        return consumed == null ? PDU.decode(data, pduClass, offset, end) : PDU.decode(data, pduClass, offset, end, consumed);
+    }
+
+    protected static <T extends PDUSerializable> PDUCodec<T> build(Class<T> pduClass)
+    {
+        PDUCodec<T> generatedCodec = PDUCodecRegistry.lookup(pduClass);
+        if (generatedCodec != null)
+        {
+            return generatedCodec;
+        }
+
+        try
+        {
+            ClassLayout<T> layout = ClassLayout.of(pduClass);
+            ElementCodec[] elementCodecs = new ElementCodec[layout.elements.length];
+
+            for (int i = 0; i < elementCodecs.length; i++)
+            {
+                ClassLayout.Element element = layout.elements[i];
+                if (element.field == null || element.referencesMethod != null)
+                {
+                    return new ReflectivePDUCodec<>(pduClass);
+                }
+
+                elementCodecs[i] = ElementCodec.of(element.field, element.pduElement);
+            }
+
+            CompiledCodec<T> compiledCodec = layout.isAbstract ? null : assemble(layout, elementCodecs);
+
+            if (layout.isAbstract || layout.subtypeIndex != -1)
+            {
+                return new DispatchingCodec<>(pduClass, compiledCodec);
+            }
+
+            return compiledCodec;
+        }
+        catch (ReflectiveOperationException | RuntimeException e)
+        {
+            // keep the class usable through the reflective engine
+            return new ReflectivePDUCodec<>(pduClass);
+        }
+    }
+
+    protected static <T extends PDUSerializable> CompiledCodec<T> assemble(ClassLayout<T> layout, ElementCodec[] elements) throws IllegalAccessException
+    {
+        // without a referencesMethod, encode and decode agree on length owners
+        boolean[] patchLength = new boolean[elements.length];
+        for (int i : layout.patchedLengths)
+        {
+            patchLength[i] = true;
+        }
+
+        return new CompiledCodec<>(layout.pduClass, resolveConstructor(layout), elements, layout.lengthOwners, layout.pduAllReferences,
+                                   layout.encodePduAllOwner, patchLength);
+    }
+
+    protected static MethodHandle resolveConstructor(ClassLayout<?> layout) throws IllegalAccessException
+    {
+        if (layout.constructor == null)
+        {
+            // encode only
+            return null;
+        }
+
+        return MethodHandles.lookup().unreflectConstructor(layout.constructor).asType(MethodType.methodType(PDUSerializable.class));
+    }
+
+}
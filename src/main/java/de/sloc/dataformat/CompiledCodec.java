@@ -0,0 +1,402 @@
+package de.sloc.dataformat;
+
+import java.lang.invoke.MethodHandle;
+import java.util.Arrays;
+
+/**
+ * {@link PDUCodec} for one concrete class, built by {@link CodecCompiler}.
+ * Element order, length references and padding are resolved when the codec is
+ * built, so encode and decode only walk arrays of {@link ElementCodec}s.
+ */
+class CompiledCodec<T extends PDUSerializable> implements PDUCodec<T>
+{
+    protected static final int NO_OWNER = ClassLayout.NO_OWNER;
+
+    protected final Class<T> pduClass;
+
+    /**
+     * ()PDUSerializable, null if pduClass cannot be instantiated
+     */
+    protected final MethodHandle constructor;
+
+    protected final ElementCodec[] elements;
+
+    /**
+     * Index of the LENGTH element defining the length of element i, or
+     * NO_OWNER
+     */
+    protected final int[] lengthOwners;
+
+    /**
+     * How often LENGTH element i references LENGTH_REFERENCE_PDU_ALL
+     */
+    protected final int[] pduAllReferences;
+
+    /**
+     * LENGTH element receiving the total size on encode, or NO_OWNER
+     */
+    protected final int pduAllOwner;
+
+    /**
+     * Whether LENGTH element i is back-patched on encode
+     */
+    protected final boolean[] patchLength;
+
+    protected final int initialCapacity;
+
+    /**
+     * Last element whose size LENGTH element i receives on encode, or
+     * NO_OWNER
+     */
+    protected final int[] lengthSources;
+
+    /**
+     * Whether every length can be computed before its referenced element is
+     * written, which lets {@link #encode(PDUSerializable, byte[], int)} write
+     * each byte once
+     */
+    protected final boolean writesInPlace;
+
+    CompiledCodec(Class<T> pduClass, MethodHandle constructor, ElementCodec[] elements, int[] lengthOwners, int[] pduAllReferences,
+                  int pduAllOwner, boolean[] patchLength)
+    {
+        this.pduClass = pduClass;
+        this.constructor = constructor;
+        this.elements = elements;
+        this.lengthOwners = lengthOwners;
+        this.pduAllReferences = pduAllReferences;
+        this.pduAllOwner = pduAllOwner;
+        this.patchLength = patchLength;
+
+        int capacity = 0;
+        for (ElementCodec element : elements)
+        {
+            capacity += Math.max(element.length, 0);
+        }
+        this.initialCapacity = Math.max(capacity, 64);
+
+        this.lengthSources = new int[elements.length];
+        Arrays.fill(lengthSources, NO_OWNER);
+        boolean writesInPlace = true;
+        for (int i = 0; i < elements.length; i++)
+        {
+            if (lengthOwners[i] != NO_OWNER)
+            {
+                lengthSources[lengthOwners[i]] = i;
+
+                // the size of dynamic padding depends on its position
+                writesInPlace &= !(elements[i] instanceof ElementCodec.PaddingElement && elements[i].length == -1);
+            }
+        }
+        this.writesInPlace = writesInPlace;
+    }
+
+    @Override
+    public T decode(byte[] data, int offset) throws PDUException
+    {
+        return decode(data, offset, data.length, null);
+    }
+
+    /**
+     * Decode the PDU at offset without reading at or beyond end
+     *
+     * @param consumed
+     *            null, or receives the consumed bytes, padding included, at
+     *            index 0
+     */
+    @SuppressWarnings("unchecked")
+    public T decode(byte[] data, int offset, int end, int[] consumed) throws PDUException
+    {
+        if (constructor == null)
+        {
+            throw new PDUException("Could not decode PDU for " + pduClass.getCanonicalName() + ": class cannot be instantiated");
+        }
+
+        ElementCodec element = null;
+
+        try
+        {
+            T pdu = (T) (PDUSerializable) constructor.invokeExact();
+            int start = offset;
+
+            int[] lengthValues = new int[elements.length];
+            int restLength = 0;
+
+            for (int i = 0; i < elements.length; i++)
+            {
+                element = elements[i];
+                int length = element.length;
+
+                // dynamic length: length field first, then rest of PDU
+                if (length == -1)
+                {
+                    if (lengthOwners[i] != NO_OWNER)
+                    {
+                        length = lengthValues[lengthOwners[i]];
+                    }
+                    else if (restLength > -1)
+                    {
+                        length = restLength;
+                    }
+                    else
+                    {
+                        length = end - offset;
+                    }
+                }
+
+                if (length < 0 || offset + length > end)
+                {
+                    throw new IllegalArgumentException("element " + element.name + " of length " + length + " at offset " + offset + " exceeds data");
+                }
+
+                if (element.isLength())
+                {
+                    int lengthValue = (int) UnsignedInteger.readLong(data, offset, length) + element.delta;
+                    lengthValues[i] = lengthValue;
+                    restLength += pduAllReferences[i] * lengthValue;
+                }
+
+                length = element.decode(pdu, data, offset, length);
+
+                if (element.pad > -1)
+                {
+                    length += PDU.resolvePaddingLength(element.pad, length);
+                }
+
+                restLength -= length;
+                offset += length;
+            }
+
+            if (consumed != null)
+            {
+                consumed[0] = offset - start;
+            }
+            return pdu;
+        }
+        catch (PDUException e)
+        {
+            throw e;
+        }
+        catch (Error e)
+        {
+            throw e;
+        }
+        catch (Throwable e)
+        {
+            throw new PDUException("Could not decode PDU for " + pduClass.getCanonicalName() + at(element), e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public byte[] encode(T pdu) throws PDUException
+    {
+        if (pdu.getClass() != pduClass)
+        {
+            return CodecCompiler.compile((Class<T>) pdu.getClass()).encode(pdu);
+        }
+
+        EncodeBuffer out = new EncodeBuffer(initialCapacity);
+        int[] lengthOffsets = new int[elements.length];
+        int[] lengthValues = new int[elements.length];
+        ElementCodec element = null;
+
+        try
+        {
+            for (int i = 0; i < elements.length; i++)
+            {
+                element = elements[i];
+                int written;
+
+                if (element.isLength())
+                {
+                    // placeholder, patched below
+                    lengthOffsets[i] = out.size();
+                    out.writeUnsigned(-element.delta, element.length);
+                    written = element.length;
+                }
+                else
+                {
+                    written = element.encode(pdu, out);
+                }
+
+                if (lengthOwners[i] != NO_OWNER)
+                {
+                    lengthValues[lengthOwners[i]] = written;
+                }
+
+                if (element.pad > -1 && !(element instanceof ElementCodec.PaddingElement))
+                {
+                    out.writeZeros(PDU.resolvePaddingLength(element.pad, written));
+                }
+            }
+
+            if (pduAllOwner != NO_OWNER)
+            {
+                lengthValues[pduAllOwner] = out.size();
+            }
+
+            for (int i = 0; i < elements.length; i++)
+            {
+                if (patchLength[i])
+                {
+                    out.patchUnsigned(lengthOffsets[i], lengthValues[i] - elements[i].delta, elements[i].length);
+                }
+            }
+
+            return out.toByteArray();
+        }
+        catch (PDUException e)
+        {
+            throw e;
+        }
+        catch (Error e)
+        {
+            throw e;
+        }
+        catch (Throwable e)
+        {
+            throw new PDUException("Could not encode PDU at " + pduClass + at(element), e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public int sizeOf(T pdu) throws PDUException
+    {
+        if (pdu.getClass() != pduClass)
+        {
+            return CodecCompiler.compile((Class<T>) pdu.getClass()).sizeOf(pdu);
+        }
+
+        ElementCodec element = null;
+
+        try
+        {
+            int size = 0;
+
+            for (int i = 0; i < elements.length; i++)
+            {
+                element = elements[i];
+                int elementSize = element.isLength() ? element.length : element.sizeOf(pdu, size);
+                size += elementSize;
+
+                if (element.pad > -1 && !(element instanceof ElementCodec.PaddingElement))
+                {
+                    size += PDU.resolvePaddingLength(element.pad, elementSize);
+                }
+            }
+
+            return size;
+        }
+        catch (PDUException e)
+        {
+            throw e;
+        }
+        catch (Error e)
+        {
+            throw e;
+        }
+        catch (Throwable e)
+        {
+            throw new PDUException("Could not encode PDU at " + pduClass + at(element), e);
+        }
+    }
+
+    /**
+     * Two passes: {@link #sizeOf(PDUSerializable)} checks that the PDU fits
+     * and yields PDU_ALL lengths, then every element is written into out.
+     * Lengths are computed from their referenced element before it is
+     * written, so nothing is back-patched and, for elements of fixed size,
+     * nothing allocated.
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public int encode(T pdu, byte[] out, int offset, int end) throws PDUException
+    {
+        if (pdu.getClass() != pduClass)
+        {
+            return CodecCompiler.compile((Class<T>) pdu.getClass()).encode(pdu, out, offset, end);
+        }
+
+        if (!writesInPlace)
+        {
+            return PDUCodec.super.encode(pdu, out, offset, end);
+        }
+
+        int size = sizeOf(pdu);
+        if (offset < 0 || end > out.length || end - offset < size)
+        {
+            throw new IndexOutOfBoundsException("PDU of " + size + " bytes does not fit into " + out.length + " bytes between " + offset + " and " + end);
+        }
+
+        ElementCodec element = null;
+
+        try
+        {
+            int position = 0;
+
+            for (int i = 0; i < elements.length; i++)
+            {
+                element = elements[i];
+                int written;
+
+                if (element.isLength())
+                {
+                    int lengthValue = 0;
+                    if (i == pduAllOwner)
+                    {
+                        lengthValue = size;
+                    }
+                    else if (lengthSources[i] != NO_OWNER)
+                    {
+                        lengthValue = elements[lengthSources[i]].sizeOf(pdu, -1);
+                    }
+
+                    // LENGTH elements not referencing anything keep their placeholder
+                    UnsignedInteger.writeLong((patchLength[i] ? lengthValue : 0) - element.delta, out, offset + position, element.length);
+                    written = element.length;
+                }
+                else
+                {
+                    written = element.write(pdu, out, offset + position, position);
+                }
+
+                position += written;
+
+                if (element.pad > -1 && !(element instanceof ElementCodec.PaddingElement))
+                {
+                    int padding = PDU.resolvePaddingLength(element.pad, written);
+                    Arrays.fill(out, offset + position, offset + position + padding, (byte) 0);
+                    position += padding;
+                }
+            }
+
+            return position;
+        }
+        catch (PDUException e)
+        {
+            throw e;
+        }
+        catch (Error e)
+        {
+            throw e;
+        }
+        catch (Throwable e)
+        {
+            throw new PDUException("Could not encode PDU at " + pduClass + at(element), e);
+        }
+    }
+
+    protected static String at(ElementCodec element)
+    {
+        return element == null ? "" : "." + element.name;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "CompiledCodec [" + pduClass.getCanonicalName() + ", " + elements.length + " elements]";
+    }
+
+}
@@ -0,0 +1,107 @@
+package de.sloc.dataformat;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors to decode PDUs read by {@link PDUInputStream} with, see
+ * {@link PDUInputStream#setExecutor(Executor)}.
+ */
+public final class DecodeExecutors
+{
+    private DecodeExecutors()
+    {
+    }
+
+    /**
+     * @return process-wide pool of daemon threads, one per processor, shared by
+     *         all streams that do not set their own executor
+     */
+    public static Executor shared()
+    {
+        return SharedHolder.POOL;
+    }
+
+    /**
+     * @return executor decoding on the thread that reads, before the read
+     *         returns
+     */
+    public static Executor inline()
+    {
+        return InlineExecutor.INSTANCE;
+    }
+
+    public static boolean isVirtualThreadsSupported()
+    {
+        return VirtualThreadsHolder.EXECUTOR != null;
+    }
+
+    /**
+     * @return executor starting a virtual thread per task
+     * @throws IllegalStateException
+     *             before JDK 21
+     */
+    public static Executor virtualThreads()
+    {
+        if (VirtualThreadsHolder.EXECUTOR == null)
+        {
+            throw new IllegalStateException("virtual threads need JDK 21 or later");
+        }
+        return VirtualThreadsHolder.EXECUTOR;
+    }
+
+    private static final class SharedHolder
+    {
+        static final ExecutorService POOL = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory()
+        {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "dataformat-decode-" + count.incrementAndGet());
+                // never keeps the JVM alive, nor leaks with unclosed streams
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private static final class VirtualThreadsHolder
+    {
+        static final Executor EXECUTOR = create();
+
+        private static Executor create()
+        {
+            try
+            {
+                // compiled for Java 8, so looked up at runtime
+                return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            }
+            catch (ReflectiveOperationException | RuntimeException e)
+            {
+                return null;
+            }
+        }
+    }
+
+    private static final class InlineExecutor implements Executor
+    {
+        static final InlineExecutor INSTANCE = new InlineExecutor();
+
+        @Override
+        public void execute(Runnable command)
+        {
+            command.run();
+        }
+
+        @Override
+        public String toString()
+        {
+            return "inline";
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package de.sloc.dataformat;
+
+/**
+ * {@link PDUCodec} for classes declaring a {@link PDUSubtype} element or
+ * being abstract: decode resolves the instantiable class first and continues
+ * with its compiled codec.
+ */
+class DispatchingCodec<T extends PDUSerializable> implements PDUCodec<T>
+{
+    protected final Class<T> pduClass;
+
+    /**
+     * Codec for instances of pduClass itself, null if pduClass is abstract
+     */
+    protected final CompiledCodec<T> ownCodec;
+
+    DispatchingCodec(Class<T> pduClass, CompiledCodec<T> ownCodec)
+    {
+        this.pduClass = pduClass;
+        this.ownCodec = ownCodec;
+    }
+
+    @Override
+    public T decode(byte[] data, int offset) throws PDUException
+    {
+        return decode(data, offset, data.length, null);
+    }
+
+    /**
+     * See {@link CompiledCodec#decode(byte[], int, int, int[])}
+     */
+    public T decode(byte[] data, int offset, int end, int[] consumed) throws PDUException
+    {
+        Class<T> instantiableClass;
+
+        try
+        {
+            instantiableClass = PDU.resolveInstantiableClass(pduClass, data, offset);
+        }
+        catch (IllegalStateException e)
+        {
+            throw new PDUException("Could not decode PDU for " + pduClass.getCanonicalName(), e);
+        }
+
+        if (instantiableClass == pduClass)
+        {
+            return ownCodec.decode(data, offset, end, consumed);
+        }
+
+        return CodecCompiler.decode(instantiableClass, data, offset, end, consumed);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public byte[] encode(T pdu) throws PDUException
+    {
+        if (pdu.getClass() == pduClass && ownCodec != null)
+        {
+            return ownCodec.encode(pdu);
+        }
+
+        return CodecCompiler.compile((Class<T>) pdu.getClass()).encode(pdu);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public int sizeOf(T pdu) throws PDUException
+    {
+        if (pdu.getClass() == pduClass && ownCodec != null)
+        {
+            return ownCodec.sizeOf(pdu);
+        }
+
+        return CodecCompiler.compile((Class<T>) pdu.getClass()).sizeOf(pdu);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public int encode(T pdu, byte[] out, int offset, int end) throws PDUException
+    {
+        if (pdu.getClass() == pduClass && ownCodec != null)
+        {
+            return ownCodec.encode(pdu, out, offset, end);
+        }
+
+        return CodecCompiler.compile((Class<T>) pdu.getClass()).encode(pdu, out, offset, end);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "DispatchingCodec [" + pduClass.getCanonicalName() + "]";
+    }
+
+}
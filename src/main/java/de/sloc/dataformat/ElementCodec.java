@@ -0,0 +1,839 @@
+package de.sloc.dataformat;
+
+import static de.sloc.dataformat.PDUElement.Type.LENGTH;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * Reads and writes one annotated field of a {@link CompiledCodec}. Each
+ * implementation is specialized to a combination of {@link PDUElement.Type}
+ * and field type and accesses the field through a {@link MethodHandle} of
+ * matching signature, so primitives are neither boxed nor converted through
+ * {@link BinaryType#to(Class)}.
+ */
+abstract class ElementCodec
+{
+    protected static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    protected final Field field;
+    protected final PDUElement pduElement;
+
+    /**
+     * pduElement.type(), annotation methods are too slow for the hot path
+     */
+    protected final PDUElement.Type type;
+    protected final String name;
+    protected final int length;
+    protected final int pad;
+    protected final String[] args;
+    protected final int delta;
+
+    protected ElementCodec(Field field, PDUElement pduElement)
+    {
+        this.field = field;
+        this.pduElement = pduElement;
+        this.type = pduElement.type();
+        this.name = field.getName();
+        this.length = pduElement.length();
+        this.pad = pduElement.pad();
+        this.args = pduElement.args();
+        this.delta = args != null && args.length > 0 && isUnsignedInteger(pduElement) ? Integer.parseInt(args[0]) : 0;
+    }
+
+    /**
+     * Convert length bytes at offset and set the field
+     *
+     * @return consumed bytes, not including padding
+     */
+    protected abstract int decode(PDUSerializable pdu, byte[] data, int offset, int length) throws Throwable;
+
+    /**
+     * Append the field's value to out
+     *
+     * @return written bytes, not including padding
+     */
+    protected abstract int encode(PDUSerializable pdu, EncodeBuffer out) throws Throwable;
+
+    /**
+     * Size of the field's value when encoded at position, relative to the
+     * start of the PDU. Encodes the value unless an implementation knows
+     * better.
+     *
+     * @return bytes {@link #encode(PDUSerializable, EncodeBuffer)} writes, not
+     *         including padding
+     */
+    protected int sizeOf(PDUSerializable pdu, int position) throws Throwable
+    {
+        return encode(pdu, new EncodeBuffer(Math.max(length, 16)));
+    }
+
+    /**
+     * Write the field's value into out at offset, position bytes after the
+     * start of the PDU. Goes through an {@link EncodeBuffer} unless an
+     * implementation writes directly.
+     *
+     * @return written bytes, not including padding
+     */
+    protected int write(PDUSerializable pdu, byte[] out, int offset, int position) throws Throwable
+    {
+        EncodeBuffer buffer = new EncodeBuffer(Math.max(length, 16));
+        int written = encode(pdu, buffer);
+        System.arraycopy(buffer.data, 0, out, offset, written);
+        return written;
+    }
+
+    protected boolean isLength()
+    {
+        return type == LENGTH;
+    }
+
+    protected static boolean isUnsignedInteger(PDUElement pduElement)
+    {
+        switch (pduElement.type())
+        {
+            case UNSIGNED_INTEGER:
+            case LENGTH:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    protected static MethodHandle getter(Field field, Class<?> type) throws IllegalAccessException
+    {
+        field.setAccessible(true);
+        return LOOKUP.unreflectGetter(field).asType(MethodType.methodType(type, PDUSerializable.class));
+    }
+
+    protected static MethodHandle setter(Field field, Class<?> type) throws IllegalAccessException
+    {
+        field.setAccessible(true);
+        return LOOKUP.unreflectSetter(field).asType(MethodType.methodType(void.class, PDUSerializable.class, type));
+    }
+
+    static ElementCodec of(Field field, PDUElement pduElement) throws ReflectiveOperationException
+    {
+        Class<?> fieldType = field.getType();
+        int length = pduElement.length();
+
+        switch (pduElement.type())
+        {
+            case UNSIGNED_INTEGER:
+            case LENGTH:
+                if (fieldType == int.class && UnsignedInteger.fitsPrimitiveBits(fieldType, length))
+                {
+                    return new IntElement(field, pduElement);
+                }
+                else if (fieldType == long.class && UnsignedInteger.fitsPrimitiveBits(fieldType, length))
+                {
+                    return new LongElement(field, pduElement);
+                }
+                else if (fieldType == short.class && UnsignedInteger.fitsPrimitiveBits(fieldType, length))
+                {
+                    return new ShortElement(field, pduElement);
+                }
+                else if (AsNumber.class.isAssignableFrom(fieldType))
+                {
+                    return new AsNumberElement(field, pduElement);
+                }
+                else if (fieldType == BigInteger.class && length > -1)
+                {
+                    return new BigIntegerElement(field, pduElement);
+                }
+                break;
+            case RAW:
+                if (fieldType == byte[].class)
+                {
+                    return new BytesElement(field, pduElement);
+                }
+                break;
+            case IP_ADDRESS:
+                if (IPAddress.class.isAssignableFrom(fieldType))
+                {
+                    return new IPAddressElement(field, pduElement);
+                }
+                break;
+            case PADDING:
+                return new PaddingElement(field, pduElement);
+            case FIXED_LENGTH_STRING:
+                if (fieldType == String.class)
+                {
+                    return new StringElement(field, pduElement);
+                }
+                break;
+            case STRUCTURE:
+                if (PDUSerializable.class.isAssignableFrom(fieldType) && pduElement.args().length == 0 && length == -1)
+                {
+                    return new StructureElement(field, pduElement);
+                }
+                break;
+            default:
+                break;
+        }
+
+        return new GenericElement(field, pduElement);
+    }
+
+    static class IntElement extends ElementCodec
+    {
+        protected final MethodHandle getter;
+        protected final MethodHandle setter;
+
+        IntElement(Field field, PDUElement pduElement) throws IllegalAccessException
+        {
+            super(field, pduElement);
+            this.getter = getter(field, int.class);
+            this.setter = setter(field, int.class);
+        }
+
+        @Override
+        protected int decode(PDUSerializable pdu, byte[] data, int offset, int length) throws Throwable
+        {
+            setter.invokeExact(pdu, (int) UnsignedInteger.readLong(data, offset, length) + delta);
+            return length;
+        }
+
+        @Override
+        protected int encode(PDUSerializable pdu, EncodeBuffer out) throws Throwable
+        {
+            int value = (int) getter.invokeExact(pdu);
+            out.writeUnsigned(value - delta, length);
+            return length;
+        }
+
+        @Override
+        protected int sizeOf(PDUSerializable pdu, int position)
+        {
+            return length;
+        }
+
+        @Override
+        protected int write(PDUSerializable pdu, byte[] out, int offset, int position) throws Throwable
+        {
+            int value = (int) getter.invokeExact(pdu);
+            UnsignedInteger.writeLong(value - delta, out, offset, length);
+            return length;
+        }
+    }
+
+    static class LongElement extends ElementCodec
+    {
+        protected final MethodHandle getter;
+        protected final MethodHandle setter;
+
+        LongElement(Field field, PDUElement pduElement) throws IllegalAccessException
+        {
+            super(field, pduElement);
+            this.getter = getter(field, long.class);
+            this.setter = setter(field, long.class);
+        }
+
+        @Override
+        protected int decode(PDUSerializable pdu, byte[] data, int offset, int length) throws Throwable
+        {
+            setter.invokeExact(pdu, UnsignedInteger.readLong(data, offset, length) + delta);
+            return length;
+        }
+
+        @Override
+        protected int encode(PDUSerializable pdu, EncodeBuffer out) throws Throwable
+        {
+            long value = (long) getter.invokeExact(pdu) - delta;
+            if (value < 0 && length < Long.BYTES)
+            {
+                throw new IllegalArgumentException("value or length < 0");
+            }
+            out.writeUnsigned(value, length);
+            return length;
+        }
+
+        @Override
+        protected int sizeOf(PDUSerializable pdu, int position)
+        {
+            return length;
+        }
+
+        @Override
+        protected int write(PDUSerializable pdu, byte[] out, int offset, int position) throws Throwable
+        {
+            long value = (long) getter.invokeExact(pdu) - delta;
+            if (value < 0 && length < Long.BYTES)
+            {
+                throw new IllegalArgumentException("value or length < 0");
+            }
+            UnsignedInteger.writeLong(value, out, offset, length);
+            return length;
+        }
+    }
+
+    static class ShortElement extends ElementCodec
+    {
+        protected final MethodHandle getter;
+        protected final MethodHandle setter;
+
+        ShortElement(Field field, PDUElement pduElement) throws IllegalAccessException
+        {
+            super(field, pduElement);
+            this.getter = getter(field, short.class);
+            this.setter = setter(field, short.class);
+        }
+
+        @Override
+        protected int decode(PDUSerializable pdu, byte[] data, int offset, int length) throws Throwable
+        {
+            setter.invokeExact(pdu, (short) (UnsignedInteger.readLong(data, offset, length) + delta));
+            return length;
+        }
+
+        @Override
+        protected int encode(PDUSerializable pdu, EncodeBuffer out) throws Throwable
+        {
+            short value = (short) getter.invokeExact(pdu);
+            out.writeUnsigned(value - delta, length);
+            return length;
+        }
+
+        @Override
+        protected int sizeOf(PDUSerializable pdu, int position)
+        {
+            return length;
+        }
+
+        @Override
+        protected int write(PDUSerializable pdu, byte[] out, int offset, int position) throws Throwable
+        {
+            short value = (short) getter.invokeExact(pdu);
+            UnsignedInteger.writeLong(value - delta, out, offset, length);
+            return length;
+        }
+    }
+
+    static class AsNumberElement extends ElementCodec
+    {
+        protected final MethodHandle getter;
+        protected final MethodHandle setter;
+
+        protected final Class<?> parameterType;
+
+        /**
+         * getByValue as (long)Object, only set if it takes a primitive that
+         * can be read directly
+         */
+        protected final MethodHandle primitiveFactory;
+        protected final MethodHandle factory;
+
+        /**
+         * Constants by value, looked up before primitiveFactory
+         */
+        protected final AsNumberTable<?> table;
+
+        /**
+         * Accessors of the {@link PDUElement#rawValue()} field as Object,
+         * null if not set
+         */
+        protected final MethodHandle rawGetter;
+        protected final MethodHandle rawSetter;
+        protected final Class<?> rawType;
+
+        AsNumberElement(Field field, PDUElement pduElement) throws IllegalAccessException
+        {
+            super(field, pduElement);
+            this.getter = getter(field, Object.class);
+            this.setter = setter(field, Object.class);
+
+            FactoryHandle factoryHandle = FactoryHandle.of(field.getType(), AsNumber.FACTORY_METHOD_NAME);
+            if (factoryHandle.handle == null)
+            {
+                throw new IllegalAccessException(field.getType().getCanonicalName() + "." + AsNumber.FACTORY_METHOD_NAME + " is not accessible");
+            }
+
+            this.parameterType = factoryHandle.getParameterType();
+            this.factory = factoryHandle.handle;
+            this.primitiveFactory = factoryHandle.isPrimitive() && UnsignedInteger.fitsPrimitive(parameterType, length) ? factoryHandle.primitiveHandle : null;
+            this.table = AsNumberTable.resolved(field.getType());
+
+            Field rawField = RawValues.resolve(field, pduElement);
+            this.rawGetter = rawField != null ? getter(rawField, Object.class) : null;
+            this.rawSetter = rawField != null ? setter(rawField, Object.class) : null;
+            this.rawType = rawField != null ? rawField.getType() : null;
+        }
+
+        @Override
+        protected int decode(PDUSerializable pdu, byte[] data, int offset, int length) throws Throwable
+        {
+            Object value;
+
+            if (primitiveFactory != null)
+            {
+                long number = UnsignedInteger.readLong(data, offset, length) + delta;
+                value = table.get(number);
+                if (value == null)
+                {
+                    value = (Object) primitiveFactory.invokeExact(number);
+                }
+            }
+            else
+            {
+                UnsignedInteger unsignedInteger = new UnsignedInteger(data, offset, length, args);
+                value = (Object) factory.invokeExact(unsignedInteger.to(parameterType));
+            }
+
+            setter.invokeExact(pdu, value);
+
+            if (rawSetter != null)
+            {
+                long number = UnsignedInteger.readLong(data, offset, length) + delta;
+                rawSetter.invokeExact(pdu, (Object) RawValues.decoded(field.getType(), value, number, rawType));
+            }
+            return length;
+        }
+
+        @Override
+        protected int encode(PDUSerializable pdu, EncodeBuffer out) throws Throwable
+        {
+            // a rawValue implies a length
+            UnsignedInteger unsignedInteger = rawGetter != null ? new UnsignedInteger(number(pdu), length, args) : new UnsignedInteger(value(pdu), length, args);
+            byte[] valueInBytes = unsignedInteger.getValue();
+            out.write(valueInBytes);
+            return valueInBytes.length;
+        }
+
+        @Override
+        protected int sizeOf(PDUSerializable pdu, int position) throws Throwable
+        {
+            if (length > -1)
+            {
+                return length;
+            }
+
+            int resolvedLength = resolveLength(number(pdu));
+            return resolvedLength > -1 ? resolvedLength : super.sizeOf(pdu, position);
+        }
+
+        @Override
+        protected int write(PDUSerializable pdu, byte[] out, int offset, int position) throws Throwable
+        {
+            Number number = number(pdu);
+            int resolvedLength = length > -1 ? length : resolveLength(number);
+
+            if (resolvedLength > -1 && writeNumber(number, resolvedLength, out, offset))
+            {
+                return resolvedLength;
+            }
+
+            return super.write(pdu, out, offset, position);
+        }
+
+        protected AsNumber value(PDUSerializable pdu) throws Throwable
+        {
+            AsNumber value = (AsNumber) (Object) getter.invokeExact(pdu);
+            if (value == null)
+            {
+                throw new IllegalArgumentException("Value of following field must not be null: " + name);
+            }
+            return value;
+        }
+
+        /**
+         * @return number to encode, the rawValue if it maps to the field's
+         *         constant
+         */
+        protected Number number(PDUSerializable pdu) throws Throwable
+        {
+            AsNumber value = value(pdu);
+            return rawGetter != null ? RawValues.encoded(field.getType(), value, (Object) rawGetter.invokeExact(pdu)) : value.getNumberValue();
+        }
+
+        /**
+         * @return length the UnsignedInteger constructor chooses for elements
+         *         without length, -1 if unknown
+         */
+        protected static int resolveLength(Number number)
+        {
+            if (number instanceof BigInteger)
+            {
+                // length of toByteArray()
+                return ((BigInteger) number).bitLength() / 8 + 1;
+            }
+            else if (number instanceof Integer)
+            {
+                return 3;
+            }
+            else if (number instanceof Long)
+            {
+                return 7;
+            }
+            return -1;
+        }
+
+        /**
+         * Write number like the UnsignedInteger constructor, in place
+         *
+         * @return false if the constructor is needed
+         */
+        protected boolean writeNumber(Number number, int length, byte[] out, int offset)
+        {
+            if (number instanceof Integer && length <= Integer.BYTES)
+            {
+                UnsignedInteger.writeLong(number.intValue() - delta, out, offset, length);
+                return true;
+            }
+            else if (number instanceof Long && length <= Long.BYTES && (number.longValue() - delta >= 0 || length == Long.BYTES))
+            {
+                UnsignedInteger.writeLong(number.longValue() - delta, out, offset, length);
+                return true;
+            }
+            else if (number instanceof BigInteger && ((BigInteger) number).bitLength() < 64 && ((BigInteger) number).bitLength() <= length * 8)
+            {
+                // right-aligned two's complement of toByteArray(), zero-filled
+                BigInteger value = (BigInteger) number;
+                int byteLength = value.signum() >= 0 ? length : value.bitLength() / 8 + 1;
+                if (byteLength > length)
+                {
+                    return false;
+                }
+
+                Arrays.fill(out, offset, offset + length - byteLength, (byte) 0);
+                UnsignedInteger.writeLong(value.longValue(), out, offset + length - byteLength, byteLength);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    static class BigIntegerElement extends ElementCodec
+    {
+        protected final MethodHandle getter;
+        protected final MethodHandle setter;
+
+        BigIntegerElement(Field field, PDUElement pduElement) throws IllegalAccessException
+        {
+            super(field, pduElement);
+            this.getter = getter(field, Object.class);
+            this.setter = setter(field, Object.class);
+        }
+
+        @Override
+        protected int decode(PDUSerializable pdu, byte[] data, int offset, int length) throws Throwable
+        {
+            setter.invokeExact(pdu, (Object) new UnsignedInteger(data, offset, length, args).toBigInteger());
+            return length;
+        }
+
+        @Override
+        protected int encode(PDUSerializable pdu, EncodeBuffer out) throws Throwable
+        {
+            BigInteger value = (BigInteger) (Object) getter.invokeExact(pdu);
+            if (value == null)
+            {
+                throw new IllegalArgumentException("Value of following field must not be null: " + name);
+            }
+
+            return out.write(new UnsignedInteger(value, length, args).getValue());
+        }
+
+        @Override
+        protected int sizeOf(PDUSerializable pdu, int position)
+        {
+            return length;
+        }
+
+        @Override
+        protected int write(PDUSerializable pdu, byte[] out, int offset, int position) throws Throwable
+        {
+            BigInteger value = (BigInteger) (Object) getter.invokeExact(pdu);
+            if (value == null)
+            {
+                throw new IllegalArgumentException("Value of following field must not be null: " + name);
+            }
+
+            // values fitting into a long need no byte[]
+            if (value.signum() >= 0 && value.bitLength() < 64 && value.bitLength() <= length * 8)
+            {
+                UnsignedInteger.writeLong(value.longValue(), out, offset, length);
+                return length;
+            }
+
+            return super.write(pdu, out, offset, position);
+        }
+    }
+
+    static class BytesElement extends ElementCodec
+    {
+        protected final MethodHandle getter;
+        protected final MethodHandle setter;
+
+        BytesElement(Field field, PDUElement pduElement) throws IllegalAccessException
+        {
+            super(field, pduElement);
+            this.getter = getter(field, byte[].class);
+            this.setter = setter(field, byte[].class);
+        }
+
+        @Override
+        protected int decode(PDUSerializable pdu, byte[] data, int offset, int length) throws Throwable
+        {
+            setter.invokeExact(pdu, Arrays.copyOfRange(data, offset, offset + length));
+            return length;
+        }
+
+        @Override
+        protected int encode(PDUSerializable pdu, EncodeBuffer out) throws Throwable
+        {
+            byte[] value = (byte[]) getter.invokeExact(pdu);
+            if (value == null)
+            {
+                throw new IllegalArgumentException("Value of following field must not be null: " + name);
+            }
+
+            out.write(value);
+            return value.length;
+        }
+
+        @Override
+        protected int sizeOf(PDUSerializable pdu, int position) throws Throwable
+        {
+            byte[] value = (byte[]) getter.invokeExact(pdu);
+            if (value == null)
+            {
+                throw new IllegalArgumentException("Value of following field must not be null: " + name);
+            }
+            return value.length;
+        }
+
+        @Override
+        protected int write(PDUSerializable pdu, byte[] out, int offset, int position) throws Throwable
+        {
+            byte[] value = (byte[]) getter.invokeExact(pdu);
+            System.arraycopy(value, 0, out, offset, value.length);
+            return value.length;
+        }
+    }
+
+    static class IPAddressElement extends ElementCodec
+    {
+        protected final MethodHandle getter;
+        protected final MethodHandle setter;
+        protected final Class<? extends IPAddress> fieldType;
+
+        IPAddressElement(Field field, PDUElement pduElement) throws IllegalAccessException
+        {
+            super(field, pduElement);
+            this.getter = getter(field, IPAddress.class);
+            this.setter = setter(field, IPAddress.class);
+            this.fieldType = field.getType().asSubclass(IPAddress.class);
+        }
+
+        @Override
+        protected int decode(PDUSerializable pdu, byte[] data, int offset, int length) throws Throwable
+        {
+            setter.invokeExact(pdu, (IPAddress) IPAddress.read(fieldType, data, offset, length));
+            return length;
+        }
+
+        @Override
+        protected int encode(PDUSerializable pdu, EncodeBuffer out) throws Throwable
+        {
+            return out.write(value(pdu));
+        }
+
+        @Override
+        protected int sizeOf(PDUSerializable pdu, int position) throws Throwable
+        {
+            return value(pdu).getLength();
+        }
+
+        @Override
+        protected int write(PDUSerializable pdu, byte[] out, int offset, int position) throws Throwable
+        {
+            return value(pdu).write(out, offset);
+        }
+
+        protected IPAddress value(PDUSerializable pdu) throws Throwable
+        {
+            IPAddress value = (IPAddress) getter.invokeExact(pdu);
+            if (value == null)
+            {
+                throw new IllegalArgumentException("Value of following field must not be null: " + name);
+            }
+            if (length > -1 && length != value.getLength())
+            {
+                throw new IllegalArgumentException("address of " + value.getLength() + " bytes does not match length " + length + " of " + name);
+            }
+            return value;
+        }
+    }
+
+    static class PaddingElement extends ElementCodec
+    {
+        protected final MethodHandle setter;
+
+        PaddingElement(Field field, PDUElement pduElement) throws IllegalAccessException
+        {
+            super(field, pduElement);
+            this.setter = setter(field, Object.class);
+        }
+
+        @Override
+        protected int decode(PDUSerializable pdu, byte[] data, int offset, int length) throws Throwable
+        {
+            // padding converts to null, like Padding.to()
+            setter.invokeExact(pdu, (Object) null);
+            return length;
+        }
+
+        @Override
+        protected int encode(PDUSerializable pdu, EncodeBuffer out) throws Throwable
+        {
+            int paddingLength = length == -1 ? PDU.resolvePaddingLength(pad, out.size()) : length;
+            out.writeZeros(paddingLength);
+            return paddingLength;
+        }
+
+        @Override
+        protected int sizeOf(PDUSerializable pdu, int position)
+        {
+            return length == -1 ? PDU.resolvePaddingLength(pad, position) : length;
+        }
+
+        @Override
+        protected int write(PDUSerializable pdu, byte[] out, int offset, int position)
+        {
+            // out may be reused, zero explicitly
+            int paddingLength = sizeOf(pdu, position);
+            Arrays.fill(out, offset, offset + paddingLength, (byte) 0);
+            return paddingLength;
+        }
+    }
+
+    static class StringElement extends ElementCodec
+    {
+        protected final MethodHandle getter;
+        protected final MethodHandle setter;
+
+        StringElement(Field field, PDUElement pduElement) throws IllegalAccessException
+        {
+            super(field, pduElement);
+            this.getter = getter(field, String.class);
+            this.setter = setter(field, String.class);
+        }
+
+        @Override
+        protected int decode(PDUSerializable pdu, byte[] data, int offset, int length) throws Throwable
+        {
+            setter.invokeExact(pdu, new String(data, offset, length).trim());
+            return length;
+        }
+
+        @Override
+        protected int encode(PDUSerializable pdu, EncodeBuffer out) throws Throwable
+        {
+            String value = (String) getter.invokeExact(pdu);
+            if (value == null)
+            {
+                throw new IllegalArgumentException("Value of following field must not be null: " + name);
+            }
+
+            byte[] valueInBytes = new FixedLengthString(value, length, args).getValue();
+            out.write(valueInBytes);
+            return valueInBytes.length;
+        }
+    }
+
+    static class StructureElement extends ElementCodec
+    {
+        protected final MethodHandle getter;
+        protected final MethodHandle setter;
+        protected final Class<? extends PDUSerializable> structureClass;
+
+        @SuppressWarnings("unchecked")
+        StructureElement(Field field, PDUElement pduElement) throws IllegalAccessException
+        {
+            super(field, pduElement);
+            this.getter = getter(field, Object.class);
+            this.setter = setter(field, Object.class);
+            this.structureClass = (Class<? extends PDUSerializable>) field.getType();
+        }
+
+        @Override
+        protected int decode(PDUSerializable pdu, byte[] data, int offset, int length) throws Throwable
+        {
+            int[] consumed = new int[1];
+            PDUSerializable value = CodecCompiler.decode(structureClass, data, offset, offset + length, consumed);
+            setter.invokeExact(pdu, (Object) value);
+            return consumed[0];
+        }
+
+        @Override
+        protected int encode(PDUSerializable pdu, EncodeBuffer out) throws Throwable
+        {
+            Object value = (Object) getter.invokeExact(pdu);
+            if (value == null)
+            {
+                throw new IllegalArgumentException("Value of following field must not be null: " + name);
+            }
+
+            byte[] valueInBytes = PDUEngine.COMPILED.encode((PDUSerializable) value);
+            out.write(valueInBytes);
+            return valueInBytes.length;
+        }
+    }
+
+    /**
+     * Fallback through {@link BinaryType} for element types without a
+     * specialized codec
+     */
+    static class GenericElement extends ElementCodec
+    {
+        protected final MethodHandle getter;
+        protected final MethodHandle setter;
+        protected final Class<?> fieldType;
+        protected final Constructor<? extends BinaryType> viewConstructor;
+
+        GenericElement(Field field, PDUElement pduElement) throws ReflectiveOperationException
+        {
+            super(field, pduElement);
+            this.getter = getter(field, Object.class);
+            this.setter = setter(field, Object.class);
+            this.fieldType = field.getType();
+            this.viewConstructor = pduElement.type().getDataClass().getConstructor(byte[].class, int.class, int.class, String[].class);
+        }
+
+        @Override
+        protected int decode(PDUSerializable pdu, byte[] data, int offset, int length) throws Throwable
+        {
+            BinaryType binaryValue = viewConstructor.newInstance(data, offset, length, args);
+            Object value = binaryValue.to(fieldType);
+            setter.invokeExact(pdu, value);
+
+            if (value instanceof PDUSerializable)
+            {
+                return PDU.resolveLength((PDUSerializable) value);
+            }
+
+            return length;
+        }
+
+        @Override
+        protected int encode(PDUSerializable pdu, EncodeBuffer out) throws Throwable
+        {
+            Object value = (Object) getter.invokeExact(pdu);
+            if (value == null)
+            {
+                throw new IllegalArgumentException("Value of following field must not be null: " + name);
+            }
+
+            Constructor<? extends BinaryType> constructor = PDU.findAssignableConstructor(type.getDataClass(), value.getClass());
+            byte[] valueInBytes = constructor.newInstance(value, length, args).getValue();
+            out.write(valueInBytes);
+            return valueInBytes.length;
+        }
+    }
+
+}
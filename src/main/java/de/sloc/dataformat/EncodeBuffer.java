@@ -0,0 +1,79 @@
+package de.sloc.dataformat;
+
+import java.util.Arrays;
+
+/**
+ * Growable byte array used by compiled and generated codecs. Unlike
+ * ByteArrayOutputStream it is not synchronized and allows back-patching of
+ * length fields.
+ */
+public final class EncodeBuffer
+{
+    protected byte[] data;
+    protected int size;
+
+    public EncodeBuffer(int capacity)
+    {
+        this.data = new byte[capacity];
+    }
+
+    protected void ensure(int additional)
+    {
+        if (size + additional > data.length)
+        {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, size + additional));
+        }
+    }
+
+    /**
+     * @return value.length
+     */
+    public int write(byte[] value)
+    {
+        ensure(value.length);
+        System.arraycopy(value, 0, data, size, value.length);
+        size += value.length;
+        return value.length;
+    }
+
+    /**
+     * @return written bytes, 4 or 16
+     */
+    public int write(IPAddress value)
+    {
+        ensure(value.getLength());
+        int written = value.write(data, size);
+        size += written;
+        return written;
+    }
+
+    public void writeUnsigned(long value, int length)
+    {
+        ensure(length);
+        UnsignedInteger.writeLong(value, data, size, length);
+        size += length;
+    }
+
+    public void writeZeros(int length)
+    {
+        // array is zeroed on allocation and never rewound
+        ensure(length);
+        size += length;
+    }
+
+    public void patchUnsigned(int offset, long value, int length)
+    {
+        UnsignedInteger.writeLong(value, data, offset, length);
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public byte[] toByteArray()
+    {
+        return size == data.length ? data : Arrays.copyOf(data, size);
+    }
+
+}
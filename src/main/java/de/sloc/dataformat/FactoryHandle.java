@@ -0,0 +1,168 @@
+package de.sloc.dataformat;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Static one-argument factory of a type, such as getByValue of
+ * {@link AsNumber}, {@link Bitmappable} and {@link ValueToFlagBitmappable} or
+ * rawImport of {@link Converter}, resolved once per type into
+ * {@link MethodHandle}s. Factories taking an int, long or short can also be
+ * invoked with a long, without boxing.
+ */
+final class FactoryHandle
+{
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private static final ClassValue<FactoryHandle> GET_BY_VALUE = forName(AsNumber.FACTORY_METHOD_NAME);
+    private static final ClassValue<FactoryHandle> RAW_IMPORT = forName(Converter.FACTORY_METHOD_NAME);
+
+    private static ClassValue<FactoryHandle> forName(final String name)
+    {
+        return new ClassValue<FactoryHandle>()
+        {
+            @Override
+            protected FactoryHandle computeValue(Class<?> type)
+            {
+                return new FactoryHandle(type, name);
+            }
+        };
+    }
+
+    /**
+     * @throws IllegalStateException
+     *             if type has no public static factory of that name with one
+     *             parameter
+     */
+    static FactoryHandle of(Class<?> type, String name)
+    {
+        FactoryHandle factory;
+        if (name.equals(AsNumber.FACTORY_METHOD_NAME))
+        {
+            factory = GET_BY_VALUE.get(type);
+        }
+        else if (name.equals(Converter.FACTORY_METHOD_NAME))
+        {
+            factory = RAW_IMPORT.get(type);
+        }
+        else
+        {
+            throw new IllegalArgumentException("no factory " + name);
+        }
+
+        if (factory.method == null)
+        {
+            throw new IllegalStateException(type.getCanonicalName() + " does not implement " + name);
+        }
+        return factory;
+    }
+
+    protected final Method method;
+    protected final Class<?> parameterType;
+
+    /**
+     * (Object)Object
+     */
+    protected final MethodHandle handle;
+
+    /**
+     * (Object)long, null unless the parameter is an int, long or short
+     */
+    protected final MethodHandle primitiveHandle;
+
+    protected FactoryHandle(Class<?> type, String name)
+    {
+        Method factoryMethod = null;
+        for (Method m : type.getMethods())
+        {
+            if (m.getName().equals(name) && m.getParameterTypes().length == 1)
+            {
+                factoryMethod = m;
+                break;
+            }
+        }
+
+        this.method = factoryMethod;
+        this.parameterType = factoryMethod != null ? factoryMethod.getParameterTypes()[0] : null;
+
+        MethodHandle unreflected = null;
+        if (factoryMethod != null)
+        {
+            try
+            {
+                // public methods of non-public classes need this too
+                factoryMethod.setAccessible(true);
+                unreflected = LOOKUP.unreflect(factoryMethod);
+            }
+            catch (IllegalAccessException | RuntimeException e)
+            {
+                // invoked through reflection
+            }
+        }
+
+        if (unreflected == null)
+        {
+            this.handle = null;
+            this.primitiveHandle = null;
+        }
+        else
+        {
+            this.handle = unreflected.asType(MethodType.methodType(Object.class, Object.class));
+            this.primitiveHandle = parameterType == int.class || parameterType == long.class || parameterType == short.class
+                    ? MethodHandles.explicitCastArguments(unreflected, MethodType.methodType(Object.class, long.class)) : null;
+        }
+    }
+
+    Class<?> getParameterType()
+    {
+        return parameterType;
+    }
+
+    boolean isPrimitive()
+    {
+        return primitiveHandle != null;
+    }
+
+    /**
+     * @throws InvocationTargetException
+     *             with whatever the factory or the argument conversion threw
+     */
+    Object invoke(Object argument) throws InvocationTargetException
+    {
+        try
+        {
+            return handle != null ? (Object) handle.invokeExact(argument) : method.invoke(null, argument);
+        }
+        catch (InvocationTargetException | Error e)
+        {
+            throw e;
+        }
+        catch (Throwable e)
+        {
+            throw new InvocationTargetException(e);
+        }
+    }
+
+    /**
+     * Invoke a factory taking an int, long or short, the value is narrowed to
+     * the parameter type
+     */
+    Object invokeLong(long value) throws InvocationTargetException
+    {
+        try
+        {
+            return (Object) primitiveHandle.invokeExact(value);
+        }
+        catch (Error e)
+        {
+            throw e;
+        }
+        catch (Throwable e)
+        {
+            throw new InvocationTargetException(e);
+        }
+    }
+}
@@ -1,14 +1,27 @@
 package de.sloc.dataformat;
 
+import java.util.Arrays;
 
 public class FixedLengthString implements BinaryType
 {
 	protected byte[] data;
+	protected int offset;
+	protected int length;
 
 	public FixedLengthString(byte[] data, int length, String[] args)
 	{
 		this.data = data;
-		
+		this.length = data.length;
+	}
+
+	/**
+	 * View of length bytes of data at offset, data is not copied
+	 */
+	public FixedLengthString(byte[] data, int offset, int length, String[] args)
+	{
+		this.data = data;
+		this.offset = offset;
+		this.length = length;
 	}
 
 	public FixedLengthString(String string, int length, String[] args)
@@ -20,19 +33,20 @@ public class FixedLengthString implements BinaryType
 		}
 
 		this.data = new byte[string.length()];
+		this.length = this.data.length;
 		System.arraycopy(string.getBytes(), 0, this.data, 0, stringLength);
 	}
 
 	@Override
 	public byte[] getValue()
 	{
-		return data;
+		return offset == 0 && length == data.length ? data : Arrays.copyOfRange(data, offset, offset + length);
 	}
 
 	@Override
 	public int getLength()
 	{
-		return data.length;
+		return length;
 	}
 
 	@SuppressWarnings("unchecked")
@@ -42,7 +56,7 @@ public class FixedLengthString implements BinaryType
 		// convert to byte[]
 		if (klass.isAssignableFrom(String.class))
 		{
-			return (T) new String(this.data).trim();
+			return (T) new String(this.data, offset, length).trim();
 		}
 
 		throw new IllegalArgumentException("Cannot convert FIXED_LENGTH_STRING to " + klass.getCanonicalName());
@@ -0,0 +1,203 @@
+package de.sloc.dataformat;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Flags of one {@link Bitmappable} or {@link ValueToFlagBitmappable} type by
+ * key, built once from the type's constants: by bit index for bitmaps, by
+ * value for value to flag bitmaps. Keys without a constant are resolved with
+ * the getByValue factory on every lookup, as the factory may map them to a
+ * constant it updates.
+ */
+final class FlagTable
+{
+    protected static final int MAX_SIZE = 1 << 16;
+
+    private static final ClassValue<FlagTable> BITMAPS = new ClassValue<FlagTable>()
+    {
+        @Override
+        protected FlagTable computeValue(Class<?> type)
+        {
+            return new FlagTable(type, Bitmappable.FACTORY_METHOD_NAME, true);
+        }
+    };
+
+    private static final ClassValue<FlagTable> VALUE_TO_FLAG_BITMAPS = new ClassValue<FlagTable>()
+    {
+        @Override
+        protected FlagTable computeValue(Class<?> type)
+        {
+            return new FlagTable(type, ValueToFlagBitmappable.FACTORY_METHOD_NAME, false);
+        }
+    };
+
+    /**
+     * @throws IllegalStateException
+     *             if type has no getByValue factory
+     */
+    static FlagTable ofBitmap(Class<?> type)
+    {
+        return BITMAPS.get(type);
+    }
+
+    /**
+     * @throws IllegalStateException
+     *             if type has no getByValue factory
+     */
+    static FlagTable ofValueToFlagBitmap(Class<?> type)
+    {
+        return VALUE_TO_FLAG_BITMAPS.get(type);
+    }
+
+    protected final FactoryHandle factory;
+
+    /**
+     * Keys are bit indexes and the factory gets 1L << key, else keys are int
+     * values passed as they are
+     */
+    protected final boolean bitIndexed;
+
+    /**
+     * Flag type if it is an enum, else null
+     */
+    @SuppressWarnings("rawtypes")
+    protected final Class<? extends Enum> enumType;
+
+    protected final long minKey;
+    protected final Object[] flags;
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    protected FlagTable(Class<?> type, String factoryMethodName, boolean bitIndexed)
+    {
+        this.factory = FactoryHandle.of(type, factoryMethodName);
+        this.bitIndexed = bitIndexed;
+        this.enumType = type.isEnum() ? (Class<? extends Enum>) type : null;
+
+        Object[] constants = type.isEnum() ? type.getEnumConstants() : new Object[0];
+        long[] keys = new long[constants.length];
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+
+        for (int i = 0; i < constants.length; i++)
+        {
+            keys[i] = key(constants[i]);
+            if (keys[i] != -1)
+            {
+                min = Math.min(min, keys[i]);
+                max = Math.max(max, keys[i]);
+            }
+        }
+
+        if (min > max || max - min >= MAX_SIZE)
+        {
+            this.minKey = 0;
+            this.flags = new Object[0];
+            return;
+        }
+
+        this.minKey = min;
+        this.flags = new Object[(int) (max - min + 1)];
+
+        for (int i = 0; i < constants.length; i++)
+        {
+            if (keys[i] == -1 || flags[(int) (keys[i] - min)] != null)
+            {
+                continue;
+            }
+
+            try
+            {
+                // the factory decides which constant a key maps to
+                flags[(int) (keys[i] - min)] = invoke(keys[i]);
+            }
+            catch (InvocationTargetException e)
+            {
+                // resolved on lookup
+            }
+        }
+    }
+
+    protected static Method resolveFactoryMethod(Class<?> type, String factoryMethodName)
+    {
+        return FactoryHandle.of(type, factoryMethodName).method;
+    }
+
+    /**
+     * @return key of constant, -1 if it has none
+     */
+    protected long key(Object constant)
+    {
+        if (bitIndexed)
+        {
+            long value = ((Bitmappable) constant).getValue();
+            return Long.bitCount(value) == 1 ? Long.numberOfTrailingZeros(value) : -1;
+        }
+
+        int value = ((ValueToFlagBitmappable) constant).getValue();
+        return value >= 0 ? value : -1;
+    }
+
+    /**
+     * Invoke the factory for key, without boxing if it takes a primitive
+     */
+    protected Object invoke(long key) throws InvocationTargetException
+    {
+        long value = bitIndexed ? 1L << key : key;
+        if (factory.isPrimitive())
+        {
+            return factory.invokeLong(value);
+        }
+        return factory.invoke(bitIndexed ? (Object) value : (Object) (int) value);
+    }
+
+    /**
+     * @return flag of key, looked up or resolved with the factory
+     */
+    Object get(long key) throws InvocationTargetException
+    {
+        long index = key - minKey;
+        if (index >= 0 && index < flags.length && flags[(int) index] != null)
+        {
+            return flags[(int) index];
+        }
+        return invoke(key);
+    }
+
+    /**
+     * Invoke the factory with value, for keys outside the table such as a
+     * bitmap without any bit set
+     */
+    Object resolve(Object value) throws InvocationTargetException
+    {
+        return factory.invoke(value);
+    }
+
+    /**
+     * @return an EnumSet for enum flags, else a HashSet
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    Set<Object> newSet()
+    {
+        if (enumType != null)
+        {
+            return (Set) EnumSet.noneOf(enumType);
+        }
+        return new HashSet<>();
+    }
+
+    /**
+     * Add flag to flags; EnumSets cannot hold null, so unresolvable flags are
+     * dropped from them
+     */
+    static void add(Set<Object> flags, Object flag)
+    {
+        if (flag != null || !(flags instanceof EnumSet))
+        {
+            flags.add(flag);
+        }
+    }
+}
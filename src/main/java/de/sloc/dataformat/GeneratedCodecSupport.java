@@ -0,0 +1,137 @@
+package de.sloc.dataformat;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Runtime helpers called from {@link GeneratedPDUCodec}s. Not meant to be
+ * used directly.
+ */
+public class GeneratedCodecSupport
+{
+    /**
+     * Args of elements without args
+     */
+    public static final String[] NO_ARGS = new String[0];
+
+    public static <V> V notNull(V value, String fieldName)
+    {
+        if (value == null)
+        {
+            throw new IllegalArgumentException("Value of following field must not be null: " + fieldName);
+        }
+        return value;
+    }
+
+    public static int lengthOf(PDUSerializable serializable) throws PDUException
+    {
+        return PDU.resolveLength(serializable);
+    }
+
+    /**
+     * Decode a subtype of a generated codec's PDU class
+     */
+    public static <T extends PDUSerializable> T decode(byte[] data, Class<T> klass, int offset, int end, int[] consumed) throws PDUException
+    {
+        return consumed == null ? PDU.decode(data, klass, offset, end) : PDU.decode(data, klass, offset, end, consumed);
+    }
+
+    /**
+     * @throws IllegalArgumentException
+     *             if the element does not fit between offset and end
+     */
+    public static void checkLength(String elementName, int offset, int length, int end)
+    {
+        if (length < 0 || offset + length > end)
+        {
+            throw new IllegalArgumentException("element " + elementName + " of length " + length + " at offset " + offset + " exceeds data");
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException
+     *             if the address does not have the element's length
+     */
+    public static IPAddress checkAddress(IPAddress value, int length, String elementName)
+    {
+        if (length != value.getLength())
+        {
+            throw new IllegalArgumentException("address of " + value.getLength() + " bytes does not match length " + length + " of " + elementName);
+        }
+        return value;
+    }
+
+    public static <T extends PDUSerializable> Class<T> resolveInstantiableClass(Class<T> klass, byte[] data, int offset) throws PDUException
+    {
+        return PDU.resolveInstantiableClass(klass, data, offset);
+    }
+
+    /**
+     * Encode a value through its {@link BinaryType}, for element types
+     * without generated code
+     */
+    public static byte[] encodeElement(PDUElement.Type type, Object value, int length, String[] args) throws PDUException
+    {
+        try
+        {
+            Constructor<? extends BinaryType> constructor = PDU.findAssignableConstructor(type.getDataClass(), value.getClass());
+            return constructor.newInstance(value, length, args).getValue();
+        }
+        catch (InvocationTargetException e)
+        {
+            if (e.getCause() instanceof PDUException)
+            {
+                throw (PDUException) e.getCause();
+            }
+            throw new PDUException("Could not encode " + type + " from " + value.getClass().getCanonicalName(), e.getCause());
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new PDUException("Could not encode " + type + " from " + value.getClass().getCanonicalName(), e);
+        }
+    }
+
+    /**
+     * @return value of the rawValue field of an AsNumber element decoded from
+     *         number, see {@link PDUElement#rawValue()}
+     */
+    public static Number rawValue(Class<?> type, Object constant, long number, Class<?> rawType)
+    {
+        return RawValues.decoded(type, constant, number, rawType);
+    }
+
+    /**
+     * @return number to encode for an AsNumber element with a rawValue field
+     */
+    public static Number encodedNumber(Class<?> type, AsNumber constant, Object raw) throws PDUException
+    {
+        try
+        {
+            return RawValues.encoded(type, constant, raw);
+        }
+        catch (InvocationTargetException e)
+        {
+            throw new PDUException("Could not resolve " + raw + " of " + type.getCanonicalName(), e.getCause());
+        }
+    }
+
+    public static PDUException decodeFailed(Class<?> pduClass, Exception e)
+    {
+        return failed("Could not decode PDU for " + pduClass.getCanonicalName(), e);
+    }
+
+    public static PDUException encodeFailed(Class<?> pduClass, Exception e)
+    {
+        return failed("Could not encode PDU at " + pduClass, e);
+    }
+
+    protected static PDUException failed(String message, Exception e)
+    {
+        if (e instanceof PDUException)
+        {
+            return (PDUException) e;
+        }
+        return new PDUException(message, e);
+    }
+
+}
@@ -0,0 +1,28 @@
+package de.sloc.dataformat;
+
+/**
+ * Codec written at compile time by the dataformat-processor annotation
+ * processor. Implementations are named after their PDU class (see
+ * {@link PDUCodecRegistry#codecClassName(Class)}) and found through
+ * {@link PDUCodecRegistry}.
+ */
+public interface GeneratedPDUCodec<T extends PDUSerializable> extends PDUCodec<T>
+{
+    public Class<T> getPDUClass();
+
+    /**
+     * Decode the PDU at offset without reading at or beyond end
+     *
+     * @param consumed
+     *            null, or receives the consumed bytes, padding included, at
+     *            index 0
+     */
+    public T decode(byte[] data, int offset, int end, int[] consumed) throws PDUException;
+
+    @Override
+    public default T decode(byte[] data, int offset) throws PDUException
+    {
+        return decode(data, offset, data.length, null);
+    }
+
+}
@@ -0,0 +1,286 @@
+package de.sloc.dataformat;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * IPv4 or IPv6 address held as primitives, an int for IPv4 and two longs for
+ * IPv6. Value and {@link BinaryType} of {@link PDUElement.Type#IP_ADDRESS}
+ * elements of 4 or 16 bytes, or of a length given by a LENGTH element. The
+ * {@link InetAddress} is only created when asked for.
+ */
+public class IPAddress implements BinaryType
+{
+    public static final int IPV4_LENGTH = 4;
+    public static final int IPV6_LENGTH = 16;
+
+    private static final ClassValue<Constructor<?>> CONSTRUCTORS = new ClassValue<Constructor<?>>()
+    {
+        @Override
+        protected Constructor<?> computeValue(Class<?> type)
+        {
+            try
+            {
+                Constructor<?> constructor = type.getDeclaredConstructor();
+                constructor.setAccessible(true);
+                return constructor;
+            }
+            catch (NoSuchMethodException e)
+            {
+                throw new IllegalStateException(type.getCanonicalName() + " has no no-arg constructor", e);
+            }
+        }
+    };
+
+    protected boolean ipv6;
+    protected int ipv4;
+    protected long high;
+    protected long low;
+
+    /**
+     * Created on first {@link #getInetAddress()}
+     */
+    protected InetAddress inetAddress;
+
+    protected IPAddress()
+    {
+    }
+
+    public IPAddress(int ipv4)
+    {
+        this.ipv4 = ipv4;
+    }
+
+    public IPAddress(long high, long low)
+    {
+        this.ipv6 = true;
+        this.high = high;
+        this.low = low;
+    }
+
+    public IPAddress(InetAddress inetAddress)
+    {
+        byte[] address = inetAddress.getAddress();
+        set(address, 0, address.length);
+        this.inetAddress = inetAddress;
+    }
+
+    /**
+     * @param address
+     *            4 or 16 bytes
+     */
+    public IPAddress(byte[] address)
+    {
+        set(address, 0, address.length);
+    }
+
+    public IPAddress(IPAddress value, int length, String[] args)
+    {
+        if (length > -1 && length != value.getLength())
+        {
+            throw new IllegalArgumentException("address of " + value.getLength() + " bytes does not match length " + length);
+        }
+        set(value);
+    }
+
+    public IPAddress(byte[] value, int length, String[] args)
+    {
+        this(value, 0, length, args);
+    }
+
+    public IPAddress(byte[] data, int offset, int length, String[] args)
+    {
+        set(data, offset, length);
+    }
+
+    /**
+     * Read the address of length bytes at offset
+     */
+    protected void set(byte[] data, int offset, int length)
+    {
+        if (length == IPV4_LENGTH)
+        {
+            this.ipv6 = false;
+            this.ipv4 = UnsignedInteger.readInt(data, offset, IPV4_LENGTH);
+        }
+        else if (length == IPV6_LENGTH)
+        {
+            this.ipv6 = true;
+            this.high = UnsignedInteger.readLong(data, offset, Long.BYTES);
+            this.low = UnsignedInteger.readLong(data, offset + Long.BYTES, Long.BYTES);
+        }
+        else
+        {
+            throw new IllegalArgumentException("IP address of " + length + " bytes, must be " + IPV4_LENGTH + " or " + IPV6_LENGTH);
+        }
+        this.inetAddress = null;
+    }
+
+    protected void set(IPAddress address)
+    {
+        this.ipv6 = address.ipv6;
+        this.ipv4 = address.ipv4;
+        this.high = address.high;
+        this.low = address.low;
+        this.inetAddress = address.inetAddress;
+    }
+
+    /**
+     * @return new instance of type, an IPAddress or subclass with no-arg
+     *         constructor, holding the address of length bytes at offset
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends IPAddress> T read(Class<T> type, byte[] data, int offset, int length) throws PDUException
+    {
+        T address;
+        try
+        {
+            address = type == IPAddress.class ? (T) new IPAddress() : (T) CONSTRUCTORS.get(type).newInstance();
+        }
+        catch (InstantiationException | IllegalAccessException | InvocationTargetException | IllegalStateException e)
+        {
+            throw new PDUException("Cannot create " + type.getCanonicalName() + " for IP_ADDRESS", e);
+        }
+        address.set(data, offset, length);
+        return address;
+    }
+
+    public boolean isIPv6()
+    {
+        return ipv6;
+    }
+
+    /**
+     * @return the IPv4 address
+     * @throws IllegalStateException
+     *             if this is an IPv6 address
+     */
+    public int toInt()
+    {
+        if (ipv6)
+        {
+            throw new IllegalStateException("IPv6 address does not fit into an int");
+        }
+        return ipv4;
+    }
+
+    /**
+     * @return first 8 bytes of the IPv6 address
+     */
+    public long getHigh()
+    {
+        return high;
+    }
+
+    /**
+     * @return last 8 bytes of the IPv6 address
+     */
+    public long getLow()
+    {
+        return low;
+    }
+
+    @Override
+    public int getLength()
+    {
+        return ipv6 ? IPV6_LENGTH : IPV4_LENGTH;
+    }
+
+    @Override
+    public byte[] getValue()
+    {
+        byte[] value = new byte[getLength()];
+        write(value, 0);
+        return value;
+    }
+
+    /**
+     * Write the address into out at offset
+     *
+     * @return written bytes
+     */
+    public int write(byte[] out, int offset)
+    {
+        if (ipv6)
+        {
+            UnsignedInteger.writeLong(high, out, offset, Long.BYTES);
+            UnsignedInteger.writeLong(low, out, offset + Long.BYTES, Long.BYTES);
+            return IPV6_LENGTH;
+        }
+
+        UnsignedInteger.writeLong(ipv4, out, offset, IPV4_LENGTH);
+        return IPV4_LENGTH;
+    }
+
+    public InetAddress getInetAddress()
+    {
+        if (inetAddress == null)
+        {
+            try
+            {
+                inetAddress = InetAddress.getByAddress(getValue());
+            }
+            catch (UnknownHostException e)
+            {
+                // only thrown for illegal lengths
+                throw new IllegalStateException(e);
+            }
+        }
+        return inetAddress;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> T to(Class<T> klass) throws PDUException
+    {
+        if (klass.isInstance(this))
+        {
+            return (T) this;
+        }
+        else if (klass.isAssignableFrom(InetAddress.class) || InetAddress.class.isAssignableFrom(klass))
+        {
+            return (T) getInetAddress();
+        }
+        else if (IPAddress.class.isAssignableFrom(klass))
+        {
+            try
+            {
+                IPAddress address = (IPAddress) CONSTRUCTORS.get(klass).newInstance();
+                address.set(this);
+                return (T) address;
+            }
+            catch (InstantiationException | IllegalAccessException | InvocationTargetException | IllegalStateException e)
+            {
+                throw new PDUException("Cannot convert IP_ADDRESS to " + klass.getCanonicalName(), e);
+            }
+        }
+
+        throw new IllegalArgumentException("Cannot convert IP_ADDRESS to " + klass.getCanonicalName());
+    }
+
+    @Override
+    public boolean equals(Object other)
+    {
+        if (!(other instanceof IPAddress))
+        {
+            return false;
+        }
+
+        IPAddress otherAddress = (IPAddress) other;
+        return ipv6 == otherAddress.ipv6 && ipv4 == otherAddress.ipv4 && high == otherAddress.high && low == otherAddress.low;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return ipv6 ? Long.hashCode(high * 31 + low) : ipv4;
+    }
+
+    @Override
+    public String toString()
+    {
+        return getInetAddress().toString();
+    }
+}
@@ -0,0 +1,185 @@
+package de.sloc.dataformat;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * A PDU decoded up to the offsets of its elements. LENGTH and primitive
+ * elements are set right away, every other element is converted from the
+ * backing bytes on its first {@link #get(String)}, so elements nobody looks
+ * at cost nothing. The backing array is read in place and must not change
+ * until the PDU is {@link #materialize() materialized}.
+ * <p>
+ * Like the PDUs themselves, instances are not thread-safe.
+ */
+public final class LazyPDU<T extends PDUSerializable>
+{
+    protected final T pdu;
+    protected final ClassLayout<? extends T> layout;
+    protected final byte[] data;
+    protected final int offset;
+    protected final int end;
+
+    /**
+     * Offset and length of element i at 2 * i and 2 * i + 1, length -1 once
+     * the element is decoded
+     */
+    protected final int[] ranges;
+
+    protected int pending;
+
+    protected LazyPDU(T pdu, byte[] data, int offset, int end, int[] ranges)
+    {
+        @SuppressWarnings("unchecked")
+        ClassLayout<? extends T> layout = (ClassLayout<? extends T>) ClassLayout.of(pdu.getClass());
+
+        this.pdu = pdu;
+        this.layout = layout;
+        this.data = data;
+        this.offset = offset;
+        this.end = end;
+        this.ranges = ranges;
+
+        for (int i = 1; i < ranges.length; i += 2)
+        {
+            if (ranges[i] != -1)
+            {
+                pending++;
+            }
+        }
+    }
+
+    /**
+     * Decode the offsets of the PDU at offset, converting only LENGTH and
+     * primitive elements
+     */
+    public static <T extends PDUSerializable> LazyPDU<T> decode(byte[] data, Class<T> klass, int offset) throws PDUException
+    {
+        return decode(data, klass, offset, data.length);
+    }
+
+    public static <T extends PDUSerializable> LazyPDU<T> decode(byte[] data, Class<T> klass, int offset, int end) throws PDUException
+    {
+        try
+        {
+            ClassLayout<T> layout = ClassLayout.of(PDU.resolveInstantiableClass(klass, data, offset));
+            T pdu = layout.newInstance();
+            int[] ranges = new int[2 * layout.elements.length];
+            int pduEnd = PDU.decodeElements(pdu, data, offset, end, layout.deferrable, ranges, false);
+            return new LazyPDU<>(pdu, data, offset, pduEnd, ranges);
+        }
+        catch (IllegalArgumentException | IllegalStateException | IllegalAccessException | SecurityException | InstantiationException
+                | InvocationTargetException | NoSuchMethodException e)
+        {
+            throw new PDUException("Could not decode PDU for " + klass.getCanonicalName(), e);
+        }
+    }
+
+    /**
+     * @return the concrete class the PDU was decoded as
+     */
+    @SuppressWarnings("unchecked")
+    public Class<? extends T> getPDUClass()
+    {
+        return (Class<? extends T>) pdu.getClass();
+    }
+
+    /**
+     * @return number of bytes spanned by the elements
+     */
+    public int getLength()
+    {
+        return end - offset;
+    }
+
+    /**
+     * @return offset of the named element in the backing data
+     */
+    public int getOffset(String name)
+    {
+        return ranges[2 * index(name)];
+    }
+
+    /**
+     * @return whether the named element has been converted
+     */
+    public boolean isDecoded(String name)
+    {
+        return ranges[2 * index(name) + 1] == -1;
+    }
+
+    /**
+     * @return value of the named element, converted on first access
+     */
+    @SuppressWarnings("unchecked")
+    public <V> V get(String name) throws PDUException
+    {
+        int index = index(name);
+        Field field = layout.elements[index].field;
+
+        try
+        {
+            decode(index);
+            return (V) field.get(pdu);
+        }
+        catch (IllegalArgumentException | IllegalAccessException | InstantiationException | InvocationTargetException | NoSuchMethodException e)
+        {
+            throw new PDUException("Could not decode element " + name + " of " + pdu.getClass().getCanonicalName(), e);
+        }
+    }
+
+    /**
+     * Convert all remaining elements
+     *
+     * @return the fully decoded PDU
+     */
+    public T materialize() throws PDUException
+    {
+        for (int i = 0; pending > 0 && i < layout.elements.length; i++)
+        {
+            try
+            {
+                decode(i);
+            }
+            catch (IllegalArgumentException | IllegalAccessException | InstantiationException | InvocationTargetException | NoSuchMethodException e)
+            {
+                throw new PDUException("Could not decode element " + layout.elements[i].name + " of " + pdu.getClass().getCanonicalName(), e);
+            }
+        }
+        return pdu;
+    }
+
+    protected void decode(int index) throws IllegalAccessException, InstantiationException, InvocationTargetException, NoSuchMethodException,
+            PDUException
+    {
+        int length = ranges[2 * index + 1];
+        if (length == -1)
+        {
+            return;
+        }
+
+        ClassLayout.Element element = layout.elements[index];
+        Object value = element.newBinaryValue(data, ranges[2 * index], length).to(element.field.getType());
+        element.field.set(pdu, value);
+        element.setRawValue(pdu, value, data, ranges[2 * index], length);
+
+        ranges[2 * index + 1] = -1;
+        pending--;
+    }
+
+    protected int index(String name)
+    {
+        int index = layout.indexOf(name);
+        if (index == -1)
+        {
+            throw new IllegalArgumentException("no element " + name + " in " + pdu.getClass().getCanonicalName());
+        }
+        return index;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "LazyPDU [" + pdu.getClass().getCanonicalName() + ", " + pending + " of " + layout.elements.length + " elements pending]";
+    }
+}
@@ -12,4 +12,9 @@ public class Length extends UnsignedInteger
 		super(value, length, args);
 	}
 
+	public Length(byte[] data, int offset, int length, String[] args)
+	{
+		super(data, offset, length, args);
+	}
+
 }
@@ -0,0 +1,109 @@
+package de.sloc.dataformat;
+
+import java.util.List;
+
+/**
+ * Immutable map from long keys to values: a dense array if the keys are close
+ * together, else open addressing over primitive keys. Lookups neither box nor
+ * allocate.
+ */
+class LongTable<V>
+{
+    protected static final int MAX_DENSE_SIZE = 1 << 12;
+
+    /**
+     * Dense: index key - minKey. Sparse: keys and values by slot.
+     */
+    protected final long minKey;
+    protected final long[] keys;
+    protected final Object[] values;
+    protected final boolean dense;
+    protected final int mask;
+    protected final int size;
+
+    /**
+     * @param keyList
+     *            distinct keys
+     * @param valueList
+     *            non-null values, by index of their key
+     */
+    LongTable(List<Long> keyList, List<? extends V> valueList)
+    {
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (long key : keyList)
+        {
+            min = Math.min(min, key);
+            max = Math.max(max, key);
+        }
+
+        // overflows for keys far apart, which then are sparse
+        long range = keyList.isEmpty() ? 0 : max - min + 1;
+        this.dense = range > 0 && range <= MAX_DENSE_SIZE && range <= 8L * keyList.size() + 64;
+        this.minKey = min;
+        this.size = keyList.size();
+
+        if (dense)
+        {
+            this.keys = null;
+            this.values = new Object[(int) range];
+            this.mask = 0;
+
+            for (int i = 0; i < keyList.size(); i++)
+            {
+                values[(int) (keyList.get(i) - min)] = valueList.get(i);
+            }
+        }
+        else
+        {
+            int capacity = Integer.highestOneBit(Math.max(keyList.size(), 1) * 4 - 1) << 1;
+            this.keys = new long[capacity];
+            this.values = new Object[capacity];
+            this.mask = capacity - 1;
+
+            for (int i = 0; i < keyList.size(); i++)
+            {
+                int slot = slot(keyList.get(i));
+                while (values[slot] != null && keys[slot] != keyList.get(i))
+                {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = keyList.get(i);
+                values[slot] = valueList.get(i);
+            }
+        }
+    }
+
+    protected int slot(long key)
+    {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    /**
+     * @return value of key, null if unknown
+     */
+    @SuppressWarnings("unchecked")
+    V get(long key)
+    {
+        if (dense)
+        {
+            long index = key - minKey;
+            return index >= 0 && index < values.length ? (V) values[(int) index] : null;
+        }
+
+        for (int slot = slot(key);; slot = (slot + 1) & mask)
+        {
+            Object value = values[slot];
+            if (value == null || keys[slot] == key)
+            {
+                return (V) value;
+            }
+        }
+    }
+
+    int size()
+    {
+        return size;
+    }
+}
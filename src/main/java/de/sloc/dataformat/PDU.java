@@ -13,10 +13,12 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
@@ -24,6 +26,8 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.xml.bind.DatatypeConverter;
 
@@ -31,21 +35,72 @@ public class PDU
 {
     public static final byte[] NEWLINE = "\n".getBytes();
 
-    private final static Map<Class<?>, SortedMap<AnnotatedElement, PDUElement>> ANNOTATED_ELEMENTS_CACHE = new HashMap<>();
-    private final static Map<Integer, Constructor<?>> ASSIGNABLE_CONSTRUCTOR_CACHE = new HashMap<>();
-    private final static Map<Class<? extends BinaryType>, Constructor<? extends BinaryType>> BINARY_TYPE_CONSTRUCTOR_CACHE = new HashMap<>();
-    private final static Map<Class<?>, List<AnnotatedElement>> INFO_METHODS_CACHE = new HashMap<>();
-    private final static Map<String, Class<?>> ELEMENT_TYPE_CACHE = new HashMap<>();
-    private final static Map<Field, Boolean> SUBTYPE_CACHE = new HashMap<>();
+    /**
+     * Bytes of a direct buffer copied first to find the length of its next
+     * PDU, doubled until it fits
+     */
+    protected static final int FRAME_PREFIX = 256;
 
-    @SuppressWarnings("unchecked")
-    public static SortedMap<AnnotatedElement, PDUElement> resolveAnnotatedElements(Class<? extends PDUSerializable> klass)
+    /**
+     * Per thread array direct buffers are encoded through, grown to the
+     * largest PDU
+     */
+    private static final ThreadLocal<byte[]> ENCODE_SCRATCH = ThreadLocal.withInitial(() -> new byte[FRAME_PREFIX]);
+
+    // per-class metadata lives in ClassValues: lock-free reads, safe
+    // concurrent first use and no strong references to foreign class loaders
+    private final static ClassValue<SortedMap<AnnotatedElement, PDUElement>> ANNOTATED_ELEMENTS_CACHE = new ClassValue<SortedMap<AnnotatedElement, PDUElement>>()
+    {
+        @Override
+        protected SortedMap<AnnotatedElement, PDUElement> computeValue(Class<?> type)
+        {
+            return Collections.unmodifiableSortedMap(collectAnnotatedElements(type.asSubclass(PDUSerializable.class)));
+        }
+    };
+
+    private final static ClassValue<List<AnnotatedElement>> INFO_METHODS_CACHE = new ClassValue<List<AnnotatedElement>>()
     {
-        if (ANNOTATED_ELEMENTS_CACHE.containsKey(klass))
+        @Override
+        protected List<AnnotatedElement> computeValue(Class<?> type)
         {
-            return ANNOTATED_ELEMENTS_CACHE.get(klass);
+            return Collections.unmodifiableList(collectInfoMethods(type.asSubclass(PDUSerializable.class)));
         }
+    };
 
+    /**
+     * BinaryType class -> value class -> assignable constructor
+     */
+    private final static ClassValue<ClassValue<Constructor<?>>> ASSIGNABLE_CONSTRUCTOR_CACHE = new ClassValue<ClassValue<Constructor<?>>>()
+    {
+        @Override
+        protected ClassValue<Constructor<?>> computeValue(final Class<?> binaryTypeClass)
+        {
+            return new ClassValue<Constructor<?>>()
+            {
+                @Override
+                protected Constructor<?> computeValue(Class<?> valueClass)
+                {
+                    // null if there is none
+                    return lookupAssignableConstructor(binaryTypeClass, valueClass);
+                }
+            };
+        }
+    };
+
+    /**
+     * Class.forName resolves against the loader of this class, so the cached
+     * classes never belong to a child class loader
+     */
+    private final static ConcurrentMap<String, Class<?>> ELEMENT_TYPE_CACHE = new ConcurrentHashMap<>();
+
+    public static SortedMap<AnnotatedElement, PDUElement> resolveAnnotatedElements(Class<? extends PDUSerializable> klass)
+    {
+        return ANNOTATED_ELEMENTS_CACHE.get(klass);
+    }
+
+    @SuppressWarnings("unchecked")
+    protected static SortedMap<AnnotatedElement, PDUElement> collectAnnotatedElements(Class<? extends PDUSerializable> klass)
+    {
         SortedMap<AnnotatedElement, PDUElement> annotatedElements = new TreeMap<>(new Comparator<AnnotatedElement>()
         {
             @Override
@@ -96,10 +151,6 @@ public class PDU
             annotatedElements.putAll(resolveAnnotatedElements((Class<? extends PDUSerializable>) superKlass));
         }
 
-        // System.err.println("caching klass " + klass + " " +
-        // annotatedElements);
-        ANNOTATED_ELEMENTS_CACHE.put(klass, annotatedElements);
-
         return annotatedElements;
     }
 
@@ -109,14 +160,14 @@ public class PDU
      * @param klass
      * @return
      */
-    @SuppressWarnings("unchecked")
     public static <T extends PDUSerializable> List<AnnotatedElement> resolveInfoMethods(Class<T> klass)
     {
-        if (INFO_METHODS_CACHE.containsKey(klass))
-        {
-            return INFO_METHODS_CACHE.get(klass);
-        }
+        return INFO_METHODS_CACHE.get(klass);
+    }
 
+    @SuppressWarnings("unchecked")
+    protected static List<AnnotatedElement> collectInfoMethods(Class<? extends PDUSerializable> klass)
+    {
         List<AnnotatedElement> derivativeElements = new ArrayList<>();
 
         for (Method m : klass.getDeclaredMethods())
@@ -138,10 +189,6 @@ public class PDU
             derivativeElements = superKlassElementsCopy;
         }
 
-        // System.err.println("caching klass " + klass + " " +
-        // annotatedElements);
-        INFO_METHODS_CACHE.put(klass, derivativeElements);
-
         return derivativeElements;
     }
 
@@ -150,18 +197,23 @@ public class PDU
                                                                                                                           throws NoSuchMethodException,
                                                                                                                           SecurityException
     {
-        int hashKey = klass.hashCode() + valueClass.hashCode();
-        if (ASSIGNABLE_CONSTRUCTOR_CACHE.containsKey(hashKey))
+        Constructor<T> result = (Constructor<T>) ASSIGNABLE_CONSTRUCTOR_CACHE.get(klass).get(valueClass);
+
+        if (result == null)
         {
-            return (Constructor<T>) ASSIGNABLE_CONSTRUCTOR_CACHE.get(hashKey);
+            throw new NoSuchMethodException("Could not find constructor in class " + klass.getCanonicalName() + " for "
+                    + valueClass.getCanonicalName());
         }
 
-        Constructor<T> result = null;
+        return result;
+    }
 
+    protected static Constructor<?> lookupAssignableConstructor(Class<?> klass, Class<?> valueClass)
+    {
         // perfect match
         try
         {
-            result = klass.getConstructor(valueClass, int.class, String[].class);
+            return klass.getConstructor(valueClass, int.class, String[].class);
         }
         catch (NoSuchMethodException e)
         {
@@ -175,20 +227,11 @@ public class PDU
             if (parameterTypes.length == 3 && parameterTypes[0].isAssignableFrom(valueClass) && parameterTypes[1] == int.class
                     && parameterTypes[2] == String[].class)
             {
-                result = (Constructor<T>) constructor;
-                break;
+                return constructor;
             }
         }
 
-        if (result == null)
-        {
-            throw new NoSuchMethodException("Could not find constructor in class " + klass.getCanonicalName() + " for "
-                    + valueClass.getCanonicalName());
-        }
-
-        ASSIGNABLE_CONSTRUCTOR_CACHE.put(hashKey, result);
-
-        return result;
+        return null;
     }
 
     /**
@@ -200,54 +243,7 @@ public class PDU
      */
     public static <T extends PDUSerializable> int[] getLengthMetadata(Class<T> pduClass)
     {
-        Map<AnnotatedElement, PDUElement> annotatedElements = resolveAnnotatedElements(pduClass);
-
-        int[] metadata = null;
-        int offset = 0;
-        boolean foundLengthField = false;
-        int lengthCount = 0;
-        boolean canBeFixedSize = true;
-
-        for (Entry<AnnotatedElement, PDUElement> entry : annotatedElements.entrySet())
-        {
-            PDUElement pduElement = entry.getValue();
-            if (pduElement.type() == LENGTH)
-            {
-                metadata = new int[3];
-                metadata[0] = offset;
-                metadata[1] = pduElement.length();
-                metadata[2] = pduElement.args() != null && pduElement.args().length > 0 ? Integer.parseInt(pduElement.args()[0]) : 0;
-                foundLengthField = true;
-                break;
-            }
-            else
-            {
-                offset += pduElement.length();
-                int declaredPduLength = pduElement.length();
-                if (declaredPduLength > -1)
-                {
-                    lengthCount += declaredPduLength;
-                }
-                else
-                {
-                    canBeFixedSize = false;
-                }
-            }
-        }
-
-        if (!foundLengthField)
-        {
-            if (canBeFixedSize)
-            {
-                metadata = new int[] { lengthCount };
-            }
-            else
-            {
-                throw new IllegalStateException("Could not find length field and at least on length-attribute is not set");
-            }
-        }
-
-        return metadata;
+        return ClassLayout.of(pduClass).getLengthMetadata();
     }
 
     /**
@@ -259,9 +255,18 @@ public class PDU
      * @throws PDUException
      *             Thrown, when encoding goes wrong
      */
+    @SuppressWarnings("unchecked")
     public static byte[] encode(PDUSerializable packetSerializable) throws PDUException
     {
-        Map<AnnotatedElement, PDUElement> annotatedElements = resolveAnnotatedElements(packetSerializable.getClass());
+        // prefer a codec generated at compile time
+        PDUCodec<PDUSerializable> generatedCodec = PDUCodecRegistry.lookup((Class<PDUSerializable>) packetSerializable.getClass());
+        if (generatedCodec != null)
+        {
+            return generatedCodec.encode(packetSerializable);
+        }
+
+        ClassLayout<?> layout = ClassLayout.of(packetSerializable.getClass());
+        ClassLayout.Element[] elements = layout.elements;
 
         // write data to this byte array
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
@@ -269,14 +274,15 @@ public class PDU
         // byte offset
         int offset = 0;
 
-        // save location of length fields
-        Map<String, LengthFieldMetadata> lengthFieldNamesToMetadata = new HashMap<>();
+        // location and value of length fields, by element index
+        int[] lengthOffsets = new int[elements.length];
+        int[] lengthValues = new int[elements.length];
 
         // traverse all annotated elements
-        for (Entry<AnnotatedElement, PDUElement> entry : annotatedElements.entrySet())
+        for (int i = 0; i < elements.length; i++)
         {
-            AnnotatedElement element = entry.getKey();
-            PDUElement pduElement = entry.getValue();
+            ClassLayout.Element element = elements[i];
+            PDUElement pduElement = element.pduElement;
             String fieldName = null;
 
             try
@@ -284,48 +290,37 @@ public class PDU
                 // read value from annotated field
                 Object value = null;
 
-                if (!(element instanceof Field))
+                if (element.field == null)
                 {
-                    throw new InternalError("Unsupported AnnotatedElement type " + element.getClass());
+                    throw new InternalError("Unsupported AnnotatedElement type " + element.annotatedElement.getClass());
                 }
 
-                Field field = (Field) element;
-                fieldName = field.getName();
-
-                // make it accessible, if its private, protected or package
-                if (!field.isAccessible())
-                {
-                    field.setAccessible(true);
-                }
+                fieldName = element.name;
 
                 // save length field position
-                if (pduElement.type() == LENGTH)
+                if (element.type == LENGTH)
                 {
-                    // length field references
                     value = 0;
-                    for (String reference : pduElement.references().split(","))
-                    {
-                        lengthFieldNamesToMetadata.put(reference, new LengthFieldMetadata(fieldName, offset, pduElement.length(), pduElement.args()));
-                    }
+                    lengthOffsets[i] = offset;
                 }
                 // padding value is created internally
-                else if (pduElement.type() == PADDING)
+                else if (element.type == PADDING)
                 {
                     int paddingLength;
-                    if (pduElement.length() == -1)
+                    if (element.length == -1)
                     {
-                        paddingLength = resolvePaddingLength(pduElement.pad(), baos.size());
+                        paddingLength = resolvePaddingLength(element.pad, baos.size());
                     }
                     else
                     {
-                        paddingLength = pduElement.length();
+                        paddingLength = element.length;
                     }
                     value = new Padding(paddingLength).getValue();
                 }
                 // resolve field value
                 else
                 {
-                    value = field.get(packetSerializable);
+                    value = element.encodedValue(packetSerializable, element.field.get(packetSerializable));
                 }
 
                 if (value == null)
@@ -334,25 +329,25 @@ public class PDU
                 }
 
                 // resolve an assignable constructor
-                Constructor<? extends BinaryType> constructor = findAssignableConstructor(pduElement.type().getDataClass(), value.getClass());
+                Constructor<? extends BinaryType> constructor = findAssignableConstructor(element.type.getDataClass(), value.getClass());
 
                 // call the constructor
-                BinaryType binaryType = constructor.newInstance(value, pduElement.length(), pduElement.args());
+                BinaryType binaryType = constructor.newInstance(value, element.length, element.args);
 
                 // get byte[] representation of BinaryType
                 byte[] valueInBytes = binaryType.getValue();
 
                 // save field length if referenced
-                if (lengthFieldNamesToMetadata.containsKey(fieldName))
+                if (layout.encodeLengthOwners[i] != ClassLayout.NO_OWNER)
                 {
-                    lengthFieldNamesToMetadata.get(fieldName).setValue(valueInBytes.length);
+                    lengthValues[layout.encodeLengthOwners[i]] = valueInBytes.length;
                 }
 
                 // write it to the OutputStream
                 baos.write(valueInBytes);
 
                 // append padding, pad() defines boundaries
-                int boundary = pduElement.pad();
+                int boundary = element.pad;
                 if (boundary > -1 && !(binaryType instanceof Padding))
                 {
                     int paddingLength = (boundary - valueInBytes.length % boundary) % boundary;
@@ -371,113 +366,117 @@ public class PDU
         }
 
         // set total size of PDU to LENGTH_REFERENCE_PDU_ALL
-        if (lengthFieldNamesToMetadata.containsKey(PDUElement.Type.LENGTH_REFERENCE_PDU_ALL))
+        if (layout.encodePduAllOwner != ClassLayout.NO_OWNER)
         {
-            lengthFieldNamesToMetadata.get(PDUElement.Type.LENGTH_REFERENCE_PDU_ALL).setValue(baos.size());
+            lengthValues[layout.encodePduAllOwner] = baos.size();
         }
 
         // save PDU as byte[]
         byte[] result = baos.toByteArray();
 
         // fill length fields with values
-        for (LengthFieldMetadata lengthFieldMetadata : lengthFieldNamesToMetadata.values())
+        for (int i : layout.patchedLengths)
         {
-            byte[] lengthValueInBytes = new UnsignedInteger(lengthFieldMetadata.getValue(), lengthFieldMetadata.getLength(),
-                                                            lengthFieldMetadata.getArgs()).getValue();
+            ClassLayout.Element element = elements[i];
+            byte[] lengthValueInBytes = new UnsignedInteger(lengthValues[i], element.length, element.args).getValue();
 
             // set it in the byte stream
-            System.arraycopy(lengthValueInBytes, 0, result, lengthFieldMetadata.getOffset(), lengthFieldMetadata.getLength());
+            System.arraycopy(lengthValueInBytes, 0, result, lengthOffsets[i], element.length);
         }
 
         return result;
     }
 
     /**
-     * TODO Speedup/cache
-     * 
-     * 
-     * 
-     * @param klass
-     * @param data
-     * @param startAtOffset
-     * @return
-     * @throws PDUException
+     * @return exact encoded size of pdu, padding and length fields included
      */
-    protected static <T extends PDUSerializable> Class<T> resolveInstantiableClass(Class<T> klass, byte[] data, int startAtOffset) throws PDUException
+    @SuppressWarnings("unchecked")
+    public static int sizeOf(PDUSerializable pdu) throws PDUException
     {
-        Map<AnnotatedElement, PDUElement> annotatedElements = resolveAnnotatedElements(klass);
+        return CodecCompiler.compile((Class<PDUSerializable>) pdu.getClass()).sizeOf(pdu);
+    }
 
-        Field subtypeField = null;
-        PDUElement subtypeElement = null;
-        int subtypeOffset = 0;
-        int offset = startAtOffset;
+    /**
+     * Encode pdu into out at offset. Reuse out for steady-state encoding:
+     * PDUs of fixed layout are written without any allocation.
+     *
+     * @return number of bytes written, see {@link #sizeOf(PDUSerializable)}
+     * @throws IndexOutOfBoundsException
+     *             if the PDU does not fit, out is left unchanged
+     */
+    @SuppressWarnings("unchecked")
+    public static int encode(PDUSerializable pdu, byte[] out, int offset) throws PDUException
+    {
+        return CodecCompiler.compile((Class<PDUSerializable>) pdu.getClass()).encode(pdu, out, offset);
+    }
 
-        for (Entry<AnnotatedElement, PDUElement> entry : annotatedElements.entrySet())
-        {
-            AnnotatedElement annotatedElement = entry.getKey();
-            PDUElement pduElement = entry.getValue();
+    /**
+     * Encode pdu at the buffer's position, heap or direct, and advance the
+     * position by the written bytes. Heap buffers are written in place.
+     *
+     * @return number of bytes written
+     * @throws BufferOverflowException
+     *             if the PDU does not fit between position and limit, the
+     *             buffer is left unchanged
+     */
+    @SuppressWarnings("unchecked")
+    public static int encodeInto(PDUSerializable pdu, ByteBuffer buffer) throws PDUException
+    {
+        PDUCodec<PDUSerializable> codec = CodecCompiler.compile((Class<PDUSerializable>) pdu.getClass());
+        int remaining = buffer.remaining();
 
-            if (!(annotatedElement instanceof Field))
+        if (buffer.hasArray())
+        {
+            int offset = buffer.arrayOffset() + buffer.position();
+            int written;
+            try
             {
-                throw new IllegalStateException("Unsupported AnnotatedElement type of " + annotatedElement);
+                written = codec.encode(pdu, buffer.array(), offset, offset + remaining);
             }
-
-            Field field = (Field) annotatedElement;
-
-            if (field.getDeclaringClass() == klass && isSubtypePresent(field))
+            catch (IndexOutOfBoundsException e)
             {
-                subtypeField = field;
-                subtypeElement = pduElement;
-                subtypeOffset = offset;
+                throw new BufferOverflowException();
             }
 
-            int length = pduElement.length();
-            offset += length;
+            buffer.position(buffer.position() + written);
+            return written;
         }
 
-        if (subtypeField == null)
+        byte[] scratch = ENCODE_SCRATCH.get();
+        while (true)
         {
-            if (Modifier.isAbstract(klass.getModifiers()))
+            try
             {
-                throw new IllegalStateException("no subtype found for abstract class " + klass);
+                int written = codec.encode(pdu, scratch, 0, Math.min(scratch.length, remaining));
+                buffer.put(scratch, 0, written);
+                return written;
             }
-            else
+            catch (IndexOutOfBoundsException e)
             {
-                return klass;
-            }
-        }
+                if (scratch.length >= remaining)
+                {
+                    throw new BufferOverflowException();
+                }
 
-        if (!ImplementorMapped.class.isAssignableFrom(subtypeField.getType()))
-        {
-            throw new IllegalStateException("subtypeField " + subtypeField.getType().getCanonicalName() + " does not implement "
-                    + ImplementorMapped.class.getCanonicalName());
+                scratch = new byte[(int) Math.min(remaining, 2L * scratch.length)];
+                ENCODE_SCRATCH.set(scratch);
+            }
         }
-
-        Class<T> subtypeClass = resolveSubtype(subtypeElement, subtypeField, subtypeOffset, data);
-        return resolveInstantiableClass(subtypeClass, data, startAtOffset);
     }
 
-    private synchronized static boolean isSubtypePresent(Field field)
+    /**
+     * Resolve the concrete class of the PDU at startAtOffset through the
+     * precompiled {@link SubtypeDispatch} of klass
+     * 
+     * @param klass
+     * @param data
+     * @param startAtOffset
+     * @return klass or a subclass of it
+     * @throws PDUException
+     */
+    protected static <T extends PDUSerializable> Class<T> resolveInstantiableClass(Class<T> klass, byte[] data, int startAtOffset) throws PDUException
     {
-        boolean result = false;
-
-        if (!SUBTYPE_CACHE.containsKey(field))
-        {
-            result = field.isAnnotationPresent(PDUSubtype.class);
-            SUBTYPE_CACHE.put(field, result);
-        }
-        else
-        {
-            if (SUBTYPE_CACHE == null)
-            {
-                crunchifyGenerateThreadDump();
-            }
-
-            result = SUBTYPE_CACHE.get(field);
-        }
-
-        return result;
-
+        return SubtypeDispatch.of(klass).resolve(data, startAtOffset);
     }
 
     public static String crunchifyGenerateThreadDump()
@@ -542,8 +541,35 @@ public class PDU
         return true;
     }
 
+    /**
+     * @return decoder of only the named elements of klass, see
+     *         {@link PDUProjection}
+     */
+    public static <T extends PDUSerializable> PDUProjection<T> project(Class<T> klass, String... elements)
+    {
+        return PDUProjection.of(klass, elements);
+    }
+
     public static <T extends PDUSerializable> T decode(byte[] data, Class<T> klass, int offset) throws PDUException
     {
+        return decode(data, klass, offset, data.length);
+    }
+
+    /**
+     * Decode the PDU at offset without reading at or beyond end. Fields are
+     * read from data in place, only byte[] fields get their own copy; declare
+     * RAW fields as {@link java.nio.ByteBuffer} to get read-only slices of
+     * data instead.
+     */
+    public static <T extends PDUSerializable> T decode(byte[] data, Class<T> klass, int offset, int end) throws PDUException
+    {
+        // prefer a codec generated at compile time
+        GeneratedPDUCodec<T> generatedCodec = PDUCodecRegistry.lookup(klass);
+        if (generatedCodec != null)
+        {
+            return generatedCodec.decode(data, offset, end, null);
+        }
+
         try
         {
             // System.err.println("DECODING klass " + klass.getCanonicalName() +
@@ -554,161 +580,573 @@ public class PDU
             // System.out.println("found instantiable class " +
             // instantiableClass.getCanonicalName() + " for class " + klass);
 
-            Map<AnnotatedElement, PDUElement> elements = resolveAnnotatedElements(instantiableClass);
+            T pdu = ClassLayout.of(instantiableClass).newInstance();
+            decodeElements(pdu, data, offset, end);
+            return pdu;
+        }
+        catch (IllegalArgumentException | IllegalStateException | IllegalAccessException | SecurityException | InstantiationException
+                | InvocationTargetException | NoSuchMethodException e)
+        {
+            throw new PDUException("Could not decode PDU for " + klass.getCanonicalName(), e);
+        }
+    }
+
+    /**
+     * Decode the PDU at offset into target instead of a new instance. Every
+     * element of target is overwritten, byte[] values of matching length and
+     * ArrayLists are refilled in place; structures an ArrayList holds are
+     * decoded into where the data has the same class.
+     *
+     * @return target
+     * @throws PDUException
+     *             if the data resolves to another class than target's
+     */
+    public static <T extends PDUSerializable> T decodeInto(byte[] data, int offset, T target) throws PDUException
+    {
+        return decodeInto(data, offset, data.length, target);
+    }
 
-            Constructor<T> constructor = instantiableClass.getDeclaredConstructor();
-            constructor.setAccessible(true);
-            T pdu = constructor.newInstance();
+    public static <T extends PDUSerializable> T decodeInto(byte[] data, int offset, int end, T target) throws PDUException
+    {
+        Class<? extends PDUSerializable> klass = target.getClass();
 
-            Map<String, LengthFieldMetadata> fieldNameToLengthFieldMetadata = new HashMap<>();
+        try
+        {
+            Class<?> resolved = resolveInstantiableClass(klass, data, offset);
+            if (resolved != klass)
+            {
+                throw new PDUException("data at offset " + offset + " is " + resolved.getCanonicalName() + ", not " + klass.getCanonicalName());
+            }
 
-            int restLength = 0;
+            decodeElements(target, data, offset, end, null, null, true);
+            return target;
+        }
+        catch (IllegalArgumentException | IllegalStateException | IllegalAccessException | SecurityException | InstantiationException
+                | InvocationTargetException | NoSuchMethodException e)
+        {
+            throw new PDUException("Could not decode PDU for " + klass.getCanonicalName(), e);
+        }
+    }
 
-            for (Entry<AnnotatedElement, PDUElement> entry : elements.entrySet())
+    /**
+     * Decode the PDU between the buffer's position and limit. Heap buffers
+     * are decoded in place, of direct and read-only buffers only the next
+     * PDU is copied. The position is advanced by the consumed bytes, padding
+     * included.
+     */
+    public static <T extends PDUSerializable> T decode(ByteBuffer buffer, Class<T> klass) throws PDUException
+    {
+        byte[] data;
+        int offset;
+        int end;
+
+        if (buffer.hasArray())
+        {
+            data = buffer.array();
+            offset = buffer.arrayOffset() + buffer.position();
+            end = offset + buffer.remaining();
+        }
+        else
+        {
+            int[] length = new int[1];
+            data = copyFrame(buffer, klass, length);
+            offset = 0;
+            end = length[0];
+        }
+
+        int[] consumed = new int[1];
+        T pdu = decode(data, klass, offset, end, consumed);
+
+        // trailing padding may lie beyond the limit
+        buffer.position(buffer.position() + Math.min(consumed[0], buffer.remaining()));
+        return pdu;
+    }
+
+    /**
+     * Decode the PDU at offset and report the bytes it consumed, padding
+     * included
+     *
+     * @param consumed
+     *            receives the consumed bytes at index 0
+     */
+    protected static <T extends PDUSerializable> T decode(byte[] data, Class<T> klass, int offset, int end, int[] consumed) throws PDUException
+    {
+        GeneratedPDUCodec<T> generatedCodec = PDUCodecRegistry.lookup(klass);
+        if (generatedCodec != null)
+        {
+            return generatedCodec.decode(data, offset, end, consumed);
+        }
+
+        try
+        {
+            T pdu = ClassLayout.of(resolveInstantiableClass(klass, data, offset)).newInstance();
+            consumed[0] = decodeElements(pdu, data, offset, end) - offset;
+            return pdu;
+        }
+        catch (IllegalArgumentException | IllegalStateException | IllegalAccessException | SecurityException | InstantiationException
+                | InvocationTargetException | NoSuchMethodException e)
+        {
+            throw new PDUException("Could not decode PDU for " + klass.getCanonicalName(), e);
+        }
+    }
+
+    /**
+     * @return the class {@link #decode(byte[], Class, int)} would instantiate
+     *         for the PDU at offset, resolved without decoding any element
+     */
+    public static <T extends PDUSerializable> Class<? extends T> peekType(byte[] data, Class<T> root, int offset) throws PDUException
+    {
+        return resolveInstantiableClass(root, data, offset);
+    }
+
+    /**
+     * Like {@link #peekType(byte[], Class, int)} for the PDU at the buffer's
+     * position, which is left unchanged. Buffers without accessible array are
+     * copied.
+     */
+    public static <T extends PDUSerializable> Class<? extends T> peekType(ByteBuffer buffer, Class<T> root) throws PDUException
+    {
+        if (buffer.hasArray())
+        {
+            return resolveInstantiableClass(root, buffer.array(), buffer.arrayOffset() + buffer.position());
+        }
+
+        byte[] data = new byte[buffer.remaining()];
+        buffer.duplicate().get(data);
+        return resolveInstantiableClass(root, data, 0);
+    }
+
+    /**
+     * @return number of bytes {@link #decode(ByteBuffer, Class)} would consume
+     *         for the PDU at offset, padding included. Computed from the
+     *         LENGTH elements without instantiating the PDU, unless its layout
+     *         contains structures or length methods.
+     */
+    public static <T extends PDUSerializable> int peekLength(byte[] data, Class<T> root, int offset) throws PDUException
+    {
+        return peekLength(data, root, offset, data.length);
+    }
+
+    public static <T extends PDUSerializable> int peekLength(byte[] data, Class<T> root, int offset, int end) throws PDUException
+    {
+        ClassLayout<T> layout = ClassLayout.of(resolveInstantiableClass(root, data, offset));
+
+        try
+        {
+            int pduEnd = peekEnd(layout, data, offset, end);
+            if (pduEnd == -1)
             {
-                AnnotatedElement element = entry.getKey();
-                PDUElement pduElement = entry.getValue();
+                // lengths depend on decoded values
+                pduEnd = decodeElements(layout.newInstance(), data, offset, end);
+            }
+            return Math.min(pduEnd, end) - offset;
+        }
+        catch (IllegalArgumentException | IllegalStateException | IllegalAccessException | SecurityException | InstantiationException
+                | InvocationTargetException | NoSuchMethodException e)
+        {
+            throw new PDUException("Could not peek length of " + layout.pduClass.getCanonicalName(), e);
+        }
+    }
+
+    public static <T extends PDUSerializable> int peekLength(ByteBuffer buffer, Class<T> root) throws PDUException
+    {
+        if (buffer.hasArray())
+        {
+            int offset = buffer.arrayOffset() + buffer.position();
+            return peekLength(buffer.array(), root, offset, offset + buffer.remaining());
+        }
+
+        int[] length = new int[1];
+        byte[] data = copyFrame(buffer, root, length);
+        return length[0] < buffer.remaining() ? length[0] : peekLength(data, root, 0, length[0]);
+    }
+
+    /**
+     * Copy the bytes of the PDU at the buffer's position, without moving the
+     * position. Prefixes of growing size are copied until one holds the whole
+     * PDU, so the bytes copied stay proportional to the PDU, not to the
+     * buffer.
+     *
+     * @param length
+     *            receives the length of the PDU at index 0, or all remaining
+     *            bytes if it is not known before decoding them
+     * @return array holding the PDU from index 0, possibly longer
+     */
+    protected static byte[] copyFrame(ByteBuffer buffer, Class<? extends PDUSerializable> root, int[] length) throws PDUException
+    {
+        int remaining = buffer.remaining();
+
+        for (int size = Math.min(remaining, FRAME_PREFIX);; size = (int) Math.min(remaining, 2L * size))
+        {
+            byte[] data = new byte[size];
+            buffer.duplicate().get(data);
 
-                if (!(element instanceof Field))
+            if (size < remaining)
+            {
+                try
                 {
-                    throw new IllegalStateException("element " + element + " is not instance of Field");
+                    // a PDU ending before the prefix does not depend on the bytes after it
+                    int frameLength = peekLength(data, root, 0, size);
+                    if (frameLength < size)
+                    {
+                        length[0] = frameLength;
+                        return data;
+                    }
                 }
+                catch (PDUException | RuntimeException e)
+                {
+                    // truncated by the prefix, try a longer one
+                }
+                continue;
+            }
+
+            length[0] = remaining;
+            return data;
+        }
+    }
 
-                Field field = (Field) element;
+    /**
+     * Walk the element lengths of layout like
+     * {@link #decodeElements(PDUSerializable, byte[], int, int)}
+     *
+     * @return offset after the last element, -1 if a length depends on a
+     *         decoded value
+     */
+    protected static int peekEnd(ClassLayout<?> layout, byte[] data, int offset, int end)
+    {
+        ClassLayout.Element[] elements = layout.elements;
+        int[] lengthValues = null;
+        int restLength = 0;
 
-                if (!field.isAccessible())
+        for (int i = 0; i < elements.length; i++)
+        {
+            ClassLayout.Element element = elements[i];
+
+            if (element.referencesMethod != null || element.field == null || PDUSerializable.class.isAssignableFrom(element.field.getType()))
+            {
+                return -1;
+            }
+
+            if (element.type == LENGTH)
+            {
+                int lengthValue = (int) (UnsignedInteger.readLong(data, offset, element.length) + element.delta);
+                if (lengthValues == null)
                 {
-                    field.setAccessible(true);
+                    lengthValues = new int[elements.length];
                 }
+                lengthValues[i] = lengthValue;
+                restLength += layout.pduAllReferences[i] * lengthValue;
+            }
 
-                // System.err.println("Decoding klass " +
-                // field.getDeclaringClass().getCanonicalName() + " field " +
-                // field.getName() + " from "
-                // + pduElement);
+            int length = element.length;
+            if (length == -1)
+            {
+                int owner = layout.lengthOwners[i];
 
-                // save length annotation
-                if (pduElement.type() == LENGTH)
+                if (owner != ClassLayout.NO_OWNER)
                 {
-                    byte[] slice = new byte[pduElement.length()];
-                    System.arraycopy(data, offset, slice, 0, pduElement.length());
-                    long lengthValue = new Length(slice, pduElement.length(), pduElement.args()).toLong();
-                    LengthFieldMetadata lengthFieldMetadata = new LengthFieldMetadata(field.getName(), offset, pduElement.length(),
-                                                                                      pduElement.args());
-                    lengthFieldMetadata.setValue((int) lengthValue);
-
-                    if (!pduElement.referencesMethod().equals(""))
-                    {
-                        field.set(pdu, (int) lengthValue);
+                    length = lengthValues[owner];
+                }
+                else if (restLength > -1)
+                {
+                    length = restLength;
+                }
+                else
+                {
+                    length = end - offset;
+                }
+            }
 
-                        @SuppressWarnings("unchecked")
-                        Map<String, Integer> lengthFieldMetadataMap = (Map<String, Integer>) pdu.getClass().getMethod(pduElement.referencesMethod())
-                                                                                                .invoke(pdu);
+            if (length < 0 || offset + length > end)
+            {
+                throw new IllegalArgumentException("element " + element.name + " of length " + length + " at offset " + offset + " exceeds data");
+            }
 
-                        for (Entry<String, Integer> lengthFieldEntry : lengthFieldMetadataMap.entrySet())
-                        {
-                            lengthFieldMetadata = new LengthFieldMetadata(lengthFieldEntry.getKey(), offset, pduElement.length(), pduElement.args());
-                            lengthFieldMetadata.setValue(lengthFieldEntry.getValue());
+            if (element.pad > -1)
+            {
+                length += resolvePaddingLength(element.pad, length);
+            }
 
-                            fieldNameToLengthFieldMetadata.put(lengthFieldEntry.getKey(), lengthFieldMetadata);
-                        }
-                    }
-                    else
-                    {
-                        for (String targetField : pduElement.references().split(","))
-                        {
-                            fieldNameToLengthFieldMetadata.put(targetField, lengthFieldMetadata);
+            restLength -= length;
+            offset += length;
+        }
 
-                            if (targetField.equals(PDUElement.Type.LENGTH_REFERENCE_PDU_ALL))
-                            {
-                                restLength += lengthValue;
-                            }
-                        }
-                    }
-                }
+        return offset;
+    }
 
-                // length is defined
-                int length = pduElement.length();
+    /**
+     * Decode the elements of pdu's class at offset into pdu
+     *
+     * @return offset after the last element
+     */
+    protected static int decodeElements(PDUSerializable pdu, byte[] data, int offset, int end) throws IllegalAccessException, InstantiationException,
+            InvocationTargetException, NoSuchMethodException, PDUException
+    {
+        return decodeElements(pdu, data, offset, end, null, null, false);
+    }
+
+    /**
+     * Like {@link #decodeElements(PDUSerializable, byte[], int, int)}, but
+     * leaves elements undecoded
+     *
+     * @param skip
+     *            elements not to decode by index, null to decode all; only
+     *            {@link ClassLayout#skippable} elements may be skipped
+     * @param ranges
+     *            null, or receives offset and length of element i at 2 * i
+     *            and 2 * i + 1, length -1 if the element was decoded
+     * @param reuse
+     *            refill byte[] and ArrayList values already set on pdu in
+     *            place
+     */
+    protected static int decodeElements(PDUSerializable pdu, byte[] data, int offset, int end, boolean[] skip, int[] ranges, boolean reuse)
+            throws IllegalAccessException, InstantiationException, InvocationTargetException, NoSuchMethodException, PDUException
+    {
+        ClassLayout<?> layout = ClassLayout.of(pdu.getClass());
+        ClassLayout.Element[] elements = layout.elements;
+
+        // values of LENGTH elements by index
+        int[] lengthValues = new int[elements.length];
+
+        // lengths returned by a referencesMethod, rarely used
+        Map<String, Integer> methodLengths = null;
+        int methodLengthsOwner = ClassLayout.NO_OWNER;
+
+        int restLength = 0;
+
+        for (int i = 0; i < elements.length; i++)
+        {
+            ClassLayout.Element element = elements[i];
+
+            if (element.field == null)
+            {
+                throw new IllegalStateException("element " + element.annotatedElement + " is not instance of Field");
+            }
+
+            Field field = element.field;
+
+            // System.err.println("Decoding klass " +
+            // field.getDeclaringClass().getCanonicalName() + " field " +
+            // field.getName() + " from "
+            // + pduElement);
 
-                // check if length is dynamically inferred, use length field
-                // first, if no length field found, just use all data
-                if (length == -1)
+            // save length annotation
+            if (element.type == LENGTH)
+            {
+                int lengthValue = (int) (UnsignedInteger.readLong(data, offset, element.length) + element.delta);
+                lengthValues[i] = lengthValue;
+
+                if (element.referencesMethod != null)
                 {
-                    if (fieldNameToLengthFieldMetadata.containsKey(field.getName()))
-                    {
-                        length = fieldNameToLengthFieldMetadata.get(field.getName()).getValue();
-                    }
-                    else if (restLength > -1)
-                    {
-                        length = restLength;
-                    }
-                    else
+                    field.set(pdu, lengthValue);
+
+                    @SuppressWarnings("unchecked")
+                    Map<String, Integer> referencedLengths = (Map<String, Integer>) pdu.getClass().getMethod(element.referencesMethod).invoke(pdu);
+
+                    if (methodLengths == null)
                     {
-                        length = data.length - offset;
+                        methodLengths = new HashMap<>();
                     }
+                    methodLengths.putAll(referencedLengths);
+                    methodLengthsOwner = i;
+                }
+                else
+                {
+                    restLength += layout.pduAllReferences[i] * lengthValue;
+                }
+            }
+
+            // length is defined
+            int length = element.length;
+
+            // check if length is dynamically inferred, use length field
+            // first, if no length field found, just use all data
+            if (length == -1)
+            {
+                int owner = layout.lengthOwners[i];
+
+                if (methodLengths != null && methodLengthsOwner > owner && methodLengths.containsKey(element.name))
+                {
+                    length = methodLengths.get(element.name);
+                }
+                else if (owner != ClassLayout.NO_OWNER)
+                {
+                    length = lengthValues[owner];
+                }
+                else if (restLength > -1)
+                {
+                    length = restLength;
                 }
+                else
+                {
+                    length = end - offset;
+                }
+            }
 
-                // System.out.println("klass: " + field.getDeclaringClass() +
-                // " field " + field.getName() + " offset: " + offset +
-                // " length: " + length
-                // + " total: " + data.length);
+            // System.out.println("klass: " + field.getDeclaringClass() +
+            // " field " + field.getName() + " offset: " + offset +
+            // " length: " + length
+            // + " total: " + data.length);
+
+            if (length < 0 || offset + length > end)
+            {
+                throw new IllegalArgumentException("element " + element.name + " of length " + length + " at offset " + offset + " exceeds data");
+            }
 
-                // copy data into slice
+            Object fieldValue = null;
 
-                byte[] slice = new byte[length];
-                System.arraycopy(data, offset, slice, 0, length);
+            boolean skipped = skip != null && skip[i];
+            if (ranges != null)
+            {
+                ranges[2 * i] = offset;
+                ranges[2 * i + 1] = skipped ? length : -1;
+            }
 
-                // get binary type
-                Class<? extends BinaryType> binaryDataClass = pduElement.type().getDataClass();
+            if (skipped)
+            {
+                // left to LazyPDU or skipped by a projection
+            }
+            else if (element.primitiveType != null)
+            {
+                // same result as UnsignedInteger.to(), without boxing
+                long value = UnsignedInteger.readLong(data, offset, length);
 
-                // get binary value
-                Constructor<? extends BinaryType> binaryTypeConstructor;
-                if (!BINARY_TYPE_CONSTRUCTOR_CACHE.containsKey(binaryDataClass))
+                if (element.primitiveType == int.class)
+                {
+                    field.setInt(pdu, (int) value + element.delta);
+                }
+                else if (element.primitiveType == long.class)
                 {
-                    binaryTypeConstructor = binaryDataClass.getConstructor(byte[].class, int.class, String[].class);
-                    BINARY_TYPE_CONSTRUCTOR_CACHE.put(binaryDataClass, binaryTypeConstructor);
+                    field.setLong(pdu, value + element.delta);
                 }
                 else
                 {
-                    binaryTypeConstructor = BINARY_TYPE_CONSTRUCTOR_CACHE.get(binaryDataClass);
+                    field.setShort(pdu, (short) (value + element.delta));
                 }
-                BinaryType binaryValue = binaryTypeConstructor.newInstance(slice, length, pduElement.args());
+            }
+            else if (reuse && refill(pdu, element, data, offset, length))
+            {
+                // previous value updated in place
+            }
+            else
+            {
+                // get binary value, reading data in place
+                BinaryType binaryValue = element.newBinaryValue(data, offset, length);
 
                 // convert binary value to field type
-                Object fieldValue = binaryValue.to(field.getType());
+                fieldValue = binaryValue.to(field.getType());
                 field.set(pdu, fieldValue);
+                element.setRawValue(pdu, fieldValue, data, offset, length);
+            }
 
-                // re-adjust length by consumed bytes of fieldValue
-                if (fieldValue instanceof PDUSerializable)
-                {
-                    length = resolveLength((PDUSerializable) fieldValue);
-                }
+            // re-adjust length by consumed bytes of fieldValue
+            if (fieldValue instanceof PDUSerializable)
+            {
+                length = resolveLength((PDUSerializable) fieldValue);
+            }
+
+            // ignore n bytes padding
+            int padding = element.pad;
+            if (padding > -1)
+            {
+                length += resolvePaddingLength(padding, length);
+            }
 
-                // System.out.println("field " + field.getName() + " set to " +
-                // field.get(pdu) + " at offset " + offset + " read length: " +
-                // length
-                // + " slice: " + DatatypeConverter.printHexBinary(slice));
+            restLength -= length;
+            offset += length;
 
-                // ignore n bytes padding
-                int padding = pduElement.pad();
-                if (padding > -1)
-                {
-                    length += resolvePaddingLength(padding, length);
-                }
+            // System.out.println("restLength: " + restLength + "\n");
+        }
 
-                restLength -= length;
-                offset += length;
+        return offset;
+    }
 
-                // System.out.println("restLength: " + restLength + "\n");
-            }
+    /**
+     * Update the value of element on pdu from data if it can be reused: a
+     * byte[] of matching length or an ArrayList
+     *
+     * @return whether the value was updated
+     */
+    @SuppressWarnings("unchecked")
+    protected static boolean refill(PDUSerializable pdu, ClassLayout.Element element, byte[] data, int offset, int length) throws IllegalAccessException,
+            InstantiationException, InvocationTargetException, NoSuchMethodException, PDUException
+    {
+        Object current = element.field.get(pdu);
 
-            return pdu;
+        if (current instanceof byte[] && element.type == PDUElement.Type.RAW && ((byte[]) current).length == length)
+        {
+            System.arraycopy(data, offset, current, 0, length);
+            return true;
         }
-        catch (IllegalArgumentException | IllegalStateException | IllegalAccessException | SecurityException | InstantiationException
-                | InvocationTargetException | NoSuchMethodException e)
+
+        if (current != null && current.getClass() == ArrayList.class)
         {
-            throw new PDUException("Could not decode PDU for " + klass.getCanonicalName(), e);
+            BinaryType binaryValue = element.newBinaryValue(data, offset, length);
+            List<Object> list = (List<Object>) current;
+
+            if (binaryValue instanceof StructureCollection)
+            {
+                refill(list, (StructureCollection) binaryValue);
+                return true;
+            }
+            else if (binaryValue instanceof UnsignedIntegerCollection)
+            {
+                list.clear();
+                ((UnsignedIntegerCollection) binaryValue).addTo(list);
+                return true;
+            }
         }
 
+        return false;
+    }
+
+    /**
+     * Decode the elements of collection into list, reusing the instances list
+     * holds where the data has the same class at their position
+     */
+    protected static void refill(List<Object> list, StructureCollection collection) throws IllegalAccessException, InstantiationException,
+            InvocationTargetException, NoSuchMethodException, PDUException
+    {
+        byte[] data = collection.structureCollection;
+        int end = collection.end;
+        int[] consumed = new int[1];
+        int count = 0;
+
+        for (int offset = collection.start; offset < end; count++)
+        {
+            Object current = count < list.size() ? list.get(count) : null;
+            int length;
+
+            if (current != null && resolveInstantiableClass(collection.elementType, data, offset) == current.getClass())
+            {
+                length = decodeElements((PDUSerializable) current, data, offset, end, null, null, true) - offset;
+            }
+            else
+            {
+                PDUSerializable element = decode(data, collection.elementType, offset, end, consumed);
+                length = consumed[0];
+
+                if (count < list.size())
+                {
+                    list.set(count, element);
+                }
+                else
+                {
+                    list.add(element);
+                }
+            }
+
+            if (collection.elementPad > -1)
+            {
+                length += resolvePaddingLength(collection.elementPad, length);
+            }
+
+            // like StructureSequence, an element consuming nothing ends the collection
+            offset = length > 0 ? Math.min(offset + length, end) : end;
+        }
+
+        // drop instances beyond the decoded elements
+        list.subList(count, list.size()).clear();
     }
 
     public static int resolvePaddingLength(int pad, int length)
@@ -718,122 +1156,109 @@ public class PDU
 
     public static Class<?> resolveElementType(String className)
     {
-        Class<?> klass;
+        Class<?> klass = ELEMENT_TYPE_CACHE.get(className);
+        if (klass != null)
+        {
+            return klass;
+        }
+
         try
         {
-            if (!ELEMENT_TYPE_CACHE.containsKey(className))
-            {
-                klass = Class.forName(className);
-                ELEMENT_TYPE_CACHE.put(className, klass);
-            }
-            else
-            {
-                klass = ELEMENT_TYPE_CACHE.get(className);
-            }
+            klass = Class.forName(className);
         }
         catch (ClassNotFoundException e)
         {
             throw new IllegalArgumentException(e);
         }
 
+        ELEMENT_TYPE_CACHE.putIfAbsent(className, klass);
         return klass;
     }
 
     @SuppressWarnings("unchecked")
     protected static int resolveLength(PDUSerializable serializable) throws PDUException
     {
-        int countLength = 0;
-        boolean canBeFixedSize = true;
-
+        ClassLayout<?> layout = ClassLayout.of(serializable.getClass());
         Map<String, Integer> lengthFields = null;
 
-        Class<? extends PDUSerializable> serializableClass = serializable.getClass();
-
         try
         {
             // variable size serializable
-
-            for (Entry<AnnotatedElement, PDUElement> entry : PDU.resolveAnnotatedElements(serializableClass).entrySet())
+            if (layout.pduAllLengthIndex != -1)
             {
-                AnnotatedElement element = entry.getKey();
-                PDUElement pduElement = entry.getValue();
+                ClassLayout.Element lengthElement = layout.elements[layout.pduAllLengthIndex];
 
-                if (pduElement.type() == LENGTH && pduElement.references().equals(PDUElement.Type.LENGTH_REFERENCE_PDU_ALL))
+                if (lengthElement.referencesMethod == null)
                 {
-                    if (pduElement.referencesMethod().equals(""))
-                    {
-                        Field fieldElement = (Field) element;
-
-                        if (!fieldElement.isAccessible())
-                        {
-                            fieldElement.setAccessible(true);
-                        }
+                    Field fieldElement = lengthElement.field;
 
-                        int result = 0;
-                        if (fieldElement.getType().equals(long.class))
-                        {
-                            long longResult = fieldElement.getLong(serializable);
-                            if (longResult > Integer.MAX_VALUE)
-                            {
-                                throw new IllegalArgumentException("Cannot have length longer than " + Integer.MAX_VALUE);
-                            }
-                            result = (int) longResult;
-                        }
-                        else if (fieldElement.getType().equals(int.class))
-                        {
-                            result = fieldElement.getInt(serializable);
-                        }
-                        else if (fieldElement.getType().equals(short.class))
-                        {
-                            result = fieldElement.getShort(serializable);
-                        }
-                        else
+                    int result = 0;
+                    if (fieldElement.getType().equals(long.class))
+                    {
+                        long longResult = fieldElement.getLong(serializable);
+                        if (longResult > Integer.MAX_VALUE)
                         {
-                            throw new IllegalArgumentException("That cannot have a length " + fieldElement.getType());
+                            throw new IllegalArgumentException("Cannot have length longer than " + Integer.MAX_VALUE);
                         }
-                        return result;
+                        result = (int) longResult;
+                    }
+                    else if (fieldElement.getType().equals(int.class))
+                    {
+                        result = fieldElement.getInt(serializable);
+                    }
+                    else if (fieldElement.getType().equals(short.class))
+                    {
+                        result = fieldElement.getShort(serializable);
                     }
                     else
                     {
-                        try
-                        {
-                            lengthFields = (Map<String, Integer>) serializable.getClass().getMethod(pduElement.referencesMethod())
-                                                                              .invoke(serializable);
-                        }
-                        catch (Exception e)
-                        {
-                            throw new PDUException(e.getMessage());
-                        }
+                        throw new IllegalArgumentException("That cannot have a length " + fieldElement.getType());
                     }
+                    return result;
                 }
 
-                int declaredPduLength = pduElement.length();
-                if (canBeFixedSize && declaredPduLength > -1)
-                {
-                    countLength += declaredPduLength;
-                }
-                else if (lengthFields != null && lengthFields.containsKey(((Field) element).getName()))
+                try
                 {
-                    countLength += lengthFields.get(((Field) element).getName()).intValue();
+                    lengthFields = (Map<String, Integer>) serializable.getClass().getMethod(lengthElement.referencesMethod).invoke(serializable);
                 }
-                else
+                catch (Exception e)
                 {
-                    canBeFixedSize = false;
+                    throw new PDUException(e.getMessage());
                 }
             }
-
             // fixed size serializable
-            if (canBeFixedSize)
+            else if (layout.fixedSize > -1)
             {
-                return countLength;
+                return layout.fixedSize;
             }
-
         }
         catch (IllegalAccessException e)
         {
             throw new PDUException("Could not resolve length", e);
         }
 
+        if (lengthFields != null)
+        {
+            // sizes of dynamic elements come from the referencesMethod
+            int countLength = 0;
+            for (ClassLayout.Element element : layout.elements)
+            {
+                if (element.length > -1)
+                {
+                    countLength += element.length;
+                }
+                else if (lengthFields.containsKey(element.name))
+                {
+                    countLength += lengthFields.get(element.name).intValue();
+                }
+                else
+                {
+                    throw new IllegalArgumentException("Could not find LENGTH field and PDU cannot be fixed size");
+                }
+            }
+            return countLength;
+        }
+
         throw new IllegalArgumentException("Could not find LENGTH field and PDU cannot be fixed size");
     }
 
@@ -920,15 +1345,7 @@ public class PDU
                     }
                     else
                     {
-                        switch (pduElement.type())
-                        {
-                            case RAW:
-                                formattedValue = DatatypeConverter.printHexBinary(value instanceof byte[] ? (byte[]) value
-                                        : new byte[] { (byte) value });
-                                break;
-                            default:
-                                formattedValue = value != null ? value.toString() : "null";
-                        }
+                        formattedValue = formatValue(pduElement.type(), value);
                     }
 
                     buffer.append(formattedValue);
@@ -971,6 +1388,43 @@ public class PDU
         return buffer.toString();
     }
 
+    /**
+     * @return value as dumped: RAW bytes and buffers in hex, primitive arrays
+     *         by element
+     */
+    protected static String formatValue(PDUElement.Type type, Object value)
+    {
+        if (value instanceof byte[])
+        {
+            return DatatypeConverter.printHexBinary((byte[]) value);
+        }
+        else if (value instanceof ByteBuffer)
+        {
+            // read a duplicate, the position of value stays
+            ByteBuffer duplicate = ((ByteBuffer) value).duplicate();
+            byte[] bytes = new byte[duplicate.remaining()];
+            duplicate.get(bytes);
+            return DatatypeConverter.printHexBinary(bytes);
+        }
+        else if (value instanceof Byte && type == PDUElement.Type.RAW)
+        {
+            return DatatypeConverter.printHexBinary(new byte[] { (Byte) value });
+        }
+        else if (value instanceof long[])
+        {
+            return Arrays.toString((long[]) value);
+        }
+        else if (value instanceof int[])
+        {
+            return Arrays.toString((int[]) value);
+        }
+        else if (value instanceof short[])
+        {
+            return Arrays.toString((short[]) value);
+        }
+        return String.valueOf(value);
+    }
+
     public static class LengthFieldMetadata
     {
         protected String lengthFieldName;
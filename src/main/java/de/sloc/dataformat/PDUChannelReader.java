@@ -0,0 +1,376 @@
+package de.sloc.dataformat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.function.Consumer;
+
+/**
+ * Channel counterpart of {@link PDUInputStream}: frames PDUs by their length
+ * field, or their fixed length, from a {@link ReadableByteChannel} and decodes
+ * them on the calling thread. Partial PDUs are kept in a reusable
+ * {@link ByteBuffer} across reads, which starts at
+ * {@link PDUInputStream#DEFAULT_BUFFER_SIZE} and only grows to the largest PDU
+ * seen.
+ * <p>
+ * With a non-blocking channel, call {@link #read(Consumer)} whenever a
+ * selector reports the channel readable, one reader per channel:
+ *
+ * <pre>
+ * PDUChannelReader&lt;FrameHeader&gt; reader = new PDUChannelReader&lt;&gt;(FrameHeader.class, channel);
+ * channel.register(selector, SelectionKey.OP_READ, reader);
+ * ...
+ * if (reader.read(frame -&gt; handle(frame)) &lt; 0)
+ * {
+ *     key.cancel();
+ *     channel.close();
+ * }
+ * </pre>
+ *
+ * Readers are not safe to share between threads.
+ */
+public class PDUChannelReader<T extends PDUSerializable>
+{
+    protected final Class<T> pduClass;
+    protected final PDUCodec<T> codec;
+    protected final ReadableByteChannel channel;
+
+    protected final boolean isFixedLength;
+    protected final int fixedLength;
+    protected final int lengthOffset;
+    protected final int lengthFieldLength;
+    protected final int delta;
+
+    /**
+     * Allocated on first read. Bytes from start to position are read but not
+     * yet framed.
+     */
+    protected ByteBuffer buffer;
+    protected int start;
+
+    protected int initialBufferSize = PDUInputStream.DEFAULT_BUFFER_SIZE;
+    protected int maxPDULength = PDUInputStream.MAX_SIZE;
+    protected boolean direct;
+    protected boolean endOfStream;
+
+    /**
+     * Instances to decode into, null to decode with codec
+     */
+    protected PDUPool<T> pool;
+
+    public PDUChannelReader(Class<T> pduClass, ReadableByteChannel channel)
+    {
+        this(pduClass, channel, PDUEngine.getDefault().codecFor(pduClass));
+    }
+
+    public PDUChannelReader(Class<T> pduClass, ReadableByteChannel channel, PDUCodec<T> codec)
+    {
+        this.pduClass = pduClass;
+        this.channel = channel;
+        this.codec = codec;
+
+        int[] metadata = PDU.getLengthMetadata(pduClass);
+
+        if (metadata.length == 3)
+        {
+            this.isFixedLength = false;
+            this.fixedLength = 0;
+            this.lengthOffset = metadata[0];
+            this.lengthFieldLength = metadata[1];
+            this.delta = metadata[2];
+        }
+        else if (metadata.length == 1)
+        {
+            this.isFixedLength = true;
+            this.fixedLength = metadata[0];
+            this.lengthOffset = 0;
+            this.lengthFieldLength = 0;
+            this.delta = 0;
+        }
+        else
+        {
+            throw new IllegalStateException("Unknown length metadata found");
+        }
+    }
+
+    public Class<T> getPDUClass()
+    {
+        return pduClass;
+    }
+
+    public ReadableByteChannel getChannel()
+    {
+        return channel;
+    }
+
+    /**
+     * Size of the buffer when it is allocated on the first read
+     */
+    public void setInitialBufferSize(int initialBufferSize)
+    {
+        if (initialBufferSize < 1)
+        {
+            throw new IllegalArgumentException("initialBufferSize < 1");
+        }
+        this.initialBufferSize = initialBufferSize;
+    }
+
+    /**
+     * Longest PDU to accept, longer ones fail the read with an IOException
+     */
+    public void setMaxPDULength(int maxPDULength)
+    {
+        if (maxPDULength < 1)
+        {
+            throw new IllegalArgumentException("maxPDULength < 1");
+        }
+        this.maxPDULength = maxPDULength;
+    }
+
+    /**
+     * Read into a direct buffer, set before the first read
+     */
+    public void setDirect(boolean direct)
+    {
+        this.direct = direct;
+    }
+
+    /**
+     * Decode into instances of pool
+     */
+    public void setPool(PDUPool<T> pool)
+    {
+        this.pool = pool;
+    }
+
+    /**
+     * @return current size of the buffer, 0 before the first read
+     */
+    public int getBufferSize()
+    {
+        return buffer == null ? 0 : buffer.capacity();
+    }
+
+    public boolean isEndOfStream()
+    {
+        return endOfStream;
+    }
+
+    /**
+     * Read what the channel has once and pass every PDU read completely to
+     * consumer, in stream order
+     *
+     * @return PDUs passed, -1 at the end of the stream once all are passed
+     */
+    public int read(Consumer<? super T> consumer) throws IOException
+    {
+        int count = drain(consumer);
+
+        if (!endOfStream)
+        {
+            if (fill() < 0)
+            {
+                endOfStream = true;
+            }
+            count += drain(consumer);
+        }
+
+        return endOfStream && count == 0 ? -1 : count;
+    }
+
+    /**
+     * Like {@link #read(Consumer)}, but pass the bytes of each PDU to be
+     * decoded elsewhere with {@link #decode(byte[])}
+     *
+     * @return PDUs passed, -1 at the end of the stream once all are passed
+     */
+    public int readFrames(Consumer<? super byte[]> consumer) throws IOException
+    {
+        int count = drainFrames(consumer);
+
+        if (!endOfStream)
+        {
+            if (fill() < 0)
+            {
+                endOfStream = true;
+            }
+            count += drainFrames(consumer);
+        }
+
+        return endOfStream && count == 0 ? -1 : count;
+    }
+
+    /**
+     * @return next PDU, reading until it is complete; null at the end of the
+     *         stream, or if a non-blocking channel has no more bytes yet
+     */
+    public T readPDU() throws IOException
+    {
+        for (;;)
+        {
+            byte[] frame = nextFrame();
+            if (frame != null)
+            {
+                return decode(frame);
+            }
+
+            int read = endOfStream ? -1 : fill();
+            if (read < 0)
+            {
+                endOfStream = true;
+                return null;
+            }
+            else if (read == 0)
+            {
+                return null;
+            }
+        }
+    }
+
+    protected int drain(Consumer<? super T> consumer) throws IOException
+    {
+        int count = 0;
+        byte[] frame;
+        while ((frame = nextFrame()) != null)
+        {
+            consumer.accept(decode(frame));
+            count++;
+        }
+        return count;
+    }
+
+    protected int drainFrames(Consumer<? super byte[]> consumer) throws IOException
+    {
+        int count = 0;
+        byte[] frame;
+        while ((frame = nextFrame()) != null)
+        {
+            consumer.accept(frame);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Decode a frame of {@link #readFrames(Consumer)}, safe to call from any
+     * thread
+     */
+    public T decode(byte[] frame) throws IOException
+    {
+        try
+        {
+            return pool != null ? pool.decode(frame, 0) : codec.decode(frame, 0);
+        }
+        catch (PDUException e)
+        {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Read from the channel into the free end of the buffer, after making
+     * room for the PDU at start
+     *
+     * @return bytes read, -1 at the end of the stream
+     */
+    protected int fill() throws IOException
+    {
+        if (buffer == null)
+        {
+            int size = Math.min(initialBufferSize, maxPDULength);
+            buffer = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+        }
+
+        int pduLength = frameLength();
+        makeRoom(pduLength > -1 ? pduLength : lengthOffset + lengthFieldLength);
+        return channel.read(buffer);
+    }
+
+    /**
+     * @return copy of the next PDU read completely, null if there is none
+     */
+    protected byte[] nextFrame() throws IOException
+    {
+        int pduLength = frameLength();
+        if (pduLength < 0 || buffer.position() - start < pduLength)
+        {
+            return null;
+        }
+
+        // the PDU owns its bytes, the buffer is reused
+        byte[] frame = new byte[pduLength];
+        int position = buffer.position();
+        buffer.position(start);
+        buffer.get(frame);
+        buffer.position(position);
+
+        start += pduLength;
+        if (start == position)
+        {
+            buffer.clear();
+            start = 0;
+        }
+        return frame;
+    }
+
+    /**
+     * @return length of the PDU at start, read in place, -1 if its length
+     *         field is not read yet
+     */
+    protected int frameLength() throws IOException
+    {
+        if (buffer == null)
+        {
+            return -1;
+        }
+        else if (isFixedLength)
+        {
+            return fixedLength;
+        }
+        else if (buffer.position() - start < lengthOffset + lengthFieldLength)
+        {
+            return -1;
+        }
+
+        long pduLength = 0;
+        for (int i = start + lengthOffset; i < start + lengthOffset + lengthFieldLength; i++)
+        {
+            pduLength = (pduLength << 8) | (buffer.get(i) & 0xFF);
+        }
+        pduLength += delta;
+
+        if (pduLength < 1 || pduLength > maxPDULength)
+        {
+            throw new IOException("PDU length " + pduLength + " out of range 1.." + maxPDULength);
+        }
+        return (int) pduLength;
+    }
+
+    /**
+     * Make room for length bytes from start: move the unframed bytes, less
+     * than one PDU, to the front and grow the buffer if it is still too small
+     */
+    protected void makeRoom(int length)
+    {
+        if (start + length <= buffer.capacity())
+        {
+            return;
+        }
+
+        buffer.limit(buffer.position());
+        buffer.position(start);
+
+        if (length > buffer.capacity())
+        {
+            // grow only to the largest PDU seen
+            ByteBuffer target = direct ? ByteBuffer.allocateDirect(length) : ByteBuffer.allocate(length);
+            target.put(buffer);
+            buffer = target;
+        }
+        else
+        {
+            buffer.compact();
+        }
+        start = 0;
+    }
+}
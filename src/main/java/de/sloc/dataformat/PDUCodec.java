@@ -0,0 +1,68 @@
+package de.sloc.dataformat;
+
+/**
+ * Encoder/decoder for one {@link PDUSerializable} class. Codecs are obtained
+ * from a {@link PDUEngine} and are safe to share between threads.
+ *
+ * @param <T>
+ *            PDU type handled by this codec
+ */
+public interface PDUCodec<T extends PDUSerializable>
+{
+    /**
+     * Decode a PDU starting at offset. If T has subtypes, the concrete
+     * subclass is resolved from data.
+     */
+    public T decode(byte[] data, int offset) throws PDUException;
+
+    /**
+     * Encode a PDU. Instances of subclasses of T are encoded with all their
+     * elements.
+     */
+    public byte[] encode(T pdu) throws PDUException;
+
+    /**
+     * @return exact number of bytes {@link #encode(PDUSerializable)} produces
+     *         for pdu, padding and length fields included
+     */
+    public default int sizeOf(T pdu) throws PDUException
+    {
+        return encode(pdu).length;
+    }
+
+    /**
+     * Encode a PDU into out at offset, without allocating an intermediate
+     * array where the codec supports it.
+     *
+     * @return number of bytes written
+     * @throws IndexOutOfBoundsException
+     *             if the PDU does not fit into out at offset, out is left
+     *             unchanged
+     */
+    public default int encode(T pdu, byte[] out, int offset) throws PDUException
+    {
+        return encode(pdu, out, offset, out.length);
+    }
+
+    /**
+     * Like {@link #encode(PDUSerializable, byte[], int)}, without writing at
+     * or beyond end
+     *
+     * @throws IndexOutOfBoundsException
+     *             if the PDU does not fit between offset and end, out is left
+     *             unchanged
+     */
+    public default int encode(T pdu, byte[] out, int offset, int end) throws PDUException
+    {
+        byte[] encoded = encode(pdu);
+        if (offset < 0 || end > out.length || end - offset < encoded.length)
+        {
+            throw new IndexOutOfBoundsException("PDU of " + encoded.length + " bytes does not fit into " + out.length + " bytes between " + offset
+                    + " and " + end);
+        }
+
+        System.arraycopy(encoded, 0, out, offset, encoded.length);
+        return encoded.length;
+    }
+
+}
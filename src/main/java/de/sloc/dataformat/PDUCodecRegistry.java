@@ -0,0 +1,65 @@
+package de.sloc.dataformat;
+
+/**
+ * Finds {@link GeneratedPDUCodec}s for PDU classes. The codec of a.b.Xxx is
+ * expected as a.b.XxxCodec (a.b.Outer_InnerCodec for nested classes) in the
+ * class loader of the PDU class. Lookups are cached per class without pinning
+ * the class or its loader.
+ */
+public class PDUCodecRegistry
+{
+    public static final String CODEC_SUFFIX = "Codec";
+
+    private static final ClassValue<GeneratedPDUCodec<?>> GENERATED_CODECS = new ClassValue<GeneratedPDUCodec<?>>()
+    {
+        @Override
+        protected GeneratedPDUCodec<?> computeValue(Class<?> type)
+        {
+            return load(type);
+        }
+    };
+
+    /**
+     * @return the generated codec for pduClass, null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends PDUSerializable> GeneratedPDUCodec<T> lookup(Class<T> pduClass)
+    {
+        return (GeneratedPDUCodec<T>) GENERATED_CODECS.get(pduClass);
+    }
+
+    public static String codecClassName(Class<?> pduClass)
+    {
+        return pduClass.getName().replace('$', '_') + CODEC_SUFFIX;
+    }
+
+    protected static GeneratedPDUCodec<?> load(Class<?> pduClass)
+    {
+        ClassLoader classLoader = pduClass.getClassLoader();
+        if (classLoader == null || pduClass.isAnonymousClass() || pduClass.isLocalClass())
+        {
+            return null;
+        }
+
+        try
+        {
+            Class<?> codecClass = Class.forName(codecClassName(pduClass), true, classLoader);
+            if (!GeneratedPDUCodec.class.isAssignableFrom(codecClass))
+            {
+                return null;
+            }
+
+            GeneratedPDUCodec<?> codec = (GeneratedPDUCodec<?>) codecClass.getConstructor().newInstance();
+            return codec.getPDUClass() == pduClass ? codec : null;
+        }
+        catch (ClassNotFoundException e)
+        {
+            return null;
+        }
+        catch (ReflectiveOperationException | LinkageError e)
+        {
+            throw new IllegalStateException("Could not load generated codec for " + pduClass.getCanonicalName(), e);
+        }
+    }
+
+}
@@ -32,6 +32,14 @@ public @interface PDUElement
 	
 	String referencesMethod() default "";
 
+	/**
+	 * Integer or Long field keeping the decoded value of an AsNumber enum
+	 * element whose constant does not own it, e.g. UNKNOWN. Encoding writes
+	 * it back while it still maps to the element's constant, so values
+	 * without a constant of their own survive decode and encode.
+	 */
+	String rawValue() default "";
+
 	public enum Type
 	{
 		UNSIGNED_INTEGER(UnsignedInteger.class),
@@ -43,7 +51,8 @@ public @interface PDUElement
 		FIXED_LENGTH_STRING(FixedLengthString.class),
 		PADDING(Padding.class),
 		LENGTH(Length.class),
-		RAW(Raw.class);
+		RAW(Raw.class),
+		IP_ADDRESS(IPAddress.class);
 
 		protected static Map<Class<? extends BinaryType>, Type> valueToType = new HashMap<>();
 
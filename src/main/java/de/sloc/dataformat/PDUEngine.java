@@ -0,0 +1,94 @@
+package de.sloc.dataformat;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Selects how PDUs are encoded and decoded.
+ *
+ * The default engine is read from the system property
+ * {@value #ENGINE_PROPERTY} ("reflective" or "compiled") and is
+ * {@link #REFLECTIVE} if the property is not set.
+ */
+public enum PDUEngine
+{
+    /**
+     * Walk the annotated elements via reflection on every call
+     */
+    REFLECTIVE
+    {
+        @Override
+        public <T extends PDUSerializable> PDUCodec<T> codecFor(Class<T> pduClass)
+        {
+            return new ReflectivePDUCodec<>(pduClass);
+        }
+    },
+
+    /**
+     * Use codecs compiled once per class by {@link CodecCompiler}
+     */
+    COMPILED
+    {
+        @Override
+        public <T extends PDUSerializable> PDUCodec<T> codecFor(Class<T> pduClass)
+        {
+            return CodecCompiler.compile(pduClass);
+        }
+    };
+
+    public static final String ENGINE_PROPERTY = "de.sloc.dataformat.engine";
+
+    private static volatile PDUEngine defaultEngine;
+
+    public abstract <T extends PDUSerializable> PDUCodec<T> codecFor(Class<T> pduClass);
+
+    @SuppressWarnings("unchecked")
+    public byte[] encode(PDUSerializable pdu) throws PDUException
+    {
+        return codecFor((Class<PDUSerializable>) pdu.getClass()).encode(pdu);
+    }
+
+    public <T extends PDUSerializable> T decode(byte[] data, Class<T> pduClass, int offset) throws PDUException
+    {
+        return codecFor(pduClass).decode(data, offset);
+    }
+
+    /**
+     * @throws IllegalArgumentException
+     *             if {@value #ENGINE_PROPERTY} names no engine
+     */
+    public static PDUEngine getDefault()
+    {
+        PDUEngine engine = defaultEngine;
+        if (engine == null)
+        {
+            engine = resolveDefault(System.getProperty(ENGINE_PROPERTY));
+            defaultEngine = engine;
+        }
+        return engine;
+    }
+
+    /**
+     * @return engine named by value, {@link #REFLECTIVE} if value is null
+     * @throws IllegalArgumentException
+     *             if value names no engine
+     */
+    protected static PDUEngine resolveDefault(String value)
+    {
+        if (value == null)
+        {
+            return REFLECTIVE;
+        }
+
+        try
+        {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw new IllegalArgumentException(ENGINE_PROPERTY + "=" + value + " names no engine, expected one of "
+                    + Arrays.toString(values()).toLowerCase(Locale.ROOT), e);
+        }
+    }
+
+}
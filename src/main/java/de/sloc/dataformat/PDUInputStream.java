@@ -1,25 +1,55 @@
 package de.sloc.dataformat;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
 import java.util.concurrent.LinkedBlockingQueue;
 
+/**
+ * Reads PDUs framed by their length field, or by their fixed length, and
+ * decodes them in the background. Bytes are read into one framing buffer that
+ * starts at {@link #DEFAULT_BUFFER_SIZE}, or the size set with
+ * {@link #setInitialBufferSize(int)}, and only grows to hold the largest PDU
+ * seen, up to {@link #setMaxPDULength(int)}.
+ * <p>
+ * PDUs up to {@link #setInlineThreshold(int)} bytes are decoded on the reading
+ * thread, where handing them to another thread costs more than decoding them.
+ * Longer ones go to the executor, {@link DecodeExecutors#shared()} unless set.
+ * <p>
+ * PDUs are framed in batches bounded by {@link #setBatchPolicy(BatchPolicy)},
+ * {@link #getBatchStats()} tells how large they were and how long they took.
+ */
 public class PDUInputStream<T extends PDUSerializable> extends InputStream
 {
+    /**
+     * Default largest PDU length accepted
+     */
     protected static int MAX_SIZE = 100000000;
 
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    public static final int DEFAULT_INLINE_THRESHOLD = 256;
+
     protected Class<T> pduClass;
-    protected BufferedInputStream inputStream;
-    protected byte[] readBuffer;
+    protected PDUCodec<T> codec;
+    protected InputStream inputStream;
+
+    /**
+     * Framing buffer, allocated on first read. Bytes from start to end are
+     * read but not yet framed.
+     */
+    protected byte[] buffer;
+    protected int start;
+    protected int end;
+
+    protected int initialBufferSize = DEFAULT_BUFFER_SIZE;
+    protected int maxPDULength = MAX_SIZE;
 
     boolean isFixedLength = false;
 
@@ -29,13 +59,44 @@ public class PDUInputStream<T extends PDUSerializable> extends InputStream
 
     protected int fixedLength;
 
-    protected ExecutorService es = Executors.newFixedThreadPool(8);
+    /**
+     * Instances to decode into, null to decode with codec
+     */
+    protected PDUPool<T> pool;
+
+    protected Executor executor = DecodeExecutors.shared();
+
+    /**
+     * PDUs up to this length are decoded inline
+     */
+    protected int inlineThreshold = DEFAULT_INLINE_THRESHOLD;
+
+    protected BatchPolicy batchPolicy = BatchPolicy.UNBOUNDED;
+    protected final BatchStats batchStats = new BatchStats();
+
+    /**
+     * When the PDUs in pduQueue were handed over
+     */
+    protected long batchHandedOverAt;
 
     public PDUInputStream(Class<T> pduClass, InputStream inputStream)
     {
-        readBuffer = new byte[MAX_SIZE];
+        this(pduClass, inputStream, PDUEngine.getDefault());
+    }
+
+    public PDUInputStream(Class<T> pduClass, InputStream inputStream, PDUEngine engine)
+    {
+        this(pduClass, inputStream, engine.codecFor(pduClass));
+    }
+
+    /**
+     * Decode with codec, e.g. a {@link PDUProjection}
+     */
+    public PDUInputStream(Class<T> pduClass, InputStream inputStream, PDUCodec<T> codec)
+    {
         this.pduClass = pduClass;
-        this.inputStream = new BufferedInputStream(inputStream, MAX_SIZE);
+        this.codec = codec;
+        this.inputStream = inputStream;
 
         int[] metadata = PDU.getLengthMetadata(pduClass);
 
@@ -57,15 +118,148 @@ public class PDUInputStream<T extends PDUSerializable> extends InputStream
 
     }
 
+    /**
+     * Decode into instances of pool, which consumers hand back with
+     * {@link #release(PDUSerializable)} after processing
+     */
+    public void setPool(PDUPool<T> pool)
+    {
+        this.pool = pool;
+    }
+
+    public PDUPool<T> getPool()
+    {
+        return pool;
+    }
+
+    /**
+     * Return a PDU read from this stream to the pool, if there is one
+     */
+    public void release(T pdu)
+    {
+        if (pool != null)
+        {
+            pool.release(pdu);
+        }
+    }
+
+    /**
+     * Executor to decode PDUs longer than the inline threshold with, see
+     * {@link DecodeExecutors}. It is not shut down on {@link #close()}.
+     */
+    public void setExecutor(Executor executor)
+    {
+        if (executor == null)
+        {
+            throw new IllegalArgumentException("executor is null");
+        }
+        this.executor = executor;
+    }
+
+    public Executor getExecutor()
+    {
+        return executor;
+    }
+
+    /**
+     * Decode PDUs up to inlineThreshold bytes on the reading thread,
+     * {@link #DEFAULT_INLINE_THRESHOLD} unless set, 0 to hand all to the
+     * executor
+     */
+    public void setInlineThreshold(int inlineThreshold)
+    {
+        if (inlineThreshold < 0)
+        {
+            throw new IllegalArgumentException("inlineThreshold < 0");
+        }
+        this.inlineThreshold = inlineThreshold;
+    }
+
+    public int getInlineThreshold()
+    {
+        return inlineThreshold;
+    }
+
+    /**
+     * Bounds of the batches framed at once, {@link BatchPolicy#UNBOUNDED}
+     * unless set
+     */
+    public void setBatchPolicy(BatchPolicy batchPolicy)
+    {
+        if (batchPolicy == null)
+        {
+            throw new IllegalArgumentException("batchPolicy is null");
+        }
+        this.batchPolicy = batchPolicy;
+    }
+
+    public BatchPolicy getBatchPolicy()
+    {
+        return batchPolicy;
+    }
+
+    public BatchStats getBatchStats()
+    {
+        return batchStats;
+    }
+
+    /**
+     * Size of the framing buffer when it is allocated on the first read,
+     * {@link #DEFAULT_BUFFER_SIZE} unless set
+     */
+    public void setInitialBufferSize(int initialBufferSize)
+    {
+        if (initialBufferSize < 1)
+        {
+            throw new IllegalArgumentException("initialBufferSize < 1");
+        }
+        this.initialBufferSize = initialBufferSize;
+    }
+
+    /**
+     * Longest PDU to accept, longer ones fail the read with an IOException
+     */
+    public void setMaxPDULength(int maxPDULength)
+    {
+        if (maxPDULength < 1)
+        {
+            throw new IllegalArgumentException("maxPDULength < 1");
+        }
+        this.maxPDULength = maxPDULength;
+    }
+
+    public int getMaxPDULength()
+    {
+        return maxPDULength;
+    }
+
+    /**
+     * @return current size of the framing buffer, 0 before the first read
+     */
+    public int getBufferSize()
+    {
+        return buffer == null ? 0 : buffer.length;
+    }
+
     @Override
-    public int read() throws IOException
+    public synchronized int read() throws IOException
     {
-        return this.inputStream.read();
+        // bytes already read into the buffer come first
+        if (start < end)
+        {
+            return buffer[start++] & 0xFF;
+        }
+        return inputStream.read();
     }
 
+    /**
+     * Read from the underlying stream into the free end of the buffer
+     * 
+     * @return bytes read, -1 at the end of the stream
+     */
     public int waitForBytes() throws IOException
     {
-        return inputStream.read(readBuffer, bytesReady, MAX_SIZE - bytesReady);
+        return inputStream.read(buffer, end, buffer.length - end);
     }
 
     public T readPDU() throws IOException
@@ -81,12 +275,6 @@ public class PDUInputStream<T extends PDUSerializable> extends InputStream
         }
     }
 
-    public void close() throws IOException
-    {
-        es.shutdown();
-        super.close();
-    }
-
     private Queue<Future<T>> pduQueue = new LinkedBlockingQueue<>();
 
     public Future<T> nextPDU() throws IOException
@@ -100,99 +288,204 @@ public class PDUInputStream<T extends PDUSerializable> extends InputStream
             }
 
             pduQueue.addAll(pdus);
+            batchHandedOverAt = System.nanoTime();
         }
 
-        return pduQueue.poll();
+        Future<T> pdu = pduQueue.poll();
+        if (pduQueue.isEmpty())
+        {
+            batchStats.recordDrain(System.nanoTime() - batchHandedOverAt);
+        }
+        return pdu;
     }
 
-    protected int bytesReady = 0, offset = 0;
-
+    /**
+     * Frame a batch of PDUs within the batch policy, reading until there is
+     * at least one
+     * 
+     * @return decode tasks in stream order, null at the end of the stream
+     */
     protected synchronized List<Future<T>> nextPDUs() throws IOException
     {
+        if (buffer == null)
+        {
+            buffer = new byte[Math.min(initialBufferSize, maxPDULength)];
+        }
+
+        BatchPolicy policy = batchPolicy;
         List<Future<T>> nextPDUs = new ArrayList<>();
-        bytesReady = 0;
-        int bytesDecoded = 0;
-        boolean onePDURead = false;
-        inputStream.mark(MAX_SIZE);
+        long batchBytes = 0;
+        long firstFramedAt = 0;
 
-        loop: for (;;)
+        for (;;)
         {
-            long pduLength = 0;
-            offset = 0;
+            int pduLength = frameLength();
+            while (pduLength > -1 && end - start >= pduLength && !policy.isFull(nextPDUs.size(), batchBytes))
+            {
+                if (nextPDUs.isEmpty())
+                {
+                    firstFramedAt = System.nanoTime();
+                }
 
-            bytesReady += waitForBytes();
+                nextPDUs.add(createDecodeTask(start, pduLength));
+                start += pduLength;
+                batchBytes += pduLength;
+                pduLength = frameLength();
+            }
 
-            if (bytesReady < 0)
-                return null;
+            if (start == end)
+            {
+                start = end = 0;
+            }
 
-            while (bytesReady >= pduLength)
+            if (!nextPDUs.isEmpty() && (policy.isFull(nextPDUs.size(), batchBytes) || !keepReading(policy, firstFramedAt)))
             {
-                if (isFixedLength)
-                {
-                    pduLength = fixedLength;
-                }
-                else if (isEnoughLengthBytesReady())
-                {
-                    pduLength = readLength();
-                }
-                else if (!onePDURead)
-                {
-                    continue loop;
-                }
+                batchStats.recordBatch(nextPDUs.size(), batchBytes, System.nanoTime() - firstFramedAt);
+                return nextPDUs;
+            }
 
-                if (isEnoughBytesReady(pduLength))
-                {
-                    nextPDUs.add(createDecodeTask(pduLength));
-                    onePDURead = true;
+            // room for the whole PDU, or for its length field
+            makeRoom(pduLength > -1 ? pduLength : lengthOffset + lengthFieldLength);
 
-                    bytesReady -= pduLength;
-                    bytesDecoded += pduLength;
-                }
-                else if (!onePDURead)
-                {
-                    continue loop;
-                }
-                else
+            int read = waitForBytes();
+            if (read < 0)
+            {
+                if (nextPDUs.isEmpty())
                 {
+                    return null;
                 }
+                batchStats.recordBatch(nextPDUs.size(), batchBytes, System.nanoTime() - firstFramedAt);
+                return nextPDUs;
             }
+            end += read;
+        }
+    }
+
+    /**
+     * @return whether to read more PDUs into a batch started at
+     *         firstFramedAt, only if that does not block
+     */
+    protected boolean keepReading(BatchPolicy policy, long firstFramedAt) throws IOException
+    {
+        return policy.maxWaitNanos > 0 && System.nanoTime() - firstFramedAt < policy.maxWaitNanos && inputStream.available() > 0;
+    }
 
-            break loop;
+    /**
+     * @return length of the PDU at start, read in place, -1 if its length
+     *         field is not read yet
+     */
+    protected int frameLength() throws IOException
+    {
+        if (isFixedLength)
+        {
+            return fixedLength;
         }
 
-        inputStream.reset();
-        inputStream.skip(bytesDecoded);
+        if (end - start < lengthOffset + lengthFieldLength)
+        {
+            return -1;
+        }
 
-        return nextPDUs;
+        long pduLength = UnsignedInteger.readLong(buffer, start + lengthOffset, lengthFieldLength) + delta;
+        if (pduLength < 1 || pduLength > maxPDULength)
+        {
+            throw new IOException("PDU length " + pduLength + " out of range 1.." + maxPDULength);
+        }
+        return (int) pduLength;
     }
 
-    protected FutureTask<T> createDecodeTask(long pduLength)
+    /**
+     * Make room for length bytes from start: move the unframed bytes, less
+     * than one PDU, to the front and grow the buffer if it is still too small
+     */
+    protected void makeRoom(int length)
     {
-        byte[] message = new byte[(int) pduLength];
-        System.arraycopy(readBuffer, offset, message, 0, (int) pduLength);
-        offset += pduLength;
-        FutureTask<T> task = new FutureTask<T>(() -> PDU.decode(message, pduClass, 0));
-        es.submit(task);
+        if (start + length <= buffer.length)
+        {
+            return;
+        }
+
+        // grow only to the largest PDU seen
+        byte[] target = length > buffer.length ? new byte[length] : buffer;
+
+        System.arraycopy(buffer, start, target, 0, end - start);
+        buffer = target;
+        end -= start;
+        start = 0;
+    }
+
+    protected FutureTask<T> createDecodeTask(int offset, int pduLength)
+    {
+        // the PDU owns its bytes, the buffer is reused
+        byte[] message = new byte[pduLength];
+        System.arraycopy(buffer, offset, message, 0, pduLength);
+        PDUPool<T> pool = this.pool;
+        FutureTask<T> task = new FutureTask<T>(() -> decode(message, pool));
+
+        if (pduLength <= inlineThreshold)
+        {
+            task.run();
+        }
+        else
+        {
+            executor.execute(task);
+        }
         return task;
     }
 
-    protected boolean isEnoughBytesReady(long length)
+    protected T decode(byte[] message, PDUPool<T> pool) throws PDUException
     {
-        return length > 0 && bytesReady >= length;
+        return pool != null ? pool.decode(message, 0) : codec.decode(message, 0);
     }
 
-    protected boolean isEnoughLengthBytesReady()
+    /**
+     * Frame the next PDU alone, for a {@link PDUPipeline}
+     * 
+     * @return copy of the PDU's bytes, null at the end of the stream
+     */
+    protected synchronized byte[] nextFrame() throws IOException
     {
-        return bytesReady >= (lengthOffset + lengthFieldLength);
+        if (buffer == null)
+        {
+            buffer = new byte[Math.min(initialBufferSize, maxPDULength)];
+        }
+
+        for (;;)
+        {
+            int pduLength = frameLength();
+            if (pduLength > -1 && end - start >= pduLength)
+            {
+                byte[] message = new byte[pduLength];
+                System.arraycopy(buffer, start, message, 0, pduLength);
+                start += pduLength;
+                if (start == end)
+                {
+                    start = end = 0;
+                }
+                return message;
+            }
+
+            makeRoom(pduLength > -1 ? pduLength : lengthOffset + lengthFieldLength);
+
+            int read = waitForBytes();
+            if (read < 0)
+            {
+                return null;
+            }
+            end += read;
+        }
     }
 
-    protected long readLength()
+    /**
+     * Decode this stream's PDUs in a pipeline instead, with its own framing
+     * thread and workers decoding threads. Read PDUs only from the pipeline
+     * afterwards.
+     * 
+     * @see PDUPipeline#PDUPipeline(PDUInputStream, int, int, long)
+     */
+    public PDUPipeline<T> pipeline(int workers, int capacity, long maxBytesInFlight)
     {
-        long pduLength;
-        byte[] lengthArray = new byte[lengthFieldLength];
-        System.arraycopy(readBuffer, offset + lengthOffset, lengthArray, 0, lengthFieldLength);
-        pduLength = new Length(lengthArray, lengthFieldLength, new String[0]).toLong() + this.delta;
-        return pduLength;
+        return new PDUPipeline<>(this, workers, capacity, maxBytesInFlight);
     }
 
 }
@@ -9,11 +9,18 @@ public class PDUOutputStream<T extends PDUSerializable> extends OutputStream
 {
     protected OutputStream outputStream;
     protected boolean newline;
+    protected PDUEngine engine;
 
-    public PDUOutputStream(OutputStream outputStream, boolean newline)
+    public PDUOutputStream(OutputStream outputStream, boolean newline, PDUEngine engine)
     {
         this.outputStream = outputStream;
         this.newline = newline;
+        this.engine = engine;
+    }
+
+    public PDUOutputStream(OutputStream outputStream, boolean newline)
+    {
+        this(outputStream, newline, PDUEngine.getDefault());
     }
 
     public PDUOutputStream(OutputStream outputStream)
@@ -30,7 +37,7 @@ public class PDUOutputStream<T extends PDUSerializable> extends OutputStream
 
     public void write(T pdu) throws PDUException, IOException
     {
-        outputStream.write(PDU.encode(pdu));
+        outputStream.write(engine.encode(pdu));
         if (newline)
         {
             outputStream.write(NEWLINE);
@@ -0,0 +1,374 @@
+package de.sloc.dataformat;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Ordered parallel decoding of the PDUs of a {@link PDUInputStream}: one
+ * framing thread reads and frames PDUs into a ring of slots, worker threads
+ * claim and decode them, and {@link #take()} returns them in wire order. The
+ * ring doubles as reorder buffer, a slot is only reused once its PDU was
+ * taken.
+ * <p>
+ * The framing thread stops reading while the ring is full or the bytes of the
+ * PDUs framed but not taken exceed maxBytesInFlight, so a slow consumer slows
+ * down the source, e.g. the socket, instead of letting memory grow. Threads
+ * hand over slots through sequence counters without locks and back off to
+ * parking while they wait. Idle workers park until the framing thread
+ * publishes a frame and wakes one of them.
+ * <p>
+ * {@link #take()} must be called from one thread at a time.
+ */
+public class PDUPipeline<T extends PDUSerializable> implements Closeable
+{
+    protected static final int SPINS = 100;
+    protected static final int YIELDS = 100;
+    protected static final long PARK_NANOS = 50_000;
+
+    protected final PDUInputStream<T> source;
+    protected final long maxBytesInFlight;
+
+    /**
+     * Slot of sequence s is s & mask
+     */
+    protected final int mask;
+    protected final byte[][] frames;
+    protected final Object[] results;
+    protected final Throwable[] errors;
+
+    /**
+     * Sequence decoded into each slot, -1 before the first
+     */
+    protected final AtomicLongArray decoded;
+
+    /**
+     * Sequences below are framed, claimed by a worker, and taken
+     */
+    protected volatile long framed;
+    protected final AtomicLong claimed = new AtomicLong();
+    protected final AtomicLong taken = new AtomicLong();
+
+    /**
+     * Number of PDUs in the stream once it ended, else Long.MAX_VALUE
+     */
+    protected volatile long endSequence = Long.MAX_VALUE;
+    protected volatile IOException framingError;
+    protected volatile boolean closed;
+
+    protected final AtomicLong bytesInFlight = new AtomicLong();
+
+    protected final Thread framer;
+    protected final List<Thread> workers = new ArrayList<>();
+
+    /**
+     * Workers parked until a frame is published
+     */
+    protected final Queue<Thread> idleWorkers = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param workers
+     *            decoding threads
+     * @param capacity
+     *            PDUs framed but not taken at most, rounded up to a power of
+     *            two
+     * @param maxBytesInFlight
+     *            bytes of PDUs framed but not taken at most, a single larger
+     *            PDU is let through alone
+     */
+    public PDUPipeline(PDUInputStream<T> source, int workers, int capacity, long maxBytesInFlight)
+    {
+        if (workers < 1 || capacity < 1 || capacity > 1 << 30 || maxBytesInFlight < 1)
+        {
+            throw new IllegalArgumentException("workers < 1, capacity not in 1..2^30 or maxBytesInFlight < 1");
+        }
+
+        int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+
+        this.source = source;
+        this.maxBytesInFlight = maxBytesInFlight;
+        this.mask = size - 1;
+        this.frames = new byte[size][];
+        this.results = new Object[size];
+        this.errors = new Throwable[size];
+        this.decoded = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++)
+        {
+            decoded.set(i, -1);
+        }
+
+        for (int i = 0; i < workers; i++)
+        {
+            Thread worker = new Thread(this::decode, "dataformat-pipeline-decode-" + (i + 1));
+            worker.setDaemon(true);
+            worker.start();
+            this.workers.add(worker);
+        }
+
+        // started last, it reads workers
+        this.framer = new Thread(this::frame, "dataformat-pipeline-framer");
+        framer.setDaemon(true);
+        framer.start();
+    }
+
+    /**
+     * @return next PDU in wire order, waiting until it is decoded, null at
+     *         the end of the stream
+     * @throws IOException
+     *             if reading failed, with PDUExceptions of PDUs that could
+     *             not be decoded as cause
+     */
+    @SuppressWarnings("unchecked")
+    public T take() throws IOException
+    {
+        long sequence = taken.get();
+        int slot = (int) sequence & mask;
+        Backoff backoff = new Backoff();
+
+        while (decoded.get(slot) != sequence)
+        {
+            if (sequence >= endSequence)
+            {
+                if (framingError != null)
+                {
+                    throw framingError;
+                }
+                return null;
+            }
+            if (closed)
+            {
+                throw new IOException("pipeline closed");
+            }
+            backoff.idle();
+        }
+
+        T result = (T) results[slot];
+        Throwable error = errors[slot];
+        int length = frames[slot].length;
+        frames[slot] = null;
+        results[slot] = null;
+        errors[slot] = null;
+
+        bytesInFlight.addAndGet(-length);
+        taken.set(sequence + 1);
+
+        if (error != null)
+        {
+            throw new IOException(error);
+        }
+        return result;
+    }
+
+    /**
+     * Return a PDU taken from this pipeline to the source's pool, if it has
+     * one
+     */
+    public void release(T pdu)
+    {
+        source.release(pdu);
+    }
+
+    public long getBytesInFlight()
+    {
+        return bytesInFlight.get();
+    }
+
+    /**
+     * @return PDUs framed but not taken
+     */
+    public int getInFlight()
+    {
+        return (int) (framed - taken.get());
+    }
+
+    public int getCapacity()
+    {
+        return mask + 1;
+    }
+
+    /**
+     * Stop all threads and close the source, PDUs not taken are dropped
+     */
+    @Override
+    public void close() throws IOException
+    {
+        closed = true;
+        // unblocks a framer waiting for the source
+        source.inputStream.close();
+        LockSupport.unpark(framer);
+        for (Thread worker : workers)
+        {
+            LockSupport.unpark(worker);
+        }
+    }
+
+    protected void frame()
+    {
+        long sequence = 0;
+
+        try
+        {
+            byte[] frame;
+            while (!closed && (frame = source.nextFrame()) != null)
+            {
+                Backoff backoff = new Backoff();
+                while (!closed && !hasRoom(sequence, frame.length))
+                {
+                    backoff.idle();
+                }
+                if (closed)
+                {
+                    break;
+                }
+
+                frames[(int) sequence & mask] = frame;
+                bytesInFlight.addAndGet(frame.length);
+                // publishes the frame to the workers
+                framed = ++sequence;
+
+                Thread idleWorker = idleWorkers.poll();
+                if (idleWorker != null)
+                {
+                    LockSupport.unpark(idleWorker);
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            if (!closed)
+            {
+                framingError = e;
+            }
+        }
+        catch (Throwable e)
+        {
+            // also Errors, which would otherwise end the sequence like a clean end of stream
+            framingError = new IOException(e);
+        }
+        finally
+        {
+            endSequence = sequence;
+
+            // let idle workers see the end
+            for (Thread worker : workers)
+            {
+                LockSupport.unpark(worker);
+            }
+        }
+    }
+
+    protected boolean hasRoom(long sequence, int length)
+    {
+        if (sequence - taken.get() > mask)
+        {
+            return false;
+        }
+
+        long inFlight = bytesInFlight.get();
+        return inFlight == 0 || inFlight + length <= maxBytesInFlight;
+    }
+
+    protected void decode()
+    {
+        Backoff backoff = new Backoff();
+
+        while (true)
+        {
+            long sequence = claimed.get();
+
+            if (sequence < framed)
+            {
+                if (claimed.compareAndSet(sequence, sequence + 1))
+                {
+                    decode(sequence);
+                    backoff.reset();
+                }
+                continue;
+            }
+
+            if (closed || sequence >= endSequence)
+            {
+                return;
+            }
+
+            if (!backoff.spin())
+            {
+                idleWorkers.add(Thread.currentThread());
+
+                // a frame published before the framer could see this worker
+                if (claimed.get() >= framed && !closed && endSequence == Long.MAX_VALUE)
+                {
+                    LockSupport.park(this);
+                }
+                idleWorkers.remove(Thread.currentThread());
+                backoff.reset();
+            }
+        }
+    }
+
+    protected void decode(long sequence)
+    {
+        int slot = (int) sequence & mask;
+
+        try
+        {
+            results[slot] = source.decode(frames[slot], source.pool);
+        }
+        catch (PDUException | RuntimeException | Error e)
+        {
+            // handed to take() so it does not wait forever
+            errors[slot] = e;
+        }
+
+        // publishes result and error to take()
+        decoded.set(slot, sequence);
+    }
+
+    /**
+     * Spin, then yield, then park while waiting
+     */
+    protected static final class Backoff
+    {
+        protected int idles;
+
+        protected void idle()
+        {
+            if (!spin())
+            {
+                LockSupport.parkNanos(PARK_NANOS);
+            }
+        }
+
+        /**
+         * Spin, then yield
+         *
+         * @return false once the caller should park instead
+         */
+        protected boolean spin()
+        {
+            if (idles < SPINS)
+            {
+                idles++;
+                return true;
+            }
+            else if (idles < SPINS + YIELDS)
+            {
+                idles++;
+                Thread.yield();
+                return true;
+            }
+            return false;
+        }
+
+        protected void reset()
+        {
+            idles = 0;
+        }
+    }
+}
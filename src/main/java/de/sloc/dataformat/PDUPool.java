@@ -0,0 +1,149 @@
+package de.sloc.dataformat;
+
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Bounded pool of PDU instances of T and its subtypes, one stack per concrete
+ * class. {@link #decode(byte[], int)} resolves the concrete class of the data,
+ * takes a released instance of it if there is one and decodes into it with
+ * {@link PDU#decodeInto(byte[], int, PDUSerializable)}. Instances must not be
+ * used after {@link #release(PDUSerializable)}.
+ * <p>
+ * Pools are safe to share between threads.
+ */
+public class PDUPool<T extends PDUSerializable>
+{
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    protected final Class<T> pduClass;
+    protected final int capacity;
+
+    protected final ClassValue<Stack> stacks = new ClassValue<Stack>()
+    {
+        @Override
+        protected Stack computeValue(Class<?> type)
+        {
+            return new Stack(capacity);
+        }
+    };
+
+    public PDUPool(Class<T> pduClass)
+    {
+        this(pduClass, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity
+     *            released instances kept per concrete class, further ones are
+     *            left to the garbage collector
+     */
+    public PDUPool(Class<T> pduClass, int capacity)
+    {
+        if (capacity < 1)
+        {
+            throw new IllegalArgumentException("capacity < 1");
+        }
+
+        this.pduClass = pduClass;
+        this.capacity = capacity;
+    }
+
+    public Class<T> getPDUClass()
+    {
+        return pduClass;
+    }
+
+    public T decode(byte[] data, int offset) throws PDUException
+    {
+        return decode(data, offset, data.length);
+    }
+
+    public T decode(byte[] data, int offset, int end) throws PDUException
+    {
+        Class<T> klass = PDU.resolveInstantiableClass(pduClass, data, offset);
+        return PDU.decodeInto(data, offset, end, acquire(klass));
+    }
+
+    /**
+     * @return a released instance of klass, or a new one
+     */
+    @SuppressWarnings("unchecked")
+    public <S extends T> S acquire(Class<S> klass) throws PDUException
+    {
+        Object pdu = stacks.get(klass).pop();
+        if (pdu != null)
+        {
+            return (S) pdu;
+        }
+
+        try
+        {
+            return ClassLayout.of(klass).newInstance();
+        }
+        catch (InstantiationException | IllegalAccessException | InvocationTargetException | NoSuchMethodException e)
+        {
+            throw new PDUException("Could not instantiate " + klass.getCanonicalName(), e);
+        }
+    }
+
+    /**
+     * Return pdu to the pool for reuse
+     */
+    public void release(T pdu)
+    {
+        if (pdu != null)
+        {
+            stacks.get(pdu.getClass()).push(pdu);
+        }
+    }
+
+    /**
+     * @return released instances of klass currently pooled
+     */
+    public int size(Class<? extends T> klass)
+    {
+        return stacks.get(klass).size();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "PDUPool [" + pduClass.getCanonicalName() + ", capacity=" + capacity + "]";
+    }
+
+    protected static final class Stack
+    {
+        protected final Object[] instances;
+        protected int size;
+
+        protected Stack(int capacity)
+        {
+            this.instances = new Object[capacity];
+        }
+
+        protected synchronized Object pop()
+        {
+            if (size == 0)
+            {
+                return null;
+            }
+
+            Object instance = instances[--size];
+            instances[size] = null;
+            return instance;
+        }
+
+        protected synchronized void push(Object instance)
+        {
+            if (size < instances.length)
+            {
+                instances[size++] = instance;
+            }
+        }
+
+        protected synchronized int size()
+        {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package de.sloc.dataformat;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decoder of a subset of the elements of T. Offsets are still walked, but
+ * elements outside the projection are neither copied nor converted and stay
+ * at their default value. LENGTH elements and structures whose consumed length
+ * positions a following element are always decoded.
+ * <p>
+ * Projections are built once per (class, element names) by
+ * {@link #of(Class, String...)} and are safe to share between threads. As a
+ * {@link PDUCodec} they plug into {@link PDUInputStream}; encoding is that of
+ * {@link PDU#encode(PDUSerializable)} and needs fully decoded PDUs.
+ */
+public final class PDUProjection<T extends PDUSerializable> implements PDUCodec<T>
+{
+    private static final ClassValue<Map<Set<String>, PDUProjection<?>>> PROJECTIONS = new ClassValue<Map<Set<String>, PDUProjection<?>>>()
+    {
+        @Override
+        protected Map<Set<String>, PDUProjection<?>> computeValue(Class<?> type)
+        {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
+    /**
+     * @return the projection of pduClass to the named elements, names missing
+     *         in a concrete subtype are ignored for that subtype
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends PDUSerializable> PDUProjection<T> of(Class<T> pduClass, String... names)
+    {
+        Set<String> nameSet = Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(names)));
+        return (PDUProjection<T>) PROJECTIONS.get(pduClass).computeIfAbsent(nameSet, key -> new PDUProjection<>(pduClass, key));
+    }
+
+    protected final Class<T> pduClass;
+    protected final Set<String> names;
+
+    /**
+     * Elements to skip by concrete class
+     */
+    protected final ClassValue<boolean[]> skips = new ClassValue<boolean[]>()
+    {
+        @Override
+        protected boolean[] computeValue(Class<?> type)
+        {
+            ClassLayout<?> layout = ClassLayout.of(type.asSubclass(PDUSerializable.class));
+            boolean[] skip = new boolean[layout.elements.length];
+            for (int i = 0; i < skip.length; i++)
+            {
+                skip[i] = layout.skippable[i] && !names.contains(layout.elements[i].name);
+            }
+            return skip;
+        }
+    };
+
+    protected PDUProjection(Class<T> pduClass, Set<String> names)
+    {
+        ClassLayout<T> layout = ClassLayout.of(pduClass);
+
+        // without subtypes every name must exist in pduClass itself
+        if (!layout.isAbstract && layout.subtypeIndex == -1)
+        {
+            for (String name : names)
+            {
+                if (layout.indexOf(name) == -1)
+                {
+                    throw new IllegalArgumentException("no element " + name + " in " + pduClass.getCanonicalName());
+                }
+            }
+        }
+
+        this.pduClass = pduClass;
+        this.names = names;
+    }
+
+    public Class<T> getPDUClass()
+    {
+        return pduClass;
+    }
+
+    public Set<String> getNames()
+    {
+        return names;
+    }
+
+    @Override
+    public T decode(byte[] data, int offset) throws PDUException
+    {
+        return decode(data, offset, data.length);
+    }
+
+    public T decode(byte[] data, int offset, int end) throws PDUException
+    {
+        try
+        {
+            T pdu = ClassLayout.of(PDU.resolveInstantiableClass(pduClass, data, offset)).newInstance();
+            PDU.decodeElements(pdu, data, offset, end, skips.get(pdu.getClass()), null, false);
+            return pdu;
+        }
+        catch (IllegalArgumentException | IllegalStateException | IllegalAccessException | SecurityException | InstantiationException
+                | InvocationTargetException | NoSuchMethodException e)
+        {
+            throw new PDUException("Could not decode PDU for " + pduClass.getCanonicalName(), e);
+        }
+    }
+
+    @Override
+    public byte[] encode(T pdu) throws PDUException
+    {
+        return PDU.encode(pdu);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "PDUProjection [" + pduClass.getCanonicalName() + ", " + names + "]";
+    }
+}
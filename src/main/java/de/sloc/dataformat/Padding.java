@@ -1,29 +1,42 @@
 package de.sloc.dataformat;
 
+import java.util.Arrays;
+
 public class Padding implements BinaryType
 {
 	protected byte[] padding;
+	protected int offset;
+	protected int length;
 
 	public Padding(int length)
 	{
 		this.padding = new byte[length];
+		this.length = length;
 	}
 
 	public Padding(byte[] data, int length, String[] args)
 	{
 		this.padding = data;
+		this.length = data.length;
+	}
+
+	public Padding(byte[] data, int offset, int length, String[] args)
+	{
+		this.padding = data;
+		this.offset = offset;
+		this.length = length;
 	}
 
 	@Override
 	public byte[] getValue()
 	{
-		return padding;
+		return offset == 0 && length == padding.length ? padding : Arrays.copyOfRange(padding, offset, offset + length);
 	}
 
 	@Override
 	public int getLength()
 	{
-		return padding.length;
+		return length;
 	}
 
 	@Override
@@ -4,33 +4,70 @@ import static de.sloc.dataformat.Converter.FACTORY_METHOD_NAME;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 public class Raw implements BinaryType
 {
 	protected byte[] data;
 
+	/**
+	 * Range of data holding this value, the whole array unless it is a view
+	 */
+	protected int offset;
+	protected int length;
+	protected boolean view;
+
 	public Raw(Byte data, int length, String[] args)
 	{
-		this.data = new byte[] { data };
+		this(new byte[] { data }, 1, args);
 	}
 
 	public Raw(byte[] data, int length, String[] args)
 	{
 		this.data = data;
+		this.length = data.length;
+	}
+
+	public Raw(ByteBuffer data, int length, String[] args)
+	{
+		this(toByteArray(data), length, args);
+	}
+
+	/**
+	 * View of length bytes of data at offset, data is not copied until the
+	 * value is converted to byte[]
+	 */
+	public Raw(byte[] data, int offset, int length, String[] args)
+	{
+		this.data = data;
+		this.offset = offset;
+		this.length = length;
+		this.view = true;
+	}
+
+	protected static byte[] toByteArray(ByteBuffer buffer)
+	{
+		if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0 && buffer.remaining() == buffer.array().length)
+		{
+			return buffer.array();
+		}
+
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.duplicate().get(bytes);
+		return bytes;
 	}
 
 	@Override
 	public byte[] getValue()
 	{
-		return data;
+		return view ? Arrays.copyOfRange(data, offset, offset + length) : data;
 	}
 
 	@Override
 	public int getLength()
 	{
-		return data.length;
+		return length;
 	}
 
 	@SuppressWarnings("unchecked")
@@ -40,21 +77,26 @@ public class Raw implements BinaryType
 		// convert to byte[]
 		if (klass.isArray() && klass.getComponentType() == byte.class)
 		{
-			return (T) data;
+			// byte[] fields own their bytes
+			return (T) getValue();
 		}
 		else if (klass.isAssignableFrom(byte.class) || klass.isAssignableFrom(Byte.class))
 		{
-			return (T) (Byte) data[0];
+			return (T) (Byte) data[offset];
+		}
+		else if (klass == ByteBuffer.class)
+		{
+			// read-only slice sharing the decoded data
+			return (T) ByteBuffer.wrap(data, offset, length).slice().asReadOnlyBuffer();
 		}
         else if (Converter.class.isAssignableFrom(klass))
         {
             try
             {
-                Method factoryMethod = resolveConverterFactory((Class<? extends Converter>) klass);
-                Object result = factoryMethod.invoke(null, to(factoryMethod.getParameterTypes()[0]));
-                return (T) result;
+                FactoryHandle factory = FactoryHandle.of(klass, FACTORY_METHOD_NAME);
+                return (T) factory.invoke(to(factory.getParameterType()));
             }
-            catch (IllegalArgumentException | SecurityException | IllegalAccessException | InvocationTargetException e)
+            catch (IllegalArgumentException | InvocationTargetException e)
             {
                 throw new PDUException("Cannot convert to an Converter class", e);
             }
@@ -63,26 +105,9 @@ public class Raw implements BinaryType
 		throw new IllegalArgumentException("Cannot convert RAW to " + klass.getCanonicalName());
 	}
 	
-    protected static Map<Class<? extends Converter>, Method> converterFactoryCache = new HashMap<>();
-
     protected static Method resolveConverterFactory(Class<? extends Converter> klass)
     {
-        if (converterFactoryCache.containsKey(klass))
-        {
-            return converterFactoryCache.get(klass);
-        }
-
-        for (Method method : klass.getMethods())
-        {
-            Class<?>[] parameterTypes = method.getParameterTypes();
-            if (method.getName().equals(FACTORY_METHOD_NAME) && parameterTypes.length == 1)
-            {
-                converterFactoryCache.put(klass, method);
-                return method;
-            }
-        }
-
-        throw new IllegalStateException(klass.getCanonicalName() + " does not implement " + FACTORY_METHOD_NAME);
+        return FactoryHandle.of(klass, FACTORY_METHOD_NAME).method;
     }
 
 }
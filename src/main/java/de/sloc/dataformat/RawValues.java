@@ -0,0 +1,91 @@
+package de.sloc.dataformat;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Wire values of {@link PDUElement#rawValue()} fields. Decoding keeps the
+ * value when the AsNumber constant does not own it, e.g. a shared UNKNOWN
+ * constant, and encoding writes it back as long as it still maps to the
+ * element's constant.
+ */
+final class RawValues
+{
+    private RawValues()
+    {
+    }
+
+    /**
+     * @return accessible rawValue field of the element, null if it has none
+     * @throws IllegalStateException
+     *             if the element or the field do not qualify
+     */
+    static Field resolve(Field field, PDUElement pduElement)
+    {
+        String name = pduElement.rawValue();
+        if (name.isEmpty())
+        {
+            return null;
+        }
+
+        Class<?> type = field.getType();
+        int length = pduElement.length();
+        if (pduElement.type() != PDUElement.Type.UNSIGNED_INTEGER || !type.isEnum() || !AsNumber.class.isAssignableFrom(type) || length < 1
+                || length > Long.BYTES)
+        {
+            throw new IllegalStateException("rawValue of " + field + " needs an UNSIGNED_INTEGER element of an AsNumber enum, 1 to 8 bytes long");
+        }
+
+        for (Class<?> klass = field.getDeclaringClass(); klass != null; klass = klass.getSuperclass())
+        {
+            try
+            {
+                Field rawField = klass.getDeclaredField(name);
+                if (rawField.getType() != Long.class && (rawField.getType() != Integer.class || length > Integer.BYTES))
+                {
+                    throw new IllegalStateException("rawValue " + rawField + " must be a Long, or an Integer for up to 4 bytes");
+                }
+                rawField.setAccessible(true);
+                return rawField;
+            }
+            catch (NoSuchFieldException e)
+            {
+                // declared by a superclass
+            }
+        }
+
+        throw new IllegalStateException("rawValue " + name + " of " + field + " not found");
+    }
+
+    /**
+     * @return number to keep next to constant, null if constant owns it
+     */
+    static Number decoded(Class<?> type, Object constant, long number, Class<?> rawType)
+    {
+        if (AsNumberTable.resolved(type).get(number) == constant)
+        {
+            return null;
+        }
+        return rawType == Integer.class ? (Number) (int) number : (Number) number;
+    }
+
+    /**
+     * @return raw if it maps to constant, else the constant's own number
+     */
+    static Number encoded(Class<?> type, AsNumber constant, Object raw) throws InvocationTargetException
+    {
+        if (raw == null)
+        {
+            return constant.getNumberValue();
+        }
+
+        long number = ((Number) raw).longValue();
+        Object resolved = AsNumberTable.resolved(type).get(number);
+        if (resolved == null)
+        {
+            FactoryHandle factory = FactoryHandle.of(type, AsNumber.FACTORY_METHOD_NAME);
+            resolved = factory.invoke(AsNumberTable.convert(number, factory.getParameterType()));
+        }
+        return resolved == constant ? (Number) raw : constant.getNumberValue();
+    }
+}
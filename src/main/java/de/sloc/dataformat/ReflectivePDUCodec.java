@@ -0,0 +1,34 @@
+package de.sloc.dataformat;
+
+/**
+ * {@link PDUCodec} running on the reflective {@link PDU#decode} and
+ * {@link PDU#encode}.
+ */
+public class ReflectivePDUCodec<T extends PDUSerializable> implements PDUCodec<T>
+{
+    protected Class<T> pduClass;
+
+    public ReflectivePDUCodec(Class<T> pduClass)
+    {
+        this.pduClass = pduClass;
+    }
+
+    @Override
+    public T decode(byte[] data, int offset) throws PDUException
+    {
+        return PDU.decode(data, pduClass, offset);
+    }
+
+    @Override
+    public byte[] encode(T pdu) throws PDUException
+    {
+        return PDU.encode(pdu);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ReflectivePDUCodec [" + pduClass.getCanonicalName() + "]";
+    }
+
+}
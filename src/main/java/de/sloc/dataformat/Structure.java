@@ -1,10 +1,18 @@
 package de.sloc.dataformat;
 
+import java.util.Arrays;
+
 public class Structure implements BinaryType
 {
 	protected byte[] structure;
 	protected int offset;
 
+	/**
+	 * Range of the structure's data in structure, end exclusive
+	 */
+	protected int start;
+	protected int end;
+
 	public Structure(PDUSerializable packetSerializable, int length, String[] args) throws PDUException
 	{
 		if (length != -1)
@@ -14,31 +22,45 @@ public class Structure implements BinaryType
 
 		this.structure = PDU.encode(packetSerializable);
 		this.offset = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+		this.end = structure.length;
 	}
 
 	public Structure(byte[] value, int length, String[] args)
 	{
 		this.structure = value;
 		this.offset = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+		this.end = value.length;
+	}
+
+	/**
+	 * View of length bytes of data at offset, the structure is decoded from
+	 * data in place
+	 */
+	public Structure(byte[] data, int offset, int length, String[] args)
+	{
+		this.structure = data;
+		this.offset = offset + (args.length > 0 ? Integer.parseInt(args[0]) : 0);
+		this.start = offset;
+		this.end = offset + length;
 	}
 
 	@Override
 	public byte[] getValue()
 	{
-		return structure;
+		return start == 0 && end == structure.length ? structure : Arrays.copyOfRange(structure, start, end);
 	}
 
 	@Override
 	public int getLength()
 	{
-		return structure.length;
+		return end - start;
 	}
 
 	@SuppressWarnings("unchecked")
 	@Override
 	public <T> T to(Class<T> klass) throws PDUException
 	{
-		return (T) PDU.decode(structure, (Class<? extends PDUSerializable>) klass, offset);
+		return (T) PDU.decode(structure, (Class<? extends PDUSerializable>) klass, offset, end);
 	}
 
 }
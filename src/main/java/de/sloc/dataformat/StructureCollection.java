@@ -3,6 +3,7 @@ package de.sloc.dataformat;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
@@ -11,11 +12,18 @@ import java.util.Set;
 public class StructureCollection implements BinaryType
 {
 	protected byte[] structureCollection;
+
+	/**
+	 * Range of the collection's data in structureCollection, end exclusive
+	 */
+	protected int start;
+	protected int end;
+
 	protected Class<? extends PDUSerializable> elementType;
 	protected int elementPad;
 
 	@SuppressWarnings("unchecked")
-	public StructureCollection(Collection<? extends PDUSerializable> serializables, int length, String[] args) throws PDUException
+	public StructureCollection(Iterable<? extends PDUSerializable> serializables, int length, String[] args) throws PDUException
 	{
 		if (length != -1)
 		{
@@ -25,6 +33,14 @@ public class StructureCollection implements BinaryType
 		this.elementType = (Class<? extends PDUSerializable>) PDU.resolveElementType(args[0]);
 		this.elementPad = args.length > 1 ? Integer.parseInt(args[1]) : -1;
 
+		if (serializables instanceof StructureSequence)
+		{
+			// still encoded
+			this.structureCollection = ((StructureSequence<?>) serializables).getValue();
+			this.end = structureCollection.length;
+			return;
+		}
+
 		ByteArrayOutputStream baos = new ByteArrayOutputStream();
 		for (PDUSerializable serializable : serializables)
 		{
@@ -44,7 +60,7 @@ public class StructureCollection implements BinaryType
 			}
 		}
 		this.structureCollection = baos.toByteArray();
-
+		this.end = structureCollection.length;
 	}
 
 	@SuppressWarnings("unchecked")
@@ -54,24 +70,43 @@ public class StructureCollection implements BinaryType
 		this.elementPad = args.length > 1 ? Integer.parseInt(args[1]) : -1;
 
 		this.structureCollection = data;
+		this.end = data.length;
+	}
+
+	/**
+	 * View of length bytes of data at offset, the elements are decoded from
+	 * data in place
+	 */
+	public StructureCollection(byte[] data, int offset, int length, String[] args)
+	{
+		this(data, length, args);
+		this.start = offset;
+		this.end = offset + length;
 	}
 
 	@Override
 	public byte[] getValue()
 	{
-		return structureCollection;
+		return start == 0 && end == structureCollection.length ? structureCollection : Arrays.copyOfRange(structureCollection, start, end);
 	}
 
 	@Override
 	public int getLength()
 	{
-		return structureCollection.length;
+		return end - start;
 	}
 
-	@SuppressWarnings("unchecked")
+	@SuppressWarnings({ "unchecked", "rawtypes" })
 	@Override
 	public <T> T to(Class<T> klass) throws PDUException
 	{
+		StructureSequence<? extends PDUSerializable> sequence = new StructureSequence(structureCollection, start, end, elementType, elementPad);
+
+		if (klass == Iterable.class || klass == StructureSequence.class)
+		{
+			return (T) sequence;
+		}
+
 		Collection<PDUSerializable> result;
 
 		if (Set.class.isAssignableFrom(klass))
@@ -87,33 +122,20 @@ public class StructureCollection implements BinaryType
 			throw new PDUException("Cannot convert from STRUCTURE_COLLECTION to " + klass);
 		}
 
-		int restCount = structureCollection.length;
-		while (restCount > 0)
+		try
 		{
-			Structure structure = new Structure(structureCollection, structureCollection.length,
-			                                    new String[] { Integer.toString(structureCollection.length - restCount) });
-			PDUSerializable packetSerializable = structure.to(elementType);
-
-			if (packetSerializable != null)
+			for (PDUSerializable packetSerializable : sequence)
 			{
-				int consumedLength = PDU.resolveLength(packetSerializable);
-
-				if (this.elementPad > -1)
-				{
-					consumedLength += PDU.resolvePaddingLength(this.elementPad, consumedLength);
-				}
-
-				restCount -= consumedLength;
-//				 System.err.println("Structure collection: convert to " +
-//				 elementType + " consumed length: " + consumedLength +
-//				 " bytes, rest count: "
-//				 + restCount);
 				result.add(packetSerializable);
 			}
-			else
+		}
+		catch (IllegalStateException e)
+		{
+			if (e.getCause() instanceof PDUException)
 			{
-				break;
+				throw (PDUException) e.getCause();
 			}
+			throw e;
 		}
 
 		return (T) result;
@@ -0,0 +1,125 @@
+package de.sloc.dataformat;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Lazy view of the elements of a STRUCTURE_COLLECTION. Elements are decoded
+ * from the backing data one at a time while iterating, each iteration decodes
+ * them anew. Declare a STRUCTURE_COLLECTION field as Iterable or
+ * StructureSequence to get this view instead of an eagerly filled List or Set.
+ * The backing data must not change while the view is in use.
+ */
+public final class StructureSequence<E extends PDUSerializable> implements Iterable<E>
+{
+    protected final byte[] data;
+    protected final int start;
+    protected final int end;
+    protected final Class<E> elementType;
+    protected final int elementPad;
+
+    protected StructureSequence(byte[] data, int start, int end, Class<E> elementType, int elementPad)
+    {
+        this.data = data;
+        this.start = start;
+        this.end = end;
+        this.elementType = elementType;
+        this.elementPad = elementPad;
+    }
+
+    public Class<E> getElementType()
+    {
+        return elementType;
+    }
+
+    /**
+     * @return number of bytes of all elements, padding included
+     */
+    public int getLength()
+    {
+        return end - start;
+    }
+
+    /**
+     * @return copy of the encoded elements
+     */
+    public byte[] getValue()
+    {
+        return Arrays.copyOfRange(data, start, end);
+    }
+
+    @Override
+    public Iterator<E> iterator()
+    {
+        return new ElementIterator();
+    }
+
+    @Override
+    public Spliterator<E> spliterator()
+    {
+        // element boundaries are only known after decoding, so no splits
+        return Spliterators.spliteratorUnknownSize(iterator(), Spliterator.ORDERED | Spliterator.NONNULL);
+    }
+
+    public Stream<E> stream()
+    {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "StructureSequence [" + elementType.getCanonicalName() + ", " + getLength() + " bytes]";
+    }
+
+    protected final class ElementIterator implements Iterator<E>
+    {
+        protected int offset = start;
+        protected final int[] consumed = new int[1];
+
+        @Override
+        public boolean hasNext()
+        {
+            return offset < end;
+        }
+
+        /**
+         * @throws IllegalStateException
+         *             if the element cannot be decoded, with the PDUException
+         *             as cause
+         */
+        @Override
+        public E next()
+        {
+            if (!hasNext())
+            {
+                throw new NoSuchElementException();
+            }
+
+            E element;
+            try
+            {
+                element = PDU.decode(data, elementType, offset, end, consumed);
+            }
+            catch (PDUException e)
+            {
+                throw new IllegalStateException("Could not decode " + elementType.getCanonicalName() + " at offset " + offset, e);
+            }
+
+            int length = consumed[0];
+            if (elementPad > -1)
+            {
+                length += PDU.resolvePaddingLength(elementPad, length);
+            }
+
+            // an element consuming nothing would never end the iteration
+            offset = length > 0 ? Math.min(offset + length, end) : end;
+            return element;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package de.sloc.dataformat;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Precompiled subtype resolution of one class: offset and width of its
+ * {@link PDUSubtype} element and a table from wire value to implementor,
+ * built from the constants of the ImplementorMapped enum. Resolving the
+ * instantiable class of a frame is a loop of table lookups over the raw
+ * bytes, one per subtype level, without allocation. Wire values missing from
+ * the table, and subtype types that are no AsNumber enums, go through
+ * {@link PDU#resolveSubtype}.
+ */
+final class SubtypeDispatch<T extends PDUSerializable>
+{
+    private static final ClassValue<SubtypeDispatch<?>> DISPATCHES = new ClassValue<SubtypeDispatch<?>>()
+    {
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        @Override
+        protected SubtypeDispatch<?> computeValue(Class<?> type)
+        {
+            return new SubtypeDispatch(ClassLayout.of(type.asSubclass(PDUSerializable.class)));
+        }
+    };
+
+    @SuppressWarnings("unchecked")
+    static <T extends PDUSerializable> SubtypeDispatch<T> of(Class<T> pduClass)
+    {
+        return (SubtypeDispatch<T>) DISPATCHES.get(pduClass);
+    }
+
+    protected final Class<T> pduClass;
+    protected final boolean isAbstract;
+
+    /**
+     * Subtype element of pduClass, null if pduClass is a leaf
+     */
+    protected final ClassLayout.Element subtypeElement;
+
+    /**
+     * Why the subtype element cannot be resolved, null if it can
+     */
+    protected final String error;
+
+    /**
+     * Wire value + delta to implementor, null if values are resolved
+     * reflectively
+     */
+    protected final ImplementorTable table;
+
+    protected SubtypeDispatch(ClassLayout<T> layout)
+    {
+        this.pduClass = layout.pduClass;
+        this.isAbstract = layout.isAbstract;
+        this.subtypeElement = layout.subtypeIndex == -1 ? null : layout.elements[layout.subtypeIndex];
+
+        if (subtypeElement != null && !ImplementorMapped.class.isAssignableFrom(subtypeElement.field.getType()))
+        {
+            this.error = "subtypeField " + subtypeElement.field.getType().getCanonicalName() + " does not implement "
+                    + ImplementorMapped.class.getCanonicalName();
+        }
+        else
+        {
+            this.error = null;
+        }
+
+        this.table = subtypeElement != null && error == null ? ImplementorTable.build(subtypeElement) : null;
+    }
+
+    /**
+     * @return the concrete class to decode the PDU at offset as
+     */
+    @SuppressWarnings("unchecked")
+    Class<T> resolve(byte[] data, int offset) throws PDUException
+    {
+        SubtypeDispatch<?> dispatch = this;
+
+        while (true)
+        {
+            if (dispatch.subtypeElement == null)
+            {
+                if (dispatch.isAbstract)
+                {
+                    throw new IllegalStateException("no subtype found for abstract class " + dispatch.pduClass);
+                }
+                return (Class<T>) dispatch.pduClass;
+            }
+
+            if (dispatch.error != null)
+            {
+                throw new IllegalStateException(dispatch.error);
+            }
+
+            ClassLayout.Element element = dispatch.subtypeElement;
+            int subtypeOffset = offset + element.offset;
+            Class<? extends PDUSerializable> subtypeClass = null;
+
+            if (dispatch.table != null)
+            {
+                subtypeClass = dispatch.table.get(UnsignedInteger.readLong(data, subtypeOffset, element.length) + element.delta);
+            }
+
+            if (subtypeClass == null)
+            {
+                subtypeClass = PDU.resolveSubtype(element.pduElement, element.field, subtypeOffset, data);
+            }
+
+            if (subtypeClass == dispatch.pduClass)
+            {
+                // maps to itself, nothing further to resolve
+                return (Class<T>) subtypeClass;
+            }
+
+            dispatch = of(subtypeClass);
+        }
+    }
+
+    /**
+     * Table from wire value + delta to implementor class
+     */
+    static final class ImplementorTable extends LongTable<Class<? extends PDUSerializable>>
+    {
+        ImplementorTable(List<Long> keyList, List<Class<? extends PDUSerializable>> valueList)
+        {
+            super(keyList, valueList);
+        }
+
+        /**
+         * @return table of all enum constants of the element's type, null if
+         *         it cannot be built
+         */
+        static ImplementorTable build(ClassLayout.Element element)
+        {
+            Field field = element.field;
+            Class<?> fieldType = field.getType();
+            int length = element.length;
+
+            if (!fieldType.isEnum() || !AsNumber.class.isAssignableFrom(fieldType) || element.type != PDUElement.Type.UNSIGNED_INTEGER || length < 1)
+            {
+                return null;
+            }
+
+            try
+            {
+                @SuppressWarnings("unchecked")
+                Method factory = UnsignedInteger.resolveAsNumberFactoryMethod((Class<? extends AsNumber>) fieldType);
+                Class<?> parameterType = factory.getParameterTypes()[0];
+
+                // same limits as UnsignedInteger.to()
+                if (!UnsignedInteger.fitsPrimitive(parameterType, length))
+                {
+                    return null;
+                }
+
+                List<Long> keys = new ArrayList<>();
+                List<Class<? extends PDUSerializable>> implementors = new ArrayList<>();
+
+                for (Object constant : fieldType.getEnumConstants())
+                {
+                    long key = ((AsNumber) constant).getNumberValue().longValue();
+                    if (keys.contains(key))
+                    {
+                        continue;
+                    }
+
+                    // the factory decides which constant a wire value maps to
+                    Object resolved = factory.invoke(null, AsNumberTable.convert(key, parameterType));
+                    if (!(resolved instanceof ImplementorMapped))
+                    {
+                        continue;
+                    }
+
+                    Class<? extends PDUSerializable> implementor = ((ImplementorMapped) resolved).getImplementor(element.subtypeArgs);
+                    if (implementor != null)
+                    {
+                        keys.add(key);
+                        implementors.add(implementor);
+                    }
+                }
+
+                return new ImplementorTable(keys, implementors);
+            }
+            catch (ReflectiveOperationException | RuntimeException e)
+            {
+                // resolve every value reflectively
+                return null;
+            }
+        }
+    }
+
+}
@@ -5,8 +5,7 @@ import static de.sloc.dataformat.AsNumber.FACTORY_METHOD_NAME;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.math.BigInteger;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 public class UnsignedInteger implements BinaryType
 {
@@ -14,6 +13,12 @@ public class UnsignedInteger implements BinaryType
 
     protected byte[] value;
 
+    /**
+     * Start of this value in value, 0 unless it is a view into a larger array
+     */
+    protected int offset;
+    protected boolean view;
+
     protected static final short BYTE_MASK = 0xFF;
 
     protected int delta;
@@ -29,40 +34,25 @@ public class UnsignedInteger implements BinaryType
         if (numberValue instanceof Long)
         {
             long value = (Long) numberValue - delta;
-            if (length > 7)
-            {
-                throw new IllegalArgumentException("long can only carry 7 bytes as unsigned value");
-            }
 
-            if (value < 0 || length < 0)
+            // with 8 bytes or more, negative values carry the highest bit
+            if (length < 0 || (value < 0 && length < Long.BYTES))
             {
                 throw new IllegalArgumentException("value or length < 0");
             }
 
-            for (int i = 0; i < length; i++)
-            {
-                this.value[length - i - 1] = (byte) (value & BYTE_MASK);
-                value >>>= 8;
-            }
+            writeLong(value, this.value, 0, length);
         }
         else if (numberValue instanceof Integer || numberValue instanceof Short)
         {
-            int value = (Integer) numberValue - delta;
-            if (length > 3)
-            {
-                throw new IllegalArgumentException("int can only carry 3 bytes as unsigned value");
-            }
+            int value = numberValue.intValue() - delta;
 
             if (length < 0)
             {
                 throw new IllegalArgumentException("length < 0: length=" + length);
             }
 
-            for (int i = 0; i < length; i++)
-            {
-                this.value[length - i - 1] = (byte) (value & BYTE_MASK);
-                value >>>= 8;
-            }
+            writeLong(value & 0xFFFFFFFFL, this.value, 0, length);
         }
         else if (numberValue instanceof BigInteger)
         {
@@ -94,6 +84,18 @@ public class UnsignedInteger implements BinaryType
         this.delta = (args != null && args.length > 0) ? Integer.parseInt(args[0]) : 0;
     }
 
+    /**
+     * View of length bytes of data at offset, data is not copied
+     */
+    public UnsignedInteger(byte[] data, int offset, int length, String[] args)
+    {
+        this.value = data;
+        this.offset = offset;
+        this.view = offset != 0 || data.length != length;
+        this.length = length;
+        this.delta = (args != null && args.length > 0) ? Integer.parseInt(args[0]) : 0;
+    }
+
     public UnsignedInteger(Number value, int length)
     {
         this(value, length, null);
@@ -138,6 +140,10 @@ public class UnsignedInteger implements BinaryType
 
     public byte[] getValue()
     {
+        if (view)
+        {
+            return Arrays.copyOfRange(value, offset, offset + length);
+        }
         return value;
     }
 
@@ -148,68 +154,111 @@ public class UnsignedInteger implements BinaryType
             throw new IllegalAccessError("length > 7 bytes, therefore not convertible to long");
         }
 
-        long value = 0;
+        return readLong(value, offset, length) + delta;
+    }
 
-        for (int i = 0; i < length; i++)
+    public int toInt()
+    {
+        if (length > 3)
         {
-            value |= this.value[i] & BYTE_MASK;
+            throw new IllegalAccessError("length > 3 bytes, therefore not convertible to int");
+        }
 
-            if (i < (length - 1))
-            {
-                value <<= 8;
-            }
+        return readInt(value, offset, length) + delta;
+    }
+
+    public short toShort()
+    {
+        if (length > 1)
+        {
+            throw new IllegalAccessError("length > 1 bytes, therefore not convertible to short");
         }
 
-        return value + delta;
+        return (short) (readInt(value, offset, length) + delta);
     }
 
-    public int toInt()
+    /**
+     * @return whether unsigned values of length bytes fit into int, long or
+     *         short, or their wrappers, without turning negative, the limits
+     *         of {@link #toInt()}, {@link #toLong()} and {@link #toShort()}
+     */
+    public static boolean fitsPrimitive(Class<?> type, int length)
     {
-        if (length > 3)
+        return length > -1 && fitsPrimitiveBits(type, length + 1);
+    }
+
+    /**
+     * @return whether unsigned values of length bytes fit into the bits of
+     *         int, long or short, or their wrappers, for primitive fields and
+     *         arrays that explicitly hold the raw bits
+     */
+    public static boolean fitsPrimitiveBits(Class<?> type, int length)
+    {
+        if (length < 0)
         {
-            throw new IllegalAccessError("length > 3 bytes, therefore not convertible to int");
+            return false;
+        }
+        else if (type == int.class || type == Integer.class)
+        {
+            return length <= Integer.BYTES;
+        }
+        else if (type == long.class || type == Long.class)
+        {
+            return length <= Long.BYTES;
         }
+        else if (type == short.class || type == Short.class)
+        {
+            return length <= Short.BYTES;
+        }
+        return false;
+    }
 
+    /**
+     * Read an unsigned big-endian value of up to 4 bytes without allocating,
+     * 4 byte values above Integer.MAX_VALUE are negative
+     */
+    public static int readInt(byte[] data, int offset, int length)
+    {
         int value = 0;
 
         for (int i = 0; i < length; i++)
         {
-            value |= this.value[i] & BYTE_MASK;
-
-            if (i < (length - 1))
-            {
-                value <<= 8;
-            }
+            value = (value << 8) | (data[offset + i] & BYTE_MASK);
         }
 
-        return value + delta;
+        return value;
     }
 
-    public short toShort()
+    /**
+     * Read an unsigned big-endian value of up to 8 bytes without allocating
+     */
+    public static long readLong(byte[] data, int offset, int length)
     {
-        if (length > 1)
+        long value = 0;
+
+        for (int i = 0; i < length; i++)
         {
-            throw new IllegalAccessError("length > 1 bytes, therefore not convertible to short");
+            value = (value << 8) | (data[offset + i] & BYTE_MASK);
         }
 
-        short value = 0;
+        return value;
+    }
 
-        for (int i = 0; i < length; i++)
+    /**
+     * Write the lowest length bytes of value big-endian without allocating
+     */
+    public static void writeLong(long value, byte[] data, int offset, int length)
+    {
+        for (int i = length - 1; i >= 0; i--)
         {
-            value |= this.value[i] & BYTE_MASK;
-
-            if (i < (length - 1))
-            {
-                value <<= 8;
-            }
+            data[offset + i] = (byte) (value & BYTE_MASK);
+            value >>>= 8;
         }
-
-        return (short) (value + delta);
     }
 
     public BigInteger toBigInteger()
     {
-        return new BigInteger(1, value);
+        return new BigInteger(1, getValue());
     }
 
     @Override
@@ -222,7 +271,20 @@ public class UnsignedInteger implements BinaryType
     @Override
     public <T> T to(Class<T> klass) throws PDUException
     {
-        if (klass.isAssignableFrom(Long.class) || klass.isAssignableFrom(long.class))
+        // exact primitive types first, without walking the hierarchy
+        if (klass == int.class || klass == Integer.class)
+        {
+            return (T) (Integer) toInt();
+        }
+        else if (klass == long.class || klass == Long.class)
+        {
+            return (T) (Long) toLong();
+        }
+        else if (klass == short.class || klass == Short.class)
+        {
+            return (T) (Short) toShort();
+        }
+        else if (klass.isAssignableFrom(Long.class) || klass.isAssignableFrom(long.class))
         {
             return (T) (Long) toLong();
         }
@@ -242,11 +304,19 @@ public class UnsignedInteger implements BinaryType
         {
             try
             {
-                Method factoryMethod = resolveAsNumberFactoryMethod((Class<? extends AsNumber>) klass);
-                Object result = factoryMethod.invoke(null, to(factoryMethod.getParameterTypes()[0]));
-                return (T) result;
+                FactoryHandle factory = FactoryHandle.of(klass, FACTORY_METHOD_NAME);
+                Class<?> parameterType = factory.getParameterType();
+
+                if (!factory.isPrimitive() || !fitsPrimitive(parameterType, length))
+                {
+                    return (T) factory.invoke(to(parameterType));
+                }
+
+                long number = parameterType == int.class ? toInt() : parameterType == short.class ? toShort() : toLong();
+                Object result = AsNumberTable.resolved(klass).get(number);
+                return (T) (result != null ? result : factory.invokeLong(number));
             }
-            catch (IllegalArgumentException | SecurityException | IllegalAccessException | InvocationTargetException e)
+            catch (IllegalArgumentException | InvocationTargetException e)
             {
                 throw new PDUException("Cannot convert to an AsNumber class", e);
             }
@@ -269,26 +339,9 @@ public class UnsignedInteger implements BinaryType
         return toBigInteger();
     }
 
-    protected static Map<Class<? extends AsNumber>, Method> asNumberFactoryCache = new HashMap<>();
-
     protected static Method resolveAsNumberFactoryMethod(Class<? extends AsNumber> klass)
     {
-        if (asNumberFactoryCache.containsKey(klass))
-        {
-            return asNumberFactoryCache.get(klass);
-        }
-
-        for (Method method : klass.getMethods())
-        {
-            Class<?>[] parameterTypes = method.getParameterTypes();
-            if (method.getName().equals(FACTORY_METHOD_NAME) && parameterTypes.length == 1)
-            {
-                asNumberFactoryCache.put(klass, method);
-                return method;
-            }
-        }
-
-        throw new IllegalStateException(klass.getCanonicalName() + " does not implement " + FACTORY_METHOD_NAME);
+        return FactoryHandle.of(klass, FACTORY_METHOD_NAME).method;
     }
 
     @Override
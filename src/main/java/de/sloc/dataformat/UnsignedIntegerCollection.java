@@ -1,9 +1,9 @@
 package de.sloc.dataformat;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
@@ -13,6 +13,8 @@ import java.util.Set;
 public class UnsignedIntegerCollection implements BinaryType
 {
 	protected byte[] numberCollection;
+	protected int offset;
+	protected int length;
 	protected Class<?> elementType;
 	protected int unsignedIntegerLength;
 
@@ -55,13 +57,76 @@ public class UnsignedIntegerCollection implements BinaryType
 		}
 
 		this.numberCollection = baos.toByteArray();
+		this.length = numberCollection.length;
+	}
+
+	public UnsignedIntegerCollection(long[] numbers, int length, String[] args)
+	{
+		this(numbers.length, length, args, Long.BYTES);
+
+		for (int i = 0; i < numbers.length; i++)
+		{
+			UnsignedInteger.writeLong(numbers[i], numberCollection, i * unsignedIntegerLength, unsignedIntegerLength);
+		}
+	}
+
+	public UnsignedIntegerCollection(int[] numbers, int length, String[] args)
+	{
+		this(numbers.length, length, args, Integer.BYTES);
+
+		for (int i = 0; i < numbers.length; i++)
+		{
+			UnsignedInteger.writeLong(numbers[i] & 0xFFFFFFFFL, numberCollection, i * unsignedIntegerLength, unsignedIntegerLength);
+		}
+	}
+
+	public UnsignedIntegerCollection(short[] numbers, int length, String[] args)
+	{
+		this(numbers.length, length, args, Short.BYTES);
+
+		for (int i = 0; i < numbers.length; i++)
+		{
+			UnsignedInteger.writeLong(numbers[i] & 0xFFFFL, numberCollection, i * unsignedIntegerLength, unsignedIntegerLength);
+		}
+	}
+
+	/**
+	 * Empty collection of count elements of at most maxLength bytes, filled
+	 * by the primitive array constructors
+	 */
+	protected UnsignedIntegerCollection(int count, int length, String[] args, int maxLength)
+	{
+		if (length != -1)
+		{
+			throw new IllegalArgumentException("length given: UnsignedIntegerCollection length is determined by component type");
+		}
+
+		parseArgs(args);
+
+		if (unsignedIntegerLength > maxLength)
+		{
+			throw new IllegalArgumentException("elements of " + unsignedIntegerLength + " bytes exceed the " + maxLength + " bytes of the array type");
+		}
+
+		this.numberCollection = new byte[count * unsignedIntegerLength];
+		this.length = numberCollection.length;
 	}
 
 	public UnsignedIntegerCollection(byte[] data, int length, String[] args)
+	{
+		this(data, 0, data.length, args);
+	}
+
+	/**
+	 * View of length bytes of data at offset, data is not copied
+	 */
+	public UnsignedIntegerCollection(byte[] data, int offset, int length, String[] args)
 	{
 		parseArgs(args);
 
 		this.numberCollection = data;
+		this.offset = offset;
+		this.length = length;
 	}
 
 	@SuppressWarnings("unchecked")
@@ -78,19 +143,24 @@ public class UnsignedIntegerCollection implements BinaryType
 	@Override
 	public byte[] getValue()
 	{
-		return numberCollection;
+		return offset == 0 && length == numberCollection.length ? numberCollection : Arrays.copyOfRange(numberCollection, offset, offset + length);
 	}
 
 	@Override
 	public int getLength()
 	{
-		return numberCollection.length;
+		return length;
 	}
 
 	@SuppressWarnings("unchecked")
 	@Override
 	public <T> T to(Class<T> klass) throws PDUException
 	{
+		if (klass.isArray() && klass.getComponentType().isPrimitive())
+		{
+			return (T) toArray(klass.getComponentType());
+		}
+
 		Collection<Object> result;
 
 		if (Set.class.isAssignableFrom(klass))
@@ -106,24 +176,61 @@ public class UnsignedIntegerCollection implements BinaryType
 			throw new PDUException("Cannot convert from UNSIGNED_INTEGER_COLLECTION to " + klass);
 		}
 
-		ByteArrayInputStream bais = new ByteArrayInputStream(numberCollection);
+		addTo(result);
+		return (T) result;
+	}
+
+	/**
+	 * Add all elements to result
+	 */
+	protected void addTo(Collection<Object> result) throws PDUException
+	{
+		for (int i = offset; i + unsignedIntegerLength <= offset + length; i += unsignedIntegerLength)
+		{
+			result.add(new UnsignedInteger(numberCollection, i, unsignedIntegerLength, null).to(elementType));
+		}
+	}
 
-		try
+	/**
+	 * @return long[], int[] or short[] of all elements, read with one
+	 *         allocation
+	 */
+	protected Object toArray(Class<?> componentType) throws PDUException
+	{
+		if (unsignedIntegerLength < 1 || !UnsignedInteger.fitsPrimitiveBits(componentType, unsignedIntegerLength))
 		{
-			for (int i = 0; i < numberCollection.length; i += unsignedIntegerLength)
+			throw new PDUException("Cannot convert UNSIGNED_INTEGER_COLLECTION of " + unsignedIntegerLength + " byte elements to " + componentType + "[]");
+		}
+
+		int count = length / unsignedIntegerLength;
+
+		if (componentType == long.class)
+		{
+			long[] result = new long[count];
+			for (int i = 0, position = offset; i < count; i++, position += unsignedIntegerLength)
 			{
-				byte[] slice = new byte[unsignedIntegerLength];
-				bais.read(slice);
-				result.add(new UnsignedInteger(slice, unsignedIntegerLength).to(elementType));
+				result[i] = UnsignedInteger.readLong(numberCollection, position, unsignedIntegerLength);
 			}
+			return result;
 		}
-		catch (IOException e)
+		else if (componentType == int.class)
 		{
-			// shouldn't happen
-			e.printStackTrace();
+			int[] result = new int[count];
+			for (int i = 0, position = offset; i < count; i++, position += unsignedIntegerLength)
+			{
+				result[i] = UnsignedInteger.readInt(numberCollection, position, unsignedIntegerLength);
+			}
+			return result;
+		}
+		else
+		{
+			short[] result = new short[count];
+			for (int i = 0, position = offset; i < count; i++, position += unsignedIntegerLength)
+			{
+				result[i] = (short) UnsignedInteger.readInt(numberCollection, position, unsignedIntegerLength);
+			}
+			return result;
 		}
-
-		return (T) result;
 	}
 
 }
@@ -4,8 +4,8 @@ import static de.sloc.dataformat.AsNumber.FACTORY_METHOD_NAME;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashSet;
 import java.util.Set;
 
 
@@ -13,6 +13,8 @@ public class ValueToFlagBitmap implements BinaryType
 {
 	// length of bitmap-array is multiple of byteLengthPerBitmap
 	protected byte[] bitmaps;
+	protected int offset;
+	protected int length;
 	protected int byteLengthPerBitmap;
 
 	protected Class<? extends PDUSerializable> elementType;
@@ -33,10 +35,11 @@ public class ValueToFlagBitmap implements BinaryType
 		this.byteLengthPerBitmap = args.length > 1 ? Integer.parseInt(args[1]) : 1;
 		this.delta = args.length > 2 ? Integer.parseInt(args[2]) : 0;
 
-		int bytesCount = bytesCount(max(bitmappables) + delta);
+		// bit indexes 0 to max - delta
+		int bytesCount = bitmappables.isEmpty() ? 0 : bytesCount(max(bitmappables) - delta + 1);
 		if (length > -1)
 		{
-			if (bytesCount >= length)
+			if (bytesCount > length)
 			{
 				throw new IllegalArgumentException("length must be larger than 2**(max value bit)");
 			}
@@ -48,10 +51,16 @@ public class ValueToFlagBitmap implements BinaryType
 
 		int bitmapCount = bitmapCount(bytesCount, this.byteLengthPerBitmap);
 		this.bitmaps = new byte[bitmapCount * this.byteLengthPerBitmap];
+		this.length = bitmaps.length;
 
 		for (ValueToFlagBitmappable bitmappable : bitmappables)
 		{
 			int value = bitmappable.getValue() - delta;
+			if (value < 0)
+			{
+				throw new IllegalArgumentException("value " + bitmappable.getValue() + " is below delta " + delta);
+			}
+
 			int globalByteIndex = value / 8;
 			int bitmapIndex = globalByteIndex / this.byteLengthPerBitmap;
 			int byteIndex = this.byteLengthPerBitmap - (globalByteIndex % this.byteLengthPerBitmap) - 1;
@@ -61,14 +70,14 @@ public class ValueToFlagBitmap implements BinaryType
 		}
 	}
 
-	protected static int bytesCount(int maxValue)
+	protected static int bytesCount(int bitCount)
 	{
-		return (int) Math.ceil((double) maxValue / 8);
+		return (bitCount + 7) / 8;
 	}
 
 	protected static int bitmapCount(int bytesCount, int bitmapLength)
 	{
-		return (int) Math.ceil((double) bytesCount / (double) bitmapLength);
+		return (bytesCount + bitmapLength - 1) / bitmapLength;
 	}
 
 	protected static int max(Collection<? extends ValueToFlagBitmappable> bitmappables)
@@ -83,15 +92,25 @@ public class ValueToFlagBitmap implements BinaryType
 		return max;
 	}
 
-	@SuppressWarnings("unchecked")
 	public ValueToFlagBitmap(byte[] bitmaps, int length, String[] args) throws PDUException
 	{
-		this.bitmaps = bitmaps;
+		this(bitmaps, 0, bitmaps.length, args);
+	}
+
+	/**
+	 * View of length bytes of data at offset, data is not copied
+	 */
+	@SuppressWarnings("unchecked")
+	public ValueToFlagBitmap(byte[] data, int offset, int length, String[] args) throws PDUException
+	{
+		this.bitmaps = data;
+		this.offset = offset;
+		this.length = length;
 		this.elementType = (Class<? extends PDUSerializable>) PDU.resolveElementType(args[0]);
 		this.byteLengthPerBitmap = args.length > 1 ? Integer.parseInt(args[1]) : 1;
 		this.delta = args.length > 2 ? Integer.parseInt(args[2]) : 0;
 
-		if ((bitmaps.length % byteLengthPerBitmap) != 0)
+		if ((length % byteLengthPerBitmap) != 0)
 		{
 			throw new PDUException("bitmap.length must be a multiple of byteLengthPerBitmap");
 		}
@@ -101,64 +120,44 @@ public class ValueToFlagBitmap implements BinaryType
 	@Override
 	public byte[] getValue()
 	{
-		return bitmaps;
+		return offset == 0 && length == bitmaps.length ? bitmaps : Arrays.copyOfRange(bitmaps, offset, offset + length);
 	}
 
 	@Override
 	public int getLength()
 	{
-		return bitmaps.length;
+		return length;
 	}
 
 	@SuppressWarnings("unchecked")
 	@Override
 	public <T> T to(Class<T> klass) throws PDUException
 	{
-		Set<T> result = new HashSet<>();
-
 		if (!Set.class.isAssignableFrom(klass))
 		{
 			throw new IllegalArgumentException(klass.getCanonicalName() + " is not assignable to Set");
 		}
 
-		Method factoryMethod = resolveValueToFlagBitmapFactoryMethod((Class<? extends ValueToFlagBitmappable>) elementType);
+		FlagTable flagTable = FlagTable.ofValueToFlagBitmap(elementType);
+		Set<Object> result = flagTable.newSet();
 
 		try
 		{
 			int counter = 0;
 
-			for (int bitmapIndex = 0; bitmapIndex < bitmaps.length; bitmapIndex += this.byteLengthPerBitmap)
+			for (int bitmapIndex = offset; bitmapIndex < offset + length; bitmapIndex += this.byteLengthPerBitmap)
 			{
-				for (int byteIndex = byteLengthPerBitmap - 1; byteIndex >= 0; byteIndex--)
+				for (int byteIndex = byteLengthPerBitmap - 1; byteIndex >= 0; byteIndex--, counter += 8)
 				{
-					byte slice = bitmaps[bitmapIndex + byteIndex];
-
-					for (int bitIndex = 0; bitIndex < 8; bitIndex++)
+					// set bits only, lowest first
+					for (int bits = bitmaps[bitmapIndex + byteIndex] & 0xFF; bits != 0; bits &= bits - 1)
 					{
-						if ((slice & 0x01) == 0x01)
-						{
-							T flag = (T) factoryMethod.invoke(null, counter + delta);
-
-							// TODO throw exception, if flag is not resolvable?
-							// if (flag == null)
-							// {
-							// throw new
-							// IllegalArgumentException("Could not convert VALUE_TO_FLAG_BITMAP to "
-							// + elementType.getSimpleName()
-							// + ": Value " + (counter + delta) +
-							// " is not resolvable");
-							// }
-
-							result.add(flag);
-						}
-						slice >>>= 1;
-						counter += 1;
+						FlagTable.add(result, flagTable.get(counter + Integer.numberOfTrailingZeros(bits) + delta));
 					}
 				}
 			}
-
 		}
-		catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e)
+		catch (IllegalArgumentException | InvocationTargetException e)
 		{
 			throw new PDUException("Could not convert to " + klass.getCanonicalName(), e);
 		}
@@ -168,15 +167,7 @@ public class ValueToFlagBitmap implements BinaryType
 
 	protected static Method resolveValueToFlagBitmapFactoryMethod(Class<? extends ValueToFlagBitmappable> klass)
 	{
-		for (Method m : klass.getMethods())
-		{
-			Class<?>[] parameterTypes = m.getParameterTypes();
-			if (m.getName().equals(FACTORY_METHOD_NAME) && parameterTypes.length == 1)
-			{
-				return m;
-			}
-		}
-		throw new IllegalStateException(klass.getCanonicalName() + " does not implement " + FACTORY_METHOD_NAME);
+		return FlagTable.resolveFactoryMethod(klass, FACTORY_METHOD_NAME);
 	}
 
 }
@@ -0,0 +1,263 @@
+package de.sloc.dataformat.net;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import de.sloc.dataformat.PDUElement;
+import de.sloc.dataformat.PDUSerializable;
+
+/**
+ * Loopback load generator: a {@link PDUServer} echoes {@link Probe} PDUs back
+ * to {@link PDUClient} connections, each keeping a window of probes in flight,
+ * and the round trip of every probe is recorded. Prints frames per second and
+ * the p50 and p99 round trip per connection count when run with
+ *
+ * <pre>
+ * java -cp target/classes de.sloc.dataformat.net.LoadGenerator [connections,...] [window] [payloadSize] [secondsPerRun]
+ * </pre>
+ */
+public class LoadGenerator
+{
+    public static class Probe implements PDUSerializable
+    {
+        @PDUElement(order = 1, type = PDUElement.Type.LENGTH, length = 2)
+        protected int length;
+
+        /**
+         * System.nanoTime() of the sender
+         */
+        @PDUElement(order = 2, type = PDUElement.Type.UNSIGNED_INTEGER, length = 8)
+        protected long sentAt;
+
+        @PDUElement(order = 3, type = PDUElement.Type.RAW)
+        protected byte[] payload;
+
+        public Probe()
+        {
+        }
+
+        public Probe(long sentAt, byte[] payload)
+        {
+            this.length = 10 + payload.length;
+            this.sentAt = sentAt;
+            this.payload = payload;
+        }
+
+        public long getSentAt()
+        {
+            return sentAt;
+        }
+
+        public byte[] getPayload()
+        {
+            return payload;
+        }
+    }
+
+    public static class Result
+    {
+        protected final int connections;
+        protected final long frames;
+        protected final double seconds;
+        protected final long p50Nanos;
+        protected final long p99Nanos;
+
+        protected Result(int connections, long frames, double seconds, long p50Nanos, long p99Nanos)
+        {
+            this.connections = connections;
+            this.frames = frames;
+            this.seconds = seconds;
+            this.p50Nanos = p50Nanos;
+            this.p99Nanos = p99Nanos;
+        }
+
+        public int getConnections()
+        {
+            return connections;
+        }
+
+        /**
+         * @return probes echoed back while measuring
+         */
+        public long getFrames()
+        {
+            return frames;
+        }
+
+        public double getFramesPerSecond()
+        {
+            return frames / seconds;
+        }
+
+        public long getP50Nanos()
+        {
+            return p50Nanos;
+        }
+
+        public long getP99Nanos()
+        {
+            return p99Nanos;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("connections=%-4d frames/s=%,12.0f p50=%,8.1fus p99=%,8.1fus", connections, getFramesPerSecond(), p50Nanos / 1000.0,
+                    p99Nanos / 1000.0);
+        }
+    }
+
+    /**
+     * Round trips of one connection, in buckets of about 6% width so memory
+     * does not grow with the run time
+     */
+    protected static class Histogram
+    {
+        protected static final int SUB_BUCKET_BITS = 4;
+        protected static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+        protected final long[] counts = new long[(64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS];
+        protected long total;
+
+        protected static int index(long value)
+        {
+            if (value < SUB_BUCKETS)
+            {
+                return (int) Math.max(value, 0);
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+        }
+
+        /**
+         * @return largest value of the bucket at index
+         */
+        protected static long highest(int index)
+        {
+            if (index < SUB_BUCKETS)
+            {
+                return index;
+            }
+            int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+            long subBucket = SUB_BUCKETS + index % SUB_BUCKETS;
+            return ((subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+        }
+
+        protected synchronized void record(long value)
+        {
+            counts[index(value)]++;
+            total++;
+        }
+
+        protected synchronized void addTo(Histogram histogram)
+        {
+            for (int i = 0; i < counts.length; i++)
+            {
+                histogram.counts[i] += counts[i];
+            }
+            histogram.total += total;
+        }
+
+        protected long percentile(double percentile)
+        {
+            long rank = (long) Math.ceil(total * percentile / 100);
+            long count = 0;
+            for (int i = 0; i < counts.length; i++)
+            {
+                count += counts[i];
+                if (count >= Math.max(rank, 1))
+                {
+                    return highest(i);
+                }
+            }
+            return 0;
+        }
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        String[] connectionCounts = (args.length > 0 ? args[0] : "1,4,16,64").split(",");
+        int window = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int payloadSize = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        long millisPerRun = args.length > 3 ? Long.parseLong(args[3]) * 1000 : 2000;
+
+        // warm up JIT and codecs
+        run(1, window, payloadSize, millisPerRun);
+
+        for (String connections : connectionCounts)
+        {
+            System.out.println(run(Integer.parseInt(connections.trim()), window, payloadSize, millisPerRun));
+        }
+    }
+
+    /**
+     * Echo probes over loopback for millis and measure the round trips
+     *
+     * @param window
+     *            probes in flight per connection
+     */
+    public static Result run(int connections, int window, int payloadSize, long millis) throws IOException, InterruptedException
+    {
+        if (connections < 1 || window < 1 || payloadSize < 0 || payloadSize > 0xFFFF - 10)
+        {
+            throw new IllegalArgumentException("connections < 1, window < 1 or payloadSize not in 0.." + (0xFFFF - 10));
+        }
+
+        byte[] payload = new byte[payloadSize];
+        List<Histogram> histograms = new ArrayList<>();
+        AtomicBoolean measuring = new AtomicBoolean(true);
+
+        PDUHandlers echo = new PDUHandlers().register(Probe.class, (connection, probe) -> connection.send(probe));
+
+        PDUHandlers record = new PDUHandlers().register(Probe.class, (connection, probe) ->
+        {
+            long now = System.nanoTime();
+            ((Histogram) connection.getAttachment()).record(now - probe.sentAt);
+            if (measuring.get())
+            {
+                // closed loop, the next probe replaces the one echoed
+                connection.send(new Probe(now, payload));
+            }
+        });
+
+        try (PDUServer<Probe> server = new PDUServer<>(Probe.class, echo); PDUClient<Probe> client = new PDUClient<>(Probe.class, record))
+        {
+            InetSocketAddress address = server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+            List<PDUConnection<Probe>> clientConnections = new ArrayList<>();
+            for (int i = 0; i < connections; i++)
+            {
+                PDUConnection<Probe> connection = client.connect(address);
+                Histogram histogram = new Histogram();
+                connection.setAttachment(histogram);
+                histograms.add(histogram);
+                clientConnections.add(connection);
+            }
+
+            long start = System.nanoTime();
+            for (PDUConnection<Probe> connection : clientConnections)
+            {
+                for (int i = 0; i < window; i++)
+                {
+                    connection.send(new Probe(System.nanoTime(), payload));
+                }
+            }
+
+            Thread.sleep(millis);
+            measuring.set(false);
+            long end = System.nanoTime();
+
+            Histogram all = new Histogram();
+            for (Histogram histogram : histograms)
+            {
+                histogram.addTo(all);
+            }
+            return new Result(connections, all.total, (end - start) / 1e9, all.percentile(50), all.percentile(99));
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package de.sloc.dataformat.net;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.channels.SocketChannel;
+
+import de.sloc.dataformat.PDUSerializable;
+
+/**
+ * Opens connections and serves them all from one selector thread, see
+ * {@link PDUEndpoint}.
+ */
+public class PDUClient<T extends PDUSerializable> extends PDUEndpoint<T>
+{
+    public PDUClient(Class<T> pduClass, PDUHandlers handlers) throws IOException
+    {
+        super(pduClass, handlers);
+    }
+
+    /**
+     * Connect to address, blocking until connected
+     */
+    public PDUConnection<T> connect(SocketAddress address) throws IOException
+    {
+        start("dataformat-client");
+
+        SocketChannel channel = SocketChannel.open(address);
+        try
+        {
+            return register(channel);
+        }
+        catch (IOException e)
+        {
+            channel.close();
+            throw e;
+        }
+    }
+}
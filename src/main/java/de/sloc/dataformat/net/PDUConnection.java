@@ -0,0 +1,342 @@
+package de.sloc.dataformat.net;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.sloc.dataformat.PDUChannelReader;
+import de.sloc.dataformat.PDUException;
+import de.sloc.dataformat.PDUSerializable;
+
+/**
+ * Connection of a {@link PDUEndpoint}. Received PDUs are framed on the
+ * selector thread and decoded and handled on the executor, one at a time and
+ * in order. Sent PDUs are encoded on the sending thread and written by the
+ * selector thread, as many at once as the socket takes.
+ */
+public class PDUConnection<T extends PDUSerializable>
+{
+    /**
+     * Buffers written with one gathering write at most
+     */
+    protected static final int MAX_GATHER = 64;
+
+    protected final PDUEndpoint<T> endpoint;
+    protected final SocketChannel channel;
+    protected final PDUChannelReader<T> reader;
+    protected SelectionKey key;
+
+    protected final Queue<byte[]> inbound = new ConcurrentLinkedQueue<>();
+    protected final AtomicLong inboundBytes = new AtomicLong();
+    protected final AtomicBoolean handling = new AtomicBoolean();
+    protected volatile boolean readSuspended;
+
+    protected final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+    protected final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    /**
+     * Outbound buffers taken by the selector thread, not yet written fully
+     */
+    protected final ArrayDeque<ByteBuffer> pending = new ArrayDeque<>();
+    protected final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+
+    protected final AtomicLong received = new AtomicLong();
+    protected final AtomicLong sent = new AtomicLong();
+    protected volatile boolean closed;
+    protected volatile Object attachment;
+
+    protected PDUConnection(PDUEndpoint<T> endpoint, SocketChannel channel)
+    {
+        this.endpoint = endpoint;
+        this.channel = channel;
+        this.reader = new PDUChannelReader<>(endpoint.pduClass, channel, endpoint.engine.codecFor(endpoint.pduClass));
+        reader.setMaxPDULength(endpoint.maxPDULength);
+        reader.setDirect(endpoint.directBuffers);
+    }
+
+    /**
+     * Encode pdu and queue it for writing
+     *
+     * @throws IOException
+     *             if the connection is closed
+     */
+    public void send(PDUSerializable pdu) throws PDUException, IOException
+    {
+        send(endpoint.engine.encode(pdu));
+    }
+
+    /**
+     * Queue an encoded PDU for writing
+     */
+    public void send(byte[] encoded) throws IOException
+    {
+        if (closed)
+        {
+            throw new IOException("connection closed");
+        }
+
+        outbound.add(ByteBuffer.wrap(encoded));
+        sent.incrementAndGet();
+
+        if (flushScheduled.compareAndSet(false, true))
+        {
+            endpoint.execute(this::flushQuietly);
+        }
+    }
+
+    public SocketAddress getRemoteAddress() throws IOException
+    {
+        return channel.getRemoteAddress();
+    }
+
+    /**
+     * @return PDUs received, handled or not
+     */
+    public long getReceived()
+    {
+        return received.get();
+    }
+
+    /**
+     * @return PDUs sent, written or not
+     */
+    public long getSent()
+    {
+        return sent.get();
+    }
+
+    /**
+     * State of the application, e.g. a session
+     */
+    public Object getAttachment()
+    {
+        return attachment;
+    }
+
+    public void setAttachment(Object attachment)
+    {
+        this.attachment = attachment;
+    }
+
+    public boolean isClosed()
+    {
+        return closed;
+    }
+
+    /**
+     * Close the connection, PDUs not written yet are dropped
+     */
+    public void close()
+    {
+        if (closed)
+        {
+            return;
+        }
+        closed = true;
+
+        try
+        {
+            channel.close();
+        }
+        catch (IOException e)
+        {
+            // closed anyway
+        }
+        endpoint.onClose(this);
+    }
+
+    /**
+     * Frame what the socket has, on the selector thread
+     */
+    protected void onReadable()
+    {
+        try
+        {
+            int count = reader.readFrames(frame ->
+            {
+                inbound.add(frame);
+                inboundBytes.addAndGet(frame.length);
+            });
+
+            if (count < 0)
+            {
+                close();
+                return;
+            }
+
+            if (count > 0)
+            {
+                received.addAndGet(count);
+                scheduleHandling();
+            }
+
+            if (inboundBytes.get() > endpoint.maxInboundBytes)
+            {
+                // resumed once the handlers caught up
+                readSuspended = true;
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+
+                // the handlers may have caught up before seeing the flag
+                if (inboundBytes.get() <= endpoint.maxInboundBytes / 2)
+                {
+                    readSuspended = false;
+                    resumeRead();
+                }
+            }
+        }
+        catch (IOException | CancelledKeyException e)
+        {
+            close();
+        }
+    }
+
+    protected void scheduleHandling()
+    {
+        if (handling.compareAndSet(false, true))
+        {
+            try
+            {
+                endpoint.executor.execute(this::handle);
+            }
+            catch (RuntimeException e)
+            {
+                // e.g. rejected by a shut down executor, a later schedule may succeed
+                handling.set(false);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Decode and handle received PDUs in order, on the executor
+     */
+    protected void handle()
+    {
+        try
+        {
+            byte[] frame;
+            while (!closed && (frame = inbound.poll()) != null)
+            {
+                if (inboundBytes.addAndGet(-frame.length) <= endpoint.maxInboundBytes / 2 && readSuspended)
+                {
+                    // drained to half, read while the rest is handled
+                    readSuspended = false;
+                    endpoint.execute(this::resumeRead);
+                }
+
+                try
+                {
+                    endpoint.handlers.dispatch(this, reader.decode(frame));
+                }
+                catch (Exception e)
+                {
+                    endpoint.errorHandler.accept(this, e);
+                }
+            }
+        }
+        finally
+        {
+            // also after an Error of a handler, which would otherwise stop handling for good
+            handling.set(false);
+        }
+
+        if (!closed && !inbound.isEmpty())
+        {
+            // frames added after the last poll
+            scheduleHandling();
+        }
+    }
+
+    protected void resumeRead()
+    {
+        try
+        {
+            if (!closed && key != null && key.isValid())
+            {
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            }
+        }
+        catch (CancelledKeyException e)
+        {
+            // closed meanwhile
+        }
+    }
+
+    protected void flushQuietly()
+    {
+        try
+        {
+            flush();
+        }
+        catch (IOException | CancelledKeyException e)
+        {
+            close();
+        }
+    }
+
+    /**
+     * Write queued PDUs on the selector thread, gathering up to
+     * {@link #MAX_GATHER} buffers per write, and wait for the socket to take
+     * more if it is full
+     */
+    protected void flush() throws IOException
+    {
+        flushScheduled.set(false);
+        if (closed || key == null || !key.isValid())
+        {
+            return;
+        }
+
+        for (;;)
+        {
+            ByteBuffer buffer;
+            while (pending.size() < MAX_GATHER && (buffer = outbound.poll()) != null)
+            {
+                pending.add(buffer);
+            }
+            if (pending.isEmpty())
+            {
+                break;
+            }
+
+            int count = 0;
+            for (ByteBuffer pendingBuffer : pending)
+            {
+                gather[count++] = pendingBuffer;
+            }
+            channel.write(gather, 0, count);
+
+            while (!pending.isEmpty() && !pending.peek().hasRemaining())
+            {
+                pending.poll();
+            }
+            if (!pending.isEmpty())
+            {
+                // socket is full
+                break;
+            }
+        }
+
+        for (int i = 0; i < gather.length && gather[i] != null; i++)
+        {
+            gather[i] = null;
+        }
+
+        int interestOps = key.interestOps();
+        key.interestOps(pending.isEmpty() ? interestOps & ~SelectionKey.OP_WRITE : interestOps | SelectionKey.OP_WRITE);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "PDUConnection [" + channel + "]";
+    }
+}
@@ -0,0 +1,289 @@
+package de.sloc.dataformat.net;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import de.sloc.dataformat.PDUEngine;
+import de.sloc.dataformat.PDUSerializable;
+
+/**
+ * Selector loop shared by {@link PDUServer} and {@link PDUClient}: one thread
+ * reads and frames the PDUs of all connections and writes their queued
+ * output, while PDUs are decoded and handled on the executor, in order per
+ * connection.
+ */
+public abstract class PDUEndpoint<T extends PDUSerializable> implements Closeable
+{
+    public static final int DEFAULT_MAX_INBOUND_BYTES = 4 << 20;
+
+    protected final Class<T> pduClass;
+    protected final PDUHandlers handlers;
+    protected final Selector selector;
+
+    protected volatile Executor executor = HandlerPoolHolder.POOL;
+    protected volatile PDUEngine engine = PDUEngine.getDefault();
+    protected volatile BiConsumer<PDUConnection<T>, Exception> errorHandler = (connection, e) -> connection.close();
+    protected volatile int maxPDULength = 1 << 16;
+    protected volatile int maxInboundBytes = DEFAULT_MAX_INBOUND_BYTES;
+    protected volatile boolean directBuffers;
+
+    protected final Set<PDUConnection<T>> connections = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    protected final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    protected Thread thread;
+    protected volatile boolean closed;
+
+    protected PDUEndpoint(Class<T> pduClass, PDUHandlers handlers) throws IOException
+    {
+        this.pduClass = pduClass;
+        this.handlers = handlers;
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Executor to decode and handle PDUs on. Unless set, a pool of daemon
+     * threads shared by all endpoints and grown as needed, so blocking
+     * handlers neither starve each other nor the decoding of
+     * {@link de.sloc.dataformat.PDUInputStream}s.
+     */
+    public void setExecutor(Executor executor)
+    {
+        this.executor = executor;
+    }
+
+    /**
+     * Engine to encode sent PDUs with
+     */
+    public void setEngine(PDUEngine engine)
+    {
+        this.engine = engine;
+    }
+
+    /**
+     * Called on the executor with exceptions of decoding and handlers, closes
+     * the connection unless set
+     */
+    public void setErrorHandler(BiConsumer<PDUConnection<T>, Exception> errorHandler)
+    {
+        this.errorHandler = errorHandler;
+    }
+
+    /**
+     * Longest PDU to accept from connections opened afterwards, 64 KiB unless
+     * set
+     */
+    public void setMaxPDULength(int maxPDULength)
+    {
+        this.maxPDULength = maxPDULength;
+    }
+
+    /**
+     * Bytes received but not handled yet per connection, beyond which the
+     * connection is not read until its handlers catch up
+     */
+    public void setMaxInboundBytes(int maxInboundBytes)
+    {
+        this.maxInboundBytes = maxInboundBytes;
+    }
+
+    /**
+     * Read connections opened afterwards into direct buffers
+     */
+    public void setDirectBuffers(boolean directBuffers)
+    {
+        this.directBuffers = directBuffers;
+    }
+
+    public PDUHandlers getHandlers()
+    {
+        return handlers;
+    }
+
+    public Collection<PDUConnection<T>> getConnections()
+    {
+        return Collections.unmodifiableSet(connections);
+    }
+
+    protected synchronized void start(String name)
+    {
+        if (thread == null)
+        {
+            thread = new Thread(this::run, name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Run task on the selector thread
+     */
+    protected void execute(Runnable task)
+    {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    protected PDUConnection<T> register(SocketChannel channel) throws IOException
+    {
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+
+        PDUConnection<T> connection = new PDUConnection<>(this, channel);
+        connections.add(connection);
+        execute(() ->
+        {
+            try
+            {
+                connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            }
+            catch (IOException e)
+            {
+                connection.close();
+            }
+        });
+        return connection;
+    }
+
+    protected void run()
+    {
+        try
+        {
+            while (!closed)
+            {
+                try
+                {
+                    selector.select();
+                }
+                catch (IOException e)
+                {
+                    // the selector failed, nothing to serve anymore
+                    break;
+                }
+
+                Runnable task;
+                while ((task = tasks.poll()) != null)
+                {
+                    try
+                    {
+                        task.run();
+                    }
+                    catch (RuntimeException e)
+                    {
+                        // tasks close their connection on I/O errors, anything else must not stop the loop
+                    }
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext())
+                {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isValid())
+                    {
+                        try
+                        {
+                            select(key);
+                        }
+                        catch (IOException | RuntimeException e)
+                        {
+                            // only this connection failed, e.g. its handling was rejected, keep serving the others
+                            failed(key);
+                        }
+                    }
+                }
+            }
+        }
+        finally
+        {
+            for (PDUConnection<T> connection : connections)
+            {
+                connection.close();
+            }
+            try
+            {
+                selector.close();
+            }
+            catch (IOException e)
+            {
+                // closing anyway
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    protected void select(SelectionKey key) throws IOException
+    {
+        PDUConnection<T> connection = (PDUConnection<T>) key.attachment();
+        if (key.isReadable())
+        {
+            connection.onReadable();
+        }
+        if (key.isValid() && key.isWritable())
+        {
+            connection.flush();
+        }
+    }
+
+    /**
+     * Close the connection of a key whose channel failed
+     */
+    protected void failed(SelectionKey key)
+    {
+        if (key.attachment() instanceof PDUConnection)
+        {
+            ((PDUConnection<?>) key.attachment()).close();
+        }
+        else
+        {
+            key.cancel();
+        }
+    }
+
+    protected void onClose(PDUConnection<T> connection)
+    {
+        connections.remove(connection);
+    }
+
+    /**
+     * Close all connections and stop the selector thread
+     */
+    @Override
+    public void close() throws IOException
+    {
+        closed = true;
+        selector.wakeup();
+    }
+
+    private static final class HandlerPoolHolder
+    {
+        static final ExecutorService POOL = Executors.newCachedThreadPool(new ThreadFactory()
+        {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "dataformat-handler-" + count.incrementAndGet());
+                // like the selector thread, never keeps the JVM alive
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+}
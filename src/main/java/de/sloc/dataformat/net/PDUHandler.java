@@ -0,0 +1,11 @@
+package de.sloc.dataformat.net;
+
+/**
+ * Handles decoded PDUs of type S received on a connection, see
+ * {@link PDUHandlers#register(Class, PDUHandler)}
+ */
+@FunctionalInterface
+public interface PDUHandler<S>
+{
+    void handle(PDUConnection<?> connection, S pdu) throws Exception;
+}
@@ -0,0 +1,59 @@
+package de.sloc.dataformat.net;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Handlers keyed by PDU class. A PDU goes to the handler of its concrete
+ * class, else to that of its nearest registered superclass, else to the
+ * fallback handler, which ignores it unless set.
+ */
+public class PDUHandlers
+{
+    protected static final PDUHandler<Object> IGNORE = (connection, pdu) ->
+    {
+    };
+
+    protected final Map<Class<?>, PDUHandler<?>> handlers = new ConcurrentHashMap<>();
+
+    /**
+     * Handler by concrete class, resolved on first dispatch
+     */
+    protected final Map<Class<?>, PDUHandler<?>> resolved = new ConcurrentHashMap<>();
+
+    protected volatile PDUHandler<Object> fallback = IGNORE;
+
+    public <S> PDUHandlers register(Class<S> pduClass, PDUHandler<? super S> handler)
+    {
+        handlers.put(pduClass, handler);
+        resolved.clear();
+        return this;
+    }
+
+    public PDUHandlers setFallback(PDUHandler<Object> fallback)
+    {
+        this.fallback = fallback == null ? IGNORE : fallback;
+        resolved.clear();
+        return this;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void dispatch(PDUConnection<?> connection, Object pdu) throws Exception
+    {
+        PDUHandler<Object> handler = (PDUHandler<Object>) resolved.computeIfAbsent(pdu.getClass(), this::resolve);
+        handler.handle(connection, pdu);
+    }
+
+    protected PDUHandler<?> resolve(Class<?> pduClass)
+    {
+        for (Class<?> klass = pduClass; klass != null; klass = klass.getSuperclass())
+        {
+            PDUHandler<?> handler = handlers.get(klass);
+            if (handler != null)
+            {
+                return handler;
+            }
+        }
+        return fallback;
+    }
+}
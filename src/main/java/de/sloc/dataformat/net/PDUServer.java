@@ -0,0 +1,135 @@
+package de.sloc.dataformat.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import de.sloc.dataformat.PDUSerializable;
+
+/**
+ * Accepts connections and serves them all from one selector thread, see
+ * {@link PDUEndpoint}.
+ *
+ * <pre>
+ * PDUHandlers handlers = new PDUHandlers().register(Arp.class, (connection, arp) -&gt; connection.send(reply(arp)));
+ * PDUServer&lt;FrameHeader&gt; server = new PDUServer&lt;&gt;(FrameHeader.class, handlers);
+ * server.bind(new InetSocketAddress(6633));
+ * </pre>
+ */
+public class PDUServer<T extends PDUSerializable> extends PDUEndpoint<T>
+{
+    protected ServerSocketChannel serverChannel;
+
+    public PDUServer(Class<T> pduClass, PDUHandlers handlers) throws IOException
+    {
+        super(pduClass, handlers);
+    }
+
+    /**
+     * Start accepting connections on address
+     *
+     * @return the bound address, with the chosen port if address has port 0
+     */
+    public synchronized InetSocketAddress bind(SocketAddress address) throws IOException
+    {
+        if (serverChannel != null)
+        {
+            throw new IllegalStateException("already bound to " + serverChannel.getLocalAddress());
+        }
+
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(address);
+        serverChannel.configureBlocking(false);
+
+        execute(() ->
+        {
+            try
+            {
+                serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            }
+            catch (IOException e)
+            {
+                closeServerChannel();
+            }
+        });
+        start("dataformat-server-" + serverChannel.getLocalAddress());
+
+        return (InetSocketAddress) serverChannel.getLocalAddress();
+    }
+
+    @Override
+    protected void select(SelectionKey key) throws IOException
+    {
+        if (key.isAcceptable())
+        {
+            accept();
+            return;
+        }
+        super.select(key);
+    }
+
+    /**
+     * Register all pending connections, dropping those that fail
+     */
+    protected void accept()
+    {
+        for (;;)
+        {
+            SocketChannel channel;
+            try
+            {
+                channel = serverChannel.accept();
+            }
+            catch (IOException e)
+            {
+                // e.g. out of file descriptors, retried on the next select
+                return;
+            }
+            if (channel == null)
+            {
+                return;
+            }
+
+            try
+            {
+                register(channel);
+            }
+            catch (IOException e)
+            {
+                try
+                {
+                    channel.close();
+                }
+                catch (IOException closeException)
+                {
+                    // closed anyway
+                }
+            }
+        }
+    }
+
+    protected void closeServerChannel()
+    {
+        try
+        {
+            serverChannel.close();
+        }
+        catch (IOException e)
+        {
+            // closed anyway
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (serverChannel != null)
+        {
+            closeServerChannel();
+        }
+        super.close();
+    }
+}
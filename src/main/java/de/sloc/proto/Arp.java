@@ -27,13 +27,13 @@ public class Arp extends FrameHeader
 	@PDUElement(order = 6, type = Type.RAW)
 	protected byte[] sourceMac;
 
-	@PDUElement(order = 7, type = Type.UNSIGNED_INTEGER)
+	@PDUElement(order = 7, type = Type.IP_ADDRESS)
 	protected ConvertibleInetAddress nlSourceAddress;
 
 	@PDUElement(order = 8, type = Type.RAW)
 	protected byte[] destinationMac;
 
-	@PDUElement(order = 9, type = Type.UNSIGNED_INTEGER)
+	@PDUElement(order = 9, type = Type.IP_ADDRESS)
 	protected ConvertibleInetAddress nlDestinationAddress;
 
 	protected Arp()
@@ -1,9 +1,7 @@
 package de.sloc.proto;
 
-import java.util.HashMap;
-import java.util.Map;
-
 import de.sloc.dataformat.AsNumber;
+import de.sloc.dataformat.AsNumberTable;
 import de.sloc.dataformat.ImplementorMapped;
 import de.sloc.dataformat.PDUSerializable;
 
@@ -23,18 +21,10 @@ public interface Constants
 		OF_LINK_DISCOVERY(0x0F1D, OFLinkDiscovery.class),
 		UNKNOWN(0xFFFF, RawFrame.class);
 
-		protected static Map<Integer, Ethertype> reverseMap = new HashMap<>();
-
-		static
-		{
-			for (Ethertype type : Ethertype.values())
-			{
-				reverseMap.put(type.getValue(), type);
-			}
-		}
+		protected static final AsNumberTable<Ethertype> TABLE = AsNumberTable.of(values());
 
-		protected int value;
-		protected Class<? extends FrameHeader> implementor;
+		protected final int value;
+		protected final Class<? extends FrameHeader> implementor;
 
 		Ethertype(int value, Class<? extends FrameHeader> implementor)
 		{
@@ -59,17 +49,13 @@ public interface Constants
 			return value;
 		}
 
+		/**
+		 * @return UNKNOWN for values without a constant, PDUs keep the value
+		 *         itself in the element's rawValue field
+		 */
 		public static Ethertype getByValue(int value)
 		{
-			Ethertype result = reverseMap.get(value);
-
-			if (result == null)
-			{
-				result = UNKNOWN;
-				result.value = value;
-			}
-
-			return result;
+			return TABLE.get(value, UNKNOWN);
 		}
 
 	}
@@ -78,16 +64,9 @@ public interface Constants
 	{
 		ETHERNET(1);
 
-		protected int value;
-		protected static Map<Integer, ArpAddressType> reverse = new HashMap<>();
+		protected static final AsNumberTable<ArpAddressType> TABLE = AsNumberTable.of(values());
 
-		static
-		{
-			for (ArpAddressType type : ArpAddressType.values())
-			{
-				reverse.put(type.getValue(), type);
-			}
-		}
+		protected final int value;
 
 		ArpAddressType(int value)
 		{
@@ -107,7 +86,7 @@ public interface Constants
 
 		public static ArpAddressType getByValue(int value)
 		{
-			return reverse.get(value);
+			return TABLE.get(value);
 		}
 
 	}
@@ -116,16 +95,9 @@ public interface Constants
 	{
 		REQUEST(1), REPLY(2), REQUEST_REVERSE(3), REPLY_REVERSE(4);
 
-		protected int value;
-		protected static Map<Integer, ArpOperation> reverse = new HashMap<>();
+		protected static final AsNumberTable<ArpOperation> TABLE = AsNumberTable.of(values());
 
-		static
-		{
-			for (ArpOperation type : ArpOperation.values())
-			{
-				reverse.put(type.getValue(), type);
-			}
-		}
+		protected final int value;
 
 		ArpOperation(int value)
 		{
@@ -145,7 +117,7 @@ public interface Constants
 
 		public static ArpOperation getByValue(int value)
 		{
-			return reverse.get(value);
+			return TABLE.get(value);
 		}
 	}
 
@@ -153,17 +125,10 @@ public interface Constants
 	{
 		ICMP(1, ICMPv4.class), TCP(0x06, IPv4TCP.class), UNKNOWN(0xFF, IPv4Unknown.class);
 
-		protected int value;
-		protected static Map<Integer, IPProtocol> reverse = new HashMap<>();
-		protected Class<? extends PDUSerializable> klass;
+		protected static final AsNumberTable<IPProtocol> TABLE = AsNumberTable.of(values());
 
-		static
-		{
-			for (IPProtocol type : IPProtocol.values())
-			{
-				reverse.put(type.getValue(), type);
-			}
-		}
+		protected final int value;
+		protected final Class<? extends PDUSerializable> klass;
 
 		IPProtocol(int value, Class<? extends PDUSerializable> klass)
 		{
@@ -182,16 +147,13 @@ public interface Constants
 			return value;
 		}
 
+		/**
+		 * @return UNKNOWN for values without a constant, PDUs keep the value
+		 *         itself in the element's rawValue field
+		 */
 		public static IPProtocol getByValue(int value)
 		{
-			IPProtocol result = reverse.get(value);
-			if (result == null)
-			{
-				result = UNKNOWN;
-				result.value = value;
-			}
-
-			return result;
+			return TABLE.get(value, UNKNOWN);
 		}
 
 		@Override
@@ -2,18 +2,16 @@ package de.sloc.proto;
 
 import java.math.BigInteger;
 import java.net.InetAddress;
-import java.net.UnknownHostException;
 
 import de.sloc.dataformat.AsNumber;
+import de.sloc.dataformat.IPAddress;
 import de.sloc.dataformat.UnsignedInteger;
 
-public class ConvertibleInetAddress implements AsNumber
+public class ConvertibleInetAddress extends IPAddress implements AsNumber
 {
-    protected InetAddress inetAddress;
-
     public ConvertibleInetAddress(InetAddress inetAddress)
     {
-        this.inetAddress = inetAddress;
+        super(inetAddress);
     }
 
     protected ConvertibleInetAddress()
@@ -24,43 +22,17 @@ public class ConvertibleInetAddress implements AsNumber
     @Override
     public Number getNumberValue()
     {
-        byte[] addressBytes = inetAddress.getAddress();
-        return new BigInteger(addressBytes);
+        return new BigInteger(1, getValue());
     }
 
-    public static ConvertibleInetAddress getByValue(Number value) throws UnknownHostException
+    public static ConvertibleInetAddress getByValue(Number value)
     {
-        return new ConvertibleInetAddress(InetAddress.getByAddress(new UnsignedInteger(value, 4 /*
-                                                                                                 * TODO
-                                                                                                 * determine
-                                                                                                 * protocol
-                                                                                                 * type
-                                                                                                 * from
-                                                                                                 * value
-                                                                                                 */).getValue()));
-    }
+        // IPv6 if the value does not fit into 32 bits
+        boolean ipv6 = value instanceof BigInteger ? ((BigInteger) value).bitLength() > 32 : value.longValue() >>> 32 != 0;
+        byte[] address = new UnsignedInteger(value, ipv6 ? IPV6_LENGTH : IPV4_LENGTH).getValue();
 
-    public InetAddress getInetAddress()
-    {
-        return inetAddress;
-    }
-
-    @Override
-    public boolean equals(Object otherConvertibleInetAddressObject)
-    {
-        if (!(otherConvertibleInetAddressObject instanceof ConvertibleInetAddress))
-        {
-            return false;
-        }
-
-        ConvertibleInetAddress otherConvertibleInetAddress = (ConvertibleInetAddress) otherConvertibleInetAddressObject;
-
-        return this.getInetAddress().equals(otherConvertibleInetAddress.getInetAddress());
-    }
-
-    @Override
-    public String toString()
-    {
-        return inetAddress.toString();
+        ConvertibleInetAddress convertibleInetAddress = new ConvertibleInetAddress();
+        convertibleInetAddress.set(address, 0, address.length);
+        return convertibleInetAddress;
     }
-}
\ No newline at end of file
+}
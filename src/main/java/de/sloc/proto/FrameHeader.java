@@ -20,10 +20,15 @@ public abstract class FrameHeader implements PDUSerializable, Constants
 	@PDUElement(order = 3, type = Type.RAW, length = 6)
 	protected byte[] sourceAddress;
 
-	@PDUElement(order = 4, type = Type.UNSIGNED_INTEGER, length = 2)
+	@PDUElement(order = 4, type = Type.UNSIGNED_INTEGER, length = 2, rawValue = "ethertypeValue")
 	@PDUSubtype
 	protected Ethertype ethertype;
 
+	/**
+	 * Decoded ethertype without a constant of its own, else null
+	 */
+	protected Integer ethertypeValue;
+
 	public FrameHeader(byte[] targetAddress, byte[] sourceAddress, Ethertype ethertype)
 	{
 		super();
@@ -51,4 +56,12 @@ public abstract class FrameHeader implements PDUSerializable, Constants
 		return ethertype;
 	}
 
+	/**
+	 * @return the ethertype as on the wire, also if it is UNKNOWN
+	 */
+	public int getEthertypeValue()
+	{
+		return ethertypeValue != null && ethertype == Ethertype.getByValue(ethertypeValue) ? ethertypeValue : ethertype.getValue();
+	}
+
 }
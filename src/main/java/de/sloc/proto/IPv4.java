@@ -17,17 +17,22 @@ public class IPv4 extends FrameHeader {
 	@PDUElement(order = 8, type = Type.UNSIGNED_INTEGER, length = 1)
 	protected int ttl;
 
-	@PDUElement(order = 9, type = Type.UNSIGNED_INTEGER, length = 1)
+	@PDUElement(order = 9, type = Type.UNSIGNED_INTEGER, length = 1, rawValue = "protocolValue")
 	@PDUSubtype
 	protected IPProtocol protocol;
 
+	/**
+	 * Decoded protocol without a constant of its own, else null
+	 */
+	protected Integer protocolValue;
+
 	@PDUElement(order = 10, type = Type.UNSIGNED_INTEGER, length = 2)
 	protected int checksum;
 
-	@PDUElement(order = 11, type = Type.UNSIGNED_INTEGER, length = 4)
+	@PDUElement(order = 11, type = Type.IP_ADDRESS, length = 4)
 	protected ConvertibleInetAddress sourceIPAddress;
 
-	@PDUElement(order = 12, type = Type.UNSIGNED_INTEGER, length = 4)
+	@PDUElement(order = 12, type = Type.IP_ADDRESS, length = 4)
 	protected ConvertibleInetAddress destinationIPAddress;
 
 	protected IPv4() {
@@ -41,6 +46,13 @@ public class IPv4 extends FrameHeader {
 		return protocol;
 	}
 
+	/**
+	 * @return the protocol as on the wire, also if it is UNKNOWN
+	 */
+	public int getProtocolValue() {
+		return protocolValue != null && protocol == IPProtocol.getByValue(protocolValue) ? protocolValue : protocol.getValue();
+	}
+
 	public int getChecksum() {
 		return checksum;
 	}
@@ -0,0 +1,92 @@
+package de.sloc.dataformat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import de.sloc.proto.FrameHeader;
+
+/**
+ * Decodes the same frame from 1 to N threads and prints the throughput per
+ * thread count, to show whether shared metadata caches limit scaling. Not a
+ * unit test, run it with
+ * 
+ * <pre>
+ * java -cp target/classes:target/test-classes de.sloc.dataformat.DecodeContentionBenchmark [maxThreads] [secondsPerRun]
+ * </pre>
+ */
+public class DecodeContentionBenchmark
+{
+	public static void main(String[] args) throws Exception
+	{
+		int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+		long millisPerRun = args.length > 1 ? Long.parseLong(args[1]) * 1000 : 2000;
+
+		for (PDUEngine engine : PDUEngine.values())
+		{
+			// warm up caches and JIT
+			run(engine, 1, millisPerRun);
+
+			double single = 0;
+			for (int threads = 1; threads <= maxThreads; threads *= 2)
+			{
+				double perSecond = run(engine, threads, millisPerRun);
+				if (threads == 1)
+				{
+					single = perSecond;
+				}
+				System.out.printf("%-10s threads=%-3d decodes/s=%,12.0f speedup=%.2f%n", engine, threads, perSecond, perSecond / single);
+			}
+		}
+	}
+
+	protected static double run(final PDUEngine engine, int threads, long millis) throws InterruptedException
+	{
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final LongAdder decodes = new LongAdder();
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Thread> workers = new ArrayList<>();
+
+		for (int i = 0; i < threads; i++)
+		{
+			Thread worker = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						start.await();
+						long count = 0;
+						while (running.get())
+						{
+							engine.decode(TestCodec.TCP_FRAME, FrameHeader.class, 0);
+							count++;
+						}
+						decodes.add(count);
+					}
+					catch (InterruptedException | PDUException e)
+					{
+						throw new IllegalStateException(e);
+					}
+				}
+			});
+			worker.start();
+			workers.add(worker);
+		}
+
+		long begin = System.nanoTime();
+		start.countDown();
+		Thread.sleep(millis);
+		running.set(false);
+
+		for (Thread worker : workers)
+		{
+			worker.join();
+		}
+
+		return decodes.sum() / ((System.nanoTime() - begin) / 1e9);
+	}
+}
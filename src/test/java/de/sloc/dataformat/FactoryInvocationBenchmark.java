@@ -0,0 +1,78 @@
+package de.sloc.dataformat;
+
+import java.lang.reflect.Method;
+
+import de.sloc.proto.Constants.Ethertype;
+import de.sloc.proto.ConvertibleInetAddress;
+
+/**
+ * Converts UnsignedIntegers to AsNumber types through the former reflective
+ * path, Method.invoke with a boxed argument, and through
+ * {@link UnsignedInteger#to(Class)}, and prints the time per conversion. Not a
+ * unit test, run it with
+ * 
+ * <pre>
+ * java -cp target/classes:target/test-classes de.sloc.dataformat.FactoryInvocationBenchmark [secondsPerRun]
+ * </pre>
+ */
+public class FactoryInvocationBenchmark
+{
+	protected interface Conversion
+	{
+		Object convert(UnsignedInteger value) throws Exception;
+	}
+
+	protected static int sink;
+
+	public static void main(String[] args) throws Exception
+	{
+		long millisPerRun = args.length > 0 ? Long.parseLong(args[0]) * 1000 : 2000;
+
+		UnsignedInteger ethertype = new UnsignedInteger(new byte[] { 0x08, 0x00 }, 2, null);
+		UnsignedInteger address = new UnsignedInteger(new byte[] { (byte) 192, (byte) 168, 1, 1 }, 4, null);
+
+		for (int round = 0; round < 2; round++)
+		{
+			// first round warms up the JIT
+			boolean print = round == 1;
+			run("Ethertype reflective", ethertype, reflective(Ethertype.class), millisPerRun, print);
+			run("Ethertype handle", ethertype, value -> value.to(Ethertype.class), millisPerRun, print);
+			run("ConvertibleInetAddress reflective", address, reflective(ConvertibleInetAddress.class), millisPerRun, print);
+			run("ConvertibleInetAddress handle", address, value -> value.to(ConvertibleInetAddress.class), millisPerRun, print);
+		}
+	}
+
+	/**
+	 * The conversion as UnsignedInteger.to did it before factories were
+	 * resolved into MethodHandles
+	 */
+	protected static Conversion reflective(Class<?> type)
+	{
+		final Method factory = UnsignedInteger.resolveAsNumberFactoryMethod(type.asSubclass(AsNumber.class));
+		final Class<?> parameterType = factory.getParameterTypes()[0];
+		return value -> factory.invoke(null, value.to(parameterType));
+	}
+
+	protected static void run(String name, UnsignedInteger value, Conversion conversion, long millis, boolean print) throws Exception
+	{
+		long conversions = 0;
+		long begin = System.nanoTime();
+		long end = begin + millis * 1_000_000;
+		long now;
+
+		do
+		{
+			for (int i = 0; i < 10_000; i++)
+			{
+				sink ^= System.identityHashCode(conversion.convert(value));
+			}
+			conversions += 10_000;
+		}
+		while ((now = System.nanoTime()) < end);
+
+		if (print)
+		{
+			System.out.printf("%-35s ns/conversion=%8.2f%n", name, (now - begin) / (double) conversions);
+		}
+	}
+}
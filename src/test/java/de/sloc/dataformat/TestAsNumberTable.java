@@ -0,0 +1,121 @@
+package de.sloc.dataformat;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import de.sloc.proto.Constants.Ethertype;
+import de.sloc.proto.FrameHeader;
+import de.sloc.proto.IPv4;
+
+public class TestAsNumberTable
+{
+	public static enum Sparse implements AsNumber
+	{
+		SMALL(1), LARGE(1L << 40), FIRST(7), SECOND(7);
+
+		protected final long value;
+
+		Sparse(long value)
+		{
+			this.value = value;
+		}
+
+		@Override
+		public Number getNumberValue()
+		{
+			return value;
+		}
+	}
+
+	/**
+	 * Old style fallback that takes the value of every unknown lookup
+	 */
+	public static enum Mutating implements AsNumber
+	{
+		ONE(1), UNKNOWN(0xFF);
+
+		protected int value;
+
+		Mutating(int value)
+		{
+			this.value = value;
+		}
+
+		@Override
+		public Number getNumberValue()
+		{
+			return value;
+		}
+
+		public static Mutating getByValue(int value)
+		{
+			if (value == 1)
+			{
+				return ONE;
+			}
+			UNKNOWN.value = value;
+			return UNKNOWN;
+		}
+	}
+
+	@Test
+	public void testOf() throws Exception
+	{
+		AsNumberTable<Sparse> table = AsNumberTable.of(Sparse.values());
+		assertEquals(3, table.size());
+		assertSame(Sparse.SMALL, table.get(1));
+		assertSame(Sparse.LARGE, table.get(1L << 40));
+		assertSame(Sparse.FIRST, table.get(7));
+		assertNull(table.get(2));
+		assertSame(Sparse.SMALL, table.get(2, Sparse.SMALL));
+	}
+
+	@Test
+	public void testUnknownIsNotUpdated() throws Exception
+	{
+		assertSame(Ethertype.IPV4, Ethertype.getByValue(0x0800));
+		assertSame(Ethertype.UNKNOWN, Ethertype.getByValue(0x1234));
+		assertEquals(0xFFFF, Ethertype.UNKNOWN.getValue());
+	}
+
+	@Test
+	public void testUnknownValueRoundTrip() throws Exception
+	{
+		byte[] frame = TestCodec.TCP_FRAME.clone();
+		frame[12] = (byte) 0x88;
+		frame[13] = (byte) 0xE5;
+
+		for (PDUEngine engine : PDUEngine.values())
+		{
+			FrameHeader header = engine.decode(frame, FrameHeader.class, 0);
+			assertSame(Ethertype.UNKNOWN, header.getEthertype());
+			assertEquals(0x88E5, header.getEthertypeValue());
+			assertArrayEquals(engine.toString(), frame, engine.encode(header));
+			assertArrayEquals(engine.toString(), frame, PDU.encode(header));
+		}
+
+		// unknown IP protocol
+		frame = TestCodec.TCP_FRAME.clone();
+		frame[23] = 0x11;
+		for (PDUEngine engine : PDUEngine.values())
+		{
+			IPv4 ipv4 = (IPv4) engine.decode(frame, FrameHeader.class, 0);
+			assertEquals(0x11, ipv4.getProtocolValue());
+			assertEquals(engine.toString(), 0x11, engine.encode(ipv4)[23]);
+		}
+	}
+
+	@Test
+	public void testResolvedLeavesOutFallback() throws Exception
+	{
+		AsNumberTable<?> table = AsNumberTable.resolved(Mutating.class);
+		assertSame(Mutating.ONE, table.get(1));
+		assertNull(table.get(0xFF));
+
+		assertEquals(0, AsNumberTable.resolved(String.class).size());
+	}
+}
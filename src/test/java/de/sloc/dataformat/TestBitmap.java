@@ -0,0 +1,106 @@
+package de.sloc.dataformat;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class TestBitmap
+{
+	public static enum Feature implements Bitmappable
+	{
+		COPPER(0x01), FIBER(0x02), AUTONEG(0x100), PAUSE(0x8000);
+
+		protected long value;
+
+		Feature(long value)
+		{
+			this.value = value;
+		}
+
+		public static Feature getByValue(long value)
+		{
+			for (Feature feature : values())
+			{
+				if (feature.value == value)
+				{
+					return feature;
+				}
+			}
+			return null;
+		}
+
+		@Override
+		public long getValue()
+		{
+			return value;
+		}
+	}
+
+	public static enum Port implements ValueToFlagBitmappable
+	{
+		PORT_1(1), PORT_2(2), PORT_9(9), PORT_15(15);
+
+		protected int value;
+
+		Port(int value)
+		{
+			this.value = value;
+		}
+
+		public static Port getByValue(int value)
+		{
+			for (Port port : values())
+			{
+				if (port.value == value)
+				{
+					return port;
+				}
+			}
+			return null;
+		}
+
+		@Override
+		public int getValue()
+		{
+			return value;
+		}
+	}
+
+	public static class Flags implements PDUSerializable
+	{
+		@PDUElement(order = 1, type = PDUElement.Type.BITMAP, length = 2, args = "de.sloc.dataformat.TestBitmap$Feature")
+		protected Set<Feature> features;
+
+		@PDUElement(order = 2, type = PDUElement.Type.VALUE_TO_FLAG_BITMAP, length = 2, args = { "de.sloc.dataformat.TestBitmap$Port", "2" })
+		protected Set<Port> ports;
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception
+	{
+		byte[] data = new byte[] { (byte) 0x81, 0x02, (byte) 0x82, 0x06 };
+
+		for (PDUEngine engine : PDUEngine.values())
+		{
+			Flags flags = engine.decode(data, Flags.class, 0);
+			assertTrue(flags.features instanceof EnumSet);
+			assertEquals(EnumSet.of(Feature.FIBER, Feature.AUTONEG, Feature.PAUSE), flags.features);
+			assertEquals(EnumSet.of(Port.PORT_1, Port.PORT_2, Port.PORT_9, Port.PORT_15), flags.ports);
+
+			assertArrayEquals(data, engine.encode(flags));
+		}
+	}
+
+	@Test
+	public void testUnknownBits() throws Exception
+	{
+		Flags flags = PDU.decode(new byte[] { 0x40, 0x01, 0x00, 0x00 }, Flags.class, 0);
+		assertEquals(EnumSet.of(Feature.COPPER), flags.features);
+		assertTrue(flags.ports.isEmpty());
+	}
+}
@@ -0,0 +1,112 @@
+package de.sloc.dataformat;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import de.sloc.proto.Arp;
+import de.sloc.proto.FrameHeader;
+import de.sloc.proto.IPv4TCP;
+
+public class TestByteBuffer
+{
+
+	@Test
+	public void testDecodeDirect() throws Exception
+	{
+		byte[] arp = PDU.encode(TestCodec.createArp());
+
+		ByteBuffer buffer = ByteBuffer.allocateDirect(2 * arp.length + 3);
+		buffer.put(arp).put(arp).put(new byte[] { 1, 2, 3 });
+		buffer.flip();
+
+		for (int i = 0; i < 2; i++)
+		{
+			FrameHeader frame = PDU.decode(buffer, FrameHeader.class);
+			assertTrue(frame instanceof Arp);
+			assertEquals((i + 1) * arp.length, buffer.position());
+		}
+		assertEquals(3, buffer.remaining());
+	}
+
+	@Test
+	public void testDecodeDirectBeyondPrefix() throws Exception
+	{
+		// longer than the prefix copied first
+		byte[] message = TestPDUInputStream.message(1, 600);
+
+		ByteBuffer buffer = ByteBuffer.allocateDirect(3 * message.length);
+		buffer.put(message).put(message).put(message);
+		buffer.flip();
+
+		assertEquals(message.length, PDU.peekLength(buffer, TestPDUInputStream.Message.class));
+		for (int i = 0; i < 3; i++)
+		{
+			TestPDUInputStream.Message decoded = PDU.decode(buffer, TestPDUInputStream.Message.class);
+			assertEquals(600, decoded.payload.length);
+			assertEquals((i + 1) * message.length, buffer.position());
+		}
+	}
+
+	@Test
+	public void testDecodeHeapSlice() throws Exception
+	{
+		byte[] data = new byte[TestCodec.TCP_FRAME.length + 10];
+		System.arraycopy(TestCodec.TCP_FRAME, 0, data, 4, TestCodec.TCP_FRAME.length);
+
+		ByteBuffer buffer = ByteBuffer.wrap(data, 2, data.length - 2).slice();
+		buffer.position(2);
+		buffer.limit(2 + TestCodec.TCP_FRAME.length);
+
+		IPv4TCP tcp = (IPv4TCP) PDU.decode(buffer, FrameHeader.class);
+		assertEquals(PDU.dump(PDU.decode(TestCodec.TCP_FRAME, FrameHeader.class, 0)), PDU.dump(tcp));
+	}
+
+	@Test
+	public void testEncodeInto() throws Exception
+	{
+		Arp arp = TestCodec.createArp();
+		byte[] expected = PDU.encode(arp);
+
+		for (ByteBuffer buffer : new ByteBuffer[] { ByteBuffer.allocate(100), ByteBuffer.allocateDirect(100) })
+		{
+			buffer.position(5);
+			assertEquals(expected.length, PDU.encodeInto(arp, buffer));
+			assertEquals(5 + expected.length, buffer.position());
+
+			byte[] written = new byte[expected.length];
+			buffer.position(5);
+			buffer.get(written);
+			assertArrayEquals(expected, written);
+
+			buffer.position(100 - expected.length + 1);
+			try
+			{
+				PDU.encodeInto(arp, buffer);
+				throw new AssertionError("encoded beyond limit");
+			}
+			catch (BufferOverflowException e)
+			{
+				assertEquals(100 - expected.length + 1, buffer.position());
+			}
+		}
+
+		// nothing written beyond the limit of a heap buffer
+		ByteBuffer limited = ByteBuffer.allocate(100);
+		limited.limit(expected.length - 1);
+		try
+		{
+			PDU.encodeInto(arp, limited);
+			throw new AssertionError("encoded beyond limit");
+		}
+		catch (BufferOverflowException e)
+		{
+			assertArrayEquals(new byte[100], limited.array());
+		}
+	}
+}
@@ -0,0 +1,44 @@
+package de.sloc.dataformat;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.math.BigInteger;
+
+import org.junit.Test;
+
+import de.sloc.proto.FrameHeader;
+import de.sloc.proto.IPv4;
+import de.sloc.proto.OFLinkDiscovery;
+
+public class TestClassLayout
+{
+
+	@Test
+	public void testLayout() throws Exception
+	{
+		ClassLayout<FrameHeader> frameHeader = ClassLayout.of(FrameHeader.class);
+		assertSame(frameHeader, ClassLayout.of(FrameHeader.class));
+		assertEquals(2, frameHeader.subtypeIndex);
+		assertEquals(12, frameHeader.elements[frameHeader.subtypeIndex].offset);
+
+		ClassLayout<IPv4> ipv4 = ClassLayout.of(IPv4.class);
+		assertEquals(34, ipv4.getFixedSize());
+		assertArrayEquals(new int[] { 16, 2, 0 }, PDU.getLengthMetadata(IPv4.class));
+
+		ClassLayout<OFLinkDiscovery> discovery = ClassLayout.of(OFLinkDiscovery.class);
+		assertEquals(50, discovery.getFixedSize());
+		assertArrayEquals(new int[] { 50 }, PDU.getLengthMetadata(OFLinkDiscovery.class));
+	}
+
+	@Test
+	public void testResolveLength() throws Exception
+	{
+		OFLinkDiscovery discovery = new OFLinkDiscovery(BigInteger.valueOf(0x1234567890L), 42);
+		assertEquals(PDU.encode(discovery).length, PDU.resolveLength(discovery));
+
+		IPv4 ipv4 = (IPv4) PDU.decode(TestCodec.TCP_FRAME, FrameHeader.class, 0);
+		assertEquals(189, PDU.resolveLength(ipv4));
+	}
+}
@@ -0,0 +1,143 @@
+package de.sloc.dataformat;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.util.Arrays;
+
+import javax.xml.bind.DatatypeConverter;
+
+import org.junit.Test;
+
+import de.sloc.proto.Arp;
+import de.sloc.proto.Constants.ArpAddressType;
+import de.sloc.proto.Constants.ArpOperation;
+import de.sloc.proto.Constants.Ethertype;
+import de.sloc.proto.FrameHeader;
+import de.sloc.proto.IPv4TCP;
+import de.sloc.proto.OFLinkDiscovery;
+
+public class TestCodec
+{
+	public static final byte[] TCP_FRAME = DatatypeConverter.parseHexBinary("24651141c9c3d0e782f0bb750800450000bdfae840004006f3c4c0a86523c0a865191f49ddada00403fe491ef95950180294f73b000017030200909ab804c5ae4c32eca24fdab9282cd08d57170c61ce6322daf4cf04d1b970a4826760738791e03b16221f6dff0878dfc54d7dbc8809db9013fe91f7b08c78bfb88529208d8b02ea07956be8035265befc0c0ca0a24aa8e9e72bf40ce364b99dcaf9a0755ccb2589518ca2a88334c6a89fc84718007a051a1615fd470257824401278ff67b568973fd6e58db92dd30a2b2");
+
+	protected static Arp createArp() throws Exception
+	{
+		byte[] mac = DatatypeConverter.parseHexBinary("D0E782F0BB75");
+		return new Arp(FrameHeader.BROADCAST_ADDRESS, mac, Ethertype.IPV4, ArpAddressType.ETHERNET, ArpOperation.REQUEST, mac,
+		               InetAddress.getByName("192.168.101.35"), new byte[6], InetAddress.getByName("192.168.101.25"));
+	}
+
+	@Test
+	public void testDecodeMatchesReflective() throws Exception
+	{
+		FrameHeader reflective = PDUEngine.REFLECTIVE.decode(TCP_FRAME, FrameHeader.class, 0);
+		FrameHeader compiled = PDUEngine.COMPILED.decode(TCP_FRAME, FrameHeader.class, 0);
+
+		assertTrue(compiled instanceof IPv4TCP);
+		assertTrue(CodecCompiler.compile(IPv4TCP.class) instanceof CompiledCodec);
+		assertEquals(PDU.dump(reflective), PDU.dump(compiled));
+	}
+
+	@Test
+	public void testTruncatedFails() throws Exception
+	{
+		byte[][] truncated = { Arrays.copyOf(TCP_FRAME, 36), Arrays.copyOf(PDU.encode(createArp()), 25) };
+
+		for (byte[] frame : truncated)
+		{
+			for (PDUEngine engine : PDUEngine.values())
+			{
+				try
+				{
+					engine.decode(frame, FrameHeader.class, 0);
+					fail(engine + " decoded " + frame.length + " bytes");
+				}
+				catch (PDUException e)
+				{
+					// expected
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testDefaultEngine()
+	{
+		assertEquals(PDUEngine.REFLECTIVE, PDUEngine.resolveDefault(null));
+		assertEquals(PDUEngine.COMPILED, PDUEngine.resolveDefault("compiled"));
+
+		try
+		{
+			PDUEngine.resolveDefault("jit");
+			fail("resolved jit");
+		}
+		catch (IllegalArgumentException e)
+		{
+			assertTrue(e.getMessage().contains("[reflective, compiled]"));
+		}
+	}
+
+	@Test
+	public void testEncodeMatchesReflective() throws Exception
+	{
+		Arp arp = createArp();
+		assertArrayEquals(PDUEngine.REFLECTIVE.encode(arp), PDUEngine.COMPILED.encode(arp));
+
+		OFLinkDiscovery discovery = new OFLinkDiscovery(BigInteger.valueOf(0x1234567890L), 42);
+		assertArrayEquals(PDUEngine.REFLECTIVE.encode(discovery), PDUEngine.COMPILED.encode(discovery));
+	}
+
+	@Test
+	public void testEncodeIntoArray() throws Exception
+	{
+		byte[] rawFrame = TCP_FRAME.clone();
+		rawFrame[12] = 0x12;
+		rawFrame[13] = 0x34;
+
+		PDUSerializable[] pdus = new PDUSerializable[] { createArp(), new OFLinkDiscovery(BigInteger.valueOf(0x1234567890L), 42),
+		        PDU.decode(rawFrame, FrameHeader.class, 0), PDU.decode(new byte[] { 2, 1, 2, 0x12, 0x34 }, TestZeroCopy.Chunk.class, 0) };
+
+		for (PDUSerializable pdu : pdus)
+		{
+			byte[] expected = PDUEngine.REFLECTIVE.encode(pdu);
+			assertEquals(expected.length, PDU.sizeOf(pdu));
+
+			// reused buffers contain garbage
+			byte[] out = new byte[expected.length + 10];
+			Arrays.fill(out, (byte) 0x5A);
+
+			assertEquals(expected.length, PDU.encode(pdu, out, 7));
+			assertArrayEquals(expected, Arrays.copyOfRange(out, 7, 7 + expected.length));
+			assertEquals(0x5A, out[6]);
+
+			try
+			{
+				PDU.encode(pdu, out, 11);
+				throw new AssertionError("encoded beyond the array");
+			}
+			catch (IndexOutOfBoundsException e)
+			{
+				assertEquals(0x5A, out[out.length - 1]);
+			}
+		}
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception
+	{
+		Arp arp = createArp();
+		byte[] encoded = PDUEngine.COMPILED.encode(arp);
+
+		FrameHeader decoded = PDUEngine.COMPILED.decode(encoded, FrameHeader.class, 0);
+
+		assertTrue(decoded instanceof Arp);
+		assertEquals(PDU.dump(arp).replace("addressLength=0", "addressLength=6").replace("protocolLength=0", "protocolLength=4"),
+		             PDU.dump(decoded));
+	}
+
+}
@@ -0,0 +1,53 @@
+package de.sloc.dataformat;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+
+import javax.xml.bind.DatatypeConverter;
+
+import org.junit.Test;
+
+public class TestIPAddress
+{
+	public static class Hosts implements PDUSerializable
+	{
+		@PDUElement(order = 1, type = PDUElement.Type.IP_ADDRESS, length = 4)
+		protected IPAddress ipv4;
+
+		@PDUElement(order = 2, type = PDUElement.Type.IP_ADDRESS, length = 16)
+		protected IPAddress ipv6;
+	}
+
+	protected static final byte[] HOSTS = DatatypeConverter.parseHexBinary("C0A86523" + "20010DB8000000000000000000000001");
+
+	@Test
+	public void testRoundTrip() throws Exception
+	{
+		for (PDUEngine engine : PDUEngine.values())
+		{
+			Hosts hosts = engine.decode(HOSTS, Hosts.class, 0);
+			assertEquals(0xC0A86523, hosts.ipv4.toInt());
+			assertTrue(hosts.ipv6.isIPv6());
+			assertEquals(0x20010DB800000000L, hosts.ipv6.getHigh());
+			assertEquals(1L, hosts.ipv6.getLow());
+
+			assertEquals(InetAddress.getByName("192.168.101.35"), hosts.ipv4.getInetAddress());
+			assertEquals(InetAddress.getByName("2001:db8::1"), hosts.ipv6.getInetAddress());
+			assertEquals(new IPAddress(InetAddress.getByName("2001:db8::1")), hosts.ipv6);
+
+			assertArrayEquals(HOSTS, engine.encode(hosts));
+		}
+	}
+
+	@Test(expected = PDUException.class)
+	public void testLengthMismatch() throws Exception
+	{
+		Hosts hosts = new Hosts();
+		hosts.ipv4 = new IPAddress(1L, 2L);
+		hosts.ipv6 = new IPAddress(1L, 2L);
+		PDU.encode(hosts);
+	}
+}
@@ -0,0 +1,42 @@
+package de.sloc.dataformat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import de.sloc.proto.Constants.Ethertype;
+import de.sloc.proto.FrameHeader;
+import de.sloc.proto.IPv4TCP;
+
+public class TestLazyPDU
+{
+
+	@Test
+	public void testOnDemand() throws Exception
+	{
+		LazyPDU<FrameHeader> frame = LazyPDU.decode(TestCodec.TCP_FRAME, FrameHeader.class, 0);
+		assertSame(IPv4TCP.class, frame.getPDUClass());
+		assertEquals(12, frame.getOffset("ethertype"));
+
+		assertFalse(frame.isDecoded("ethertype"));
+		assertFalse(frame.isDecoded("sourceIPAddress"));
+		assertTrue(frame.isDecoded("sequenceNumber"));
+
+		assertSame(Ethertype.IPV4, frame.get("ethertype"));
+		assertTrue(frame.isDecoded("ethertype"));
+		assertFalse(frame.isDecoded("sourceIPAddress"));
+
+		FrameHeader eager = PDU.decode(TestCodec.TCP_FRAME, FrameHeader.class, 0);
+		assertEquals(PDU.dump(eager), PDU.dump(frame.materialize()));
+		assertTrue(frame.isDecoded("sourceIPAddress"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownElement() throws Exception
+	{
+		LazyPDU.decode(TestCodec.TCP_FRAME, FrameHeader.class, 0).get("missing");
+	}
+}
@@ -0,0 +1,78 @@
+package de.sloc.dataformat;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import de.sloc.dataformat.TestPDUInputStream.Message;
+import de.sloc.dataformat.TestPDUInputStream.TrickleInputStream;
+
+public class TestPDUChannelReader
+{
+	@Test
+	public void testReadPDU() throws Exception
+	{
+		int[] payloadLengths = { 10, 300, 0, 5 };
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		for (int i = 0; i < payloadLengths.length; i++)
+		{
+			data.write(TestPDUInputStream.message(i, payloadLengths[i]));
+		}
+
+		for (boolean direct : new boolean[] { false, true })
+		{
+			PDUChannelReader<Message> reader = new PDUChannelReader<>(Message.class, Channels.newChannel(new TrickleInputStream(data.toByteArray())));
+			reader.setInitialBufferSize(16);
+			reader.setDirect(direct);
+
+			for (int i = 0; i < payloadLengths.length; i++)
+			{
+				Message message = reader.readPDU();
+				assertEquals(i, message.kind);
+				assertArrayEquals(TestPDUInputStream.message(i, payloadLengths[i]), PDU.encode(message));
+			}
+			assertNull(reader.readPDU());
+			assertTrue(reader.isEndOfStream());
+			assertEquals(303, reader.getBufferSize());
+		}
+	}
+
+	@Test
+	public void testNonBlocking() throws Exception
+	{
+		byte[] first = TestPDUInputStream.message(1, 20);
+		byte[] second = TestPDUInputStream.message(2, 40);
+
+		Pipe pipe = Pipe.open();
+		pipe.source().configureBlocking(false);
+		PDUChannelReader<Message> reader = new PDUChannelReader<>(Message.class, pipe.source());
+		List<Message> messages = new ArrayList<>();
+
+		assertEquals(0, reader.read(messages::add));
+
+		// the first PDU and a part of the second
+		ByteBuffer bytes = ByteBuffer.allocate(first.length + 10);
+		bytes.put(first).put(second, 0, 10).flip();
+		pipe.sink().write(bytes);
+		assertEquals(1, reader.read(messages::add));
+		assertEquals(1, messages.get(0).kind);
+
+		pipe.sink().write(ByteBuffer.wrap(second, 10, second.length - 10));
+		assertEquals(1, reader.read(messages::add));
+		assertEquals(2, messages.get(1).kind);
+
+		pipe.sink().close();
+		assertEquals(-1, reader.read(messages::add));
+		pipe.source().close();
+	}
+}
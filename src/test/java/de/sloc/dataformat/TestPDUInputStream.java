@@ -0,0 +1,159 @@
+package de.sloc.dataformat;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class TestPDUInputStream
+{
+	public static class Message implements PDUSerializable
+	{
+		@PDUElement(order = 1, type = PDUElement.Type.UNSIGNED_INTEGER, length = 1)
+		protected int kind;
+
+		@PDUElement(order = 2, type = PDUElement.Type.LENGTH, length = 2)
+		protected int length;
+
+		@PDUElement(order = 3, type = PDUElement.Type.RAW)
+		protected byte[] payload;
+
+		public int getKind()
+		{
+			return kind;
+		}
+	}
+
+	/**
+	 * Returns at most 7 bytes per read, so PDUs and length fields arrive in
+	 * pieces
+	 */
+	protected static class TrickleInputStream extends ByteArrayInputStream
+	{
+		public TrickleInputStream(byte[] data)
+		{
+			super(data);
+		}
+
+		@Override
+		public synchronized int read(byte[] b, int off, int len)
+		{
+			return super.read(b, off, Math.min(len, 7));
+		}
+	}
+
+	public static byte[] message(int kind, int payloadLength)
+	{
+		byte[] message = new byte[3 + payloadLength];
+		message[0] = (byte) kind;
+		UnsignedInteger.writeLong(message.length, message, 1, 2);
+		for (int i = 3; i < message.length; i++)
+		{
+			message[i] = (byte) i;
+		}
+		return message;
+	}
+
+	@Test
+	public void testBufferGrowsToLargestPDU() throws Exception
+	{
+		int[] payloadLengths = { 10, 300, 0, 5, 300 };
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		for (int i = 0; i < payloadLengths.length; i++)
+		{
+			data.write(message(i, payloadLengths[i]));
+		}
+
+		try (PDUInputStream<Message> in = new PDUInputStream<>(Message.class, new TrickleInputStream(data.toByteArray())))
+		{
+			in.setInitialBufferSize(16);
+
+			for (int i = 0; i < payloadLengths.length; i++)
+			{
+				Message message = in.readPDU();
+				assertEquals(i, message.kind);
+				assertArrayEquals(message(i, payloadLengths[i]), PDU.encode(message));
+			}
+			assertNull(in.readPDU());
+			assertEquals(303, in.getBufferSize());
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testMaxPDULength() throws Exception
+	{
+		InputStream data = new ByteArrayInputStream(message(1, 100));
+		try (PDUInputStream<Message> in = new PDUInputStream<>(Message.class, data))
+		{
+			in.setMaxPDULength(50);
+			in.readPDU();
+		}
+	}
+
+	@Test
+	public void testInlineThreshold() throws Exception
+	{
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		data.write(message(1, 10));
+		data.write(message(2, 300));
+
+		final AtomicInteger executed = new AtomicInteger();
+		Executor counting = command ->
+		{
+			executed.incrementAndGet();
+			DecodeExecutors.inline().execute(command);
+		};
+
+		try (PDUInputStream<Message> in = new PDUInputStream<>(Message.class, new ByteArrayInputStream(data.toByteArray())))
+		{
+			in.setExecutor(counting);
+			in.setInlineThreshold(100);
+
+			assertEquals(1, in.readPDU().kind);
+			assertEquals(2, in.readPDU().kind);
+			assertEquals(1, executed.get());
+		}
+	}
+
+	@Test
+	public void testBatchPolicy() throws Exception
+	{
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		for (int i = 0; i < 5; i++)
+		{
+			data.write(message(i, 20));
+		}
+
+		BatchPolicy[] policies = { BatchPolicy.UNBOUNDED, new BatchPolicy(2, 1000, 0, TimeUnit.MILLISECONDS), new BatchPolicy(10, 40, 0, TimeUnit.MILLISECONDS),
+				BatchPolicy.LOW_LATENCY };
+		int[] batches = { 1, 3, 3, 5 };
+
+		for (int p = 0; p < policies.length; p++)
+		{
+			try (PDUInputStream<Message> in = new PDUInputStream<>(Message.class, new ByteArrayInputStream(data.toByteArray())))
+			{
+				in.setBatchPolicy(policies[p]);
+
+				for (int i = 0; i < 5; i++)
+				{
+					assertEquals(i, in.readPDU().kind);
+				}
+				assertNull(in.readPDU());
+
+				BatchStats stats = in.getBatchStats();
+				assertEquals(policies[p].toString(), batches[p], stats.getBatches());
+				assertEquals(5, stats.getPDUs());
+				assertEquals(5 * 23, stats.getBytes());
+			}
+		}
+	}
+}
@@ -0,0 +1,147 @@
+package de.sloc.dataformat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+
+import org.junit.Test;
+
+import de.sloc.dataformat.TestPDUInputStream.Message;
+
+public class TestPDUPipeline
+{
+	/**
+	 * Fails with an Error when first instantiated
+	 */
+	public static class Broken implements PDUSerializable
+	{
+		protected static final int INITIALIZED = initialize();
+
+		@PDUElement(order = 1, type = PDUElement.Type.UNSIGNED_INTEGER, length = 1)
+		protected int kind;
+
+		@PDUElement(order = 2, type = PDUElement.Type.LENGTH, length = 2)
+		protected int length;
+
+		@PDUElement(order = 3, type = PDUElement.Type.RAW)
+		protected byte[] payload;
+
+		protected static int initialize()
+		{
+			throw new IllegalStateException("broken");
+		}
+	}
+
+	@Test
+	public void testWireOrder() throws Exception
+	{
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		for (int i = 0; i < 1000; i++)
+		{
+			data.write(TestPDUInputStream.message(i & 0xFF, i % 50));
+		}
+
+		PDUInputStream<Message> in = new PDUInputStream<>(Message.class, new ByteArrayInputStream(data.toByteArray()));
+		try (PDUPipeline<Message> pipeline = in.pipeline(4, 16, 512))
+		{
+			assertEquals(16, pipeline.getCapacity());
+
+			for (int i = 0; i < 1000; i++)
+			{
+				Message message = pipeline.take();
+				assertEquals(i & 0xFF, message.kind);
+				assertEquals(i % 50, message.payload.length);
+				assertTrue(pipeline.getInFlight() <= 16);
+				assertTrue(pipeline.getBytesInFlight() <= 512);
+			}
+			assertNull(pipeline.take());
+			assertEquals(0, pipeline.getBytesInFlight());
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testFramingError() throws Exception
+	{
+		PDUInputStream<Message> in = new PDUInputStream<>(Message.class, new ByteArrayInputStream(TestPDUInputStream.message(1, 100)));
+		in.setMaxPDULength(50);
+		try (PDUPipeline<Message> pipeline = in.pipeline(2, 4, 1024))
+		{
+			pipeline.take();
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void testDecodeError() throws Exception
+	{
+		PDUInputStream<Broken> in = new PDUInputStream<>(Broken.class, new ByteArrayInputStream(TestPDUInputStream.message(1, 10)));
+		try (PDUPipeline<Broken> pipeline = in.pipeline(2, 4, 1024))
+		{
+			pipeline.take();
+			fail("decoded a Broken");
+		}
+		catch (IOException e)
+		{
+			assertTrue(e.getCause() instanceof Error);
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void testFramingThrowable() throws Exception
+	{
+		InputStream broken = new InputStream()
+		{
+			@Override
+			public int read() throws IOException
+			{
+				throw new Error("broken stream");
+			}
+		};
+
+		try (PDUPipeline<Message> pipeline = new PDUInputStream<>(Message.class, broken).pipeline(2, 4, 1024))
+		{
+			pipeline.take();
+			fail("clean end of a broken stream");
+		}
+		catch (IOException e)
+		{
+			assertTrue(e.getCause() instanceof Error);
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void testIdleThenResume() throws Exception
+	{
+		PipedOutputStream out = new PipedOutputStream();
+		PDUInputStream<Message> in = new PDUInputStream<>(Message.class, new PipedInputStream(out, 1 << 16));
+		try (PDUPipeline<Message> pipeline = in.pipeline(2, 4, 1024))
+		{
+			for (int round = 0; round < 3; round++)
+			{
+				for (int i = 0; i < 20; i++)
+				{
+					out.write(TestPDUInputStream.message(round * 20 + i, i * 13 % 100));
+				}
+				for (int i = 0; i < 20; i++)
+				{
+					Message message = pipeline.take();
+					assertEquals(round * 20 + i, message.kind);
+					assertEquals(i * 13 % 100, message.payload.length);
+				}
+
+				// idle workers wait for the next frame
+				Thread.sleep(100);
+			}
+
+			out.close();
+			assertNull(pipeline.take());
+		}
+	}
+}
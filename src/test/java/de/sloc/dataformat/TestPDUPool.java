@@ -0,0 +1,108 @@
+package de.sloc.dataformat;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.math.BigInteger;
+import java.util.List;
+
+import org.junit.Test;
+
+import de.sloc.dataformat.TestStructureSequence.StatsList;
+import de.sloc.dataformat.TestZeroCopy.Chunk;
+import de.sloc.proto.Arp;
+import de.sloc.proto.FrameHeader;
+import de.sloc.proto.IPv4TCP;
+import de.sloc.proto.OFLinkDiscovery;
+
+public class TestPDUPool
+{
+
+	@Test
+	public void testDecodeInto() throws Exception
+	{
+		byte[] arp = PDU.encode(TestCodec.createArp());
+		Arp target = (Arp) PDU.decode(arp, FrameHeader.class, 0);
+		byte[] targetAddress = target.getTargetAddress();
+
+		byte[] other = arp.clone();
+		other[0] = 0x42;
+
+		assertSame(target, PDU.decodeInto(other, 0, target));
+		assertSame(targetAddress, target.getTargetAddress());
+		assertEquals(0x42, targetAddress[0]);
+		assertArrayEquals(other, PDU.encode(target));
+
+		try
+		{
+			PDU.decodeInto(TestCodec.TCP_FRAME, 0, target);
+			throw new AssertionError("decoded IPv4TCP into Arp");
+		}
+		catch (PDUException e)
+		{
+			// expected
+		}
+	}
+
+	@Test
+	public void testDecodeIntoList() throws Exception
+	{
+		StatsList stats = PDU.decodeInto(TestStructureSequence.STATS, 0, new StatsList());
+		List<Chunk> entries = stats.entries;
+		Chunk first = entries.get(0);
+
+		// fewer elements, the list and its first structure are reused
+		PDU.decodeInto(new byte[] { 0, 4, 1, 9, 0x12, 0x34 }, 0, stats);
+		assertSame(entries, stats.entries);
+		assertEquals(1, entries.size());
+		assertSame(first, entries.get(0));
+		assertEquals(0x1234, first.checksum);
+		assertEquals(9, first.payload.get(0));
+
+		PDU.decodeInto(TestStructureSequence.STATS, 0, stats);
+		assertEquals(2, entries.size());
+		assertSame(first, entries.get(0));
+		assertEquals(2, entries.get(1).checksum);
+	}
+
+	@Test
+	public void testPool() throws Exception
+	{
+		PDUPool<FrameHeader> pool = new PDUPool<>(FrameHeader.class, 2);
+		byte[] arp = PDU.encode(TestCodec.createArp());
+
+		FrameHeader first = pool.decode(arp, 0);
+		pool.release(first);
+		assertEquals(1, pool.size(Arp.class));
+
+		assertSame(first, pool.decode(arp, 0));
+		assertEquals(0, pool.size(Arp.class));
+
+		FrameHeader tcp = pool.decode(TestCodec.TCP_FRAME, 0);
+		assertSame(IPv4TCP.class, tcp.getClass());
+		assertNotSame(first, tcp);
+	}
+
+	@Test
+	public void testInputStream() throws Exception
+	{
+		byte[] discovery = PDU.encode(new OFLinkDiscovery(BigInteger.valueOf(0x1234567890L), 42));
+		byte[] data = new byte[2 * discovery.length];
+		System.arraycopy(discovery, 0, data, 0, discovery.length);
+		System.arraycopy(discovery, 0, data, discovery.length, discovery.length);
+
+		PDUPool<OFLinkDiscovery> pool = new PDUPool<>(OFLinkDiscovery.class);
+		try (PDUInputStream<OFLinkDiscovery> in = new PDUInputStream<>(OFLinkDiscovery.class, new ByteArrayInputStream(data)))
+		{
+			in.setPool(pool);
+
+			OFLinkDiscovery first = in.readPDU();
+			assertArrayEquals(discovery, PDU.encode(first));
+			in.release(first);
+			assertEquals(1, pool.size(OFLinkDiscovery.class));
+		}
+	}
+}
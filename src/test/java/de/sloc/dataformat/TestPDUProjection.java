@@ -0,0 +1,39 @@
+package de.sloc.dataformat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import de.sloc.proto.FrameHeader;
+import de.sloc.proto.IPv4TCP;
+
+public class TestPDUProjection
+{
+
+	@Test
+	public void testProjection() throws Exception
+	{
+		PDUProjection<FrameHeader> projection = PDU.project(FrameHeader.class, "ethertype", "sourceIPAddress", "sourcePort");
+		assertSame(projection, PDUProjection.of(FrameHeader.class, "ethertype", "sourceIPAddress", "sourcePort"));
+
+		IPv4TCP eager = (IPv4TCP) PDU.decode(TestCodec.TCP_FRAME, FrameHeader.class, 0);
+		IPv4TCP projected = (IPv4TCP) projection.decode(TestCodec.TCP_FRAME, 0);
+
+		assertSame(eager.getEthertype(), projected.getEthertype());
+		assertEquals(eager.getSourceIPAddress().toString(), projected.getSourceIPAddress().toString());
+		assertEquals(eager.getSourcePort(), projected.getSourcePort());
+
+		assertNull(projected.getSourceAddress());
+		assertNull(projected.getDestinationIPAddress());
+		assertEquals(0, projected.getDestinationPort());
+		assertEquals(0, projected.getSequenceNumber());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownElement() throws Exception
+	{
+		PDUProjection.of(TestZeroCopy.Chunk.class, "payload", "missing");
+	}
+}
@@ -0,0 +1,43 @@
+package de.sloc.dataformat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import de.sloc.proto.Arp;
+import de.sloc.proto.FrameHeader;
+import de.sloc.proto.IPv4TCP;
+
+public class TestPeek
+{
+
+	@Test
+	public void testPeek() throws Exception
+	{
+		byte[] arp = PDU.encode(TestCodec.createArp());
+		ByteBuffer buffer = ByteBuffer.allocate(arp.length + TestCodec.TCP_FRAME.length);
+		buffer.put(arp).put(TestCodec.TCP_FRAME).flip();
+
+		assertSame(Arp.class, PDU.peekType(buffer, FrameHeader.class));
+		assertEquals(arp.length, PDU.peekLength(buffer, FrameHeader.class));
+		assertEquals(0, buffer.position());
+
+		PDU.decode(buffer, FrameHeader.class);
+		assertEquals(arp.length, buffer.position());
+
+		assertSame(IPv4TCP.class, PDU.peekType(TestCodec.TCP_FRAME, FrameHeader.class, 0));
+		int length = PDU.peekLength(buffer, FrameHeader.class);
+		PDU.decode(buffer, FrameHeader.class);
+		assertEquals(arp.length + length, buffer.position());
+	}
+
+	@Test
+	public void testPeekStructure() throws Exception
+	{
+		byte[] data = new byte[] { 3, 1, 2, 3, 0x12, 0x34, 9 };
+		assertEquals(6, PDU.peekLength(data, TestZeroCopy.Chunk.class, 0));
+	}
+}
@@ -0,0 +1,64 @@
+package de.sloc.dataformat;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+import de.sloc.dataformat.TestZeroCopy.Chunk;
+
+public class TestStructureSequence
+{
+	public static class Stats implements PDUSerializable
+	{
+		@PDUElement(order = 1, type = PDUElement.Type.LENGTH, length = 2, references = "entries")
+		protected int entriesLength;
+
+		@PDUElement(order = 2, type = PDUElement.Type.STRUCTURE_COLLECTION, args = "de.sloc.dataformat.TestZeroCopy$Chunk")
+		protected Iterable<Chunk> entries;
+	}
+
+	public static class StatsList implements PDUSerializable
+	{
+		@PDUElement(order = 1, type = PDUElement.Type.LENGTH, length = 2, references = "entries")
+		protected int entriesLength;
+
+		@PDUElement(order = 2, type = PDUElement.Type.STRUCTURE_COLLECTION, args = "de.sloc.dataformat.TestZeroCopy$Chunk")
+		protected List<Chunk> entries;
+	}
+
+	protected static final byte[] STATS = new byte[] { 0, 10, 1, 7, 0, 1, 3, 1, 2, 3, 0, 2, 9 };
+
+	@Test
+	public void testLazy() throws Exception
+	{
+		for (PDUEngine engine : PDUEngine.values())
+		{
+			Stats stats = engine.decode(STATS, Stats.class, 0);
+			assertTrue(stats.entries instanceof StructureSequence);
+
+			Iterator<Chunk> entries = stats.entries.iterator();
+			assertEquals(1, entries.next().checksum);
+			assertEquals(2, entries.next().checksum);
+			assertTrue(!entries.hasNext());
+
+			assertEquals(4, ((StructureSequence<Chunk>) stats.entries).stream().mapToInt(chunk -> chunk.payload.remaining()).sum());
+			assertArrayEquals(new byte[] { 0, 10, 1, 7, 0, 1, 3, 1, 2, 3, 0, 2 }, engine.encode(stats));
+		}
+	}
+
+	@Test
+	public void testEager() throws Exception
+	{
+		for (PDUEngine engine : PDUEngine.values())
+		{
+			StatsList stats = engine.decode(STATS, StatsList.class, 0);
+			assertEquals(2, stats.entries.size());
+			assertEquals(2, stats.entries.get(1).checksum);
+		}
+	}
+}
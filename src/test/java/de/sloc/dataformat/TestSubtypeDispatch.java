@@ -0,0 +1,42 @@
+package de.sloc.dataformat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import de.sloc.proto.Arp;
+import de.sloc.proto.FrameHeader;
+import de.sloc.proto.IPv4;
+import de.sloc.proto.IPv4TCP;
+import de.sloc.proto.IPv4Unknown;
+import de.sloc.proto.RawFrame;
+
+public class TestSubtypeDispatch
+{
+
+	@Test
+	public void testTable() throws Exception
+	{
+		SubtypeDispatch.ImplementorTable table = SubtypeDispatch.of(FrameHeader.class).table;
+		assertEquals(IPv4.class, table.get(0x0800));
+		assertEquals(Arp.class, table.get(0x0806));
+		assertNull(table.get(0x4321));
+	}
+
+	@Test
+	public void testResolve() throws Exception
+	{
+		byte[] frame = TestCodec.TCP_FRAME.clone();
+		assertEquals(IPv4TCP.class, PDU.resolveInstantiableClass(FrameHeader.class, frame, 0));
+
+		// unknown IP protocol falls back to the enum's factory
+		frame[23] = 0x11;
+		assertEquals(IPv4Unknown.class, PDU.resolveInstantiableClass(FrameHeader.class, frame, 0));
+
+		// unknown ethertype
+		frame[12] = 0x12;
+		frame[13] = 0x34;
+		assertEquals(RawFrame.class, PDU.resolveInstantiableClass(FrameHeader.class, frame, 0));
+	}
+}
@@ -0,0 +1,65 @@
+package de.sloc.dataformat;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import javax.xml.bind.DatatypeConverter;
+
+import org.junit.Test;
+
+public class TestUnsignedInteger
+{
+	public static class Wide implements PDUSerializable
+	{
+		@PDUElement(order = 1, type = PDUElement.Type.UNSIGNED_INTEGER, length = 4)
+		protected int sequence;
+
+		@PDUElement(order = 2, type = PDUElement.Type.UNSIGNED_INTEGER, length = 8)
+		protected long cookie;
+
+		@PDUElement(order = 3, type = PDUElement.Type.UNSIGNED_INTEGER, length = 2)
+		protected short port;
+	}
+
+	protected static final byte[] WIDE = DatatypeConverter.parseHexBinary("FFFFFFFE8000000000000001F00D");
+
+	@Test
+	public void testFullWidth() throws Exception
+	{
+		assertEquals(0xFFFFFE, new UnsignedInteger(DatatypeConverter.parseHexBinary("FFFFFE"), 3).toInt());
+		assertEquals(0xFFFFFFFFFFFFFFL, new UnsignedInteger(DatatypeConverter.parseHexBinary("FFFFFFFFFFFFFF"), 7).toLong());
+		assertEquals((short) 0xFE, new UnsignedInteger(DatatypeConverter.parseHexBinary("FE"), 1).toShort());
+
+		assertArrayEquals(DatatypeConverter.parseHexBinary("FFFFFFFE"), new UnsignedInteger(0xFFFFFFFE, 4).getValue());
+		assertArrayEquals(DatatypeConverter.parseHexBinary("00000000FFFFFFFE"), new UnsignedInteger(0xFFFFFFFE, 8).getValue());
+		assertArrayEquals(DatatypeConverter.parseHexBinary("FFFFFFFFFFFFFFFF"), new UnsignedInteger(-1L, 8).getValue());
+		assertArrayEquals(DatatypeConverter.parseHexBinary("F00D"), new UnsignedInteger((short) 0xF00D, 2).getValue());
+	}
+
+	@Test(expected = IllegalAccessError.class)
+	public void testIntNeverNegative() throws Exception
+	{
+		// 0xFFFFFFFE does not fit into an int
+		new UnsignedInteger(DatatypeConverter.parseHexBinary("FFFFFFFE"), 4).to(Integer.class);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeLongNeedsEightBytes()
+	{
+		new UnsignedInteger(-1L, 7);
+	}
+
+	@Test
+	public void testPrimitiveFields() throws Exception
+	{
+		for (PDUEngine engine : PDUEngine.values())
+		{
+			Wide wide = engine.decode(WIDE, Wide.class, 0);
+			assertEquals(0xFFFFFFFE, wide.sequence);
+			assertEquals(0x8000000000000001L, wide.cookie);
+			assertEquals((short) 0xF00D, wide.port);
+
+			assertArrayEquals(WIDE, engine.encode(wide));
+		}
+	}
+}
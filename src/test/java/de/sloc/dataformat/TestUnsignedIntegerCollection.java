@@ -0,0 +1,53 @@
+package de.sloc.dataformat;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import javax.xml.bind.DatatypeConverter;
+
+import org.junit.Test;
+
+public class TestUnsignedIntegerCollection
+{
+	public static class Counters implements PDUSerializable
+	{
+		@PDUElement(order = 1, type = PDUElement.Type.LENGTH, length = 1, references = "ports")
+		protected int portsLength;
+
+		@PDUElement(order = 2, type = PDUElement.Type.UNSIGNED_INTEGER_COLLECTION, args = { "java.lang.Integer", "2" })
+		protected short[] ports;
+
+		@PDUElement(order = 3, type = PDUElement.Type.LENGTH, length = 1, references = "counters")
+		protected int countersLength;
+
+		@PDUElement(order = 4, type = PDUElement.Type.UNSIGNED_INTEGER_COLLECTION, args = { "java.lang.Long", "8" })
+		protected long[] counters;
+
+		@PDUElement(order = 5, type = PDUElement.Type.UNSIGNED_INTEGER_COLLECTION, args = { "java.lang.Integer", "3" })
+		protected int[] rest;
+	}
+
+	protected static final byte[] COUNTERS = DatatypeConverter.parseHexBinary("04" + "0050FFFF" + "10" + "8000000000000001" + "0000000000000002"
+			+ "FFFFFF000001");
+
+	@Test
+	public void testArrays() throws Exception
+	{
+		for (PDUEngine engine : PDUEngine.values())
+		{
+			Counters counters = engine.decode(COUNTERS, Counters.class, 0);
+			assertArrayEquals(new short[] { 80, (short) 0xFFFF }, counters.ports);
+			assertArrayEquals(new long[] { 0x8000000000000001L, 2 }, counters.counters);
+			assertArrayEquals(new int[] { 0xFFFFFF, 1 }, counters.rest);
+			assertTrue(PDU.dump(counters).contains("rest=[16777215, 1]"));
+
+			assertArrayEquals(COUNTERS, engine.encode(counters));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testElementTooWide() throws Exception
+	{
+		new UnsignedIntegerCollection(new int[] { 1 }, -1, new String[] { "java.lang.Long", "8" });
+	}
+}
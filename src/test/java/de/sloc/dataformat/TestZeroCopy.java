@@ -0,0 +1,84 @@
+package de.sloc.dataformat;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import de.sloc.proto.FrameHeader;
+import de.sloc.proto.RawFrame;
+
+public class TestZeroCopy
+{
+	public static class Chunk implements PDUSerializable
+	{
+		@PDUElement(order = 1, type = PDUElement.Type.LENGTH, length = 1, references = "payload")
+		protected int payloadLength;
+
+		@PDUElement(order = 2, type = PDUElement.Type.RAW)
+		protected ByteBuffer payload;
+
+		@PDUElement(order = 3, type = PDUElement.Type.UNSIGNED_INTEGER, length = 2)
+		protected int checksum;
+	}
+
+	@Test
+	public void testRawSlice() throws Exception
+	{
+		byte[] data = new byte[] { 9, 9, 3, 1, 2, 3, 0x12, 0x34, 9 };
+
+		for (PDUEngine engine : PDUEngine.values())
+		{
+			Chunk chunk = engine.decode(data, Chunk.class, 2);
+			assertEquals(3, chunk.payload.remaining());
+			assertTrue(chunk.payload.isReadOnly());
+			assertEquals(0x1234, chunk.checksum);
+
+			// the slice shares the decoded data
+			data[3] = 7;
+			assertEquals(7, chunk.payload.get(0));
+			data[3] = 1;
+
+			// dumped without moving the position
+			assertTrue(PDU.dump(chunk).contains("payload=010203"));
+			assertEquals(3, chunk.payload.remaining());
+
+			assertArrayEquals(Arrays.copyOfRange(data, 2, 8), engine.encode(chunk));
+		}
+	}
+
+	@Test
+	public void testDecodeWithEnd() throws Exception
+	{
+		byte[] data = new byte[] { 3, 1, 2, 3, 0x12, 0x34 };
+		Chunk chunk = PDU.decode(data, Chunk.class, 0, data.length);
+		assertEquals(0x1234, chunk.checksum);
+
+		try
+		{
+			PDU.decode(data, Chunk.class, 0, data.length - 1);
+			throw new AssertionError("decoded beyond end");
+		}
+		catch (PDUException e)
+		{
+			// expected
+		}
+	}
+
+	@Test
+	public void testByteArrayIsCopy() throws Exception
+	{
+		byte[] frame = TestCodec.TCP_FRAME.clone();
+		frame[12] = 0x12;
+		frame[13] = 0x34;
+		byte[] expected = frame.clone();
+
+		RawFrame rawFrame = (RawFrame) PDU.decode(frame, FrameHeader.class, 0);
+		Arrays.fill(frame, (byte) 0);
+		assertArrayEquals(expected, PDU.encode(rawFrame));
+	}
+}
@@ -0,0 +1,151 @@
+package de.sloc.dataformat.net;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import de.sloc.dataformat.DecodeExecutors;
+import de.sloc.dataformat.PDU;
+import de.sloc.dataformat.TestCodec;
+import de.sloc.dataformat.TestPDUInputStream;
+import de.sloc.dataformat.TestPDUInputStream.Message;
+import de.sloc.proto.FrameHeader;
+import de.sloc.proto.IPv4TCP;
+
+public class TestPDUServer
+{
+	@Test
+	public void testHandlersBySubclass() throws Exception
+	{
+		List<String> handled = new ArrayList<>();
+		PDUHandlers handlers = new PDUHandlers()
+				.register(FrameHeader.class, (connection, frame) -> handled.add("frame"))
+				.register(IPv4TCP.class, (connection, tcp) -> handled.add("tcp " + tcp.getClass().getSimpleName()));
+
+		byte[] tcp = TestCodec.TCP_FRAME.clone();
+		handlers.dispatch(null, PDU.decode(tcp, FrameHeader.class, 0));
+
+		// unknown IP protocol, an IPv4 but not an IPv4TCP
+		tcp[23] = 0x11;
+		handlers.dispatch(null, PDU.decode(tcp, FrameHeader.class, 0));
+		handlers.dispatch(null, "not a PDU");
+
+		assertEquals(2, handled.size());
+		assertEquals("tcp IPv4TCP", handled.get(0));
+		assertEquals("frame", handled.get(1));
+	}
+
+	@Test
+	public void testEchoInOrder() throws Exception
+	{
+		BlockingQueue<Message> received = new LinkedBlockingQueue<>();
+		PDUHandlers echo = new PDUHandlers().register(Message.class, (connection, message) -> connection.send(message));
+		PDUHandlers collect = new PDUHandlers().register(Message.class, (connection, message) -> received.add(message));
+
+		try (PDUServer<Message> server = new PDUServer<>(Message.class, echo); PDUClient<Message> client = new PDUClient<>(Message.class, collect))
+		{
+			InetSocketAddress address = server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			PDUConnection<Message> connection = client.connect(address);
+
+			for (int i = 0; i < 200; i++)
+			{
+				connection.send(TestPDUInputStream.message(i, i * 7 % 300));
+			}
+
+			for (int i = 0; i < 200; i++)
+			{
+				Message message = received.poll(10, TimeUnit.SECONDS);
+				assertArrayEquals(TestPDUInputStream.message(i, i * 7 % 300), PDU.encode(message));
+			}
+			assertEquals(200, connection.getReceived());
+		}
+	}
+
+	@Test
+	public void testFailedConnectionKeepsServing() throws Exception
+	{
+		BlockingQueue<Message> received = new LinkedBlockingQueue<>();
+		PDUHandlers handlers = new PDUHandlers().register(Message.class, (connection, message) ->
+		{
+			// kind 1 floods the connection beyond what the socket takes
+			for (int i = 0; i < (message.getKind() == 1 ? 4000 : 1); i++)
+			{
+				connection.send(TestPDUInputStream.message(message.getKind(), 1000));
+			}
+		});
+		PDUHandlers collect = new PDUHandlers().register(Message.class, (connection, message) -> received.add(message));
+
+		try (PDUServer<Message> server = new PDUServer<>(Message.class, handlers); PDUClient<Message> client = new PDUClient<>(Message.class, collect))
+		{
+			InetSocketAddress address = server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+			// reset by the peer while the server waits to write more
+			try (Socket socket = new Socket(address.getAddress(), address.getPort()))
+			{
+				socket.getOutputStream().write(TestPDUInputStream.message(1, 0));
+				Thread.sleep(200);
+				socket.setSoLinger(true, 0);
+			}
+			Thread.sleep(200);
+
+			PDUConnection<Message> connection = client.connect(address);
+			connection.send(TestPDUInputStream.message(2, 0));
+			Message message = received.poll(10, TimeUnit.SECONDS);
+			assertEquals(2, message.getKind());
+		}
+	}
+
+	@Test
+	public void testRejectedHandlingKeepsServing() throws Exception
+	{
+		BlockingQueue<Message> received = new LinkedBlockingQueue<>();
+		PDUHandlers echo = new PDUHandlers().register(Message.class, (connection, message) -> connection.send(message));
+		PDUHandlers collect = new PDUHandlers().register(Message.class, (connection, message) -> received.add(message));
+
+		try (PDUServer<Message> server = new PDUServer<>(Message.class, echo); PDUClient<Message> client = new PDUClient<>(Message.class, collect))
+		{
+			// rejects the handling of the first connection only
+			BlockingQueue<Boolean> rejections = new LinkedBlockingQueue<>();
+			rejections.add(true);
+			server.setExecutor(task ->
+			{
+				if (rejections.poll() != null)
+				{
+					throw new RejectedExecutionException("saturated");
+				}
+				DecodeExecutors.shared().execute(task);
+			});
+			InetSocketAddress address = server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+			PDUConnection<Message> rejected = client.connect(address);
+			rejected.send(TestPDUInputStream.message(1, 0));
+			assertNull(received.poll(500, TimeUnit.MILLISECONDS));
+
+			PDUConnection<Message> connection = client.connect(address);
+			connection.send(TestPDUInputStream.message(2, 0));
+			Message message = received.poll(10, TimeUnit.SECONDS);
+			assertEquals(2, message.getKind());
+		}
+	}
+
+	@Test
+	public void testLoadGenerator() throws Exception
+	{
+		LoadGenerator.Result result = LoadGenerator.run(2, 4, 16, 200);
+		assertTrue(result.getFrames() > 0);
+		assertTrue(result.getP99Nanos() >= result.getP50Nanos());
+	}
+}